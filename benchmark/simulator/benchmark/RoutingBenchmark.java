@@ -0,0 +1,124 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simulator.topology.GraphPath;
+import simulator.topology.NetworkLink;
+import simulator.topology.NetworkNode;
+import simulator.topology.NetworkTopology;
+import simulator.topology.ShortestPaths;
+import simulator.topology.generators.BarabasiAlbertGenerator;
+import simulator.topology.generators.FatTreeGenerator;
+import simulator.topology.generators.ValueDistribution;
+
+/**
+ * Compares the time needed to compute the shortest paths of all the nodes
+ * with the old {@linkplain GraphPath} and the new {@linkplain ShortestPaths},
+ * on fat-tree and scale-free topologies of increasing size.</br>
+ * Run it with the {@code benchmark} profile:
+ * <p>
+ * {@code mvn -P benchmark package && java -jar target/benchmarks.jar RoutingBenchmark}
+*/
+@SuppressWarnings("deprecation")
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class RoutingBenchmark
+{
+    /** Generated topology, as "fat-tree:k" or "ba:nodes". */
+    @Param( { "fat-tree:8", "fat-tree:12", "fat-tree:16", "ba:500", "ba:1000", "ba:2000" } )
+    public String topology;
+    
+    private NetworkTopology net;
+    private Map<Long,NetworkNode> nodeMap;
+    private Map<Long,List<NetworkLink>> linkMap;
+    
+    private ShortestPaths paths;
+    private ForkJoinPool single;
+    
+    
+    
+    @Setup( Level.Trial )
+    public void setup()
+    {
+        String[] values = topology.split( ":" );
+        int size = Integer.parseInt( values[1] );
+        if (values[0].equals( "fat-tree" )) {
+            net = new FatTreeGenerator( size ).generate();
+        } else {
+            net = new BarabasiAlbertGenerator( size, 2 ).setDelay( ValueDistribution.uniform( 1, 11 ) )
+                                                        .setSeed( 42 )
+                                                        .generate();
+        }
+        
+        nodeMap = new HashMap<>();
+        for (NetworkNode node : net.getNodes()) {
+            nodeMap.put( node.getId(), node );
+        }
+        linkMap = new HashMap<>();
+        for (NetworkLink link : net.getLinks()) {
+            linkMap.computeIfAbsent( link.getSourceId(), id -> new ArrayList<>() ).add( link );
+        }
+        
+        paths = new ShortestPaths( net.getGraph() );
+        single = new ForkJoinPool( 1 );
+    }
+    
+    @TearDown( Level.Trial )
+    public void tearDown() {
+        single.shutdown();
+    }
+    
+    /**
+     * All-sources shortest paths with the old implementation.
+    */
+    @Benchmark
+    public GraphPath graphPath()
+    {
+        GraphPath graph = new GraphPath();
+        graph.computeAllSourcesShortestPath( net, nodeMap, linkMap );
+        return graph;
+    }
+    
+    /**
+     * All-destinations next hops with the new implementation, on a single thread.
+    */
+    @Benchmark
+    public int[][] shortestPaths() {
+        return paths.computeAllNextHops( single );
+    }
+    
+    /**
+     * All-destinations next hops with the new implementation, on the common pool.
+    */
+    @Benchmark
+    public int[][] shortestPathsParallel() {
+        return paths.computeAllNextHops();
+    }
+}
@@ -5,13 +5,18 @@
 package simulator.core;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
+import simulator.core.checkpoint.Checkpointable;
 import simulator.core.devices.Device;
 import simulator.core.devices.Memory;
 import simulator.events.Event;
@@ -25,11 +30,10 @@ import simulator.events.impl.ResponseEvent;
 import simulator.network.NetworkAgent;
 import simulator.network.NetworkLayer;
 import simulator.topology.NetworkNode;
-import simulator.utils.Pair;
 import simulator.utils.Sampler;
 import simulator.utils.Time;
 
-public abstract class Agent extends NetworkAgent
+public abstract class Agent extends NetworkAgent implements StateSaving, Checkpointable
 {
     protected long _id;
     
@@ -42,6 +46,9 @@ public abstract class Agent extends NetworkAgent
     // Samplings list.
     private Map<String,Sampler> samplings;
     
+    // Number of events generated by the agent.
+    private long _generatedEvents = 0;
+    
     
     
     
@@ -70,6 +77,23 @@ public abstract class Agent extends NetworkAgent
         return _id;
     }
     
+    /**
+     * Returns the context of the simulation which this agent belongs to,
+     * or {@code null} if the agent has not been added to a network yet.
+    */
+    public SimulationContext getContext() {
+        return (_net == null) ? null : _net.getContext();
+    }
+    
+    /**
+     * Returns the sequence number of the next event generated by this agent.</br>
+     * It's used to order the simultaneous events in the same way,
+     * regardless of how the network is executed (sequentially or in parallel).
+    */
+    public long nextEventSequence() {
+        return ++_generatedEvents;
+    }
+    
     public void addEventGenerator( EventGenerator evGenerator )
     {
         _evtGenerators.add( evGenerator );
@@ -155,8 +179,8 @@ public abstract class Agent extends NetworkAgent
     */
     public void sendMessage( Time time, Agent destination, Packet message, boolean request )
     {
-        Event e = (request) ? new RequestEvent( time, this, destination, message ) : 
-                              new ResponseEvent( time, this, destination, message );
+        Event e = (request) ? _evtScheduler.createRequestEvent( time, this, destination, message ) :
+                              _evtScheduler.createResponseEvent( time, this, destination, message );
         _evtScheduler.schedule( e );
         if (_evtHandler != null) {
             _evtHandler.handle( e, EventType.GENERATED );
@@ -187,6 +211,13 @@ public abstract class Agent extends NetworkAgent
     public Sampler getSampler( String sampler ) {
         return samplings.get( sampler );
     }
+    
+    /**
+     * Returns the samplers of this agent, indexed by their identifiers.
+    */
+    public Map<String,Sampler> getSamplers() {
+        return Collections.unmodifiableMap( samplings );
+    }
 
     public void setEventScheduler( EventScheduler evtScheduler )
     {
@@ -250,7 +281,6 @@ public abstract class Agent extends NetworkAgent
     
     /**
      * Checks if the current event can be executed.</br>
-     * In presence of any device an override of this method is suggested.</br>
      * NOTE: this method sets also the time of the event, in case the given one can't be executed.
      * 
      * @param eventTime    time of the event
@@ -260,15 +290,28 @@ public abstract class Agent extends NetworkAgent
     */
     public boolean canExecute( Time eventTime )
     {
-        Time time = getTime();
-        boolean execute = eventTime.compareTo( time ) >= 0;
+        boolean execute = canExecute( eventTime.getTimeMicros() );
         if (!execute) {
             // Set the time of the agent.
-            eventTime.setTime( time );
+            eventTime.setTime( getTimeMicros(), TimeUnit.MICROSECONDS );
         }
         return execute;
     }
     
+    /**
+     * Checks if an event with the given time can be executed.</br>
+     * In presence of any device an override of this method is suggested,
+     * since it's the one used by the events.
+     * 
+     * @param eventTime    time of the event, expressed in microseconds
+     * 
+     * @return {@code true} if the event can be executed immediately,
+     *         {@code false} otherwise
+    */
+    public boolean canExecute( long eventTime ) {
+        return eventTime >= getTimeMicros();
+    }
+    
     public void addEventHandler( EventHandler evtHandler ) {
         _evtHandler = evtHandler;
     }
@@ -301,13 +344,13 @@ public abstract class Agent extends NetworkAgent
     public final List<Event> fireEvent(/* Time t, Event e */)
     {
         // Gets the events generated by the network protocols (if any).
-        List<Event> events = new ArrayList<>();
+        List<Event> events = null;
         /*for (NetworkProtocol protocol : _node.getNetworkSettings().getRoutingProtocols()) {
             // TODO protocol.processPacket( e.getPacket() );
             events.add( protocol.getEvent() );
         }*/
         
-        Time duration = _evtScheduler.getTimeDuration();
+        long duration = _evtScheduler.getTimeDurationMicros();
         for (EventGenerator evGenerator : _evtGenerators) {
             /*if (e != null && e.getSource().getId() == getId() &&
                 e.getGeneratorID() != evGenerator.getId()) {
@@ -316,7 +359,10 @@ public abstract class Agent extends NetworkAgent
             
             //Event event = evGenerator.generate( t, e );
             Event event = evGenerator.generate();
-            if (event != null && event.getTime().compareTo( duration ) <= 0) {
+            if (event != null && event.getTimeMicros() <= duration) {
+                if (events == null) {
+                    events = new ArrayList<>( _evtGenerators.size() );
+                }
                 events.add( event );
             }
         }
@@ -329,7 +375,143 @@ public abstract class Agent extends NetworkAgent
             }
         }*/
         
-        return (events.isEmpty() ? null : events);
+        return events;
+    }
+
+    /**
+     * Saves the state of the agent, together with the one of its event generators,
+     * devices and samplers.</br>
+     * Agents with additional fields must override it (see {@linkplain StateSaving}).
+    */
+    @Override
+    public Object saveState()
+    {
+        List<StateSaving> components = new ArrayList<>( _evtGenerators.size() + _devices.size() + samplings.size() );
+        components.addAll( _evtGenerators );
+        components.addAll( _devices.values() );
+        components.addAll( samplings.values() );
+        
+        AgentState state = new AgentState( _time.getTimeMicros(), _generatedEvents, components.size() );
+        for (int i = 0; i < state.components.length; i++) {
+            state.components[i] = components.get( i );
+            state.states[i] = state.components[i].saveState();
+        }
+        return state;
+    }
+    
+    @Override
+    public void restoreState( Object state )
+    {
+        AgentState saved = (AgentState) state;
+        _time.setTime( saved.time, TimeUnit.MICROSECONDS );
+        _generatedEvents = saved.generatedEvents;
+        for (int i = saved.components.length - 1; i >= 0; i--) {
+            saved.components[i].restoreState( saved.states[i] );
+        }
+    }
+    
+    @Override
+    public void discardState( Object state )
+    {
+        AgentState saved = (AgentState) state;
+        for (int i = 0; i < saved.components.length; i++) {
+            saved.components[i].discardState( saved.states[i] );
+        }
+    }
+    
+    private static class AgentState
+    {
+        private final long time;
+        private final long generatedEvents;
+        private final StateSaving[] components;
+        private final Object[] states;
+        
+        public AgentState( long time, long generatedEvents, int components )
+        {
+            this.time = time;
+            this.generatedEvents = generatedEvents;
+            this.components = new StateSaving[components];
+            this.states = new Object[components];
+        }
+    }
+
+    /**
+     * Writes the state of the agent, together with the one of its event generators,
+     * devices and samplers.</br>
+     * Agents with additional fields must override it (see {@linkplain Checkpointable}).
+    */
+    @Override
+    public void writeCheckpoint( CheckpointWriter out ) throws IOException
+    {
+        out.writeLong( _time.getTimeMicros() );
+        out.writeLong( _generatedEvents );
+        
+        out.writeInt( _evtGenerators.size() );
+        for (EventGenerator generator : _evtGenerators) {
+            generator.writeCheckpoint( out );
+        }
+        
+        // Devices are identified by their class, samplers by their name.
+        Map<String,Device<?,?>> devices = new TreeMap<>();
+        for (Device<?,?> device : _devices.values()) {
+            devices.put( device.getClass().getName(), device );
+        }
+        out.writeInt( devices.size() );
+        for (Map.Entry<String,Device<?,?>> entry : devices.entrySet()) {
+            out.writeString( entry.getKey() );
+            entry.getValue().writeCheckpoint( out );
+        }
+        
+        Map<String,Sampler> samplers = new TreeMap<>( samplings );
+        out.writeInt( samplers.size() );
+        for (Map.Entry<String,Sampler> entry : samplers.entrySet()) {
+            out.writeString( entry.getKey() );
+            entry.getValue().writeCheckpoint( out );
+        }
+    }
+    
+    @Override
+    public void readCheckpoint( CheckpointReader in ) throws IOException
+    {
+        _time.setTime( in.readLong(), TimeUnit.MICROSECONDS );
+        _generatedEvents = in.readLong();
+        
+        checkComponents( "event generators", in.readInt(), _evtGenerators.size() );
+        for (EventGenerator generator : _evtGenerators) {
+            generator.readCheckpoint( in );
+        }
+        
+        Map<String,Device<?,?>> devices = new HashMap<>();
+        for (Device<?,?> device : _devices.values()) {
+            devices.put( device.getClass().getName(), device );
+        }
+        checkComponents( "devices", in.readInt(), devices.size() );
+        for (int i = 0; i < devices.size(); i++) {
+            String name = in.readString();
+            Device<?,?> device = devices.get( name );
+            if (device == null) {
+                throw new IOException( "Device " + name + " not found in agent " + _id + "." );
+            }
+            device.readCheckpoint( in );
+        }
+        
+        checkComponents( "samplers", in.readInt(), samplings.size() );
+        for (int i = 0; i < samplings.size(); i++) {
+            String name = in.readString();
+            Sampler sampler = samplings.get( name );
+            if (sampler == null) {
+                throw new IOException( "Sampler \"" + name + "\" not found in agent " + _id + "." );
+            }
+            sampler.readCheckpoint( in );
+        }
+    }
+    
+    private void checkComponents( String type, int saved, int current ) throws IOException
+    {
+        if (saved != current) {
+            throw new IOException( "Agent " + _id + " has " + current + " " + type +
+                                   ", while the checkpoint contains " + saved + "." );
+        }
     }
 
     /**
@@ -345,15 +527,16 @@ public abstract class Agent extends NetworkAgent
             }
         }
         
+        flush();
+    }
+    
+    /**
+     * Writes the current results of the samplers into their log files.
+    */
+    public void flush() throws IOException
+    {
         for (Sampler sampler : samplings.values()) {
-            String logFile = sampler.getLogFile();
-            if (logFile != null) {
-                PrintWriter writer = new PrintWriter( logFile, "UTF-8" );
-                for (Pair<Double,Double> point : sampler.getValues()) {
-                    writer.println( point.getFirst() + " " + point.getSecond() );
-                }
-                writer.close();
-            }
+            sampler.writeLog();
         }
     }
     
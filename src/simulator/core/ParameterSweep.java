@@ -0,0 +1,604 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.core;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import simulator.events.EventScheduler;
+import simulator.exception.SimulatorException;
+import simulator.topology.NetworkTopology;
+import simulator.utils.Sampler;
+import simulator.utils.Time;
+import simulator.utils.Utils;
+
+/**
+ * Runs a set of independent simulations, one for each combination of the parameters
+ * of a grid (the cartesian product of their values) and for each replica.</br>
+ * The simulations are executed concurrently on a bounded {@linkplain ForkJoinPool},
+ * so each one must build its own network, agents and models, without sharing
+ * any mutable (i.e. static) state with the others.</br>
+ * At the end of each run, the total results of the samplers of all the agents are collected
+ * in a {@linkplain Result}, summing the samplers with the same identifier.</br>
+ * If a results file is given, each completed run is appended to it: executing again the
+ * same sweep, the runs already in the file are not repeated (i.e. a partially completed
+ * sweep is resumed).
+*/
+public class ParameterSweep
+{
+    /** Name of the parameter used as base seed (see {@linkplain Configuration#getSeed()}). */
+    public static final String SEED = "seed";
+    
+    private final Map<String,List<Object>> parameters;
+    private int replicas = 1;
+    private int parallelism;
+    private Time duration = Time.INFINITE;
+    private String resultsFile;
+    
+    
+    
+    /**
+     * Creates a new empty sweep.</br>
+     * By default it runs a single replica of each configuration,
+     * using as many threads as the available processors.
+    */
+    public ParameterSweep()
+    {
+        parameters = new LinkedHashMap<>();
+        parallelism = Runtime.getRuntime().availableProcessors();
+    }
+    
+    /**
+     * Adds a parameter to the grid.</br>
+     * The parameters vary in the order they are added, the last one being the fastest.
+     * 
+     * @param name      name of the parameter.
+     * @param values    values assumed by the parameter.
+     * 
+     * @return this sweep.
+     * 
+     * @throws SimulatorException if the parameter already exists or it has no values.
+    */
+    public ParameterSweep addParameter( String name, Object... values )
+    {
+        if (parameters.containsKey( name )) {
+            throw new SimulatorException( "Parameter \"" + name + "\" already exists." );
+        }
+        if (values == null || values.length == 0) {
+            throw new SimulatorException( "Parameter \"" + name + "\" has no values." );
+        }
+        
+        List<Object> list = new ArrayList<>( values.length );
+        Collections.addAll( list, values );
+        parameters.put( name, list );
+        return this;
+    }
+    
+    /**
+     * Sets the number of replicas of each configuration.
+     * 
+     * @param replicas    number of replicas.
+     * 
+     * @return this sweep.
+    */
+    public ParameterSweep setReplicas( int replicas )
+    {
+        this.replicas = Math.max( 1, replicas );
+        return this;
+    }
+    
+    /**
+     * Sets the maximum number of simulations executed at the same time.
+     * 
+     * @param parallelism    number of threads.
+     * 
+     * @return this sweep.
+    */
+    public ParameterSweep setParallelism( int parallelism )
+    {
+        this.parallelism = Math.max( 1, parallelism );
+        return this;
+    }
+    
+    /**
+     * Sets the lifetime of each simulation.</br>
+     * By default it's infinite.
+     * 
+     * @param duration    lifetime of the simulations.
+     * 
+     * @return this sweep.
+    */
+    public ParameterSweep setDuration( Time duration )
+    {
+        this.duration = duration;
+        return this;
+    }
+    
+    /**
+     * Sets the file storing the results of the completed runs.
+     * 
+     * @param filename    name of the file (it can be {@code null}).
+     * 
+     * @return this sweep.
+    */
+    public ParameterSweep setResultsFile( String filename )
+    {
+        resultsFile = filename;
+        return this;
+    }
+    
+    /**
+     * Returns all the configurations of the sweep, replicas included.
+    */
+    public List<Configuration> getConfigurations()
+    {
+        List<Configuration> configurations = new ArrayList<>();
+        List<String> names = new ArrayList<>( parameters.keySet() );
+        int[] indexes = new int[names.size()];
+        int index = 0;
+        while (true) {
+            Map<String,Object> values = new LinkedHashMap<>();
+            for (int i = 0; i < indexes.length; i++) {
+                values.put( names.get( i ), parameters.get( names.get( i ) ).get( indexes[i] ) );
+            }
+            for (int replica = 0; replica < replicas; replica++) {
+                configurations.add( new Configuration( index++, values, replica ) );
+            }
+            
+            // Moves to the next combination.
+            int i = indexes.length - 1;
+            while (i >= 0 && ++indexes[i] == parameters.get( names.get( i ) ).size()) {
+                indexes[i--] = 0;
+            }
+            if (i < 0) {
+                break;
+            }
+        }
+        return configurations;
+    }
+    
+    /**
+     * Runs the sweep.</br>
+     * Each experiment must return a {@linkplain Simulator} ready to start:
+     * the sweep starts it sequentially in the current worker thread,
+     * then collects the results of its samplers and closes it.</br>
+     * A run that fails is reported and not saved, so it will be repeated by the next execution.
+     * 
+     * @param experiment    builds the simulation of a configuration.
+     * 
+     * @return the results of all the runs, sorted by configuration,
+     *         including the ones loaded from the results file.
+     * 
+     * @throws IOException if the results file can't be read or written.
+     * @throws SimulatorException if some run has failed.
+    */
+    public List<Result> run( Experiment experiment ) throws IOException
+    {
+        List<Configuration> configurations = getConfigurations();
+        Map<String,Result> completed = loadResults( configurations );
+        
+        List<Configuration> toRun = new ArrayList<>();
+        for (Configuration conf : configurations) {
+            if (!completed.containsKey( conf.getKey() )) {
+                toRun.add( conf );
+            }
+        }
+        if (completed.size() > 0) {
+            System.out.println( "Resuming the sweep: " + completed.size() + " of " +
+                                configurations.size() + " runs already completed." );
+        }
+        
+        PrintWriter writer = null;
+        if (resultsFile != null && !toRun.isEmpty()) {
+            Utils.checkFile( resultsFile );
+            writer = new PrintWriter( new FileWriter( resultsFile, true ) );
+        }
+        
+        final PrintWriter output = writer;
+        List<Callable<Result>> tasks = new ArrayList<>( toRun.size() );
+        for (Configuration conf : toRun) {
+            tasks.add( () -> execute( experiment, conf, configurations.size(), output ) );
+        }
+        
+        long startTime = System.currentTimeMillis();
+        int failed = 0;
+        ForkJoinPool pool = new ForkJoinPool( Math.min( parallelism, Math.max( 1, tasks.size() ) ) );
+        try {
+            for (Future<Result> future : pool.invokeAll( tasks )) {
+                try {
+                    Result result = future.get();
+                    completed.put( result.getConfiguration().getKey(), result );
+                } catch ( ExecutionException e ) {
+                    failed++;
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new SimulatorException( e );
+                }
+            }
+        } finally {
+            pool.shutdown();
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        
+        List<Result> results = new ArrayList<>( completed.size() );
+        for (Configuration conf : configurations) {
+            Result result = completed.get( conf.getKey() );
+            if (result != null) {
+                results.add( result );
+            }
+        }
+        
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        System.out.println( "Sweep completed in " + elapsedTime + "ms: " + (toRun.size() - failed) +
+                            " runs executed, " + failed + " failed." );
+        if (failed > 0) {
+            throw new SimulatorException( failed + " of " + configurations.size() + " runs have failed." );
+        }
+        
+        return results;
+    }
+    
+    private Result execute( Experiment experiment, Configuration conf, int runs, PrintWriter writer ) throws Exception
+    {
+        long startTime = System.currentTimeMillis();
+        Result result;
+        try (Simulator sim = experiment.create( conf )) {
+            sim.start( duration.clone(), false );
+            
+            NetworkTopology net = sim.getNetwork();
+            EventScheduler evtScheduler = net.getEventScheduler();
+            Map<String,Double> totals = new TreeMap<>();
+            for (Agent agent : net.getAgents()) {
+                for (Entry<String,Sampler> entry : agent.getSamplers().entrySet()) {
+                    totals.merge( entry.getKey(), entry.getValue().getTotalResult(), Double::sum );
+                }
+            }
+            
+            result = new Result( conf, totals, System.currentTimeMillis() - startTime,
+                                 evtScheduler.getProcessedEvents() );
+        } catch ( Exception e ) {
+            Utils.LOGGER.error( "Run " + (conf.getIndex() + 1) + "/" + runs + " " + conf + " failed.", e );
+            throw e;
+        }
+        
+        System.out.println( "Run " + (conf.getIndex() + 1) + "/" + runs + " " + conf +
+                            " completed in " + result.getElapsedTime() + "ms, " +
+                            result.getProcessedEvents() + " events (" +
+                            String.format( "%.0f", result.getThroughput() ) + " events/s)." );
+        if (writer != null) {
+            synchronized ( writer ) {
+                writer.println( result.toRecord() );
+                writer.flush();
+            }
+        }
+        
+        return result;
+    }
+    
+    private Map<String,Result> loadResults( List<Configuration> configurations ) throws IOException
+    {
+        Map<String,Result> results = new HashMap<>();
+        if (resultsFile == null || !Utils.existsFile( resultsFile )) {
+            return results;
+        }
+        
+        Map<String,Configuration> confs = new HashMap<>();
+        for (Configuration conf : configurations) {
+            confs.put( conf.getKey(), conf );
+        }
+        
+        Path path = Paths.get( resultsFile );
+        byte[] data = Files.readAllBytes( path );
+        // Only the records terminated by a new line are complete.
+        int end = data.length;
+        while (end > 0 && data[end-1] != '\n') {
+            end--;
+        }
+        
+        String content = new String( data, 0, end, StandardCharsets.UTF_8 );
+        for (String line : content.split( "\r?\n" )) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            Result result = Result.fromRecord( line, confs );
+            if (result != null) {
+                results.put( result.getConfiguration().getKey(), result );
+            }
+        }
+        
+        if (end < data.length) {
+            // The last record has been partially written (e.g. the previous sweep crashed):
+            // it's removed, so that the next records are appended on a new line.
+            Utils.LOGGER.warn( "Discarding the incomplete last record of \"" + resultsFile + "\"." );
+            try (FileChannel channel = FileChannel.open( path, StandardOpenOption.WRITE )) {
+                channel.truncate( end );
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Returns the results as a table, one row per run and one column
+     * for each parameter and sampler.
+     * 
+     * @param results    the results of the sweep.
+    */
+    public static String toTable( List<Result> results )
+    {
+        List<String> params  = new ArrayList<>();
+        List<String> samplers = new ArrayList<>();
+        for (Result result : results) {
+            for (String name : result.getConfiguration().values.keySet()) {
+                if (!params.contains( name )) {
+                    params.add( name );
+                }
+            }
+            for (String name : result.getTotals().keySet()) {
+                if (!samplers.contains( name )) {
+                    samplers.add( name );
+                }
+            }
+        }
+        
+        StringBuilder buffer = new StringBuilder( 128 * (results.size() + 1) );
+        for (String name : params) {
+            buffer.append( name + "\t" );
+        }
+        buffer.append( "replica" );
+        for (String name : samplers) {
+            buffer.append( "\t" + name );
+        }
+        buffer.append( "\ttime(ms)\tevents/s" );
+        
+        for (Result result : results) {
+            buffer.append( '\n' );
+            Configuration conf = result.getConfiguration();
+            for (String name : params) {
+                buffer.append( conf.get( name ) + "\t" );
+            }
+            buffer.append( conf.getReplica() );
+            for (String name : samplers) {
+                Double total = result.getTotals().get( name );
+                buffer.append( "\t" + ((total == null) ? "-" : total) );
+            }
+            buffer.append( "\t" + result.getElapsedTime() + "\t" + String.format( "%.0f", result.getThroughput() ) );
+        }
+        
+        return buffer.toString();
+    }
+    
+    /**
+     * Builds the simulation of a configuration of the sweep.
+    */
+    @FunctionalInterface
+    public static interface Experiment
+    {
+        /**
+         * Creates the simulation associated to the given configuration.
+         * 
+         * @param conf    the configuration.
+         * 
+         * @return the simulator, ready to start.
+        */
+        public Simulator create( Configuration conf ) throws Exception;
+    }
+    
+    /**
+     * Values of the parameters for a single run.
+    */
+    public static class Configuration
+    {
+        private final int index;
+        private final Map<String,Object> values;
+        private final int replica;
+        private final String key;
+        
+        public Configuration( int index, Map<String,Object> values, int replica )
+        {
+            this.index = index;
+            this.values = Collections.unmodifiableMap( values );
+            this.replica = replica;
+            
+            StringBuilder buffer = new StringBuilder( 64 );
+            for (Entry<String,Object> entry : values.entrySet()) {
+                buffer.append( entry.getKey() + "=" + entry.getValue() + "," );
+            }
+            buffer.append( "replica=" + replica );
+            key = buffer.toString();
+        }
+        
+        /**
+         * Returns the position of this run in the sweep.
+        */
+        public int getIndex() {
+            return index;
+        }
+        
+        /**
+         * Returns the value of the given parameter.
+         * 
+         * @param name    name of the parameter.
+        */
+        @SuppressWarnings("unchecked")
+        public <T> T get( String name ) {
+            return (T) values.get( name );
+        }
+        
+        public int getInt( String name ) {
+            return ((Number) values.get( name )).intValue();
+        }
+        
+        public long getLong( String name ) {
+            return ((Number) values.get( name )).longValue();
+        }
+        
+        public double getDouble( String name ) {
+            return ((Number) values.get( name )).doubleValue();
+        }
+        
+        public int getReplica() {
+            return replica;
+        }
+        
+        /**
+         * Returns the seed of this run, that is the value of the {@linkplain ParameterSweep#SEED}
+         * parameter (0 if missing) plus the replica number.</br>
+         * Replicas of the same configuration get different seeds,
+         * while runs with the same seed and replica can be repeated.
+        */
+        public long getSeed()
+        {
+            Object seed = values.get( SEED );
+            long base = (seed instanceof Number) ? ((Number) seed).longValue() : 0;
+            return base + replica;
+        }
+        
+        /**
+         * Returns the textual key identifying this configuration.</br>
+         * Parameter values are compared through their string representation.
+        */
+        public String getKey() {
+            return key;
+        }
+        
+        @Override
+        public String toString() {
+            return "[" + key.replace( ",", ", " ) + "]";
+        }
+    }
+    
+    /**
+     * Results of a single run.
+    */
+    public static class Result
+    {
+        private final Configuration conf;
+        private final Map<String,Double> totals;
+        private final long elapsedTime;
+        private final long events;
+        
+        public Result( Configuration conf, Map<String,Double> totals, long elapsedTime, long events )
+        {
+            this.conf = conf;
+            this.totals = Collections.unmodifiableMap( totals );
+            this.elapsedTime = elapsedTime;
+            this.events = events;
+        }
+        
+        public Configuration getConfiguration() {
+            return conf;
+        }
+        
+        /**
+         * Returns the total results of the samplers, indexed by their identifiers.
+        */
+        public Map<String,Double> getTotals() {
+            return totals;
+        }
+        
+        /**
+         * Returns the total result of the given sampler.
+         * 
+         * @param sampler    the sampler identifier.
+        */
+        public double getTotal( String sampler )
+        {
+            Double total = totals.get( sampler );
+            return (total == null) ? Double.NaN : total;
+        }
+        
+        /**
+         * Returns the wall-clock time of the run, in milliseconds.
+        */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+        
+        /**
+         * Returns the number of executed events.
+        */
+        public long getProcessedEvents() {
+            return events;
+        }
+        
+        /**
+         * Returns the number of events executed per second.
+        */
+        public double getThroughput() {
+            return events * 1000d / Math.max( 1, elapsedTime );
+        }
+        
+        /**
+         * Returns the line of the results file, with the format:</br>
+         * {@code key <TAB> time <TAB> events (<TAB> sampler=total)*}
+        */
+        private String toRecord()
+        {
+            StringBuilder buffer = new StringBuilder( 128 );
+            buffer.append( conf.getKey() + "\t" + elapsedTime + "\t" + events );
+            for (Entry<String,Double> entry : totals.entrySet()) {
+                buffer.append( "\t" + entry.getKey() + "=" + entry.getValue() );
+            }
+            return buffer.toString();
+        }
+        
+        /**
+         * Parses a line of the results file.
+         * 
+         * @return the result, or {@code null} if the record is not part of the sweep or it's malformed.
+        */
+        private static Result fromRecord( String line, Map<String,Configuration> confs )
+        {
+            String[] fields = line.split( "\t" );
+            Configuration conf = confs.get( fields[0] );
+            if (conf == null || fields.length < 3) {
+                // Not part of this sweep.
+                return null;
+            }
+            
+            try {
+                Map<String,Double> totals = new TreeMap<>();
+                for (int i = 3; i < fields.length; i++) {
+                    int index = fields[i].lastIndexOf( '=' );
+                    if (index < 0) {
+                        throw new NumberFormatException( "Missing value in \"" + fields[i] + "\"" );
+                    }
+                    totals.put( fields[i].substring( 0, index ), Double.parseDouble( fields[i].substring( index + 1 ) ) );
+                }
+                return new Result( conf, totals, Long.parseLong( fields[1] ), Long.parseLong( fields[2] ) );
+            } catch ( NumberFormatException e ) {
+                Utils.LOGGER.warn( "Skipping the malformed record \"" + line + "\": " + e.getMessage() );
+                return null;
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return conf + " " + totals + ", time: " + elapsedTime + "ms, events: " + events;
+        }
+    }
+}
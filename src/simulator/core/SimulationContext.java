@@ -0,0 +1,101 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import simulator.events.PacketSchema;
+import simulator.exception.SimulatorException;
+import simulator.network.MACaddressFactory;
+import simulator.network.NetworkSettings;
+
+/**
+ * State shared by the elements of a single simulation.</br>
+ * It replaces the global (static) state, so several simulations
+ * can run at the same time in the same process, each one in its own thread,
+ * without any synchronization or interference.</br>
+ * A context is owned by the {@linkplain simulator.topology.NetworkTopology NetworkTopology}
+ * and reachable from the {@linkplain Simulator} and the {@linkplain Agent agents}.
+ * The networks of the same simulator can share the same context.
+*/
+public class SimulationContext
+{
+    private final MACaddressFactory macFactory;
+    private long nextNetworkID = 0;
+    // Schemas of the packets, by name.
+    private final Map<String,PacketSchema> schemas = new HashMap<>();
+    
+    
+    
+    public SimulationContext() {
+        macFactory = new MACaddressFactory();
+    }
+    
+    /**
+     * Creates a new context, whose random elements (i.e. the MAC addresses)
+     * are generated always in the same way.
+     * 
+     * @param seed    the random seed.
+    */
+    public SimulationContext( long seed ) {
+        macFactory = new MACaddressFactory( seed );
+    }
+    
+    /**
+     * Returns the next network identifier.
+    */
+    public long nextNetworkID() {
+        return ++nextNetworkID;
+    }
+    
+    /**
+     * Returns the generator of the MAC addresses.
+    */
+    public MACaddressFactory getMACaddressFactory() {
+        return macFactory;
+    }
+    
+    /**
+     * Gives a MAC address to the settings that don't have one.
+     * 
+     * @param settings    the network settings.
+    */
+    public void assignMACaddress( NetworkSettings settings )
+    {
+        if (settings.getMACaddress() == null) {
+            settings.setMACaddress( macFactory.getMACaddress() );
+        }
+    }
+    
+    /**
+     * Registers the schema of the packets used by the simulation,
+     * needed to restore them from a checkpoint (see {@linkplain simulator.core.checkpoint.Checkpoint}).</br>
+     * The {@linkplain PacketSchema#DEFAULT default} schema is always registered.
+     * 
+     * @param schema    the schema to register.
+     * 
+     * @throws SimulatorException if another schema with the same name is already registered.
+    */
+    public void addPacketSchema( PacketSchema schema ) throws SimulatorException
+    {
+        PacketSchema other = getPacketSchema( schema.getName() );
+        if (other != null && other != schema) {
+            throw new SimulatorException( "Packet schema \"" + schema.getName() + "\" is already registered." );
+        }
+        schemas.put( schema.getName(), schema );
+    }
+    
+    /**
+     * Returns the schema of the packets with the given name, or {@code null} if it's not registered.
+    */
+    public PacketSchema getPacketSchema( String name )
+    {
+        if (PacketSchema.DEFAULT.getName().equals( name )) {
+            return PacketSchema.DEFAULT;
+        }
+        return schemas.get( name );
+    }
+}
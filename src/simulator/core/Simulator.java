@@ -4,23 +4,26 @@
 
 package simulator.core;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.PropertyConfigurator;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
+import simulator.core.checkpoint.Checkpoint;
+import simulator.events.Event;
+import simulator.events.EventPool;
 import simulator.events.EventScheduler;
+import simulator.events.EventScheduler.QueueType;
+import simulator.events.parallel.ConservativeScheduler;
+import simulator.events.parallel.OptimisticScheduler;
+import simulator.exception.SimulatorException;
 import simulator.network.element.Switch;
 import simulator.topology.NetworkNode;
 import simulator.topology.NetworkTopology;
+import simulator.topology.TopologyLoader;
 import simulator.utils.Time;
 import simulator.utils.resources.ResourceLoader;
 
@@ -28,6 +31,22 @@ public class Simulator implements AutoCloseable
 {
     private NetworkTopology _network;
     private EventScheduler _evtScheduler;
+    private QueueType _queueType = QueueType.HEAP;
+    private EventPool _eventPool;
+    private int _partitions = 1;
+    private boolean _optimistic = false;
+    private boolean _digest = false;
+    
+    // Checkpoint written during the simulation (null if disabled).
+    private Time _checkpointTime;
+    private String _checkpointFile;
+    // Checks whether the state has been restored from a checkpoint.
+    private boolean _restored = false;
+    
+    // Lifetime of the simulation executed in chunks.
+    private Time _duration = Time.INFINITE;
+    // Checks whether the simulation has been started in chunks.
+    private boolean _started = false;
     
     private List<SimulatorExecution> simExes;
     
@@ -59,33 +78,12 @@ public class Simulator implements AutoCloseable
         }
     }
     
-    private static List<NetworkTopology> build( String filename ) throws IOException
-    {
-        List<NetworkTopology> networks = new ArrayList<>();
-        
-        InputStream fReader = ResourceLoader.getResourceAsStream( filename );
-        BufferedReader br = new BufferedReader( new InputStreamReader( fReader ) );
-        StringBuilder content = new StringBuilder( 512 );
-        
-        /**
-         * File structure:
-         * 
-         * networks => [{[nodes],[links]}, ...]
-        */
-        
-        String nextLine = null;
-        while((nextLine = br.readLine()) != null)
-            content.append( nextLine.trim() );
-        
-        JSONObject settings = new JSONObject( content.toString() );
-        JSONArray nets = settings.getJSONArray( "networks" );
-        for (int i = 0; i < nets.length(); i++) {
-            networks.add( new NetworkTopology( (JSONObject) nets.get( i ) ) );
-        }
-        
-        br.close();
-        
-        return networks;
+    /**
+     * Builds the networks of the simulation, reading the file as a stream
+     * (see {@linkplain TopologyLoader#loadNetworks(String)}).
+    */
+    private static List<NetworkTopology> build( String filename ) throws IOException {
+        return TopologyLoader.loadNetworks( filename );
     }
     
     /**
@@ -98,8 +96,155 @@ public class Simulator implements AutoCloseable
         net.computeShortestPaths();
         _network = net;
         
-        _evtScheduler = new EventScheduler( net );
-        net.setEventScheduler( _evtScheduler );
+        createEventScheduler();
+    }
+    
+    /**
+     * Returns the current network.
+    */
+    public NetworkTopology getNetwork() {
+        return _network;
+    }
+    
+    /**
+     * Returns the context of the current simulation.
+    */
+    public SimulationContext getContext() {
+        return (_network == null) ? null : _network.getContext();
+    }
+    
+    private void createEventScheduler()
+    {
+        EventScheduler oldScheduler = _evtScheduler;
+        if (_partitions > 1 && _optimistic) {
+            _evtScheduler = new OptimisticScheduler( _network, _queueType, _partitions );
+        } else if (_partitions > 1) {
+            _evtScheduler = new ConservativeScheduler( _network, _queueType, _partitions );
+        } else {
+            _evtScheduler = new EventScheduler( _network, _queueType );
+        }
+        _evtScheduler.setEventPool( _eventPool );
+        _evtScheduler.setExecutionDigest( _digest );
+        
+        if (oldScheduler != null && oldScheduler.getNetwork() == _network) {
+            // Keeps the events already scheduled (i.e. the external ones).
+            Event e;
+            while ((e = oldScheduler.getEventSet().poll()) != null) {
+                _evtScheduler.schedule( e );
+            }
+        }
+        _network.setEventScheduler( _evtScheduler );
+    }
+    
+    /**
+     * Sets the number of partitions used to execute the network in parallel,
+     * with a conservative synchronization (see {@linkplain ConservativeScheduler}).</br>
+     * Nodes that can't be executed independently are kept in the same partition,
+     * so the actual number of partitions may be lower.</br>
+     * By default the network is executed sequentially.
+     * 
+     * @param partitions    the number of partitions.
+    */
+    public void setPartitions( int partitions ) {
+        setPartitions( partitions, false );
+    }
+    
+    /**
+     * Sets the number of logical processes used to execute the network in parallel,
+     * with an optimistic synchronization (see {@linkplain OptimisticScheduler}).</br>
+     * Differently from {@linkplain #setPartitions(int)}, the network can be split
+     * also along the links with no propagation delay.
+     * 
+     * @param partitions    the number of logical processes.
+    */
+    public void setOptimisticPartitions( int partitions ) {
+        setPartitions( partitions, true );
+    }
+    
+    private void setPartitions( int partitions, boolean optimistic )
+    {
+        _partitions = Math.max( 1, partitions );
+        _optimistic = optimistic;
+        if (_network != null) {
+            createEventScheduler();
+        }
+    }
+    
+    /**
+     * Enables the computation of the digest of the executed events,
+     * printed at the end of the simulation.</br>
+     * Running the same simulation sequentially and in parallel, the digests must be equal
+     * (see {@linkplain EventScheduler#setExecutionDigest(boolean)}).
+     * 
+     * @param enable    {@code true} to compute the digest, {@code false} otherwise.
+    */
+    public void setExecutionDigest( boolean enable )
+    {
+        _digest = enable;
+        if (_evtScheduler != null) {
+            _evtScheduler.setExecutionDigest( enable );
+        }
+    }
+    
+    /**
+     * Sets the type of queue used to store the pending events.</br>
+     * By default a binary heap is used.
+     * 
+     * @param type    type of the queue (see {@linkplain EventScheduler.QueueType QueueType}).
+    */
+    public void setEventQueue( QueueType type )
+    {
+        _queueType = type;
+        if (_evtScheduler != null) {
+            _evtScheduler.setEventSet( EventScheduler.createEventSet( type ) );
+        }
+    }
+    
+    /**
+     * Sets the pool used to recycle the events.</br>
+     * By default no pool is used.
+     * 
+     * @param pool    the event pool (see {@linkplain EventPool}).
+    */
+    public void setEventPool( EventPool pool )
+    {
+        _eventPool = pool;
+        if (_evtScheduler != null) {
+            _evtScheduler.setEventPool( pool );
+        }
+    }
+    
+    /**
+     * Saves a checkpoint of the simulation when the given time is reached
+     * (see {@linkplain Checkpoint}).</br>
+     * The events until the checkpoint are executed sequentially,
+     * while the remaining ones as specified by the partitions.
+     * 
+     * @param time    time of the checkpoint.
+     * @param file    the checkpoint file.
+    */
+    public void setCheckpoint( Time time, String file )
+    {
+        _checkpointTime = time;
+        _checkpointFile = file;
+    }
+    
+    /**
+     * Restores the state of the simulation from a checkpoint.</br>
+     * The network and its agents must be built as in the saved simulation,
+     * while the models of the devices can be different.</br>
+     * The simulation continues from the time of the checkpoint
+     * when {@linkplain #start(Time, boolean)} is called.
+     * 
+     * @param file    the checkpoint file.
+     * 
+     * @throws IOException if the checkpoint can't be restored.
+    */
+    public void restore( String file ) throws IOException
+    {
+        addSwitches();
+        Checkpoint.restore( _network, file );
+        _restored = true;
     }
     
     /**
@@ -121,30 +266,134 @@ public class Simulator implements AutoCloseable
     */
     public void start( Time duration, boolean parExe ) throws IOException
     {
-        //List<SimulatorExecution> simExes = new ArrayList<>( _evtSchedulers.size() );
-        for (NetworkNode node : _network.getNodes()) {
-            if (node.getAgent() == null) {
-                // By default the agent is a switch.
-                node.setAgent( new Switch( node, _network ) );
-                _network.addAgent( node.getAgent() );
-            }
+        if (_started) {
+            throw new SimulatorException( "The simulation has been already started in chunks: use resume() to complete it." );
         }
         
+        //List<SimulatorExecution> simExes = new ArrayList<>( _evtSchedulers.size() );
+        addSwitches();
+        
         //_network.computeShortestPaths();
         
         EventScheduler evtScheduler = _network.getEventScheduler();
         evtScheduler.setDuration( duration );
         
         if (!parExe) {
-            SimulatorExecution.startSimulation( _network );
+            SimulatorExecution.startSimulation( _network, !_restored, _checkpointTime, _checkpointFile );
             //_network.shutdown();
         } else {
-            SimulatorExecution simExe = new SimulatorExecution( _network );
+            SimulatorExecution simExe = new SimulatorExecution( _network, !_restored, _checkpointTime, _checkpointFile );
             simExes.add( simExe );
             simExe.start();
         }
     }
     
+    /**
+     * Sets the lifetime of the simulation executed in chunks
+     * (see {@linkplain #runUntil(Time)}, {@linkplain #step(int)} and {@linkplain #resume()}).</br>
+     * By default the simulation has no time limit.
+     * 
+     * @param duration    lifetime of the simulation.
+    */
+    public void setDuration( Time duration )
+    {
+        _duration = duration;
+        if (_started) {
+            _network.getEventScheduler().setDuration( duration );
+        }
+    }
+    
+    /**
+     * Advances the simulation until the given time, in the calling thread.</br>
+     * The first chunk starts the simulation, which can then be continued by calling
+     * this method again, or through {@linkplain #step(int)} and {@linkplain #resume()}.
+     * At the end of each chunk the partial results (samplers and tracked events)
+     * are flushed on file, and a checkpoint can be saved (see {@linkplain Checkpoint#save(NetworkTopology, String)}).</br>
+     * The resources of the simulation are released by {@linkplain #close()}.
+     * 
+     * @param time    the time to reach.
+    */
+    public void runUntil( Time time ) throws IOException
+    {
+        prepare().runUntil( time.getTimeMicros() );
+        _network.flush();
+    }
+    
+    /**
+     * Executes sequentially at most the given number of events, in the calling thread
+     * (see {@linkplain #runUntil(Time)}).
+     * 
+     * @param events    maximum number of events to execute.
+     * 
+     * @return the number of executed events.
+    */
+    public int step( int events ) throws IOException
+    {
+        int executed = prepare().step( events );
+        _network.flush();
+        return executed;
+    }
+    
+    /**
+     * Continues the simulation until its end, in the calling thread
+     * (see {@linkplain #runUntil(Time)}).
+    */
+    public void resume() throws IOException
+    {
+        prepare().doAllEvents();
+        _network.flush();
+    }
+    
+    /**
+     * Checks whether the simulation executed in chunks is completed.
+    */
+    public boolean isCompleted() {
+        return _started && _network.getEventScheduler().isCompleted();
+    }
+    
+    /**
+     * Returns the current time of the simulation.
+    */
+    public Time getTime() {
+        return _network.getEventScheduler().getTime();
+    }
+    
+    /**
+     * Starts the simulation executed in chunks, if not already started.
+    */
+    private EventScheduler prepare()
+    {
+        EventScheduler evtScheduler = _network.getEventScheduler();
+        if (!_started) {
+            addSwitches();
+            evtScheduler.setDuration( _duration );
+            if (!_restored) {
+                scheduleFirstEvents( _network );
+            }
+            _started = true;
+        }
+        return evtScheduler;
+    }
+    
+    private static void scheduleFirstEvents( NetworkTopology net )
+    {
+        EventScheduler evtScheduler = net.getEventScheduler();
+        for (Agent agent : net.getAgents()) {
+            evtScheduler.schedule( agent.fireEvent(/* null, null */) );
+        }
+    }
+    
+    private void addSwitches()
+    {
+        for (NetworkNode node : _network.getNodes()) {
+            if (node.getAgent() == null) {
+                // By default the agent is a switch.
+                node.setAgent( new Switch( node, _network ) );
+                _network.addAgent( node.getAgent() );
+            }
+        }
+    }
+    
     @Override
     public void close() throws IOException
     {
@@ -156,34 +405,64 @@ public class Simulator implements AutoCloseable
                 e.printStackTrace();
             }
         }
+        
+        if (_started) {
+            // Releases the resources of the simulation executed in chunks.
+            _network.shutdown();
+            _started = false;
+        }
     }
 
     private static class SimulatorExecution extends Thread
     {
         private final NetworkTopology net;
+        private final boolean fireEvents;
+        private final Time checkpointTime;
+        private final String checkpointFile;
         
-        public SimulatorExecution( NetworkTopology net ) {
+        public SimulatorExecution( NetworkTopology net, boolean fireEvents,
+                                   Time checkpointTime, String checkpointFile )
+        {
             this.net = net;
+            this.fireEvents = fireEvents;
+            this.checkpointTime = checkpointTime;
+            this.checkpointFile = checkpointFile;
         }
         
         @Override
         public void run()
         {
             try {
-                startSimulation( net );
+                startSimulation( net, fireEvents, checkpointTime, checkpointFile );
             } catch ( IOException e ) {
                 e.printStackTrace();
             }
         }
         
-        private static final void startSimulation( NetworkTopology net ) throws IOException
+        /**
+         * Executes the simulation.
+         * 
+         * @param net               the network to simulate.
+         * @param fireEvents        {@code true} to schedule the first events of the agents,
+         *                          {@code false} if they have been restored from a checkpoint.
+         * @param checkpointTime    time of the checkpoint ({@code null} if disabled).
+         * @param checkpointFile    the checkpoint file.
+        */
+        private static final void startSimulation( NetworkTopology net, boolean fireEvents,
+                                                   Time checkpointTime, String checkpointFile ) throws IOException
         {
             System.out.println( "Simulation start!" );
             long startTime = System.currentTimeMillis();
             
             EventScheduler evtScheduler = net.getEventScheduler();
-            for (Agent agent : net.getAgents()) {
-                evtScheduler.schedule( agent.fireEvent(/* null, null */) );
+            if (fireEvents) {
+                scheduleFirstEvents( net );
+            }
+            
+            if (checkpointTime != null) {
+                evtScheduler.doEventsUntil( checkpointTime );
+                Checkpoint.save( net, checkpointFile );
+                System.out.println( "Checkpoint saved at " + evtScheduler.getTime() + " into \"" + checkpointFile + "\"" );
             }
             
             net.getEventScheduler().doAllEvents();
@@ -197,6 +476,20 @@ public class Simulator implements AutoCloseable
             long seconds = (elapsedTime - hours*3600000L - minutes*60000L)/1000L;
             long millis  =  elapsedTime - hours*3600000L - minutes*60000L - seconds*1000L;
             System.out.println( "Simulation completed in " + hours + "h:" + minutes + "m:" + seconds + "s:" + millis + "ms" );
+            if (evtScheduler instanceof ConservativeScheduler ||
+                evtScheduler instanceof OptimisticScheduler) {
+                System.out.println( evtScheduler );
+            }
+            if (evtScheduler.isExecutionDigestEnabled()) {
+                System.out.println( "Execution digest: " + Long.toHexString( evtScheduler.getExecutionDigest() ) );
+            }
+            if (evtScheduler.getCancelledEvents() + evtScheduler.getRescheduledEvents() > 0) {
+                System.out.println( "Cancelled events: " + evtScheduler.getCancelledEvents() +
+                                    ", rescheduled events: " + evtScheduler.getRescheduledEvents() );
+            }
+            if (evtScheduler.getEventPool() != null) {
+                System.out.println( evtScheduler.getEventPool() );
+            }
         }
         
         /*public NetworkTopology getNetwork() {
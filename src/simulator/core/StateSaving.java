@@ -0,0 +1,41 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.core;
+
+/**
+ * Object whose state can be saved and restored later.</br>
+ * It's used by the optimistic executions (see {@linkplain simulator.events.parallel.OptimisticScheduler OptimisticScheduler})
+ * to undo the events executed speculatively.</br>
+ * Each saved state is either restored or discarded exactly once, in the reverse (restore)
+ * or in the same (discard) order of their creation, so an implementation can save
+ * only the modifications made since the previous state (i.e. with an undo log).</br>
+ * Subclasses with additional fields must override {@linkplain #saveState()},
+ * {@linkplain #restoreState(Object)} and {@linkplain #discardState(Object)},
+ * wrapping the state of the super class.
+*/
+public interface StateSaving
+{
+    /**
+     * Saves the current state.
+     * 
+     * @return the saved state.
+    */
+    public Object saveState();
+    
+    /**
+     * Restores a previously saved state.
+     * 
+     * @param state    the state, as returned by {@linkplain #saveState()}.
+    */
+    public void restoreState( Object state );
+    
+    /**
+     * Notifies that a saved state will never be restored.</br>
+     * By default it does nothing.
+     * 
+     * @param state    the state, as returned by {@linkplain #saveState()}.
+    */
+    public default void discardState( Object state ) {}
+}
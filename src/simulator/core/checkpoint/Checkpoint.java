@@ -0,0 +1,286 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.core.checkpoint;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import simulator.core.Agent;
+import simulator.events.Event;
+import simulator.exception.SimulatorException;
+import simulator.topology.NetworkLink;
+import simulator.topology.NetworkNode;
+import simulator.topology.NetworkTopology;
+
+/**
+ * Saves and restores the state of a simulation, to warm-start several runs
+ * from the same point (e.g. to compare different policies after a common warm-up phase).</br>
+ * A checkpoint contains the pending events, the time of the scheduler and the state
+ * of each agent, together with its devices, event generators and samplers
+ * (see {@linkplain Checkpointable}).</br>
+ * The structure of the simulation is not saved: before restoring a checkpoint
+ * the network and its agents must be built again in the same way, and the schemas
+ * of the packets must be registered into its context, unless they use the default one
+ * (see {@linkplain simulator.core.SimulationContext#addPacketSchema(simulator.events.PacketSchema)}).
+ * <p>
+ * File structure:
+ * <pre>
+ * header  => magic, version
+ * classes => number of event classes, class names
+ * events  => number of events, class index of each event, state of each event
+ * state   => event scheduler, inactive nodes and links, number of agents, (agent id, agent state) for each agent
+ * </pre>
+ * Every event is instantiated through its constructor without arguments,
+ * that can also be protected.
+*/
+public class Checkpoint
+{
+    private static final int MAGIC   = 0x4E534350; // "NSCP"
+    private static final int VERSION = 3;
+    
+    
+    
+    /**
+     * Saves the state of the network into the given file.
+     * 
+     * @param net     the network to save.
+     * @param file    the checkpoint file.
+     * 
+     * @throws SimulatorException if an event or a value can't be saved.
+    */
+    public static void save( NetworkTopology net, String file ) throws IOException
+    {
+        CheckpointWriter state = new CheckpointWriter();
+        net.getEventScheduler().writeCheckpoint( state );
+        writeInactiveElements( state, net );
+        List<Agent> agents = getAgents( net );
+        state.writeInt( agents.size() );
+        for (Agent agent : agents) {
+            state.writeLong( agent.getId() );
+            agent.writeCheckpoint( state );
+        }
+        
+        // Writing an event can refer to new events, appended at the end of the table.
+        CheckpointWriter events = state.newSection();
+        List<Event> table = state.getEvents();
+        for (int i = 0; i < table.size(); i++) {
+            table.get( i ).writeCheckpoint( events );
+        }
+        
+        CheckpointWriter header = state.newSection();
+        header.writeInt( MAGIC );
+        header.writeInt( VERSION );
+        writeEventClasses( header, table );
+        
+        ByteBuffer[] buffers = { header.getBuffer(), events.getBuffer(), state.getBuffer() };
+        Path path = Paths.get( file );
+        if (path.getParent() != null) {
+            path.getParent().toFile().mkdirs();
+        }
+        try (FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE,
+                                                           StandardOpenOption.WRITE,
+                                                           StandardOpenOption.TRUNCATE_EXISTING )) {
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                channel.write( buffers );
+            }
+        }
+    }
+    
+    /**
+     * Writes the nodes and links shut down by the external events.
+    */
+    private static void writeInactiveElements( CheckpointWriter out, NetworkTopology net )
+    {
+        List<Long> nodes = new ArrayList<>();
+        for (NetworkNode node : net.getNodes()) {
+            if (!node.isActive()) {
+                nodes.add( node.getId() );
+            }
+        }
+        out.writeInt( nodes.size() );
+        for (long id : nodes) {
+            out.writeLong( id );
+        }
+        
+        List<NetworkLink> links = new ArrayList<>();
+        for (NetworkLink link : net.getLinks()) {
+            if (!link.isActive()) {
+                links.add( link );
+            }
+        }
+        out.writeInt( links.size() );
+        for (NetworkLink link : links) {
+            out.writeLong( link.getSourceId() );
+            out.writeLong( link.getDestId() );
+        }
+    }
+    
+    private static void writeEventClasses( CheckpointWriter out, List<Event> events )
+    {
+        Map<Class<?>,Integer> indexes = new HashMap<>();
+        List<Class<?>> classes = new ArrayList<>();
+        int[] eventClasses = new int[events.size()];
+        for (int i = 0; i < eventClasses.length; i++) {
+            Class<?> eventClass = events.get( i ).getClass();
+            Integer index = indexes.get( eventClass );
+            if (index == null) {
+                checkConstructor( eventClass );
+                index = classes.size();
+                indexes.put( eventClass, index );
+                classes.add( eventClass );
+            }
+            eventClasses[i] = index;
+        }
+        
+        out.writeInt( classes.size() );
+        for (Class<?> eventClass : classes) {
+            out.writeString( eventClass.getName() );
+        }
+        out.writeInt( eventClasses.length );
+        for (int index : eventClasses) {
+            out.writeInt( index );
+        }
+    }
+    
+    private static void checkConstructor( Class<?> eventClass )
+    {
+        try {
+            eventClass.getDeclaredConstructor();
+        } catch ( NoSuchMethodException e ) {
+            throw new SimulatorException( "Event " + eventClass.getName() + " can't be saved: " +
+                                          "a constructor without arguments is required." );
+        }
+    }
+    
+    /**
+     * Restores the state of the network from the given file.</br>
+     * The network must contain the same agents of the saved one,
+     * each one with the same devices, event generators and samplers.
+     * 
+     * @param net     the network to restore.
+     * @param file    the checkpoint file.
+     * 
+     * @throws IOException if the file is not a valid checkpoint for the given network.
+    */
+    public static void restore( NetworkTopology net, String file ) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open( Paths.get( file ), StandardOpenOption.READ )) {
+            MappedByteBuffer buffer = channel.map( MapMode.READ_ONLY, 0, channel.size() );
+            CheckpointReader in = new CheckpointReader( buffer, net );
+            if (in.readInt() != MAGIC) {
+                throw new IOException( "File \"" + file + "\" is not a checkpoint." );
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException( "Unsupported checkpoint version: " + version );
+            }
+            
+            Event[] events = readEvents( in );
+            in.setEvents( events );
+            for (Event e : events) {
+                e.readCheckpoint( in );
+            }
+            
+            net.getEventScheduler().readCheckpoint( in );
+            readInactiveElements( in, net );
+            List<Agent> agents = getAgents( net );
+            int size = in.readInt();
+            if (size != agents.size()) {
+                throw new IOException( "The checkpoint contains " + size + " agents, " +
+                                       "while the network has " + agents.size() + " agents." );
+            }
+            for (Agent agent : agents) {
+                long id = in.readLong();
+                if (id != agent.getId()) {
+                    throw new IOException( "Agent " + id + " not found in the network." );
+                }
+                agent.readCheckpoint( in );
+            }
+        }
+    }
+    
+    /**
+     * Reads the nodes and links shut down by the external events,
+     * updating the routes only for the elements whose state is changed.
+    */
+    private static void readInactiveElements( CheckpointReader in, NetworkTopology net ) throws IOException
+    {
+        Set<NetworkNode> inactiveNodes = new HashSet<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            long id = in.readLong();
+            NetworkNode node = net.getNode( id );
+            if (node == null) {
+                throw new IOException( "Node " + id + " not found in the network." );
+            }
+            inactiveNodes.add( node );
+        }
+        
+        Set<NetworkLink> inactiveLinks = new HashSet<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            long sourceId = in.readLong();
+            long destId = in.readLong();
+            NetworkLink link = net.containsNode( sourceId ) ? net.getLink( sourceId, destId ) : null;
+            if (link == null) {
+                throw new IOException( "Link " + sourceId + " -> " + destId + " not found in the network." );
+            }
+            inactiveLinks.add( link );
+        }
+        
+        List<NetworkNode> activeNodes = new ArrayList<>( net.getNodes() );
+        activeNodes.removeAll( inactiveNodes );
+        List<NetworkLink> activeLinks = net.getLinks();
+        activeLinks.removeAll( inactiveLinks );
+        net.setActive( activeNodes, activeLinks, true );
+        net.setActive( inactiveNodes, inactiveLinks, false );
+    }
+    
+    private static Event[] readEvents( CheckpointReader in ) throws IOException
+    {
+        Constructor<?>[] constructors = new Constructor<?>[in.readInt()];
+        for (int i = 0; i < constructors.length; i++) {
+            String className = in.readString();
+            try {
+                constructors[i] = Class.forName( className ).getDeclaredConstructor();
+                constructors[i].setAccessible( true );
+            } catch ( ReflectiveOperationException e ) {
+                throw new IOException( "Unable to restore the events of type " + className, e );
+            }
+        }
+        
+        Event[] events = new Event[in.readInt()];
+        for (int i = 0; i < events.length; i++) {
+            try {
+                events[i] = (Event) constructors[in.readInt()].newInstance();
+            } catch ( ReflectiveOperationException e ) {
+                throw new IOException( e );
+            }
+        }
+        return events;
+    }
+    
+    /**
+     * Returns the agents of the network, sorted by identifier.
+    */
+    private static List<Agent> getAgents( NetworkTopology net )
+    {
+        List<Agent> agents = new ArrayList<>( net.getAgents() );
+        agents.sort( Comparator.comparingLong( Agent::getId ) );
+        return agents;
+    }
+}
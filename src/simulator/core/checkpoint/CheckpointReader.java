@@ -0,0 +1,209 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.core.checkpoint;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import simulator.core.Agent;
+import simulator.core.SimulationContext;
+import simulator.events.Event;
+import simulator.events.Packet;
+import simulator.events.PacketSchema;
+import simulator.topology.NetworkTopology;
+import simulator.utils.SizeUnit;
+import simulator.utils.Time;
+import simulator.utils.Utils;
+
+/**
+ * Reads the state of the simulation written by a {@linkplain CheckpointWriter}.</br>
+ * The data are read directly from the memory mapped file
+ * (see {@linkplain Checkpoint#restore(NetworkTopology, String)}).
+ * Agents are resolved through the network, while events are taken from the table
+ * of the events created at the beginning of the restore.
+*/
+public class CheckpointReader
+{
+    private final ByteBuffer buffer;
+    private final NetworkTopology net;
+    private Event[] events;
+    
+    
+    
+    CheckpointReader( ByteBuffer buffer, NetworkTopology net )
+    {
+        this.buffer = buffer;
+        this.net = net;
+    }
+    
+    void setEvents( Event[] events ) {
+        this.events = events;
+    }
+    
+    /**
+     * Returns the network which the checkpoint is restored into.
+    */
+    public NetworkTopology getNetwork() {
+        return net;
+    }
+    
+    public byte readByte() {
+        return buffer.get();
+    }
+    
+    public boolean readBoolean() {
+        return buffer.get() != 0;
+    }
+    
+    public int readInt() {
+        return buffer.getInt();
+    }
+    
+    public long readLong() {
+        return buffer.getLong();
+    }
+    
+    public double readDouble() {
+        return buffer.getDouble();
+    }
+    
+    public byte[] readBytes()
+    {
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get( value );
+        return value;
+    }
+    
+    /**
+     * Enters a block written by {@linkplain CheckpointWriter#beginBlock()},
+     * whose values are read as usual.
+    */
+    public void beginBlock() {
+        buffer.getInt();
+    }
+    
+    /**
+     * Skips a block written by {@linkplain CheckpointWriter#beginBlock()}.
+    */
+    public void skipBlock()
+    {
+        int length = buffer.getInt();
+        buffer.position( buffer.position() + length );
+    }
+    
+    public String readString()
+    {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        
+        byte[] value = new byte[length];
+        buffer.get( value );
+        return new String( value, StandardCharsets.UTF_8 );
+    }
+    
+    public Time readTime()
+    {
+        if (!readBoolean()) {
+            return null;
+        }
+        return new Time( buffer.getLong(), TimeUnit.MICROSECONDS );
+    }
+    
+    /**
+     * Reads the reference to an agent.
+     * 
+     * @throws IOException if the agent is not present in the network.
+    */
+    public Agent readAgent() throws IOException
+    {
+        long id = buffer.getLong();
+        if (id < 0) {
+            return null;
+        }
+        
+        Agent agent = net.getAgent( id );
+        if (agent == null) {
+            throw new IOException( "Agent " + id + " not found in the network." );
+        }
+        return agent;
+    }
+    
+    /**
+     * Reads the reference to an event.
+    */
+    public Event readEvent() throws IOException
+    {
+        int index = buffer.getInt();
+        if (index < 0) {
+            return null;
+        }
+        if (index >= events.length) {
+            throw new IOException( "Invalid event reference: " + index );
+        }
+        return events[index];
+    }
+    
+    /**
+     * Reads a packet, restored with the schema of the same name registered
+     * in the context of the network (see {@linkplain SimulationContext#addPacketSchema(PacketSchema)}).
+     * 
+     * @throws IOException if the schema of the packet is not registered.
+    */
+    public Packet readPacket() throws IOException
+    {
+        if (!readBoolean()) {
+            return null;
+        }
+        
+        String name = readString();
+        PacketSchema schema = net.getContext().getPacketSchema( name );
+        if (schema == null) {
+            throw new IOException( "Unknown packet schema: " + name );
+        }
+        long size = buffer.getLong();
+        int unit = buffer.getInt();
+        Packet packet = new Packet( size, (unit < 0) ? null : SizeUnit.values()[unit], schema );
+        packet.setFlowId( buffer.getLong() );
+        for (int i = buffer.getInt(); i > 0; i--) {
+            String field = readString();
+            packet.addContent( field, readObject() );
+        }
+        return packet;
+    }
+    
+    public <T extends Serializable> T readSerializable() throws IOException
+    {
+        T value = Utils.deserializeObject( readBytes() );
+        if (value == null) {
+            throw new IOException( "Unable to deserialize the object." );
+        }
+        return value;
+    }
+    
+    /**
+     * Reads a value written by {@linkplain CheckpointWriter#writeObject(Object)}.
+    */
+    public Object readObject() throws IOException
+    {
+        byte type = buffer.get();
+        switch (type) {
+            case CheckpointWriter.NULL:         return null;
+            case CheckpointWriter.LONG:         return buffer.getLong();
+            case CheckpointWriter.INTEGER:      return buffer.getInt();
+            case CheckpointWriter.DOUBLE:       return buffer.getDouble();
+            case CheckpointWriter.BOOLEAN:      return readBoolean();
+            case CheckpointWriter.STRING:       return readString();
+            case CheckpointWriter.TIME:         return readTime();
+            case CheckpointWriter.EVENT:        return readEvent();
+            case CheckpointWriter.SERIALIZABLE: return readSerializable();
+            default: throw new IOException( "Unknown type of value: " + type );
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.core.checkpoint;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import simulator.core.Agent;
+import simulator.events.Event;
+import simulator.events.Packet;
+import simulator.exception.SimulatorException;
+import simulator.utils.Time;
+import simulator.utils.Utils;
+
+/**
+ * Writes the state of the simulation in a compact binary format.</br>
+ * Values are written in a growing buffer, later transferred to the file
+ * (see {@linkplain Checkpoint#save(simulator.topology.NetworkTopology, String)}).
+ * Agents are written through their identifiers, while events are collected in a table,
+ * so each event is written once even if it's referred by several objects.
+*/
+public class CheckpointWriter
+{
+    // Tags of the generic values.
+    static final byte NULL         = 0;
+    static final byte LONG         = 1;
+    static final byte INTEGER      = 2;
+    static final byte DOUBLE       = 3;
+    static final byte BOOLEAN      = 4;
+    static final byte STRING       = 5;
+    static final byte TIME         = 6;
+    static final byte EVENT        = 7;
+    static final byte SERIALIZABLE = 8;
+    
+    private ByteBuffer buffer;
+    private final EventTable events;
+    
+    
+    
+    public CheckpointWriter() {
+        this( 1 << 16 );
+    }
+    
+    /**
+     * Creates a new writer.
+     * 
+     * @param capacity    initial capacity of the buffer, in bytes.
+    */
+    CheckpointWriter( int capacity ) {
+        this( new EventTable(), capacity );
+    }
+    
+    private CheckpointWriter( EventTable events, int capacity )
+    {
+        this.events = events;
+        buffer = ByteBuffer.allocate( capacity );
+    }
+    
+    /**
+     * Creates a new writer sharing the same table of events.
+    */
+    CheckpointWriter newSection() {
+        return new CheckpointWriter( events, 1 << 16 );
+    }
+    
+    /**
+     * Returns the events referred so far.
+    */
+    List<Event> getEvents() {
+        return events.list;
+    }
+    
+    /**
+     * Returns the written bytes, ready to be transferred.
+    */
+    ByteBuffer getBuffer()
+    {
+        ByteBuffer data = buffer.duplicate();
+        data.flip();
+        return data;
+    }
+    
+    private void ensureCapacity( int bytes )
+    {
+        if (buffer.remaining() < bytes) {
+            int capacity = buffer.capacity();
+            while (capacity - buffer.position() < bytes) {
+                capacity <<= 1;
+            }
+            ByteBuffer newBuffer = ByteBuffer.allocate( capacity );
+            buffer.flip();
+            newBuffer.put( buffer );
+            buffer = newBuffer;
+        }
+    }
+    
+    public void writeByte( byte value )
+    {
+        ensureCapacity( Byte.BYTES );
+        buffer.put( value );
+    }
+    
+    public void writeBoolean( boolean value ) {
+        writeByte( (byte) (value ? 1 : 0) );
+    }
+    
+    public void writeInt( int value )
+    {
+        ensureCapacity( Integer.BYTES );
+        buffer.putInt( value );
+    }
+    
+    public void writeLong( long value )
+    {
+        ensureCapacity( Long.BYTES );
+        buffer.putLong( value );
+    }
+    
+    public void writeDouble( double value )
+    {
+        ensureCapacity( Double.BYTES );
+        buffer.putDouble( value );
+    }
+    
+    public void writeBytes( byte[] value )
+    {
+        writeInt( value.length );
+        ensureCapacity( value.length );
+        buffer.put( value );
+    }
+    
+    /**
+     * Starts a block of values, that can be skipped by the reader
+     * (see {@linkplain CheckpointReader#skipBlock()}).
+     * 
+     * @return the position of the block, to give to {@linkplain #endBlock(int)}.
+    */
+    public int beginBlock()
+    {
+        writeInt( 0 );
+        return buffer.position();
+    }
+    
+    /**
+     * Ends a block of values, writing its length.
+     * 
+     * @param block    the position returned by {@linkplain #beginBlock()}.
+    */
+    public void endBlock( int block ) {
+        buffer.putInt( block - Integer.BYTES, buffer.position() - block );
+    }
+    
+    /**
+     * Writes a string, that can be {@code null}.
+    */
+    public void writeString( String value )
+    {
+        if (value == null) {
+            writeInt( -1 );
+        } else {
+            writeBytes( value.getBytes( StandardCharsets.UTF_8 ) );
+        }
+    }
+    
+    /**
+     * Writes a time, that can be {@code null}.
+    */
+    public void writeTime( Time time )
+    {
+        writeBoolean( time != null );
+        if (time != null) {
+            writeLong( time.getTimeMicros() );
+        }
+    }
+    
+    /**
+     * Writes the reference to an agent, that can be {@code null}.
+    */
+    public void writeAgent( Agent agent ) {
+        writeLong( (agent == null) ? -1 : agent.getId() );
+    }
+    
+    /**
+     * Writes the reference to an event, that can be {@code null}.</br>
+     * The state of the event is written separately, only once.
+    */
+    public void writeEvent( Event event ) {
+        writeInt( (event == null) ? -1 : events.indexOf( event ) );
+    }
+    
+    /**
+     * Writes a packet, that can be {@code null}, with the name of its schema
+     * and all its contents (see {@linkplain #writeObject(Object)}).
+    */
+    public void writePacket( Packet packet )
+    {
+        writeBoolean( packet != null );
+        if (packet != null) {
+            writeString( packet.getSchema().getName() );
+            writeLong( packet.getSize() );
+            writeInt( (packet.getSizeType() == null) ? -1 : packet.getSizeType().ordinal() );
+            writeLong( packet.getFlowId() );
+            Map<String,Object> contents = packet.getContents();
+            writeInt( (contents == null) ? 0 : contents.size() );
+            if (contents != null) {
+                for (Entry<String,Object> entry : contents.entrySet()) {
+                    writeString( entry.getKey() );
+                    writeObject( entry.getValue() );
+                }
+            }
+        }
+    }
+    
+    /**
+     * Writes a serializable object, through the Java serialization.
+     * 
+     * @throws SimulatorException if the object can't be serialized.
+    */
+    public void writeSerializable( Serializable value ) throws SimulatorException
+    {
+        byte[] data = Utils.serializeObject( value );
+        if (data == null) {
+            throw new SimulatorException( "Object of type " + value.getClass().getName() + " can't be serialized." );
+        }
+        writeBytes( data );
+    }
+    
+    /**
+     * Writes a generic value.</br>
+     * Numbers, strings, times and events are written directly,
+     * any other object must be {@linkplain Serializable}.
+     * 
+     * @throws SimulatorException if the value can't be written.
+    */
+    public void writeObject( Object value ) throws SimulatorException
+    {
+        if (value == null) {
+            writeByte( NULL );
+        } else if (value instanceof Long) {
+            writeByte( LONG );
+            writeLong( (Long) value );
+        } else if (value instanceof Integer) {
+            writeByte( INTEGER );
+            writeInt( (Integer) value );
+        } else if (value instanceof Double) {
+            writeByte( DOUBLE );
+            writeDouble( (Double) value );
+        } else if (value instanceof Boolean) {
+            writeByte( BOOLEAN );
+            writeBoolean( (Boolean) value );
+        } else if (value instanceof String) {
+            writeByte( STRING );
+            writeString( (String) value );
+        } else if (value instanceof Time) {
+            writeByte( TIME );
+            writeTime( (Time) value );
+        } else if (value instanceof Event) {
+            writeByte( EVENT );
+            writeEvent( (Event) value );
+        } else if (value instanceof Serializable) {
+            writeByte( SERIALIZABLE );
+            writeSerializable( (Serializable) value );
+        } else {
+            throw new SimulatorException( "Object of type " + value.getClass().getName() + " can't be saved." );
+        }
+    }
+    
+    /**
+     * Table of the events written into the checkpoint.
+    */
+    private static class EventTable
+    {
+        private final Map<Event,Integer> indexes = new IdentityHashMap<>();
+        private final List<Event> list = new ArrayList<>();
+        
+        private int indexOf( Event e )
+        {
+            Integer index = indexes.get( e );
+            if (index == null) {
+                index = list.size();
+                indexes.put( e, index );
+                list.add( e );
+            }
+            return index;
+        }
+    }
+}
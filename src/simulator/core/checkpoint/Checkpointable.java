@@ -0,0 +1,32 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.core.checkpoint;
+
+import java.io.IOException;
+
+/**
+ * Object whose state can be written into a checkpoint and read back
+ * (see {@linkplain Checkpoint}).</br>
+ * Only the dynamic state is saved: the structure of the simulation (network, agents,
+ * devices, models, ...) is built again by the code before restoring it.</br>
+ * Subclasses with additional fields must override both the methods,
+ * writing and reading the fields of the super class first.
+*/
+public interface Checkpointable
+{
+    /**
+     * Writes the current state.
+     * 
+     * @param out    the checkpoint writer.
+    */
+    public void writeCheckpoint( CheckpointWriter out ) throws IOException;
+    
+    /**
+     * Reads the state written by {@linkplain #writeCheckpoint(CheckpointWriter)}.
+     * 
+     * @param in    the checkpoint reader.
+    */
+    public void readCheckpoint( CheckpointReader in ) throws IOException;
+}
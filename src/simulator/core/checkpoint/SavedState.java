@@ -0,0 +1,77 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.core.checkpoint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import simulator.events.Event;
+import simulator.exception.SimulatorException;
+import simulator.topology.NetworkTopology;
+
+/**
+ * State of a {@linkplain Checkpointable} object, kept in memory.</br>
+ * It allows to save and restore the state of an object during the simulation
+ * (see {@linkplain simulator.core.StateSaving StateSaving}) through the same methods
+ * used by the checkpoints, instead of copying each of its fields.
+ * Differently from a checkpoint the events are kept by reference,
+ * so the restored object refers to the same events of the saved one.
+*/
+public class SavedState
+{
+    private final byte[] data;
+    private final Event[] events;
+    private final NetworkTopology net;
+    
+    
+    
+    private SavedState( byte[] data, Event[] events, NetworkTopology net )
+    {
+        this.data = data;
+        this.events = events;
+        this.net = net;
+    }
+    
+    /**
+     * Saves the current state of the object.
+     * 
+     * @param object    the object to save.
+     * @param net       the network used to resolve the agents and the packets, when the state is restored.
+     * 
+     * @throws SimulatorException if the state of the object can't be written.
+    */
+    public static SavedState save( Checkpointable object, NetworkTopology net ) throws SimulatorException
+    {
+        CheckpointWriter out = new CheckpointWriter( 1 << 10 );
+        try {
+            object.writeCheckpoint( out );
+        } catch ( IOException e ) {
+            throw new SimulatorException( "Can't save the state of " + object + ".", e );
+        }
+        
+        ByteBuffer buffer = out.getBuffer();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get( data );
+        return new SavedState( data, out.getEvents().toArray( new Event[0] ), net );
+    }
+    
+    /**
+     * Restores the saved state into the given object.
+     * 
+     * @param object    the object to restore, usually the same that has been saved.
+     * 
+     * @throws SimulatorException if the state of the object can't be read.
+    */
+    public void restore( Checkpointable object ) throws SimulatorException
+    {
+        CheckpointReader in = new CheckpointReader( ByteBuffer.wrap( data ), net );
+        in.setEvents( events );
+        try {
+            object.readCheckpoint( in );
+        } catch ( IOException e ) {
+            throw new SimulatorException( "Can't restore the state of " + object + ".", e );
+        }
+    }
+}
@@ -8,6 +8,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -18,7 +20,11 @@ import org.newdawn.slick.util.ResourceLoader;
 
 import simulator.core.Agent;
 import simulator.core.Model;
+import simulator.core.StateSaving;
 import simulator.core.Task;
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
+import simulator.core.checkpoint.Checkpointable;
 import simulator.events.EventScheduler;
 import simulator.utils.Sampler;
 import simulator.utils.Time;
@@ -37,7 +43,7 @@ import simulator.utils.Time;
  * @param <O>    type of the Output parameters of the {@link Model#eval(Object...) eval} method
  *               of the associated model.
 */
-public abstract class Device<I,O>
+public abstract class Device<I,O> implements StateSaving, Checkpointable
 {
     private Agent _agent;
     
@@ -151,12 +157,23 @@ public abstract class Device<I,O>
     }
     
     /**
-     * Sets the device time.
+     * Sets the device time.</br>
+     * This is the method called by the agent owning the device:
+     * by default it calls {@linkplain #setTime(long)}, so a device can override either of them.
      * 
      * @param time    time to set.
     */
     public void setTime( Time time ) {
-        _time.setTime( time );
+        setTime( time.getTimeMicros() );
+    }
+    
+    /**
+     * Sets the device time.
+     * 
+     * @param time    time to set, expressed in microseconds.
+    */
+    public void setTime( long time ) {
+        _time.setTime( time, TimeUnit.MICROSECONDS );
     }
     
     /**
@@ -166,6 +183,13 @@ public abstract class Device<I,O>
         return _time.clone();
     }
     
+    /**
+     * Returns the current time of this device, expressed in microseconds.
+    */
+    public long getTimeMicros() {
+        return _time.getTimeMicros();
+    }
+    
     /**
      * Returns the list of available frequencies for this device in increasing order.
     */
@@ -237,6 +261,68 @@ public abstract class Device<I,O>
     */
     public abstract double getUtilization( Time time );
     
+    /**
+     * Checks whether the state of the device can be saved and restored (see {@linkplain StateSaving}).</br>
+     * By default it's {@code true} if the device overrides {@linkplain #saveState()},
+     * or if it has no fields other than the ones of this class.
+    */
+    public boolean isStateSaving()
+    {
+        try {
+            if (getClass().getMethod( "saveState" ).getDeclaringClass() != Device.class) {
+                return true;
+            }
+        } catch ( NoSuchMethodException e ) {
+            return false;
+        }
+        for (Class<?> type = getClass(); type != Device.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (!Modifier.isStatic( field.getModifiers() ) && !field.isSynthetic()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Saves the time and the frequency of the device.</br>
+     * Devices with additional fields must override it (see {@linkplain StateSaving}).
+    */
+    @Override
+    public Object saveState() {
+        return new long[] { _time.getTimeMicros(), _frequency };
+    }
+    
+    @Override
+    public void restoreState( Object state )
+    {
+        long[] fields = (long[]) state;
+        _time.setTime( fields[0], TimeUnit.MICROSECONDS );
+        _frequency = fields[1];
+    }
+    
+    /**
+     * Writes the time and the frequency of the device.</br>
+     * Devices with additional fields must override it (see {@linkplain Checkpointable}).</br>
+     * The state of the model is not saved, so a different model
+     * can be used after the restore.
+    */
+    @Override
+    public void writeCheckpoint( CheckpointWriter out ) throws IOException
+    {
+        // The time is not used by the devices built from a specification file.
+        out.writeTime( _time );
+        out.writeLong( _frequency );
+    }
+    
+    @Override
+    public void readCheckpoint( CheckpointReader in ) throws IOException
+    {
+        _time = in.readTime();
+        _frequency = in.readLong();
+    }
+    
     /**
      * Shutdowns the device, closing all the opened resources
      * and writing on file any registered sampling.
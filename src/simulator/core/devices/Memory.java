@@ -10,6 +10,8 @@ import java.util.List;
 import org.json.JSONObject;
 
 import simulator.core.Task;
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
 import simulator.test.energy.CPUModel.QueryInfo;
 import simulator.utils.Time;
 import simulator.utils.resources.ResourceLoader;
@@ -59,6 +61,33 @@ public class Memory extends Device<QueryInfo,Long>
         used -= size;
     }
     
+    @Override
+    public Object saveState() {
+        return new Object[] { super.saveState(), used };
+    }
+    
+    @Override
+    public void restoreState( Object state )
+    {
+        Object[] fields = (Object[]) state;
+        super.restoreState( fields[0] );
+        used = (Long) fields[1];
+    }
+    
+    @Override
+    public void writeCheckpoint( CheckpointWriter out ) throws IOException
+    {
+        super.writeCheckpoint( out );
+        out.writeLong( used );
+    }
+    
+    @Override
+    public void readCheckpoint( CheckpointReader in ) throws IOException
+    {
+        super.readCheckpoint( in );
+        used = in.readLong();
+    }
+    
     @Override
     public Time timeToCompute( Task task ) {
         return Time.ZERO;
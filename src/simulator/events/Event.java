@@ -4,23 +4,31 @@
 
 package simulator.events;
 
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 import simulator.core.Agent;
+import simulator.core.StateSaving;
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
+import simulator.core.checkpoint.Checkpointable;
 import simulator.events.EventHandler.EventType;
 import simulator.events.impl.AgentEvent;
 import simulator.events.impl.RequestEvent;
 import simulator.events.impl.ResponseEvent;
+import simulator.exception.SimulatorException;
 import simulator.topology.NetworkLink;
 import simulator.topology.NetworkNode;
 import simulator.topology.NetworkTopology;
+import simulator.topology.RoutingTable;
 import simulator.utils.Time;
 
-public abstract class Event implements Comparable<Event>
+public abstract class Event implements Comparable<Event>, StateSaving, Checkpointable, Cloneable
 {
     /** Event time in microseconds. */
     private Time _time = new Time( 0, TimeUnit.MICROSECONDS );
-    private Time _arrivalTime = Time.ZERO;
+    /** Arrival time in microseconds. */
+    private long _arrivalTime = 0;
     
     private Agent _source;
     private Agent _dest;
@@ -33,9 +41,27 @@ public abstract class Event implements Comparable<Event>
     protected Packet _packet;
     
     private long eventID     = -1;
+    // Order among simultaneous events, given by the sequence number of its source agent.
+    private long _sequence   = -1;
     
+    // Pool which the event belongs to (null if not pooled).
+    private EventPool _pool;
+    // Number of references kept by the agents.
+    private int _references = 0;
+    // Checks whether the event is into the pending event set.
+    private boolean _pending = false;
+    private boolean _released = false;
+    // Position of the event inside the pending event set (-1 if not present).
+    private int _queueIndex = -1;
     
     
+    
+    /**
+     * Creates an empty event, whose state is read from a checkpoint
+     * (see {@linkplain simulator.core.checkpoint.Checkpoint Checkpoint}).
+    */
+    protected Event() {}
+    
     public Event( Time time )
     {
         _time.setTime( time );
@@ -50,39 +76,217 @@ public abstract class Event implements Comparable<Event>
         setId();
     }
     
-    public Event( Time time, Agent from, Agent to, Packet packet )
+    public Event( Time time, Agent from, Agent to, Packet packet ) {
+        init( time.getTimeMicros(), from, to, packet );
+    }
+    
+    /**
+     * Initializes the event.</br>
+     * It's also used to reset an event taken from an {@linkplain EventPool}:
+     * subclasses with additional fields should override it.
+     * 
+     * @param time      time of the event, expressed in microseconds.
+     * @param from      the source agent.
+     * @param to        the destination agent.
+     * @param packet    the attached packet.
+    */
+    protected void init( long time, Agent from, Agent to, Packet packet )
     {
-        _time.setTime( time );
+        _time.setTime( time, TimeUnit.MICROSECONDS );
+        _arrivalTime = 0;
         _source = from;
         _currentNodeId = from.getId();
         _dest = to;
         
         _packet = packet;
+        _released = false;
         
         setId();
     }
     
-    private void setId() {
-        eventID = EventScheduler.nextEventId();
+    private void setId()
+    {
+        // The identifier is given by the scheduler of the source agent, if known,
+        // otherwise by the scheduler receiving the event (see EventScheduler#schedule(Event)).
+        EventScheduler evtScheduler = (_source == null) ? null : _source.getEventScheduler();
+        eventID = (evtScheduler == null) ? -1 : evtScheduler.nextEventId();
+        _sequence = (_source == null) ? eventID : _source.nextEventSequence();
+    }
+    
+    /**
+     * Checks whether the event has got its identifier.
+    */
+    boolean hasId() {
+        return eventID != -1;
+    }
+    
+    /**
+     * Sets the identifier of an event created without a scheduler.
+     * 
+     * @param id    the identifier.
+    */
+    void setId( long id )
+    {
+        eventID = id;
+        if (_source == null) {
+            _sequence = id;
+        }
+    }
+    
+    void setPool( EventPool pool ) {
+        _pool = pool;
+    }
+    
+    /**
+     * Keeps a reference to this event.</br>
+     * A retained event taken from an {@linkplain EventPool} is not recycled after its execution,
+     * until the same number of calls to {@linkplain #release()} is done.
+     * 
+     * @return this event.
+    */
+    public Event retain()
+    {
+        checkReleased();
+        _references++;
+        return this;
+    }
+    
+    /**
+     * Releases a reference previously obtained with {@linkplain #retain()}.</br>
+     * If the event is pooled and no more referenced, it's given back to its pool.
+    */
+    public void release()
+    {
+        checkReleased();
+        if (_references > 0 && --_references == 0) {
+            recycle();
+        }
+    }
+    
+    void setPending( boolean pending ) {
+        _pending = pending;
+    }
+    
+    /**
+     * Gives back the event to its pool, if it's no more used.
+    */
+    void recycle()
+    {
+        if (_pool != null && !_pending && _references == 0 && !_released) {
+            _released = true;
+            _pool.release( this );
+        }
+    }
+    
+    /**
+     * Clears all the references of a released event,
+     * so that any subsequent use of it can be detected.
+    */
+    void poison()
+    {
+        _time.setTime( Long.MIN_VALUE, TimeUnit.MICROSECONDS );
+        _arrivalTime = Long.MIN_VALUE;
+        _source = null;
+        _dest = null;
+        _packet = null;
+        _currentNodeId = -1;
+        eventID = -1;
+    }
+    
+    /**
+     * Returns the position of the event inside the pending event set,
+     * or -1 if the event is not in the set.</br>
+     * It's used by the {@linkplain simulator.events.queue.PendingEventSet PendingEventSet}
+     * implementations to locate the event without searching for it.
+    */
+    public int getQueueIndex() {
+        return _queueIndex;
+    }
+    
+    public void setQueueIndex( int index ) {
+        _queueIndex = index;
+    }
+    
+    public boolean isReleased() {
+        return _released;
+    }
+    
+    /**
+     * Throws an exception if the event has been released in debug mode.
+    */
+    void checkReleased()
+    {
+        if (_released && _pool.isDebug()) {
+            throw new SimulatorException( "Event used after being released into the pool." );
+        }
     }
     
     public Long getId() {
         return eventID;
     }
     
+    /**
+     * Returns the sequence number given by the source agent (see {@linkplain Agent#nextEventSequence()}),
+     * or the identifier of the event if it has no source.
+    */
+    public long getSequence() {
+        return _sequence;
+    }
+    
     public void setTime( Time time ) {
         _time.setTime( time );
     }
     
+    /**
+     * Sets the time of the event.
+     * 
+     * @param time    the new time, expressed in microseconds.
+    */
+    public void setTime( long time ) {
+        _time.setTime( time, TimeUnit.MICROSECONDS );
+    }
+    
+    /**
+     * Adds the given delay to the time of the event.
+     * 
+     * @param delay    the delay, expressed in microseconds.
+    */
+    public void addTime( long delay ) {
+        _time.addTime( delay, TimeUnit.MICROSECONDS );
+    }
+    
     public Time getTime() {
         return _time.clone();
     }
     
+    /**
+     * Returns the time of the event, expressed in microseconds.
+    */
+    public long getTimeMicros() {
+        return _time.getTimeMicros();
+    }
+    
     public void setArrivalTime( Time time ) {
+        _arrivalTime = time.getTimeMicros();
+    }
+    
+    /**
+     * Sets the arrival time of the event.
+     * 
+     * @param time    the arrival time, expressed in microseconds.
+    */
+    public void setArrivalTime( long time ) {
         _arrivalTime = time;
     }
     
     public Time getArrivalTime() {
+        return new Time( _arrivalTime, TimeUnit.MICROSECONDS );
+    }
+    
+    /**
+     * Returns the arrival time of the event, expressed in microseconds.
+    */
+    public long getArrivalTimeMicros() {
         return _arrivalTime;
     }
     
@@ -149,7 +353,7 @@ public abstract class Event implements Comparable<Event>
     private void executeDestination( EventScheduler evtScheduler, NetworkTopology net, NetworkNode node )
     {
         //System.out.println( "[" + _time + "] Reached destination node: " + node );
-        setArrivalTime( _time.clone() );
+        setArrivalTime( _time.getTimeMicros() );
         
         if (!checkEventExecution( _dest, evtScheduler )) {
             return;
@@ -157,25 +361,36 @@ public abstract class Event implements Comparable<Event>
         
         // Compute the delay given by the time to process the incoming message.
         long delay = (_source.getId() == _dest.getId()) ?
-                     0 : getTcalc( node, node.getAgent() ).getTimeMicros();
-        _dest.setTime( _arrivalTime.clone().addTime( delay, TimeUnit.MICROSECONDS ) );
+                     0 : getTcalc( node, node.getAgent() );
+        _dest.setTime( _arrivalTime + delay );
         
         if (this instanceof AgentEvent) {
             _dest.notifyEvent( this );
         } else {
             _dest.receivedMessage( this );
-            _time.addTime( getTcalc( node, _dest ) );
+            _time.addTime( getTcalc( node, _dest ), TimeUnit.MICROSECONDS );
         }
         
         evtScheduler.schedule( _dest.fireEvent() );
     }
     
+    /**
+     * Returns the hash of the flow of the message, used by the multipath routing
+     * (see {@linkplain RoutingTable#flowHash(long, long, long)}).
+    */
+    private long getFlowHash()
+    {
+        long flowId = (_packet == null) ? 0 : _packet.getFlowId();
+        return RoutingTable.flowHash( _source.getId(), _dest.getId(), flowId );
+    }
+    
     private void executeIntermediate( EventScheduler evtScheduler, NetworkTopology net, NetworkNode node )
     {
         long nodeId = node.getId();
-        Time time = _time.clone();
-        long nextNode = net.nextNode( nodeId, _dest.getId() ).getId();
-        NetworkLink link = net.getLink( nodeId, nextNode );
+        long time = _time.getTimeMicros();
+        NetworkNode next = net.nextNode( node, _dest.getNode(), getFlowHash() );
+        long nextNode = next.getId();
+        NetworkLink link = net.getLink( node, next );
         if (link != null && link.isActive()) {
             //if (nodeId == _source.getId()) System.out.println( "[" + _time + "] Starting from node: " + node );
             
@@ -192,25 +407,25 @@ public abstract class Event implements Comparable<Event>
                         return;
                     }
                     
-                    delay = getTcalc( node, node.getAgent() ).getTimeMicros();
+                    delay = getTcalc( node, node.getAgent() );
                     // Add event on queue only for nodes different from source.
                     agent.receivedMessage( this );
                 }
                 
                 // Starting time is the current time + Tcalc of the node.
-                Time startTime = _time.clone().addTime( delay, TimeUnit.MICROSECONDS );
+                long startTime = _time.getTimeMicros() + delay;
                 
                 // If the transmission is not in parallel add the corresponding delay.
                 if (!agent.isParallelTransmission()) {
                     long Ttrasm = link.getTtrasm( _packet.getSizeInBits() );
-                    time.addTime( Ttrasm, TimeUnit.MICROSECONDS );
+                    time += Ttrasm;
                     delay += Ttrasm;
                 }
                 
                 // Here delay is the sum of Tcal (only for intermediate nodes) and Ttrasm.
                 _time.addTime( delay, TimeUnit.MICROSECONDS );
                 
-                agent.setTime( agent.getTime().addTime( delay, TimeUnit.MICROSECONDS ) );
+                agent.setTime( agent.getTimeMicros() + delay );
                 if (agent.getEventHandler() != null) {
                     agent.getEventHandler().handle( this, EventType.SENT );
                 }
@@ -219,7 +434,9 @@ public abstract class Event implements Comparable<Event>
                 _time.addTime( link.getTprop(), TimeUnit.MICROSECONDS );
                 
                 // Track the current event.
-                net.trackEvent( nodeId + " " + startTime + " " + nextNode + " " + _time + " " + (this instanceof RequestEvent ? 1 : -1) );
+                if (net.isTrackingEvents()) {
+                    evtScheduler.trackEvent( nodeId + " " + startTime + " " + nextNode + " " + _time + " " + (this instanceof RequestEvent ? 1 : -1) );
+                }
                 
                 // Push-back the modified event into the queue.
                 evtScheduler.schedule( this );
@@ -231,17 +448,17 @@ public abstract class Event implements Comparable<Event>
         evtScheduler.schedule( _source.fireEvent() );
     }
     
-    private Time getTcalc( NetworkNode node, Agent agent )
+    /**
+     * Returns the calculation time of the node, expressed in microseconds.
+    */
+    private long getTcalc( NetworkNode node, Agent agent )
     {
-        long delay;
         if (agent.getEventHandler() != null) {
             Time t = agent.getEventHandler().handle( this, EventType.RECEIVED );
-            delay = t.getTimeMicros();
+            return t.getTimeMicros();
         } else {
-            delay = node.getTcalc().getTimeMicros();
+            return node.getTcalcMicros();
         }
-        
-        return new Time( delay, TimeUnit.MICROSECONDS );
     }
     
     /**
@@ -254,8 +471,9 @@ public abstract class Event implements Comparable<Event>
             // TODO notificarlo nel track event??
             return false;
         } else {
-            if (!node.canExecute( _time )) {
-                // Agent cannot handle the message in this moment.
+            if (!node.canExecute( _time.getTimeMicros() )) {
+                // Agent cannot handle the message in this moment: it's executed at the time of the agent.
+                _time.setTime( node.getTimeMicros(), TimeUnit.MICROSECONDS );
                 scheduler.schedule( this );
                 return false;
             }
@@ -268,24 +486,115 @@ public abstract class Event implements Comparable<Event>
     @Override
     public int compareTo( Event o )
     {
-        int compare = _time.compareTo( o.getTime() );
+        // Times are compared directly, to avoid the creation of any temporary object.
+        int compare = _time.compareTo( o._time );
         if (compare != 0) {
             return compare;
         } else {
             // If they have the same time compare their arrival time.
-            compare = _arrivalTime.compareTo( o.getArrivalTime() );
+            compare = Long.compare( _arrivalTime, o._arrivalTime );
             if (compare == 0) {
-                // If they are of the same type compare their ID.
-                if (this.getClass().equals( o.getClass() ))
-                    return getId().compareTo( o.getId() );
                 // Give priority to the incoming events.
-                if (this instanceof ResponseEvent) return 1;
-                else return -1;
+                compare = Boolean.compare( this instanceof ResponseEvent, o instanceof ResponseEvent );
+                if (compare == 0) {
+                    compare = compareSequence( o );
+                }
             }
             return compare;
         }
     }
 
+    /**
+     * Compares two simultaneous events through the sequence numbers given by their source agents.</br>
+     * Differently from the event identifiers, they don't depend on the order
+     * in which the agents are executed, so the ordering is the same also in a parallel execution.
+    */
+    private int compareSequence( Event o )
+    {
+        int compare = Long.compare( _sequence, o._sequence );
+        if (compare == 0) {
+            compare = Long.compare( sourceId(), o.sourceId() );
+            if (compare == 0) {
+                compare = Long.compare( eventID, o.eventID );
+            }
+        }
+        return compare;
+    }
+    
+    private long sourceId() {
+        return (_source == null) ? -1 : _source.getId();
+    }
+
+    /**
+     * Saves the fields modified by the execution of the event.
+    */
+    @Override
+    public Object saveState() {
+        return new long[] { _time.getTimeMicros(), _arrivalTime, _currentNodeId, _processedByAgent ? 1 : 0 };
+    }
+    
+    @Override
+    public void restoreState( Object state )
+    {
+        long[] fields = (long[]) state;
+        _time.setTime( fields[0], TimeUnit.MICROSECONDS );
+        _arrivalTime = fields[1];
+        _currentNodeId = fields[2];
+        _processedByAgent = fields[3] == 1;
+    }
+    
+    /**
+     * Writes the state of the event.</br>
+     * Events with additional fields must override it (see {@linkplain Checkpointable}).
+    */
+    @Override
+    public void writeCheckpoint( CheckpointWriter out ) throws IOException
+    {
+        out.writeLong( _time.getTimeMicros() );
+        out.writeLong( _arrivalTime );
+        out.writeAgent( _source );
+        out.writeAgent( _dest );
+        out.writeLong( _currentNodeId );
+        out.writeBoolean( _processedByAgent );
+        out.writeLong( eventID );
+        out.writeLong( _sequence );
+        out.writePacket( _packet );
+    }
+    
+    @Override
+    public void readCheckpoint( CheckpointReader in ) throws IOException
+    {
+        _time.setTime( in.readLong(), TimeUnit.MICROSECONDS );
+        _arrivalTime = in.readLong();
+        _source = in.readAgent();
+        _dest = in.readAgent();
+        _currentNodeId = in.readLong();
+        _processedByAgent = in.readBoolean();
+        eventID = in.readLong();
+        _sequence = in.readLong();
+        _packet = in.readPacket();
+    }
+    
+    /**
+     * Returns a shallow copy of this event, with the same identifier and sequence number.</br>
+     * The copy doesn't belong to any pool and it's not into any pending event set.
+    */
+    public Event copy()
+    {
+        try {
+            Event copy = (Event) super.clone();
+            copy._time = _time.clone();
+            copy._pool = null;
+            copy._references = 0;
+            copy._pending = false;
+            copy._released = false;
+            copy._queueIndex = -1;
+            return copy;
+        } catch ( CloneNotSupportedException e ) {
+            throw new SimulatorException( e );
+        }
+    }
+
     @Override
     public String toString() {
         return "ID: " + eventID +
@@ -4,13 +4,18 @@
 
 package simulator.events;
 
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 import simulator.core.Agent;
+import simulator.core.StateSaving;
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
+import simulator.core.checkpoint.Checkpointable;
 import simulator.events.impl.AgentEvent;
 import simulator.utils.Time;
 
-public class EventGenerator
+public class EventGenerator implements StateSaving, Checkpointable
 {
     private Time  _time = new Time( 0, TimeUnit.MICROSECONDS );
     
@@ -84,8 +89,41 @@ public class EventGenerator
     /**
      * Generates the next event.
     */
-    protected Event createEvent() {
-        return new AgentEvent( _time, _agent );
+    protected Event createEvent()
+    {
+        EventScheduler evtScheduler = _agent.getEventScheduler();
+        if (evtScheduler == null) {
+            return new AgentEvent( _time, _agent );
+        }
+        return evtScheduler.createAgentEvent( _time, _agent );
+    }
+    
+    /**
+     * Saves the time of the next event.</br>
+     * Generators with additional fields must override it (see {@linkplain StateSaving}).
+    */
+    @Override
+    public Object saveState() {
+        return _time.getTimeMicros();
+    }
+    
+    @Override
+    public void restoreState( Object state ) {
+        _time.setTime( (Long) state, TimeUnit.MICROSECONDS );
+    }
+    
+    /**
+     * Writes the time of the next event.</br>
+     * Generators with additional fields must override it (see {@linkplain Checkpointable}).
+    */
+    @Override
+    public void writeCheckpoint( CheckpointWriter out ) throws IOException {
+        out.writeLong( _time.getTimeMicros() );
+    }
+    
+    @Override
+    public void readCheckpoint( CheckpointReader in ) throws IOException {
+        _time.setTime( in.readLong(), TimeUnit.MICROSECONDS );
     }
     
     public final Event generate()
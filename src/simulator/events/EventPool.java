@@ -0,0 +1,183 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.events;
+
+import java.util.ArrayDeque;
+
+import simulator.core.Agent;
+import simulator.events.impl.AgentEvent;
+import simulator.events.impl.RequestEvent;
+import simulator.events.impl.ResponseEvent;
+import simulator.utils.Time;
+
+/**
+ * Pool of reusable {@linkplain RequestEvent request}, {@linkplain ResponseEvent response}
+ * and {@linkplain AgentEvent agent} events, owned by an {@linkplain EventScheduler}.</br>
+ * An event acquired from the pool is automatically given back by the scheduler
+ * after its execution, unless it has been scheduled again or it has been
+ * {@linkplain Event#retain() retained} by someone (e.g. an agent keeping a reference to it).
+ * A retained event returns into the pool when its last reference is {@linkplain Event#release() released}.</br>
+ * In debug mode the recycled events are poisoned, so that any use after the release
+ * raises a {@linkplain simulator.exception.SimulatorException SimulatorException}.
+*/
+public class EventPool
+{
+    private final ArrayDeque<RequestEvent> requests;
+    private final ArrayDeque<ResponseEvent> responses;
+    private final ArrayDeque<AgentEvent> agentEvents;
+    
+    private final boolean debug;
+    
+    // Statistics.
+    private long acquired = 0;
+    private long hits = 0;
+    private long released = 0;
+    
+    
+    
+    public EventPool() {
+        this( false );
+    }
+    
+    /**
+     * Creates a new event pool.
+     * 
+     * @param debug    {@code true} to poison the recycled events,
+     *                 {@code false} otherwise.
+    */
+    public EventPool( boolean debug )
+    {
+        this.debug = debug;
+        requests    = new ArrayDeque<>();
+        responses   = new ArrayDeque<>();
+        agentEvents = new ArrayDeque<>();
+    }
+    
+    public boolean isDebug() {
+        return debug;
+    }
+    
+    public RequestEvent getRequestEvent( Time time, Agent from, Agent to, Packet packet )
+    {
+        RequestEvent e = requests.poll();
+        if (e == null) {
+            e = new RequestEvent( time, from, to, packet );
+        } else {
+            hits++;
+            reset( e, time, from, to, packet );
+        }
+        return acquire( e );
+    }
+    
+    public ResponseEvent getResponseEvent( Time time, Agent from, Agent to, Packet packet )
+    {
+        ResponseEvent e = responses.poll();
+        if (e == null) {
+            e = new ResponseEvent( time, from, to, packet );
+        } else {
+            hits++;
+            reset( e, time, from, to, packet );
+        }
+        return acquire( e );
+    }
+    
+    public AgentEvent getAgentEvent( Time time, Agent source )
+    {
+        AgentEvent e = agentEvents.poll();
+        if (e == null) {
+            e = new AgentEvent( time, source );
+        } else {
+            hits++;
+            reset( e, time, source, source, null );
+        }
+        return acquire( e );
+    }
+    
+    private static void reset( Event e, Time time, Agent from, Agent to, Packet packet ) {
+        e.init( time.getTimeMicros(), from, to, packet );
+    }
+    
+    private <T extends Event> T acquire( T e )
+    {
+        acquired++;
+        e.setPool( this );
+        return e;
+    }
+    
+    /**
+     * Gives back an event to the pool.</br>
+     * The event MUST be created by this pool.
+    */
+    void release( Event e )
+    {
+        released++;
+        if (debug) {
+            e.poison();
+        }
+        
+        if (e instanceof RequestEvent) {
+            requests.push( (RequestEvent) e );
+        } else if (e instanceof ResponseEvent) {
+            responses.push( (ResponseEvent) e );
+        } else {
+            agentEvents.push( (AgentEvent) e );
+        }
+    }
+    
+    /**
+     * Returns the number of events acquired from the pool.
+    */
+    public long getAcquired() {
+        return acquired;
+    }
+    
+    /**
+     * Returns the number of acquired events served with a recycled object.
+    */
+    public long getHits() {
+        return hits;
+    }
+    
+    /**
+     * Returns the number of events given back to the pool.
+    */
+    public long getReleased() {
+        return released;
+    }
+    
+    /**
+     * Returns the number of events currently available in the pool.
+    */
+    public int size() {
+        return requests.size() + responses.size() + agentEvents.size();
+    }
+    
+    /**
+     * Returns the fraction of acquired events served with a recycled object.
+    */
+    public double getHitRate() {
+        return (acquired == 0) ? 0 : (double) hits / acquired;
+    }
+    
+    /**
+     * Removes all the recycled events and resets the statistics.
+    */
+    public void clear()
+    {
+        requests.clear();
+        responses.clear();
+        agentEvents.clear();
+        acquired = hits = released = 0;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "Event pool: acquired = " + acquired +
+               ", hits = " + hits + " (" + String.format( "%.2f", getHitRate() * 100 ) + "%)" +
+               ", released = " + released + ", available = " + size() +
+               ", allocated = " + (acquired - hits);
+    }
+}
@@ -4,31 +4,146 @@
 
 package simulator.events;
 
-import java.util.AbstractQueue;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.concurrent.TimeUnit;
 
+import simulator.core.Agent;
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
+import simulator.core.checkpoint.Checkpointable;
+import simulator.events.impl.AgentEvent;
+import simulator.events.impl.RequestEvent;
+import simulator.events.impl.ResponseEvent;
+import simulator.events.queue.CalendarEventSet;
+import simulator.events.queue.HeapEventSet;
+import simulator.events.queue.PendingEventSet;
 import simulator.exception.TimeException;
 import simulator.topology.NetworkTopology;
 import simulator.utils.Time;
 
-public class EventScheduler
+public class EventScheduler implements Checkpointable
 {
     private NetworkTopology _network;
     
-    private AbstractQueue<Event> _events;
+    private PendingEventSet _events;
     /** Simulator time in microseconds. */
     private Time _time = new Time( 0, TimeUnit.MICROSECONDS );
     private Time _duration;
     
-    private static long eventID = 0;
+    // Pool of recycled events (null if disabled).
+    private EventPool _pool;
     
+    // Statistics.
+    private long processedEvents = 0;
+    private long cancelledEvents = 0;
+    private long rescheduledEvents = 0;
     
-    public EventScheduler( NetworkTopology network )
+    // Order-independent digest of the executed events.
+    private boolean digestEnabled = false;
+    private long digest = 0;
+    
+    // Last event identifier given by this scheduler.
+    private long eventID = 0;
+    
+    /**
+     * Types of pending event set.
+     * <p><ul>
+     * <li>HEAP: binary heap, with O(log n) insertion and extraction</br>
+     * <li>CALENDAR: calendar queue, with amortized O(1) insertion and extraction
+     * </ul>
+    */
+    public enum QueueType{ HEAP, CALENDAR };
+    
+    
+    public EventScheduler( NetworkTopology network ) {
+        this( network, QueueType.HEAP );
+    }
+    
+    public EventScheduler( NetworkTopology network, QueueType type ) {
+        this( network, createEventSet( type ) );
+    }
+    
+    public EventScheduler( NetworkTopology network, PendingEventSet events )
     {
         _network = network;
-        _events = new PriorityQueue<Event>( 1 << 18 );
+        _events = events;
+    }
+    
+    /**
+     * Creates a new pending event set of the given type.
+     * 
+     * @param type    type of the set (see {@linkplain EventScheduler.QueueType QueueType}).
+    */
+    public static PendingEventSet createEventSet( QueueType type )
+    {
+        switch (type) {
+            case CALENDAR: return new CalendarEventSet();
+            case HEAP:
+            default:       return new HeapEventSet( 1 << 18 );
+        }
+    }
+    
+    /**
+     * Replaces the set of pending events.</br>
+     * Events already scheduled are moved into the new set.
+     * 
+     * @param events    the new pending event set.
+    */
+    public void setEventSet( PendingEventSet events )
+    {
+        Event e;
+        while ((e = _events.poll()) != null) {
+            events.add( e );
+        }
+        _events = events;
+    }
+    
+    public PendingEventSet getEventSet() {
+        return _events;
+    }
+    
+    /**
+     * Enables the recycling of the request, response and agent events.</br>
+     * When the pool is set, the events created through the factory methods
+     * (see {@linkplain #createRequestEvent(Time, Agent, Agent, Packet) createRequestEvent},
+     * {@linkplain #createResponseEvent(Time, Agent, Agent, Packet) createResponseEvent} and
+     * {@linkplain #createAgentEvent(Time, Agent) createAgentEvent}) are given back to the pool
+     * after their execution, unless they are scheduled again or {@linkplain Event#retain() retained}.
+     * 
+     * @param pool    the event pool. If {@code null} the recycling is disabled.
+    */
+    public void setEventPool( EventPool pool ) {
+        _pool = pool;
+    }
+    
+    public EventPool getEventPool() {
+        return _pool;
+    }
+    
+    public RequestEvent createRequestEvent( Time time, Agent from, Agent to, Packet packet )
+    {
+        if (_pool == null) {
+            return new RequestEvent( time, from, to, packet );
+        }
+        return _pool.getRequestEvent( time, from, to, packet );
+    }
+    
+    public ResponseEvent createResponseEvent( Time time, Agent from, Agent to, Packet packet )
+    {
+        if (_pool == null) {
+            return new ResponseEvent( time, from, to, packet );
+        }
+        return _pool.getResponseEvent( time, from, to, packet );
+    }
+    
+    public AgentEvent createAgentEvent( Time time, Agent source )
+    {
+        if (_pool == null) {
+            return new AgentEvent( time, source );
+        }
+        return _pool.getAgentEvent( time, source );
     }
     
     public void setNetwork( NetworkTopology network ) {
@@ -46,32 +161,253 @@ public class EventScheduler
         return _time;
     }
     
+    /**
+     * Gets simulation time, expressed in microseconds.
+    */
+    public long getTimeMicros() {
+        return _time.getTimeMicros();
+    }
+    
     public Time getTimeDuration() {
         return _duration.clone();
     }
+    
+    /**
+     * Gets the duration of the simulation, expressed in microseconds.
+    */
+    public long getTimeDurationMicros() {
+        return _duration.getTimeMicros();
+    }
 
-    public void doAllEvents()
+    /**
+     * Executes all the pending events, until the duration of the simulation.
+    */
+    public void doAllEvents() {
+        runEvents( Long.MAX_VALUE );
+    }
+    
+    /**
+     * Advances the simulation until the given time, executing all the pending events
+     * whose time is not greater than it (and than the duration of the simulation).</br>
+     * At the end the simulation time is moved to the given one, so the simulation
+     * can be continued in chunks by calling this method again.
+     * 
+     * @param simTimeMicros    the time limit, expressed in microseconds.
+    */
+    public void runUntil( long simTimeMicros )
+    {
+        runEvents( simTimeMicros );
+        advanceTime( Math.min( simTimeMicros, _duration.getTimeMicros() ) );
+    }
+    
+    /**
+     * Executes sequentially at most the given number of events,
+     * without going beyond the duration of the simulation.
+     * 
+     * @param events    maximum number of events to execute.
+     * 
+     * @return the number of executed events.
+    */
+    public int step( int events ) {
+        return (int) doEvents( Long.MAX_VALUE, events );
+    }
+    
+    /**
+     * Checks whether the simulation is completed, that is when there are no more events
+     * to execute before the end of the simulation.
+    */
+    public boolean isCompleted()
+    {
+        Event e = _events.peek();
+        return e == null || e.getTimeMicros() > _duration.getTimeMicros();
+    }
+    
+    /**
+     * Executes sequentially all the pending events whose time is not greater than the given one.</br>
+     * It's used to reach the time of a checkpoint (see {@linkplain simulator.core.Simulator#setCheckpoint(Time, String)}).
+     * 
+     * @param time    the time limit.
+    */
+    public void doEventsUntil( Time time ) {
+        doEvents( time.getTimeMicros() );
+    }
+    
+    /**
+     * Executes all the pending events whose time is not greater than the given limit.</br>
+     * By default the events are executed sequentially: parallel schedulers
+     * override this method to distribute them among several threads.
+     * 
+     * @param until    the time limit, expressed in microseconds.
+    */
+    protected void runEvents( long until ) {
+        doEvents( until );
+    }
+    
+    /**
+     * Executes, in order, all the pending events whose time
+     * is not greater than the given limit and the duration of the simulation.
+     * 
+     * @param until    the time limit, expressed in microseconds.
+    */
+    protected void doEvents( long until ) {
+        doEvents( until, Long.MAX_VALUE );
+    }
+    
+    /**
+     * Executes, in order, at most {@code maxEvents} pending events whose time
+     * is not greater than the given limit and the duration of the simulation.
+     * 
+     * @param until        the time limit, expressed in microseconds.
+     * @param maxEvents    maximum number of events to execute.
+     * 
+     * @return the number of executed events.
+    */
+    protected long doEvents( long until, long maxEvents )
     {
         Event e;
-        while ((e = _events.poll()) != null) {
-            if (e.getTime().compareTo( _duration ) > 0) {
+        long executed = 0;
+        final long limit = Math.min( until, _duration.getTimeMicros() );
+        while (executed < maxEvents && (e = _events.peek()) != null) {
+            final long time = e.getTimeMicros();
+            if (time > limit) {
                 break;
             }
             
-            if (_time.compareTo( e.getTime() ) <= 0) {
-                _time.setTime( e.getTime() );
+            _events.poll();
+            e.setPending( false );
+            if (_time.getTimeMicros() <= time) {
+                _time.setTime( time, TimeUnit.MICROSECONDS );
             } else {
                 System.out.println( "TIME: " + _time + ", EVENT: " + e );
                 throw new TimeException( "You can't go back in time!" );
             }
             
-            e.execute( this, _network );
+            if (digestEnabled) {
+                addToDigest( digestOf( e ) );
+            }
+            execute( e );
+            processedEvents++;
+            executed++;
+            // Gives back the event to the pool, if no more used.
+            e.recycle();
+        }
+        return executed;
+    }
+    
+    /**
+     * Executes a single event.
+     * 
+     * @param e    the event to execute.
+    */
+    protected void execute( Event e ) {
+        e.execute( this, _network );
+    }
+    
+    /**
+     * Takes the ownership of an event coming from another scheduler.</br>
+     * The event is detached from its pool, since pools can't be shared among schedulers.
+     * 
+     * @param e    the event.
+    */
+    protected void adopt( Event e )
+    {
+        e.setPool( null );
+        e.setPending( false );
+    }
+    
+    /**
+     * Sets the simulation time, also moving it backward.</br>
+     * Used by the optimistic executions to undo the events executed speculatively.
+     * 
+     * @param time    the new time, expressed in microseconds.
+    */
+    protected void resetTime( long time ) {
+        _time.setTime( time, TimeUnit.MICROSECONDS );
+    }
+    
+    /**
+     * Moves forward the simulation time.
+     * 
+     * @param time    the new time, expressed in microseconds.
+    */
+    protected void advanceTime( long time )
+    {
+        if (time > _time.getTimeMicros()) {
+            _time.setTime( time, TimeUnit.MICROSECONDS );
         }
     }
     
+    public NetworkTopology getNetwork() {
+        return _network;
+    }
+    
+    /**
+     * Writes a line on the file of the tracked events (see {@linkplain NetworkTopology#trackEvent(String)}).
+     * 
+     * @param message    the line to write.
+    */
+    protected void trackEvent( String message ) {
+        _network.trackEvent( message );
+    }
+    
+    /**
+     * Enables the computation of a digest of the executed events.</br>
+     * The digest doesn't depend on the order of execution of the events,
+     * so it can be used to check whether a parallel execution produces
+     * the same events of the sequential one.
+     * 
+     * @param enable    {@code true} to compute the digest, {@code false} otherwise.
+    */
+    public void setExecutionDigest( boolean enable )
+    {
+        digestEnabled = enable;
+        digest = 0;
+    }
+    
+    public boolean isExecutionDigestEnabled() {
+        return digestEnabled;
+    }
+    
+    /**
+     * Returns the digest of the executed events (see {@linkplain #setExecutionDigest(boolean)}).
+    */
+    public long getExecutionDigest() {
+        return digest;
+    }
+    
+    protected void addToDigest( long value ) {
+        digest += value;
+    }
+    
+    /**
+     * Returns the hash of an event, as it is just before its execution.
+    */
+    protected static long digestOf( Event e )
+    {
+        long hash = e.getClass().getName().hashCode();
+        hash = mix( hash + e.getTimeMicros() );
+        hash = mix( hash + e.getArrivalTimeMicros() );
+        hash = mix( hash + e.getCurrentNodeId() );
+        hash = mix( hash + e.getSequence() );
+        hash = mix( hash + ((e.getSource() == null) ? -1 : e.getSource().getId()) );
+        hash = mix( hash + ((e.getDestination() == null) ? -1 : e.getDestination().getId()) );
+        return hash;
+    }
+    
+    // Finalizer of the SplitMix64 generator.
+    private static long mix( long z )
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+    
     public void schedule( Event event )
     {
         if (event != null) {
+            event.checkReleased();
+            assignId( event );
+            event.setPending( true );
             _events.add( event );
         }
     }
@@ -79,7 +415,9 @@ public class EventScheduler
     public void schedule( List<Event> events )
     {
         if (events != null) {
-            _events.addAll( events );
+            for (Event event : events) {
+                schedule( event );
+            }
         }
     }
 
@@ -91,22 +429,154 @@ public class EventScheduler
      * @return {@code true} if the event has been successfully removed,
      *         {@code false} otherwise.
     */
-    public boolean remove( Event e ) {
-        if (e != null) {
-            return _events.remove( e );
+    public boolean remove( Event e )
+    {
+        // The event has been already executed or removed.
+        if (e == null || e.getQueueIndex() < 0) {
+            return false;
+        }
+        
+        if (_events.remove( e )) {
+            e.setPending( false );
+            cancelledEvents++;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Moves a pending event at the given time, without removing and adding it again.
+     * 
+     * @param e       the event to move.
+     * @param time    the new time of the event.
+     * 
+     * @return {@code true} if the event has been moved,
+     *         {@code false} if it was not in the queue.
+    */
+    public boolean reschedule( Event e, Time time ) {
+        return reschedule( e, time.getTimeMicros() );
+    }
+    
+    /**
+     * Moves a pending event at the given time, without removing and adding it again.
+     * 
+     * @param e       the event to move.
+     * @param time    the new time of the event, expressed in microseconds.
+     * 
+     * @return {@code true} if the event has been moved,
+     *         {@code false} if it was not in the queue.
+    */
+    public boolean reschedule( Event e, long time )
+    {
+        if (e != null && e.getQueueIndex() >= 0 && _events.reschedule( e, time )) {
+            rescheduledEvents++;
+            return true;
         }
         return false;
     }
+    
+    /**
+     * Returns the number of executed events.
+    */
+    public long getProcessedEvents() {
+        return processedEvents;
+    }
+    
+    /**
+     * Returns the number of pending events removed from the queue.
+    */
+    public long getCancelledEvents() {
+        return cancelledEvents;
+    }
+    
+    /**
+     * Returns the number of pending events moved in time.
+    */
+    public long getRescheduledEvents() {
+        return rescheduledEvents;
+    }
 
     public boolean hasNextEvents() {
         return !_events.isEmpty();
     }
     
     /**
-     * Returns the next unique event identifier.
+     * Returns the next event identifier of this scheduler.</br>
+     * Each simulation has its own sequence of identifiers, so several simulations
+     * can run at the same time without any synchronization.
     */
-    public static synchronized long nextEventId() {
-        return ++eventID % Long.MAX_VALUE;
+    public long nextEventId() {
+        return eventID = (eventID + 1) % Long.MAX_VALUE;
+    }
+    
+    /**
+     * Gives an identifier to the events created before their source
+     * was attached to a scheduler, or without a source at all.
+     * 
+     * @param e    the event.
+    */
+    protected void assignId( Event e )
+    {
+        if (!e.hasId()) {
+            e.setId( nextEventId() );
+        }
+    }
+    
+    /**
+     * Returns the last identifier given by this scheduler.
+    */
+    protected long getLastEventId() {
+        return eventID;
+    }
+    
+    /**
+     * Moves forward the sequence of identifiers,
+     * after the ones produced by the schedulers of a parallel execution.
+     * 
+     * @param lastId    the last used identifier.
+    */
+    protected void reserveEventIds( long lastId ) {
+        eventID = Math.max( eventID, lastId );
+    }
+    
+    /**
+     * Writes the time, the statistics and the pending events of the scheduler.
+    */
+    @Override
+    public void writeCheckpoint( CheckpointWriter out ) throws IOException
+    {
+        out.writeLong( _time.getTimeMicros() );
+        out.writeLong( eventID );
+        out.writeLong( processedEvents );
+        out.writeLong( digest );
+        
+        List<Event> events = new ArrayList<>( _events.size() );
+        Event e;
+        while ((e = _events.poll()) != null) {
+            events.add( e );
+        }
+        out.writeInt( events.size() );
+        for (Event event : events) {
+            out.writeEvent( event );
+            _events.add( event );
+        }
+    }
+    
+    /**
+     * Reads the state of the scheduler, replacing all the pending events.
+    */
+    @Override
+    public void readCheckpoint( CheckpointReader in ) throws IOException
+    {
+        _time.setTime( in.readLong(), TimeUnit.MICROSECONDS );
+        eventID = in.readLong();
+        processedEvents = in.readLong();
+        digest = in.readLong();
+        
+        _events.clear();
+        for (int i = in.readInt(); i > 0; i--) {
+            schedule( in.readEvent() );
+        }
     }
     
     public void shutdown() {
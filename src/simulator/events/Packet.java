@@ -5,18 +5,43 @@
 package simulator.events;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import simulator.utils.Size;
+import simulator.events.PacketSchema.Field;
+import simulator.events.PacketSchema.Type;
+import simulator.exception.SimulatorException;
 import simulator.utils.SizeUnit;
 
+/**
+ * Packet carried by the events.</br>
+ * The contents of the packet are stored into the typed fields of its {@linkplain PacketSchema schema},
+ * read and written through their slots (e.g. {@linkplain #getLong(Field)}).
+ * The contents added by name are stored into the field with the same name, if registered,
+ * otherwise into a map, created with the first one.
+*/
 // FIXME DEPRECATED: Utilizzare Message al posto di packet quando implementero' i protocolli di rete.
 public class Packet
 {
-    private Size<Long> _size;
+    private final long _size;
+    private final SizeUnit _sizeType;
+    private final PacketSchema _schema;
+    // Values of the fields, indexed by their slots, created with the first one of each type.
+    private long[] _longs;
+    private double[] _doubles;
+    private int[] _ints;
+    private Object[] _objects;
+    // Fields with a value, indexed by their position in the schema.
+    private long[] _present;
+    // Contents not registered in the schema, created with the first one.
     private Map<String,Object> _contents;
+    // Identifier of the flow, used to route together the packets of the same flow.
+    private long _flowId = 0;
+    
+    private static final long[] EMPTY = new long[0];
     
     
     
@@ -31,68 +56,361 @@ public class Packet
     
     
     
-    public Packet( long pktSize, SizeUnit sizeType )
+    public Packet( long pktSize, SizeUnit sizeType ) {
+        this( pktSize, sizeType, PacketSchema.DEFAULT );
+    }
+    
+    public Packet( long pktSize, SizeUnit sizeType, PacketSchema schema )
     {
-        _size = new Size<Long>( pktSize, sizeType );
-        _contents = new HashMap<>();
+        _size = pktSize;
+        _sizeType = sizeType;
+        _schema = schema;
+        _present = EMPTY;
     }
     
     public long getSize() {
-        return _size.getSize();
+        return _size;
     }
     
     public SizeUnit getSizeType() {
-        return _size.getSizeUnit();
+        return _sizeType;
+    }
+    
+    public PacketSchema getSchema() {
+        return _schema;
+    }
+    
+    /**
+     * Checks that the field belongs to the schema of the packet and it has the given type.
+    */
+    private void checkField( Field field, Type type )
+    {
+        if (field.getSchema() != _schema || field.getType() != type) {
+            throw new SimulatorException( "Field " + field + " is not a field of type " + type + " of this packet." );
+        }
+    }
+    
+    /**
+     * Returns the number of slots needed to store the field.
+    */
+    private int slotsFor( Field field ) {
+        return Math.max( field.slot + 1, _schema.slots( field.getType() ) );
+    }
+    
+    /**
+     * Marks the field as having a value.</br>
+     * A value added by name before the registration of the field is replaced by the new one.
+    */
+    private void setPresent( Field field )
+    {
+        int word = field.index >>> 6;
+        if (word >= _present.length) {
+            _present = Arrays.copyOf( _present, Math.max( word + 1, (_schema.size() + 63) >>> 6 ) );
+        }
+        _present[word] |= 1L << field.index;
+        if (_contents != null) {
+            _contents.remove( field.getName() );
+        }
+    }
+    
+    private boolean isPresent( Field field )
+    {
+        int word = field.index >>> 6;
+        return word < _present.length && (_present[word] & (1L << field.index)) != 0;
+    }
+    
+    /**
+     * Returns the value added by name before the registration of the field, if any.
+     * 
+     * @throws SimulatorException if the value doesn't match the type of the field.
+    */
+    private Object getUnregistered( Field field ) throws SimulatorException
+    {
+        Object value = (_contents == null) ? null : _contents.get( field.getName() );
+        if (value != null && !field.getType().isInstance( value )) {
+            throw new SimulatorException( "Value " + value + " can't be assigned to the field " + field + "." );
+        }
+        return value;
     }
     
-    public void addContent( String field, Object value ) {
+    /**
+     * Checks whether the field has a value,
+     * also if added by name before the registration of the field.
+    */
+    public boolean hasContent( Field field )
+    {
+        if (field.getSchema() != _schema) {
+            throw new SimulatorException( "Field " + field + " is not a field of this packet." );
+        }
+        return isPresent( field ) || (_contents != null && _contents.containsKey( field.getName() ));
+    }
+    
+    public void setLong( Field field, long value )
+    {
+        checkField( field, Type.LONG );
+        if (_longs == null || field.slot >= _longs.length) {
+            _longs = (_longs == null) ? new long[slotsFor( field )] : Arrays.copyOf( _longs, slotsFor( field ) );
+        }
+        _longs[field.slot] = value;
+        setPresent( field );
+    }
+    
+    /**
+     * Returns the value of the field, or 0 if it has no value.
+    */
+    public long getLong( Field field )
+    {
+        checkField( field, Type.LONG );
+        if (isPresent( field )) {
+            return _longs[field.slot];
+        }
+        Object value = getUnregistered( field );
+        return (value == null) ? 0 : (Long) value;
+    }
+    
+    public void setDouble( Field field, double value )
+    {
+        checkField( field, Type.DOUBLE );
+        if (_doubles == null || field.slot >= _doubles.length) {
+            _doubles = (_doubles == null) ? new double[slotsFor( field )] : Arrays.copyOf( _doubles, slotsFor( field ) );
+        }
+        _doubles[field.slot] = value;
+        setPresent( field );
+    }
+    
+    /**
+     * Returns the value of the field, or 0 if it has no value.
+    */
+    public double getDouble( Field field )
+    {
+        checkField( field, Type.DOUBLE );
+        if (isPresent( field )) {
+            return _doubles[field.slot];
+        }
+        Object value = getUnregistered( field );
+        return (value == null) ? 0 : (Double) value;
+    }
+    
+    public void setInt( Field field, int value )
+    {
+        checkField( field, Type.INT );
+        if (_ints == null || field.slot >= _ints.length) {
+            _ints = (_ints == null) ? new int[slotsFor( field )] : Arrays.copyOf( _ints, slotsFor( field ) );
+        }
+        _ints[field.slot] = value;
+        setPresent( field );
+    }
+    
+    /**
+     * Returns the value of the field, or 0 if it has no value.
+    */
+    public int getInt( Field field )
+    {
+        checkField( field, Type.INT );
+        if (isPresent( field )) {
+            return _ints[field.slot];
+        }
+        Object value = getUnregistered( field );
+        return (value == null) ? 0 : (Integer) value;
+    }
+    
+    public void setObject( Field field, Object value )
+    {
+        checkField( field, Type.OBJECT );
+        if (_objects == null || field.slot >= _objects.length) {
+            _objects = (_objects == null) ? new Object[slotsFor( field )] : Arrays.copyOf( _objects, slotsFor( field ) );
+        }
+        _objects[field.slot] = value;
+        setPresent( field );
+    }
+    
+    /**
+     * Returns the value of the field, or {@code null} if it has no value.
+    */
+    @SuppressWarnings("unchecked")
+    public <T> T getObject( Field field )
+    {
+        checkField( field, Type.OBJECT );
+        return (T) (isPresent( field ) ? _objects[field.slot] : getUnregistered( field ));
+    }
+    
+    /**
+     * Sets the value of a field from its boxed value.
+     * 
+     * @throws SimulatorException if the value doesn't match the type of the field.
+    */
+    private void setValue( Field field, Object value ) throws SimulatorException
+    {
+        if (!field.getType().isInstance( value )) {
+            throw new SimulatorException( "Value " + value + " can't be assigned to the field " + field + "." );
+        }
+        switch (field.getType()) {
+            case LONG:   setLong( field, (Long) value ); break;
+            case DOUBLE: setDouble( field, (Double) value ); break;
+            case INT:    setInt( field, (Integer) value ); break;
+            default:     setObject( field, value ); break;
+        }
+    }
+    
+    /**
+     * Returns the boxed value of a field with a value.
+    */
+    private Object getValue( Field field )
+    {
+        switch (field.getType()) {
+            case LONG:   return _longs[field.slot];
+            case DOUBLE: return _doubles[field.slot];
+            case INT:    return _ints[field.slot];
+            default:     return _objects[field.slot];
+        }
+    }
+    
+    /**
+     * Adds a content by name.</br>
+     * If a field with the same name is registered in the schema the value is stored into it,
+     * and it must be of the same type (boxed for the primitive types).
+     * 
+     * @throws SimulatorException if the value doesn't match the type of the field.
+    */
+    public void addContent( String field, Object value ) throws SimulatorException
+    {
+        Field f = _schema.getField( field );
+        if (f != null) {
+            setValue( f, value );
+            return;
+        }
+        
+        if (_contents == null) {
+            _contents = new HashMap<>();
+        }
         _contents.put( field, value );
     }
     
-    public boolean hasContent( String field ) {
-        return _contents.containsKey( field );
+    public boolean hasContent( String field )
+    {
+        Field f = _schema.getField( field );
+        if (f != null) {
+            return hasContent( f );
+        }
+        return _contents != null && _contents.containsKey( field );
     }
     
     @SuppressWarnings("unchecked")
-    public <T> T getContent( String field ) {
-        return (T) _contents.get( field );
+    public <T> T getContent( String field )
+    {
+        Field f = _schema.getField( field );
+        if (f != null && isPresent( f )) {
+            return (T) getValue( f );
+        }
+        return (_contents == null) ? null : (T) _contents.get( field );
+    }
+    
+    /**
+     * Returns all the contents of the packet, by name.</br>
+     * The map is a copy: modifying it doesn't modify the packet.
+    */
+    public Map<String,Object> getContents()
+    {
+        Map<String,Object> contents = new LinkedHashMap<>();
+        for (int word = 0; word < _present.length; word++) {
+            for (long bits = _present[word]; bits != 0; bits &= bits - 1) {
+                Field field = _schema.getField( (word << 6) + Long.numberOfTrailingZeros( bits ) );
+                contents.put( field.getName(), getValue( field ) );
+            }
+        }
+        if (_contents != null) {
+            contents.putAll( _contents );
+        }
+        return contents;
+    }
+    
+    /**
+     * Sets the identifier of the flow of the packet.</br>
+     * With the multipath routing (see {@linkplain simulator.topology.NetworkTopology#setMultipath(boolean)})
+     * the packets exchanged between the same agents with the same flow identifier
+     * follow the same path, while different flows are spread among the paths with the same length.
+    */
+    public void setFlowId( long flowId ) {
+        _flowId = flowId;
     }
     
-    public Map<String,Object> getContents() {
-        return _contents;
+    public long getFlowId() {
+        return _flowId;
     }
     
     public boolean isDynamic() {
-        return _size.getSize() == -1;
+        return _size == -1;
     }
     
     public long getSizeInBits() {
-        return (long) _size.getBits();
+        return (long) _sizeType.getBits( _size );
     }
     
     public long getSizeInBytes() {
-        return (long) _size.getBytes();
+        return (long) _sizeType.getBytes( _size );
     }
     
+    /**
+     * Returns a copy of the packet.</br>
+     * The values of the fields are copied as they are, except for the objects of the fields
+     * registered with a copier (see {@linkplain PacketSchema#addObject(String, java.util.function.UnaryOperator)}),
+     * while the contents not registered in the schema are cloned, if they have a public {@code clone} method.
+    */
     @Override
     public Packet clone()
     {
-        Packet p = new Packet( _size.getSize(), _size.getSizeUnit() );
-        if (!_contents.isEmpty()) {
-            for (Entry<String,Object> entry : _contents.entrySet()) {
-                Object value = entry.getValue();
-                try {
-                    Method cloneMethod = value.getClass().getMethod( "clone" );
-                    value = cloneMethod.invoke( value );
-                } catch ( Exception e ) {
-                    // Method "clone" not present for this object.
-                    //e.printStackTrace();
+        Packet p = new Packet( _size, _sizeType, _schema );
+        p._flowId = _flowId;
+        p._present = (_present.length == 0) ? EMPTY : _present.clone();
+        if (_longs != null) p._longs = _longs.clone();
+        if (_doubles != null) p._doubles = _doubles.clone();
+        if (_ints != null) p._ints = _ints.clone();
+        if (_objects != null) {
+            p._objects = _objects.clone();
+            for (Field field : _schema.copiedFields()) {
+                if (field.slot < _objects.length) {
+                    p._objects[field.slot] = field.copy( _objects[field.slot] );
                 }
-                
-                p.addContent( entry.getKey(), value );
+            }
+        }
+        if (_contents != null) {
+            for (Entry<String,Object> entry : _contents.entrySet()) {
+                p.addContent( entry.getKey(), cloneValue( entry.getValue() ) );
             }
         }
         
         return p;
     }
+    
+    /**
+     * Returns a clone of the value, or the value itself if it hasn't a public {@code clone} method.
+    */
+    private static Object cloneValue( Object value )
+    {
+        if (value == null) {
+            return null;
+        }
+        Method cloneMethod = CLONE_METHODS.get( value.getClass() );
+        if (cloneMethod == null) {
+            return value;
+        }
+        try {
+            return cloneMethod.invoke( value );
+        } catch ( ReflectiveOperationException e ) {
+            return value;
+        }
+    }
+    
+    /** Public {@code clone} method of each class, or {@code null} if it hasn't one. */
+    private static final ClassValue<Method> CLONE_METHODS = new ClassValue<Method>() {
+        @Override
+        protected Method computeValue( Class<?> type )
+        {
+            try {
+                return type.getMethod( "clone" );
+            } catch ( NoSuchMethodException e ) {
+                return null;
+            }
+        }
+    };
 }
@@ -0,0 +1,258 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+import simulator.exception.SimulatorException;
+
+/**
+ * Set of the typed fields of the {@linkplain Packet packets}.</br>
+ * A field is registered once, getting a slot in the array of its type,
+ * so the packets store their contents into flat arrays of primitive values and objects:
+ * reading a field is an indexed load, and cloning a packet is a copy of the arrays.
+ * The objects are copied by reference, unless their field has been registered with a copier
+ * (see {@linkplain #addObject(String, UnaryOperator)}).
+ * <p>
+ * The contents added to a packet by name (see {@linkplain Packet#addContent(String, Object)})
+ * are stored into the field with the same name, if any.
+ * Fields should be registered before creating the packets: a content added by name
+ * before the registration of its field is still read through the field,
+ * but it's stored into its slot only when the field is set.
+ * <p>
+ * An application should use its own schema, instead of the {@linkplain #DEFAULT} one
+ * shared by all the simulations of the process. The schema is identified by its name
+ * when the packets are restored from a checkpoint
+ * (see {@linkplain simulator.core.SimulationContext#addPacketSchema(PacketSchema)}).
+ * <p>
+ * Example:
+ * <pre>
+ * static final PacketSchema SCHEMA = new PacketSchema( "query" );
+ * static final PacketSchema.Field QUERY_ID = SCHEMA.addLong( "QUERY_ID" );
+ * ...
+ * Packet packet = new Packet( 20, SizeUnit.BYTE, SCHEMA );
+ * packet.setLong( QUERY_ID, queryID );
+ * long queryID = packet.getLong( QUERY_ID );
+ * </pre>
+*/
+public class PacketSchema
+{
+    /** Schema of the packets created without specifying it. */
+    public static final PacketSchema DEFAULT = new PacketSchema( "default" );
+    
+    /** Types of the fields. */
+    public enum Type
+    {
+        LONG,
+        DOUBLE,
+        INT,
+        OBJECT;
+        
+        /**
+         * Checks whether the value can be stored into a field of this type
+         * (boxed for the primitive types).
+        */
+        public boolean isInstance( Object value )
+        {
+            switch (this) {
+                case LONG:   return value instanceof Long;
+                case DOUBLE: return value instanceof Double;
+                case INT:    return value instanceof Integer;
+                default:     return true;
+            }
+        }
+    }
+    
+    private final String name;
+    private final Map<String,Field> fields = new ConcurrentHashMap<>();
+    private final List<Field> list = new ArrayList<>();
+    // Number of slots of each type.
+    private final int[] slots = new int[Type.values().length];
+    // Object fields copied through their own copier when the packet is cloned.
+    private volatile Field[] copied = new Field[0];
+    
+    
+    
+    /**
+     * Creates a new schema.
+     * 
+     * @param name    name of the schema.
+    */
+    public PacketSchema( String name ) {
+        this.name = name;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Field of a packet.
+    */
+    public static final class Field
+    {
+        private final PacketSchema schema;
+        private final String name;
+        private final Type type;
+        private final UnaryOperator<Object> copier;
+        // Position of the field in the schema, and in the array of its type.
+        final int index;
+        final int slot;
+        
+        private Field( PacketSchema schema, String name, Type type, UnaryOperator<Object> copier, int index, int slot )
+        {
+            this.schema = schema;
+            this.name = name;
+            this.type = type;
+            this.copier = copier;
+            this.index = index;
+            this.slot = slot;
+        }
+        
+        public PacketSchema getSchema() {
+            return schema;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public Type getType() {
+            return type;
+        }
+        
+        /**
+         * Returns a copy of the given value of the field, used when the packet is cloned.
+        */
+        Object copy( Object value ) {
+            return (value == null) ? null : copier.apply( value );
+        }
+        
+        @Override
+        public String toString() {
+            return name + ": " + type;
+        }
+    }
+    
+    public Field addLong( String name ) {
+        return addField( name, Type.LONG );
+    }
+    
+    public Field addDouble( String name ) {
+        return addField( name, Type.DOUBLE );
+    }
+    
+    public Field addInt( String name ) {
+        return addField( name, Type.INT );
+    }
+    
+    public Field addObject( String name ) {
+        return addField( name, Type.OBJECT );
+    }
+    
+    /**
+     * Registers an object field, whose values are copied through the given function
+     * when the packet is cloned, instead of being shared with the clone.
+     * 
+     * @param name      name of the field.
+     * @param copier    function returning a copy of a (not {@code null}) value of the field.
+     * 
+     * @throws SimulatorException if a field with the same name is already registered
+     *                            with a different type or copier.
+    */
+    @SuppressWarnings("unchecked")
+    public <T> Field addObject( String name, UnaryOperator<T> copier ) throws SimulatorException
+    {
+        if (copier == null) {
+            throw new SimulatorException( "The copier of the field \"" + name + "\" can't be null." );
+        }
+        return addField( name, Type.OBJECT, (UnaryOperator<Object>) copier );
+    }
+    
+    /**
+     * Registers a field.</br>
+     * Registering again a field with the same name and type returns the same field.
+     * 
+     * @param name    name of the field.
+     * @param type    type of the field.
+     * 
+     * @throws SimulatorException if a field with the same name but a different type is already registered.
+    */
+    public Field addField( String name, Type type ) throws SimulatorException {
+        return addField( name, type, null );
+    }
+    
+    private synchronized Field addField( String name, Type type, UnaryOperator<Object> copier ) throws SimulatorException
+    {
+        Field field = fields.get( name );
+        if (field != null) {
+            if (field.type != type) {
+                throw new SimulatorException( "Field \"" + name + "\" is already registered with type " + field.type + "." );
+            }
+            if (copier != null && field.copier != copier) {
+                throw new SimulatorException( "Field \"" + name + "\" is already registered with a different copier." );
+            }
+            return field;
+        }
+        
+        field = new Field( this, name, type, copier, list.size(), slots[type.ordinal()]++ );
+        list.add( field );
+        fields.put( name, field );
+        if (copier != null) {
+            Field[] copies = Arrays.copyOf( copied, copied.length + 1 );
+            copies[copied.length] = field;
+            copied = copies;
+        }
+        return field;
+    }
+    
+    /**
+     * Returns the field with the given name, or {@code null} if it's not registered.
+    */
+    public Field getField( String name ) {
+        return fields.get( name );
+    }
+    
+    /**
+     * Returns the registered fields, in order of registration.
+    */
+    public synchronized List<Field> getFields() {
+        return Collections.unmodifiableList( new ArrayList<>( list ) );
+    }
+    
+    /**
+     * Returns the number of registered fields.
+    */
+    public synchronized int size() {
+        return list.size();
+    }
+    
+    /**
+     * Returns the number of slots of the given type.
+    */
+    synchronized int slots( Type type ) {
+        return slots[type.ordinal()];
+    }
+    
+    /**
+     * Returns the object fields registered with a copier.
+    */
+    Field[] copiedFields() {
+        return copied;
+    }
+    
+    /**
+     * Returns the field in the given position.
+    */
+    synchronized Field getField( int index ) {
+        return list.get( index );
+    }
+}
@@ -4,8 +4,13 @@
 
 package simulator.events.impl;
 
+import java.io.IOException;
+
 import simulator.core.Agent;
+import simulator.core.checkpoint.CheckpointWriter;
 import simulator.events.Event;
+import simulator.events.Packet;
+import simulator.exception.SimulatorException;
 import simulator.network.Connection;
 import simulator.network.protocols.Header;
 import simulator.utils.Time;
@@ -18,12 +23,36 @@ public class AgentEvent extends Event
     private Header message;
     private Connection conn;
     
+    protected AgentEvent() {}
+    
     public AgentEvent( Time time, Agent source )
     {
         super( time, source );
         setDestination( source );
     }
     
+    @Override
+    protected void init( long time, Agent from, Agent to, Packet packet )
+    {
+        super.init( time, from, to, packet );
+        message = null;
+        conn = null;
+    }
+    
+    /**
+     * Writes the state of the event.</br>
+     * Events carrying a message of the network protocols can't be saved,
+     * since the state of the connections is not part of the checkpoint.
+    */
+    @Override
+    public void writeCheckpoint( CheckpointWriter out ) throws IOException
+    {
+        if (message != null) {
+            throw new SimulatorException( "Events carrying a protocol message can't be saved." );
+        }
+        super.writeCheckpoint( out );
+    }
+    
     public void setMessage( Header message, Connection conn )
     {
         this.message = message;
@@ -4,45 +4,129 @@
 
 package simulator.events.impl;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
 import simulator.events.Event;
 import simulator.events.EventScheduler;
+import simulator.exception.SimulatorException;
 import simulator.topology.NetworkLink;
 import simulator.topology.NetworkNode;
 import simulator.topology.NetworkTopology;
 import simulator.utils.Time;
 
+/**
+ * Event that shuts down or recovers some nodes and links of the network.</br>
+ * All the elements of the event are modified at the same time,
+ * so the routes are updated only once (see {@linkplain NetworkTopology#setActive(java.util.Collection, java.util.Collection, boolean)}).
+*/
 public class ExternalEvent extends Event
 {
     public enum EventMode{ RECOVER, SHUTDOWN };
     
-    private long fromID = -1;
-    private long destID = -1;
+    private long[] nodeIDs;
+    // Source and destination of each link.
+    private long[] linkIDs;
     private EventMode mode;
     
     
     
+    protected ExternalEvent() {}
+    
     /** Constructor used for nodes. */
     public ExternalEvent( Time time, long id, EventMode mode ) {
-        this( time, id, -1, mode );
+        this( time, new long[]{ id }, new long[0], mode );
     }
     
     /** Constructor used for links. */
     public ExternalEvent( Time time, long fromID, long destID, EventMode mode ) {
+        this( time, new long[0], new long[]{ fromID, destID }, mode );
+    }
+    
+    /**
+     * Constructor used for a group of nodes and links.
+     * 
+     * @param time       time of the event.
+     * @param nodeIDs    identifiers of the nodes.
+     * @param linkIDs    source and destination identifiers of each link, one after the other.
+     * @param mode       the event mode.
+    */
+    public ExternalEvent( Time time, long[] nodeIDs, long[] linkIDs, EventMode mode )
+    {
         super( time );
-        this.fromID = fromID;
-        this.destID = destID;
+        if (nodeIDs.length == 0 && linkIDs.length == 0) {
+            throw new SimulatorException( "The event must modify at least one node or link." );
+        }
+        if (linkIDs.length % 2 != 0) {
+            throw new SimulatorException( "Each link must have a source and a destination." );
+        }
+        this.nodeIDs = nodeIDs;
+        this.linkIDs = linkIDs;
         this.mode = mode;
     }
     
+    public EventMode getMode() {
+        return mode;
+    }
+    
+    /**
+     * Returns the node where the event takes place,
+     * that is the first node or the source of the first link.
+    */
+    @Override
+    public long getCurrentNodeId() {
+        return (nodeIDs.length > 0) ? nodeIDs[0] : linkIDs[0];
+    }
+    
+    @Override
+    public void writeCheckpoint( CheckpointWriter out ) throws IOException
+    {
+        super.writeCheckpoint( out );
+        writeIDs( out, nodeIDs );
+        writeIDs( out, linkIDs );
+        out.writeInt( mode.ordinal() );
+    }
+    
+    private static void writeIDs( CheckpointWriter out, long[] ids )
+    {
+        out.writeInt( ids.length );
+        for (long id : ids) {
+            out.writeLong( id );
+        }
+    }
+    
+    @Override
+    public void readCheckpoint( CheckpointReader in ) throws IOException
+    {
+        super.readCheckpoint( in );
+        nodeIDs = readIDs( in );
+        linkIDs = readIDs( in );
+        mode = EventMode.values()[in.readInt()];
+    }
+    
+    private static long[] readIDs( CheckpointReader in )
+    {
+        long[] ids = new long[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.readLong();
+        }
+        return ids;
+    }
+    
     @Override
     public void execute( EventScheduler ev_scheduler, NetworkTopology net )
     {
-        if (destID != -1) { // Link.
-            NetworkLink link = net.getLink( fromID, destID );
-            link.setActive( mode == EventMode.RECOVER );
-        } else { // Node.
-            NetworkNode node = net.getNode( fromID );
-            node.setActive( mode == EventMode.RECOVER );
+        List<NetworkNode> nodes = new ArrayList<>( nodeIDs.length );
+        for (long id : nodeIDs) {
+            nodes.add( net.getNode( id ) );
+        }
+        List<NetworkLink> links = new ArrayList<>( linkIDs.length / 2 );
+        for (int i = 0; i < linkIDs.length; i += 2) {
+            links.add( net.getLink( linkIDs[i], linkIDs[i+1] ) );
         }
+        net.setActive( nodes, links, mode == EventMode.RECOVER );
     }
 }
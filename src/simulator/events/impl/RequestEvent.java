@@ -11,6 +11,8 @@ import simulator.utils.Time;
 
 public class RequestEvent extends Event
 {
+    protected RequestEvent() {}
+    
     public RequestEvent( Time time, Agent from, Agent to, Packet pkt ) {
         super( time, from, to, pkt );
     }
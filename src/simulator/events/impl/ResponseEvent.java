@@ -11,6 +11,8 @@ import simulator.utils.Time;
 
 public class ResponseEvent extends Event
 {
+    protected ResponseEvent() {}
+    
     public ResponseEvent( Time time, Agent from, Agent to, Packet packet ) {
         super( time, from, to, packet );
     }
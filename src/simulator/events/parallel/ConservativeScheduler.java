@@ -0,0 +1,401 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.events.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import simulator.core.Agent;
+import simulator.events.Event;
+import simulator.events.EventPool;
+import simulator.events.EventScheduler;
+import simulator.exception.SimulatorException;
+import simulator.topology.NetworkTopology;
+
+/**
+ * Event scheduler executing the network in parallel, following a conservative
+ * synchronization protocol (YAWNS-like windows).</br>
+ * The nodes are split among several partitions (see {@linkplain Partitioning}),
+ * each one with its own pending event set, executed by a worker thread.
+ * The execution proceeds in windows: given the time {@code T} of the first pending event,
+ * all the partitions execute in parallel their events with time lower than {@code T + L},
+ * where {@code L} is the lookahead, that is the minimum propagation delay of the links
+ * crossing two partitions. Events moving to another partition are exchanged through
+ * lock-free queues and delivered at the end of the window.</br>
+ * Simultaneous events are ordered through the sequence numbers given by their source agents
+ * (see {@linkplain Agent#nextEventSequence()}), that don't depend on the partitions,
+ * so the execution is deterministic and produces the same results of the sequential one.</br>
+ * If the network can't be split, the events are executed sequentially.
+*/
+public class ConservativeScheduler extends EventScheduler
+{
+    private final QueueType queueType;
+    private final int requestedPartitions;
+    private Partitioning partitioning;
+    private int threads;
+    
+    private Partition[] parts;
+    
+    // Statistics.
+    private long windows = 0;
+    private long remoteEvents = 0;
+    private long elapsedTime = 0;
+    
+    
+    
+    /**
+     * Creates a new conservative scheduler.
+     * 
+     * @param network       the network to simulate.
+     * @param type          type of the pending event sets.
+     * @param partitions    number of requested partitions.
+    */
+    public ConservativeScheduler( NetworkTopology network, QueueType type, int partitions )
+    {
+        super( network, type );
+        queueType = type;
+        requestedPartitions = partitions;
+        threads = Runtime.getRuntime().availableProcessors();
+    }
+    
+    /**
+     * Creates a new conservative scheduler using the given partitioning.
+     * 
+     * @param network         the network to simulate.
+     * @param type            type of the pending event sets.
+     * @param partitioning    the partitioning of the network.
+    */
+    public ConservativeScheduler( NetworkTopology network, QueueType type, Partitioning partitioning )
+    {
+        this( network, type, partitioning.getPartitions() );
+        this.partitioning = partitioning;
+    }
+    
+    /**
+     * Sets the maximum number of worker threads.</br>
+     * By default it's equal to the number of available processors.
+    */
+    public void setThreads( int threads ) {
+        this.threads = Math.max( 1, threads );
+    }
+    
+    /**
+     * Returns the partitioning used by the last execution,
+     * or {@code null} if not yet computed.
+    */
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+    
+    @Override
+    protected void runEvents( long until )
+    {
+        NetworkTopology net = getNetwork();
+        if (partitioning == null || partitioning.getNetwork() != net) {
+            // Agents are known only at the beginning of the simulation.
+            partitioning = new Partitioning( net, requestedPartitions );
+        }
+        
+        if (partitioning.getPartitions() == 1) {
+            super.runEvents( until );
+            return;
+        }
+        
+        long startTime = System.nanoTime();
+        createPartitions( net );
+        
+        int nThreads = Math.min( threads, parts.length );
+        ExecutorService executor = Executors.newFixedThreadPool( nThreads );
+        try {
+            runWindows( executor, Math.min( until, getTimeDurationMicros() ) );
+        } finally {
+            executor.shutdown();
+            collectPartitions( net );
+        }
+        elapsedTime = System.nanoTime() - startTime;
+    }
+    
+    private void createPartitions( NetworkTopology net )
+    {
+        parts = new Partition[partitioning.getPartitions()];
+        long baseId = getLastEventId();
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new Partition( i, net, baseId );
+            parts[i].setDuration( getTimeDuration() );
+            parts[i].setExecutionDigest( isExecutionDigestEnabled() );
+            if (getEventPool() != null) {
+                parts[i].setEventPool( new EventPool( getEventPool().isDebug() ) );
+            }
+        }
+        
+        for (Agent agent : net.getAgents()) {
+            agent.setEventScheduler( parts[partitioning.getPartition( agent.getId() )] );
+        }
+        
+        // Moves the pending events into their partitions.
+        Event e;
+        while ((e = getEventSet().poll()) != null) {
+            adopt( e );
+            parts[partitioning.getPartition( e.getCurrentNodeId() )].deliver( e );
+        }
+    }
+    
+    private void runWindows( ExecutorService executor, final long limit )
+    {
+        final long lookahead = partitioning.getLookahead();
+        List<Callable<Void>> tasks = new ArrayList<>( parts.length );
+        while (true) {
+            // Delivers the events exchanged in the previous window.
+            long first = Long.MAX_VALUE;
+            for (Partition part : parts) {
+                part.deliverIncoming();
+                first = Math.min( first, part.nextEventTime() );
+            }
+            if (first == Long.MAX_VALUE || first > limit) {
+                break;
+            }
+            
+            // Events sent to another partition can't arrive before the end of the window.
+            long end = (first > Long.MAX_VALUE - lookahead) ? Long.MAX_VALUE : first + lookahead;
+            if (limit < end) {
+                // The window can't go beyond the time limit of the execution.
+                end = limit + 1;
+            }
+            final long windowEnd = end;
+            tasks.clear();
+            for (Partition part : parts) {
+                if (part.nextEventTime() < windowEnd) {
+                    tasks.add( () -> { part.runWindow( windowEnd ); return null; } );
+                }
+            }
+            
+            windows++;
+            if (tasks.size() == 1) {
+                // No need to involve the workers.
+                try { tasks.get( 0 ).call(); }
+                catch ( Exception e ) { throw asRuntime( e ); }
+            } else {
+                try {
+                    for (Future<Void> result : executor.invokeAll( tasks )) {
+                        result.get();
+                    }
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new SimulatorException( e );
+                } catch ( ExecutionException e ) {
+                    throw asRuntime( e.getCause() );
+                }
+            }
+        }
+    }
+    
+    private static RuntimeException asRuntime( Throwable t ) {
+        return (t instanceof RuntimeException) ? (RuntimeException) t : new SimulatorException( t );
+    }
+    
+    /**
+     * Gives back the agents and the remaining events to this scheduler.
+    */
+    private void collectPartitions( NetworkTopology net )
+    {
+        for (Agent agent : net.getAgents()) {
+            agent.setEventScheduler( this );
+        }
+        
+        long lastId = 0;
+        for (Partition part : parts) {
+            part.deliverIncoming();
+            Event e;
+            while ((e = part.getEventSet().poll()) != null) {
+                adopt( e );
+                super.schedule( e );
+            }
+            advanceTime( part.getTimeMicros() );
+            remoteEvents += part.sent;
+            addToDigest( part.getExecutionDigest() );
+            lastId = Math.max( lastId, part.lastId );
+        }
+        reserveEventIds( lastId );
+    }
+    
+    /**
+     * Returns the number of synchronization windows of the last execution.
+    */
+    public long getWindows() {
+        return windows;
+    }
+    
+    /**
+     * Returns the number of events exchanged between partitions in the last execution.
+    */
+    public long getRemoteEvents() {
+        return remoteEvents;
+    }
+    
+    @Override
+    public long getProcessedEvents()
+    {
+        long processed = super.getProcessedEvents();
+        if (parts != null) {
+            for (Partition part : parts) {
+                processed += part.getProcessedEvents();
+            }
+        }
+        return processed;
+    }
+    
+    @Override
+    public long getCancelledEvents()
+    {
+        long cancelled = super.getCancelledEvents();
+        if (parts != null) {
+            for (Partition part : parts) {
+                cancelled += part.getCancelledEvents();
+            }
+        }
+        return cancelled;
+    }
+    
+    @Override
+    public long getRescheduledEvents()
+    {
+        long rescheduled = super.getRescheduledEvents();
+        if (parts != null) {
+            for (Partition part : parts) {
+                rescheduled += part.getRescheduledEvents();
+            }
+        }
+        return rescheduled;
+    }
+    
+    @Override
+    public String toString()
+    {
+        if (parts == null) {
+            return "Conservative scheduler: sequential execution.";
+        }
+        
+        StringBuilder buffer = new StringBuilder( 128 );
+        buffer.append( partitioning.toString() );
+        buffer.append( "\nWindows: " + windows + ", remote events: " + remoteEvents +
+                       ", elapsed time: " + (elapsedTime / 1000000L) + "ms" );
+        for (Partition part : parts) {
+            buffer.append( "\n  Partition " + part.index + ": executed events = " + part.executed );
+            if (part.getEventPool() != null) {
+                buffer.append( ", " + part.getEventPool() );
+            }
+        }
+        return buffer.toString();
+    }
+    
+    /**
+     * Set of nodes executed by the same thread.
+    */
+    private class Partition extends EventScheduler
+    {
+        private final int index;
+        // Events coming from the other partitions.
+        private final ConcurrentLinkedQueue<Event> incoming;
+        
+        private long windowEnd;
+        private final long baseId;
+        private long nextId = 0;
+        private long lastId = 0;
+        
+        private long executed = 0;
+        private long sent = 0;
+        
+        public Partition( int index, NetworkTopology net, long baseId )
+        {
+            super( net, queueType );
+            this.index  = index;
+            this.baseId = baseId;
+            incoming = new ConcurrentLinkedQueue<>();
+        }
+        
+        /**
+         * Returns the next identifier of the partition.</br>
+         * Identifiers are interleaved among the partitions, so they are unique and
+         * don't depend on the relative speed of the threads.
+        */
+        @Override
+        public long nextEventId()
+        {
+            lastId = baseId + (++nextId) * parts.length + index;
+            return lastId;
+        }
+        
+        private long nextEventTime()
+        {
+            Event e = getEventSet().peek();
+            return (e == null) ? Long.MAX_VALUE : e.getTimeMicros();
+        }
+        
+        private void runWindow( long end )
+        {
+            windowEnd = end;
+            // The window is open on the right.
+            doEvents( end - 1 );
+        }
+        
+        @Override
+        protected void execute( Event e )
+        {
+            Agent source = e.getSource();
+            if (source != null && e.getDestination() != null &&
+                e.getCurrentNodeId() != e.getDestination().getId() &&
+                partitioning.getPartition( source.getId() ) != index) {
+                throw new SimulatorException( "Event " + e.getId() + " forwarded by partition " + index +
+                                              " modifies the agent " + source.getId() +
+                                              " of another partition: connect the agents to keep them together." );
+            }
+            executed++;
+            super.execute( e );
+        }
+        
+        @Override
+        public void schedule( Event e )
+        {
+            if (e == null) {
+                return;
+            }
+            
+            int owner = partitioning.getPartition( e.getCurrentNodeId() );
+            if (owner == index) {
+                super.schedule( e );
+            } else {
+                if (e.getTimeMicros() < windowEnd) {
+                    throw new SimulatorException( "Event " + e.getId() + " sent to partition " + owner +
+                                                  " at time " + e.getTimeMicros() +
+                                                  " before the end of the window (" + windowEnd + ")." );
+                }
+                adopt( e );
+                sent++;
+                parts[owner].incoming.add( e );
+            }
+        }
+        
+        private void deliver( Event e ) {
+            super.schedule( e );
+        }
+        
+        /**
+         * Moves the events received from the other partitions into the pending event set.
+        */
+        private void deliverIncoming()
+        {
+            Event e;
+            while ((e = incoming.poll()) != null) {
+                super.schedule( e );
+            }
+        }
+    }
+}
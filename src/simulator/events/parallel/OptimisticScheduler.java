@@ -0,0 +1,966 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.events.parallel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import simulator.core.Agent;
+import simulator.core.devices.Device;
+import simulator.events.Event;
+import simulator.events.EventScheduler;
+import simulator.events.impl.ResponseEvent;
+import simulator.events.queue.HeapEventSet;
+import simulator.exception.SimulatorException;
+import simulator.topology.NetworkNode;
+import simulator.topology.NetworkTopology;
+import simulator.utils.Time;
+
+/**
+ * Event scheduler executing the network in parallel, following the optimistic
+ * Time Warp synchronization protocol.</br>
+ * The nodes are split among several logical processes (see {@linkplain Partitioning}),
+ * each one executing speculatively its own events, without waiting for the others.
+ * Since no lookahead is needed, the network can be split also along the links
+ * with no propagation delay.</br>
+ * Before executing an event, the process saves the state of the event and of the agents
+ * it can modify (see {@linkplain simulator.core.StateSaving StateSaving}). When an event
+ * arrives "in the past" (a straggler), the process rolls back the events executed after it,
+ * restoring the saved states and cancelling the events sent to the other processes
+ * through anti-messages.</br>
+ * The execution proceeds in rounds: in each round the processes execute in parallel
+ * a batch of events; at the end of the round the exchanged messages are delivered,
+ * the Global Virtual Time (GVT) is computed as the first pending event among all the processes,
+ * and the states saved before it are discarded (fossil collection), since they can't be rolled back anymore.
+ * Tracked events are written on file only when committed.</br>
+ * Events are ordered exactly as the sequential execution does, so the results are the same
+ * (see {@linkplain EventScheduler#setExecutionDigest(boolean)} to check it), provided that
+ * agents, devices, generators and samplers with additional fields save their state too:
+ * the execution is refused if a device doesn't (see {@linkplain Device#isStateSaving()}).
+ * If the network can't be split, the events are executed sequentially.
+*/
+public class OptimisticScheduler extends EventScheduler
+{
+    private final int requestedPartitions;
+    private Partitioning partitioning;
+    private int threads;
+    private int batchSize = 1 << 8;
+    private long optimismWindow = Long.MAX_VALUE;
+    
+    private LogicalProcess[] processes;
+    
+    // Statistics.
+    private long rounds = 0;
+    private long executedEvents = 0;
+    private long committedEvents = 0;
+    private long rolledBackEvents = 0;
+    private long rollbacks = 0;
+    private long antiMessages = 0;
+    private long remoteEvents = 0;
+    private long elapsedTime = 0;
+    
+    
+    
+    /**
+     * Creates a new optimistic scheduler.
+     * 
+     * @param network       the network to simulate.
+     * @param partitions    number of requested logical processes.
+    */
+    public OptimisticScheduler( NetworkTopology network, QueueType type, int partitions )
+    {
+        super( network, type );
+        requestedPartitions = partitions;
+        threads = Runtime.getRuntime().availableProcessors();
+    }
+    
+    /**
+     * Creates a new optimistic scheduler using the given partitioning.
+     * 
+     * @param network         the network to simulate.
+     * @param type            type of the pending event set used by the sequential execution.
+     * @param partitioning    the partitioning of the network.
+    */
+    public OptimisticScheduler( NetworkTopology network, QueueType type, Partitioning partitioning )
+    {
+        this( network, type, partitioning.getPartitions() );
+        this.partitioning = partitioning;
+    }
+    
+    /**
+     * Sets the maximum number of worker threads.</br>
+     * By default it's equal to the number of available processors.
+    */
+    public void setThreads( int threads ) {
+        this.threads = Math.max( 1, threads );
+    }
+    
+    /**
+     * Sets the maximum number of events executed by each process in a round.</br>
+     * Smaller batches reduce the rollbacks, at the cost of more synchronizations.
+     * By default it's 256.
+    */
+    public void setBatchSize( int events ) {
+        batchSize = Math.max( 1, events );
+    }
+    
+    /**
+     * Limits how far the processes can go beyond the GVT in a round.</br>
+     * By default there is no limit.
+     * 
+     * @param window    the time window. If {@code null} the limit is removed.
+    */
+    public void setOptimismWindow( Time window ) {
+        optimismWindow = (window == null) ? Long.MAX_VALUE : Math.max( 1, window.getTimeMicros() );
+    }
+    
+    /**
+     * Returns the partitioning used by the last execution,
+     * or {@code null} if not yet computed.
+    */
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+    
+    @Override
+    protected void runEvents( long until )
+    {
+        NetworkTopology net = getNetwork();
+        if (partitioning == null || partitioning.getNetwork() != net) {
+            // Agents are known only at the beginning of the simulation.
+            partitioning = new Partitioning( net, requestedPartitions, false );
+        }
+        
+        if (partitioning.getPartitions() == 1) {
+            super.runEvents( until );
+            return;
+        }
+        
+        checkStateSaving( net );
+        long startTime = System.nanoTime();
+        createProcesses( net );
+        
+        int nThreads = Math.min( threads, processes.length );
+        ExecutorService executor = Executors.newFixedThreadPool( nThreads );
+        try {
+            runRounds( executor, Math.min( until, getTimeDurationMicros() ) );
+        } finally {
+            executor.shutdown();
+            collectProcesses( net );
+        }
+        elapsedTime = System.nanoTime() - startTime;
+    }
+    
+    /**
+     * Checks that the state of every device can be saved, since it must be restored in case of rollback.
+     * 
+     * @throws SimulatorException if a device doesn't save its state.
+    */
+    private void checkStateSaving( NetworkTopology net ) throws SimulatorException
+    {
+        for (Agent agent : net.getAgents()) {
+            for (Device<?,?> device : agent.getDevices()) {
+                if (!device.isStateSaving()) {
+                    throw new SimulatorException( "The device " + device.getClass().getName() + " of the agent " + agent.getId() +
+                                                  " doesn't save its state, so the agent can't be executed by the optimistic scheduler." );
+                }
+            }
+        }
+    }
+    
+    private void createProcesses( NetworkTopology net )
+    {
+        processes = new LogicalProcess[partitioning.getPartitions()];
+        long baseId = getLastEventId();
+        for (int i = 0; i < processes.length; i++) {
+            processes[i] = new LogicalProcess( i, net, baseId );
+            processes[i].setDuration( getTimeDuration() );
+            processes[i].setExecutionDigest( isExecutionDigestEnabled() );
+        }
+        
+        for (Agent agent : net.getAgents()) {
+            agent.setEventScheduler( processes[partitioning.getPartition( agent.getId() )] );
+        }
+        
+        // Moves the pending events into their processes.
+        Event e;
+        while ((e = getEventSet().poll()) != null) {
+            adopt( e );
+            processes[partitioning.getPartition( e.getCurrentNodeId() )].insert( e, Stamp.of( e ) );
+        }
+    }
+    
+    private void runRounds( ExecutorService executor, final long end )
+    {
+        List<Callable<Void>> tasks = new ArrayList<>( processes.length );
+        while (true) {
+            deliverMessages();
+            Stamp gvt = computeGVT();
+            for (LogicalProcess process : processes) {
+                process.commit( gvt );
+            }
+            if (gvt == null || gvt.time() > end) {
+                break;
+            }
+            
+            final long limit = (optimismWindow >= end - gvt.time()) ?
+                               end : gvt.time() + optimismWindow;
+            tasks.clear();
+            for (LogicalProcess process : processes) {
+                if (process.nextEventTime() <= limit) {
+                    tasks.add( () -> { process.runRound( limit ); return null; } );
+                }
+            }
+            
+            rounds++;
+            if (tasks.size() == 1) {
+                // No need to involve the workers.
+                try { tasks.get( 0 ).call(); }
+                catch ( Exception e ) { throw asRuntime( e ); }
+            } else {
+                try {
+                    for (Future<Void> result : executor.invokeAll( tasks )) {
+                        result.get();
+                    }
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new SimulatorException( e );
+                } catch ( ExecutionException e ) {
+                    throw asRuntime( e.getCause() );
+                }
+            }
+        }
+    }
+    
+    private static RuntimeException asRuntime( Throwable t ) {
+        return (t instanceof RuntimeException) ? (RuntimeException) t : new SimulatorException( t );
+    }
+    
+    /**
+     * Delivers the messages exchanged by the processes,
+     * until no more anti-messages are generated by the rollbacks.
+    */
+    private void deliverMessages()
+    {
+        boolean delivered;
+        do {
+            delivered = false;
+            for (LogicalProcess process : processes) {
+                delivered |= process.deliverIncoming();
+            }
+        } while (delivered);
+    }
+    
+    /**
+     * Returns the Global Virtual Time, as the first pending event among all the processes,
+     * or {@code null} if there are no more events.</br>
+     * It must be called when no messages are in transit.
+    */
+    private Stamp computeGVT()
+    {
+        Stamp gvt = null;
+        for (LogicalProcess process : processes) {
+            Stamp first = process.firstStamp();
+            if (first != null && (gvt == null || first.compareTo( gvt ) < 0)) {
+                gvt = first;
+            }
+        }
+        return gvt;
+    }
+    
+    /**
+     * Gives back the agents and the remaining events to this scheduler.
+    */
+    private void collectProcesses( NetworkTopology net )
+    {
+        for (Agent agent : net.getAgents()) {
+            agent.setEventScheduler( this );
+        }
+        
+        long lastId = 0;
+        for (LogicalProcess process : processes) {
+            process.deliverIncoming();
+            // No more events can be rolled back.
+            process.commit( null );
+            for (Event e : process.pending.keySet()) {
+                adopt( e );
+                super.schedule( e );
+            }
+            process.pending.clear();
+            advanceTime( process.getTimeMicros() );
+            remoteEvents     += process.sent;
+            executedEvents   += process.executed;
+            committedEvents  += process.committed;
+            rolledBackEvents += process.rolledBackEvents;
+            rollbacks        += process.rollbacks;
+            antiMessages     += process.antiMessages;
+            lastId = Math.max( lastId, process.lastId );
+            addToDigest( process.getExecutionDigest() );
+        }
+        reserveEventIds( lastId );
+    }
+    
+    /**
+     * Returns the number of rounds of the last execution.
+    */
+    public long getRounds() {
+        return rounds;
+    }
+    
+    /**
+     * Returns the number of executed events, including the rolled back ones.
+    */
+    public long getExecutedEvents() {
+        return executedEvents;
+    }
+    
+    /**
+     * Returns the number of committed events.
+    */
+    public long getCommittedEvents() {
+        return committedEvents;
+    }
+    
+    @Override
+    public long getProcessedEvents() {
+        return super.getProcessedEvents() + committedEvents;
+    }
+    
+    /**
+     * Returns the number of events undone by the rollbacks.
+    */
+    public long getRolledBackEvents() {
+        return rolledBackEvents;
+    }
+    
+    /**
+     * Returns the number of rollbacks.
+    */
+    public long getRollbacks() {
+        return rollbacks;
+    }
+    
+    /**
+     * Returns the number of anti-messages sent by the rollbacks.
+    */
+    public long getAntiMessages() {
+        return antiMessages;
+    }
+    
+    /**
+     * Returns the number of events exchanged between processes.
+    */
+    public long getRemoteEvents() {
+        return remoteEvents;
+    }
+    
+    /**
+     * Returns the fraction of executed events that have been committed.
+    */
+    public double getEfficiency() {
+        return (executedEvents == 0) ? 1 : (double) committedEvents / executedEvents;
+    }
+    
+    @Override
+    public String toString()
+    {
+        if (processes == null) {
+            return "Optimistic scheduler: sequential execution.";
+        }
+        
+        StringBuilder buffer = new StringBuilder( 256 );
+        buffer.append( partitioning.toString() );
+        buffer.append( "\nRounds: " + rounds + ", executed events: " + executedEvents +
+                       ", committed events: " + committedEvents +
+                       ", efficiency: " + String.format( "%.2f", getEfficiency() * 100 ) + "%" );
+        buffer.append( "\nRollbacks: " + rollbacks + ", rolled back events: " + rolledBackEvents +
+                       ", anti-messages: " + antiMessages + ", remote events: " + remoteEvents +
+                       ", elapsed time: " + (elapsedTime / 1000000L) + "ms" );
+        return buffer.toString();
+    }
+    
+    /**
+     * Set of nodes executed speculatively by the same thread.
+    */
+    private class LogicalProcess extends EventScheduler
+    {
+        private final int index;
+        private final NetworkTopology net;
+        
+        // Pending events, ordered by their stamp.
+        private final TreeSet<Pending> queue;
+        private final Map<Event,Pending> pending;
+        // Executed events, not yet committed.
+        private final ArrayDeque<Record> history;
+        // Messages coming from the other processes.
+        private final ConcurrentLinkedQueue<Message> incoming;
+        // Record of the event in execution.
+        private Record current;
+        
+        private final long baseId;
+        private long nextId = 0;
+        private long lastId = 0;
+        private long insertions = 0;
+        
+        // Statistics.
+        private long sent = 0;
+        private long executed = 0;
+        private long committed = 0;
+        private long rolledBackEvents = 0;
+        private long rollbacks = 0;
+        private long antiMessages = 0;
+        
+        public LogicalProcess( int index, NetworkTopology net, long baseId )
+        {
+            super( net, new HeapEventSet( 16 ) );
+            this.index  = index;
+            this.net    = net;
+            this.baseId = baseId;
+            queue    = new TreeSet<>();
+            pending  = new IdentityHashMap<>();
+            history  = new ArrayDeque<>();
+            incoming = new ConcurrentLinkedQueue<>();
+        }
+        
+        /**
+         * Returns the next identifier of the process.</br>
+         * Identifiers are interleaved among the processes, so they are unique and
+         * don't depend on the relative speed of the threads.
+        */
+        @Override
+        public long nextEventId()
+        {
+            lastId = baseId + (++nextId) * processes.length + index;
+            return lastId;
+        }
+        
+        private Stamp firstStamp() {
+            return queue.isEmpty() ? null : queue.first().stamp;
+        }
+        
+        private long nextEventTime() {
+            return queue.isEmpty() ? Long.MAX_VALUE : queue.first().event.getTimeMicros();
+        }
+        
+        @Override
+        public boolean hasNextEvents() {
+            return !queue.isEmpty();
+        }
+        
+        private void insert( Event e, Stamp stamp )
+        {
+            Pending p = new Pending( e, stamp, insertions++ );
+            queue.add( p );
+            pending.put( e, p );
+        }
+        
+        private Pending extract( Event e )
+        {
+            Pending p = pending.remove( e );
+            if (p != null) {
+                queue.remove( p );
+            }
+            return p;
+        }
+        
+        /**
+         * Executes, in order, at most a batch of events whose time is not greater than the given limit.
+        */
+        private void runRound( long limit )
+        {
+            for (int i = 0; i < batchSize && nextEventTime() <= limit; i++) {
+                executeNext();
+            }
+        }
+        
+        private void executeNext()
+        {
+            Pending p = queue.pollFirst();
+            pending.remove( p.event );
+            Event e = p.event;
+            
+            Agent source = e.getSource();
+            if (source != null && e.getDestination() != null &&
+                e.getCurrentNodeId() != e.getDestination().getId() &&
+                partitioning.getPartition( source.getId() ) != index) {
+                throw new SimulatorException( "Event " + e.getId() + " forwarded by process " + index +
+                                              " modifies the agent " + source.getId() +
+                                              " of another process: connect the agents to keep them together." );
+            }
+            
+            Record r = new Record( e, p.stamp, e.saveState() );
+            if (isExecutionDigestEnabled()) {
+                r.digest = digestOf( e );
+            }
+            saveAgents( r, e );
+            
+            current = r;
+            resetTime( e.getTimeMicros() );
+            try {
+                execute( e );
+            } finally {
+                current = null;
+            }
+            history.addLast( r );
+            executed++;
+        }
+        
+        /**
+         * Saves the state of the agents that can be modified by the event:
+         * the agent of the current node, the source and the destination,
+         * together with their connected agents.
+        */
+        private void saveAgents( Record r, Event e )
+        {
+            List<Agent> agents = new ArrayList<>( 4 );
+            NetworkNode node = net.getNode( e.getCurrentNodeId() );
+            if (node != null) {
+                addAgent( agents, node.getAgent(), true );
+            }
+            addAgent( agents, e.getSource(), false );
+            addAgent( agents, e.getDestination(), true );
+            
+            r.agents = agents.toArray( new Agent[agents.size()] );
+            r.states = new Object[r.agents.length];
+            for (int i = 0; i < r.agents.length; i++) {
+                r.states[i] = r.agents[i].saveState();
+            }
+        }
+        
+        private void addAgent( List<Agent> agents, Agent agent, boolean connected )
+        {
+            if (agent == null || agents.contains( agent ) ||
+                !net.containsNode( agent.getId() ) ||
+                partitioning.getPartition( agent.getId() ) != index) {
+                return;
+            }
+            agents.add( agent );
+            if (connected) {
+                for (Agent other : agent.getConnectedAgents()) {
+                    addAgent( agents, other, false );
+                }
+            }
+        }
+        
+        @Override
+        public void schedule( Event e )
+        {
+            if (e == null) {
+                return;
+            }
+            
+            assignId( e );
+            Stamp stamp = (current == null) ? Stamp.of( e ) : current.stamp.child( Key.of( e ) );
+            int owner = partitioning.getPartition( e.getCurrentNodeId() );
+            if (owner == index) {
+                insert( e, stamp );
+                if (current != null) {
+                    current.log( new Operation( Operation.SCHEDULED, e, null, 0, owner ) );
+                }
+            } else {
+                // The receiver gets its own copy, since the sender may need to restore the event.
+                Event copy = e.copy();
+                sent++;
+                processes[owner].incoming.add( new Message( copy, stamp ) );
+                if (current != null) {
+                    current.log( new Operation( Operation.SENT, copy, null, 0, owner ) );
+                }
+            }
+        }
+        
+        @Override
+        public boolean remove( Event e )
+        {
+            Pending p = (e == null) ? null : extract( e );
+            if (p == null) {
+                return false;
+            }
+            if (current != null) {
+                current.log( new Operation( Operation.REMOVED, e, p.stamp, 0, index ) );
+            }
+            return true;
+        }
+        
+        @Override
+        public boolean reschedule( Event e, long time )
+        {
+            Pending p = (e == null) ? null : extract( e );
+            if (p == null) {
+                return false;
+            }
+            if (current != null) {
+                current.log( new Operation( Operation.RESCHEDULED, e, p.stamp, e.getTimeMicros(), index ) );
+            }
+            e.setTime( time );
+            insert( e, (current == null) ? Stamp.of( e ) : current.stamp.child( Key.of( e ) ) );
+            return true;
+        }
+        
+        @Override
+        protected void trackEvent( String message )
+        {
+            if (current != null) {
+                // Written only when the event is committed.
+                current.trace( message );
+            } else {
+                super.trackEvent( message );
+            }
+        }
+        
+        /**
+         * Moves the messages received from the other processes into the pending events,
+         * rolling back the events executed after a straggler.
+         * 
+         * @return {@code true} if at least a message has been delivered,
+         *         {@code false} otherwise.
+        */
+        private boolean deliverIncoming()
+        {
+            boolean delivered = false;
+            Message m;
+            while ((m = incoming.poll()) != null) {
+                delivered = true;
+                if (m.stamp == null) {
+                    annihilate( m.event );
+                } else {
+                    if (!history.isEmpty() && history.peekLast().stamp.compareTo( m.stamp ) > 0) {
+                        rollback( m.stamp );
+                    }
+                    insert( m.event, m.stamp );
+                }
+            }
+            return delivered;
+        }
+        
+        /**
+         * Undoes all the events executed after the given stamp.
+        */
+        private void rollback( Stamp straggler )
+        {
+            rollbacks++;
+            while (!history.isEmpty() && history.peekLast().stamp.compareTo( straggler ) > 0) {
+                undo( history.pollLast() );
+            }
+        }
+        
+        /**
+         * Cancels an event, after the arrival of its anti-message.
+        */
+        private void annihilate( Event e )
+        {
+            // If the event has been already executed (even if it's pending again),
+            // undoes its first execution.
+            Record first = null;
+            for (Iterator<Record> it = history.descendingIterator(); it.hasNext();) {
+                Record r = it.next();
+                if (r.event == e) {
+                    first = r;
+                }
+            }
+            
+            if (first != null) {
+                rollbacks++;
+                Record r;
+                do {
+                    r = history.pollLast();
+                    undo( r );
+                } while (r != first);
+            }
+            
+            if (extract( e ) == null) {
+                throw new SimulatorException( "Anti-message for the unknown event " + e.getId() +
+                                              " in process " + index + "." );
+            }
+        }
+        
+        private void undo( Record r )
+        {
+            if (r.operations != null) {
+                for (int i = r.operations.size() - 1; i >= 0; i--) {
+                    Operation op = r.operations.get( i );
+                    switch (op.type) {
+                        case Operation.SCHEDULED:
+                            if (extract( op.event ) == null) {
+                                throw new SimulatorException( "Event " + op.event.getId() + " not found during the rollback." );
+                            }
+                            break;
+                        case Operation.SENT:
+                            processes[op.owner].incoming.add( new Message( op.event, null ) );
+                            antiMessages++;
+                            break;
+                        case Operation.REMOVED:
+                            insert( op.event, op.stamp );
+                            break;
+                        case Operation.RESCHEDULED:
+                            extract( op.event );
+                            op.event.setTime( op.time );
+                            insert( op.event, op.stamp );
+                            break;
+                    }
+                }
+            }
+            
+            for (int i = r.agents.length - 1; i >= 0; i--) {
+                r.agents[i].restoreState( r.states[i] );
+            }
+            r.event.restoreState( r.eventState );
+            insert( r.event, r.stamp );
+            rolledBackEvents++;
+        }
+        
+        /**
+         * Commits the events executed before the given GVT (fossil collection).
+         * 
+         * @param gvt    the Global Virtual Time. If {@code null} all the events are committed.
+        */
+        private void commit( Stamp gvt )
+        {
+            while (!history.isEmpty() && (gvt == null || history.peekFirst().stamp.compareTo( gvt ) < 0)) {
+                Record r = history.pollFirst();
+                for (int i = 0; i < r.agents.length; i++) {
+                    r.agents[i].discardState( r.states[i] );
+                }
+                r.event.discardState( r.eventState );
+                if (r.trace != null) {
+                    for (String message : r.trace) {
+                        super.trackEvent( message );
+                    }
+                }
+                addToDigest( r.digest );
+                committed++;
+            }
+        }
+    }
+    
+    /**
+     * Pending event of a logical process.
+    */
+    private static class Pending implements Comparable<Pending>
+    {
+        private final Event event;
+        private final Stamp stamp;
+        // Order of insertion, used only to distinguish equal stamps.
+        private final long order;
+        
+        public Pending( Event event, Stamp stamp, long order )
+        {
+            this.event = event;
+            this.stamp = stamp;
+            this.order = order;
+        }
+        
+        @Override
+        public int compareTo( Pending o )
+        {
+            int compare = stamp.compareTo( o.stamp );
+            return (compare != 0) ? compare : Long.compare( order, o.order );
+        }
+    }
+    
+    /**
+     * Event executed by a logical process, with the informations needed to undo it.
+    */
+    private static class Record
+    {
+        private final Event event;
+        private final Stamp stamp;
+        private final Object eventState;
+        private long digest;
+        
+        private Agent[] agents;
+        private Object[] states;
+        
+        // Operations on the pending events made by the execution (null if none).
+        private List<Operation> operations;
+        // Tracked events (null if none).
+        private List<String> trace;
+        
+        public Record( Event event, Stamp stamp, Object eventState )
+        {
+            this.event = event;
+            this.stamp = stamp;
+            this.eventState = eventState;
+        }
+        
+        public void log( Operation op )
+        {
+            if (operations == null) {
+                operations = new ArrayList<>( 4 );
+            }
+            operations.add( op );
+        }
+        
+        public void trace( String message )
+        {
+            if (trace == null) {
+                trace = new ArrayList<>( 2 );
+            }
+            trace.add( message );
+        }
+    }
+    
+    private static class Operation
+    {
+        private static final int SCHEDULED   = 0;
+        private static final int SENT        = 1;
+        private static final int REMOVED     = 2;
+        private static final int RESCHEDULED = 3;
+        
+        private final int type;
+        private final Event event;
+        // Previous stamp and time of the event.
+        private final Stamp stamp;
+        private final long time;
+        // Process receiving the event.
+        private final int owner;
+        
+        public Operation( int type, Event event, Stamp stamp, long time, int owner )
+        {
+            this.type  = type;
+            this.event = event;
+            this.stamp = stamp;
+            this.time  = time;
+            this.owner = owner;
+        }
+    }
+    
+    /**
+     * Event sent to another process, or its anti-message if the stamp is {@code null}.
+    */
+    private static class Message
+    {
+        private final Event event;
+        private final Stamp stamp;
+        
+        public Message( Event event, Stamp stamp )
+        {
+            this.event = event;
+            this.stamp = stamp;
+        }
+    }
+    
+    /**
+     * Ordering key of an event, following the same rules of {@linkplain Event#compareTo(Event)}.
+    */
+    private static class Key implements Comparable<Key>
+    {
+        private final long time;
+        private final long arrivalTime;
+        private final boolean response;
+        private final long sequence;
+        private final long source;
+        private final long id;
+        
+        private Key( Event e )
+        {
+            time        = e.getTimeMicros();
+            arrivalTime = e.getArrivalTimeMicros();
+            response    = e instanceof ResponseEvent;
+            sequence    = e.getSequence();
+            source      = (e.getSource() == null) ? -1 : e.getSource().getId();
+            id          = e.getId();
+        }
+        
+        public static Key of( Event e ) {
+            return new Key( e );
+        }
+        
+        @Override
+        public int compareTo( Key o )
+        {
+            int compare = Long.compare( time, o.time );
+            if (compare == 0) {
+                compare = Long.compare( arrivalTime, o.arrivalTime );
+                if (compare == 0) {
+                    compare = Boolean.compare( response, o.response );
+                    if (compare == 0) {
+                        compare = Long.compare( sequence, o.sequence );
+                        if (compare == 0) {
+                            compare = Long.compare( source, o.source );
+                            if (compare == 0) {
+                                compare = Long.compare( id, o.id );
+                            }
+                        }
+                    }
+                }
+            }
+            return compare;
+        }
+    }
+    
+    /**
+     * Position of an event in the order of execution of the sequential scheduler.</br>
+     * The sequential scheduler always executes the first pending event, but an event can
+     * schedule new ones preceding it (e.g. a request sent at the same time of the received response).
+     * Such events are executed immediately after their parent, before all the events pending
+     * at that moment, so the order of execution is not the one of the events keys.</br>
+     * The stamp of an event is the path of keys starting from the outermost pending event
+     * it is nested into: stamps are compared lexicographically (a prefix comes first),
+     * they respect the order of execution and they never decrease along a chain of scheduled events,
+     * so they can be used to detect the stragglers.
+    */
+    private static class Stamp implements Comparable<Stamp>
+    {
+        private final Key[] keys;
+        
+        private Stamp( Key[] keys ) {
+            this.keys = keys;
+        }
+        
+        /**
+         * Returns the stamp of an event not nested into any other.
+        */
+        public static Stamp of( Event e ) {
+            return new Stamp( new Key[] { Key.of( e ) } );
+        }
+        
+        /**
+         * Returns the stamp of an event scheduled during the execution of the event with this stamp.
+        */
+        public Stamp child( Key key )
+        {
+            for (int i = keys.length - 1; i >= 0; i--) {
+                if (key.compareTo( keys[i] ) <= 0) {
+                    Key[] path = Arrays.copyOf( keys, i + 2 );
+                    path[i + 1] = key;
+                    return new Stamp( path );
+                }
+            }
+            return new Stamp( new Key[] { key } );
+        }
+        
+        /**
+         * Returns the time of the event.
+        */
+        public long time() {
+            return keys[keys.length - 1].time;
+        }
+        
+        @Override
+        public int compareTo( Stamp o )
+        {
+            int length = Math.min( keys.length, o.keys.length );
+            for (int i = 0; i < length; i++) {
+                int compare = keys[i].compareTo( o.keys[i] );
+                if (compare != 0) {
+                    return compare;
+                }
+            }
+            return Integer.compare( keys.length, o.keys.length );
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.events.parallel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import simulator.core.Agent;
+import simulator.exception.SimulatorException;
+import simulator.topology.NetworkLink;
+import simulator.topology.NetworkNode;
+import simulator.topology.NetworkTopology;
+
+/**
+ * Assignment of the nodes of a network to the partitions of a parallel execution.</br>
+ * The requested assignment is refined to make each partition independent from the others,
+ * except for the messages crossing the links between them:
+ * <p><ul>
+ * <li>an agent is kept together with its connected agents, since it can access them directly</br>
+ * <li>the nodes along the routes between connected agents are kept with them,
+ *     since a message updates its source agent at each hop</br>
+ * <li>nodes joined by a link with no propagation delay are kept together,
+ *     since the link provides no lookahead (only if required by the synchronization)
+ * </ul>
+ * The lookahead of the execution is the minimum propagation delay
+ * among the links crossing two partitions.
+*/
+public class Partitioning
+{
+    private final NetworkTopology net;
+    // Partition of each node, indexed by the node index.
+    private final int[] partitions;
+    private final int nPartitions;
+    private final long lookahead;
+    
+    
+    
+    /**
+     * Splits the network in (at most) the given number of partitions,
+     * visiting the nodes in breadth-first order.
+     * 
+     * @param net           the network.
+     * @param partitions    the number of requested partitions.
+    */
+    public Partitioning( NetworkTopology net, int partitions ) {
+        this( net, partitions, true );
+    }
+    
+    /**
+     * Splits the network in (at most) the given number of partitions,
+     * visiting the nodes in breadth-first order.
+     * 
+     * @param net                 the network.
+     * @param partitions          the number of requested partitions.
+     * @param requireLookahead    {@code true} to keep together the nodes joined by a link
+     *                            with no propagation delay, as required by a conservative
+     *                            synchronization, {@code false} otherwise.
+    */
+    public Partitioning( NetworkTopology net, int partitions, boolean requireLookahead ) {
+        this( net, breadthFirst( net, partitions ), requireLookahead );
+    }
+    
+    /**
+     * Creates a partitioning starting from the given assignment.
+     * 
+     * @param net           the network.
+     * @param assignment    partition of each node, identified by its id.
+     *                      Nodes not in the map are placed in the partition 0.
+    */
+    public Partitioning( NetworkTopology net, Map<Long,Integer> assignment ) {
+        this( net, assignment, true );
+    }
+    
+    /**
+     * Creates a partitioning starting from the given assignment.
+     * 
+     * @param net                 the network.
+     * @param assignment          partition of each node, identified by its id.
+     *                            Nodes not in the map are placed in the partition 0.
+     * @param requireLookahead    {@code true} to keep together the nodes joined by a link
+     *                            with no propagation delay, as required by a conservative
+     *                            synchronization, {@code false} otherwise.
+    */
+    public Partitioning( NetworkTopology net, Map<Long,Integer> assignment, boolean requireLookahead )
+    {
+        this.net = net;
+        
+        List<NetworkNode> nodes = sortedNodes( net );
+        UnionFind sets = new UnionFind( nodes.size() );
+        
+        // Nodes with the same requested partition.
+        int[] firstOf = new int[nodes.size()];
+        Arrays.fill( firstOf, -1 );
+        for (NetworkNode node : nodes) {
+            Integer p = assignment.get( node.getId() );
+            int part = (p == null) ? 0 : p;
+            if (part < 0 || part >= nodes.size()) {
+                throw new SimulatorException( "Invalid partition " + part + " for node " + node.getId() );
+            }
+            if (firstOf[part] == -1) {
+                firstOf[part] = node.getIndex();
+            } else {
+                sets.union( firstOf[part], node.getIndex() );
+            }
+        }
+        
+        mergeCoupledNodes( sets, requireLookahead );
+        
+        // Numbers the partitions following the order of the nodes.
+        partitions = new int[nodes.size()];
+        int[] ids = new int[nodes.size()];
+        Arrays.fill( ids, -1 );
+        int count = 0;
+        for (NetworkNode node : nodes) {
+            int root = sets.find( node.getIndex() );
+            if (ids[root] == -1) {
+                ids[root] = count++;
+            }
+            partitions[node.getIndex()] = ids[root];
+        }
+        nPartitions = Math.max( 1, count );
+        
+        long minDelay = Long.MAX_VALUE;
+        for (NetworkLink link : net.getLinks()) {
+            if (getPartition( link.getSourceId() ) != getPartition( link.getDestId() )) {
+                minDelay = Math.min( minDelay, link.getTprop() );
+            }
+        }
+        lookahead = minDelay;
+    }
+    
+    private static List<NetworkNode> sortedNodes( NetworkTopology net )
+    {
+        List<NetworkNode> nodes = new ArrayList<>( net.getNodes() );
+        nodes.sort( Comparator.comparingInt( NetworkNode::getIndex ) );
+        return nodes;
+    }
+    
+    /**
+     * Assigns the nodes to the partitions in breadth-first order,
+     * so that each partition is (possibly) made by contiguous nodes.
+    */
+    private static Map<Long,Integer> breadthFirst( NetworkTopology net, int partitions )
+    {
+        List<NetworkNode> nodes = sortedNodes( net );
+        Map<Long,List<Long>> neighbours = new HashMap<>();
+        for (NetworkLink link : net.getLinks()) {
+            neighbours.computeIfAbsent( link.getSourceId(), k -> new ArrayList<>() ).add( link.getDestId() );
+            neighbours.computeIfAbsent( link.getDestId(), k -> new ArrayList<>() ).add( link.getSourceId() );
+        }
+        
+        List<Long> order = new ArrayList<>( nodes.size() );
+        boolean[] visited = new boolean[nodes.size()];
+        ArrayDeque<NetworkNode> queue = new ArrayDeque<>();
+        for (NetworkNode start : nodes) {
+            if (visited[start.getIndex()]) {
+                continue;
+            }
+            visited[start.getIndex()] = true;
+            queue.add( start );
+            while (!queue.isEmpty()) {
+                NetworkNode node = queue.poll();
+                order.add( node.getId() );
+                List<Long> adj = neighbours.get( node.getId() );
+                if (adj != null) {
+                    for (long id : adj) {
+                        NetworkNode next = net.getNode( id );
+                        if (next != null && !visited[next.getIndex()]) {
+                            visited[next.getIndex()] = true;
+                            queue.add( next );
+                        }
+                    }
+                }
+            }
+        }
+        
+        int nParts = Math.max( 1, Math.min( partitions, order.size() ) );
+        Map<Long,Integer> assignment = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            assignment.put( order.get( i ), (int) ((long) i * nParts / order.size()) );
+        }
+        return assignment;
+    }
+    
+    /**
+     * Merges the nodes that can't be executed independently.
+    */
+    private void mergeCoupledNodes( UnionFind sets, boolean requireLookahead )
+    {
+        Collection<Agent> agents = net.getAgents();
+        for (Agent agent : agents) {
+            for (Agent other : agent.getConnectedAgents()) {
+                if (!net.containsNode( other.getId() )) {
+                    continue;
+                }
+                sets.union( index( agent.getId() ), index( other.getId() ) );
+                mergeRoute( sets, agent.getId(), other.getId() );
+                mergeRoute( sets, other.getId(), agent.getId() );
+            }
+        }
+        
+        if (requireLookahead) {
+            for (NetworkLink link : net.getLinks()) {
+                if (link.getTprop() <= 0 && net.containsNode( link.getDestId() )) {
+                    sets.union( index( link.getSourceId() ), index( link.getDestId() ) );
+                }
+            }
+        }
+    }
+    
+    private void mergeRoute( UnionFind sets, long fromId, long destId )
+    {
+        long current = fromId;
+        // The route can't be longer than the number of nodes.
+        for (int hops = 0; current != destId && hops < sets.size(); hops++) {
+            NetworkNode next = net.nextNode( current, destId );
+            if (next == null || next.getId() == current) {
+                break;
+            }
+            sets.union( index( current ), next.getIndex() );
+            current = next.getId();
+        }
+    }
+    
+    private int index( long nodeId ) {
+        return net.getNode( nodeId ).getIndex();
+    }
+    
+    /**
+     * Returns the partition of the given node.
+     * 
+     * @param nodeId    identifier of the node.
+    */
+    public int getPartition( long nodeId )
+    {
+        NetworkNode node = net.getNode( nodeId );
+        return (node == null) ? 0 : partitions[node.getIndex()];
+    }
+    
+    /**
+     * Returns the number of partitions.
+    */
+    public int getPartitions() {
+        return nPartitions;
+    }
+    
+    /**
+     * Returns the minimum propagation delay among the links crossing two partitions,
+     * expressed in microseconds, or {@code Long.MAX_VALUE} if the partitions are not linked.
+    */
+    public long getLookahead() {
+        return lookahead;
+    }
+    
+    public NetworkTopology getNetwork() {
+        return net;
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder buffer = new StringBuilder( 64 );
+        buffer.append( "Partitions: " + nPartitions + ", lookahead: " );
+        buffer.append( (lookahead == Long.MAX_VALUE) ? "none" : lookahead + "us" );
+        for (int p = 0; p < nPartitions; p++) {
+            buffer.append( "\n  " + p + ": [" );
+            boolean first = true;
+            for (NetworkNode node : sortedNodes( net )) {
+                if (partitions[node.getIndex()] == p) {
+                    buffer.append( (first ? "" : ", ") + node.getId() );
+                    first = false;
+                }
+            }
+            buffer.append( "]" );
+        }
+        return buffer.toString();
+    }
+    
+    private static class UnionFind
+    {
+        private final int[] parent;
+        
+        public UnionFind( int size )
+        {
+            parent = new int[size];
+            for (int i = 0; i < size; i++) {
+                parent[i] = i;
+            }
+        }
+        
+        public int find( int i )
+        {
+            while (parent[i] != i) {
+                parent[i] = parent[parent[i]];
+                i = parent[i];
+            }
+            return i;
+        }
+        
+        public void union( int i, int j )
+        {
+            int ri = find( i ), rj = find( j );
+            // The smallest index is always the root.
+            if (ri < rj) {
+                parent[rj] = ri;
+            } else if (rj < ri) {
+                parent[ri] = rj;
+            }
+        }
+        
+        public int size() {
+            return parent.length;
+        }
+    }
+}
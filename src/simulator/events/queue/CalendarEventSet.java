@@ -0,0 +1,393 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.events.queue;
+
+import java.util.Arrays;
+
+import simulator.events.Event;
+
+/**
+ * Pending event set based on a calendar queue (R. Brown, 1988).</br>
+ * Events are hashed into an array of "days" (buckets) of fixed width,
+ * using their time expressed in microseconds as a primitive key.
+ * Each bucket is kept sorted, so the first event is found by scanning the buckets
+ * starting from the last extracted one.</br>
+ * The number of buckets and their width are adapted to the current population,
+ * giving an amortized O(1) cost for both the insertion and the extraction.</br>
+ * Events with the same time are ordered according to {@linkplain Event#compareTo(Event) Event.compareTo}.
+*/
+public class CalendarEventSet implements PendingEventSet
+{
+    private Node[] buckets;
+    private int mask;
+    private long width;
+    private int size;
+    
+    // Boundaries of the bucket where the next event is searched from.
+    private int lastBucket;
+    private long bucketBottom;
+    private long bucketTop;
+    
+    private int topThreshold;
+    private int botThreshold;
+    
+    // List of recycled nodes.
+    private Node freeNodes;
+    
+    private static final int MIN_BUCKETS = 2;
+    private static final int MAX_SAMPLES = 25;
+    
+    
+    
+    /**
+     * Creates a new calendar queue with 1024 buckets, each one 1 millisecond wide.
+    */
+    public CalendarEventSet() {
+        this( 1 << 10, 1000L );
+    }
+    
+    /**
+     * Creates a new calendar queue.
+     * 
+     * @param buckets    initial number of buckets (rounded to the next power of 2).
+     * @param width      initial width of a bucket, expressed in microseconds.
+    */
+    public CalendarEventSet( int buckets, long width ) {
+        init( powerOfTwo( buckets ), Math.max( 1L, width ), 0L );
+    }
+    
+    private static int powerOfTwo( int value )
+    {
+        int n = Integer.highestOneBit( Math.max( MIN_BUCKETS, value ) );
+        return (n < value) ? n << 1 : n;
+    }
+    
+    private void init( int nBuckets, long bucketWidth, long startTime )
+    {
+        buckets = new Node[nBuckets];
+        mask = nBuckets - 1;
+        width = bucketWidth;
+        size = 0;
+        topThreshold = nBuckets << 1;
+        botThreshold = (nBuckets > MIN_BUCKETS) ? nBuckets >> 1 : 0;
+        setCursor( startTime );
+    }
+    
+    private int bucketOf( long time ) {
+        return (int) (Math.floorDiv( time, width ) & mask);
+    }
+    
+    /**
+     * Moves the starting point of the search on the bucket containing the given time.
+    */
+    private void setCursor( long time )
+    {
+        lastBucket   = bucketOf( time );
+        bucketBottom = Math.floorDiv( time, width ) * width;
+        bucketTop    = (bucketBottom > Long.MAX_VALUE - width) ? Long.MAX_VALUE : bucketBottom + width;
+    }
+    
+    /**
+     * Checks whether the node {@code a} comes before the node {@code b}.
+    */
+    private static boolean precedes( Node a, Node b ) {
+        return a.time < b.time || (a.time == b.time && a.event.compareTo( b.event ) <= 0);
+    }
+    
+    @Override
+    public void add( Event e )
+    {
+        insert( newNode( e, e.getTimeMicros() ) );
+        if (++size > topThreshold) {
+            resize( buckets.length << 1 );
+        }
+    }
+    
+    private void insert( Node node )
+    {
+        if (size == 0 || node.time < bucketBottom) {
+            setCursor( node.time );
+        }
+        
+        int i = bucketOf( node.time );
+        Node prev = null, curr = buckets[i];
+        while (curr != null && precedes( curr, node )) {
+            prev = curr;
+            curr = curr.next;
+        }
+        
+        node.next = curr;
+        if (prev == null) {
+            buckets[i] = node;
+        } else {
+            prev.next = node;
+        }
+        node.event.setQueueIndex( i );
+    }
+    
+    /**
+     * Returns the index of the bucket containing the first event.</br>
+     * The set MUST NOT be empty.
+    */
+    private int findFirst()
+    {
+        int i = lastBucket;
+        long bottom = bucketBottom, top = bucketTop;
+        for (int n = 0; n <= mask && top != Long.MAX_VALUE; n++) {
+            Node node = buckets[i];
+            if (node != null && node.time < top) {
+                lastBucket   = i;
+                bucketBottom = bottom;
+                bucketTop    = top;
+                return i;
+            }
+            
+            i = (i + 1) & mask;
+            bottom = top;
+            top = (top > Long.MAX_VALUE - width) ? Long.MAX_VALUE : top + width;
+        }
+        
+        // No event in the current "year": search directly for the minimum.
+        int first = -1;
+        for (i = 0; i <= mask; i++) {
+            if (buckets[i] != null && (first == -1 || precedes( buckets[i], buckets[first] ))) {
+                first = i;
+            }
+        }
+        setCursor( buckets[first].time );
+        
+        return first;
+    }
+    
+    private Node pollNode()
+    {
+        int i = findFirst();
+        Node node = buckets[i];
+        buckets[i] = node.next;
+        node.next = null;
+        node.event.setQueueIndex( -1 );
+        size--;
+        return node;
+    }
+    
+    @Override
+    public Event poll()
+    {
+        if (size == 0) {
+            return null;
+        }
+        
+        Node node = pollNode();
+        Event e = node.event;
+        recycle( node );
+        
+        if (size < botThreshold) {
+            resize( buckets.length >> 1 );
+        }
+        
+        return e;
+    }
+    
+    @Override
+    public Event peek()
+    {
+        if (size == 0) {
+            return null;
+        }
+        return buckets[findFirst()].event;
+    }
+    
+    @Override
+    public boolean remove( Event e )
+    {
+        if (e == null || size == 0) {
+            return false;
+        }
+        
+        Node node = unlink( e );
+        if (node == null) {
+            return false;
+        }
+        recycle( node );
+        
+        if (size < botThreshold) {
+            resize( buckets.length >> 1 );
+        }
+        
+        return true;
+    }
+    
+    @Override
+    public boolean reschedule( Event e, long time )
+    {
+        if (e == null || size == 0) {
+            return false;
+        }
+        
+        // Extracts the node without shrinking the calendar.
+        Node node = unlink( e );
+        if (node == null) {
+            return false;
+        }
+        
+        e.setTime( time );
+        node.time = time;
+        insert( node );
+        size++;
+        return true;
+    }
+    
+    /**
+     * Detaches the node of the given event from its bucket,
+     * found through the index of the event (see {@linkplain Event#getQueueIndex()}).
+     * 
+     * @return the node, or {@code null} if the event is not in the set.
+    */
+    private Node unlink( Event e )
+    {
+        int bucket = e.getQueueIndex();
+        if (bucket < 0 || bucket > mask) {
+            return null;
+        }
+        
+        Node prev = null, curr = buckets[bucket];
+        while (curr != null && curr.event != e) {
+            prev = curr;
+            curr = curr.next;
+        }
+        
+        if (curr != null) {
+            if (prev == null) {
+                buckets[bucket] = curr.next;
+            } else {
+                prev.next = curr.next;
+            }
+            curr.next = null;
+            e.setQueueIndex( -1 );
+            size--;
+        }
+        
+        return curr;
+    }
+    
+    /**
+     * Changes the number of buckets, estimating a new width
+     * from the population of the queue.
+     * 
+     * @param nBuckets    the new number of buckets.
+    */
+    private void resize( int nBuckets )
+    {
+        if (size == 0) {
+            init( nBuckets, width, 0L );
+            return;
+        }
+        
+        long newWidth = computeWidth();
+        long startTime = buckets[findFirst()].time;
+        
+        Node[] oldBuckets = buckets;
+        init( nBuckets, newWidth, startTime );
+        for (Node node : oldBuckets) {
+            while (node != null) {
+                Node next = node.next;
+                insert( node );
+                size++;
+                node = next;
+            }
+        }
+    }
+    
+    /**
+     * Estimates the width of a bucket as 3 times the average separation
+     * of the first events in the queue, without considering the separations
+     * greater than twice the average.
+    */
+    private long computeWidth()
+    {
+        int nSamples = (size <= 5) ? size : Math.min( 5 + size / 10, MAX_SAMPLES );
+        if (nSamples < 2) {
+            return width;
+        }
+        
+        Node[] samples = new Node[nSamples];
+        for (int i = 0; i < nSamples; i++) {
+            samples[i] = pollNode();
+        }
+        for (int i = 0; i < nSamples; i++) {
+            insert( samples[i] );
+            size++;
+        }
+        
+        double average = (samples[nSamples-1].time - samples[0].time) / (double) (nSamples - 1);
+        double separation = 0;
+        int count = 0;
+        for (int i = 1; i < nSamples; i++) {
+            long gap = samples[i].time - samples[i-1].time;
+            if (gap <= 2 * average) {
+                separation += gap;
+                count++;
+            }
+        }
+        
+        if (count == 0 || separation == 0) {
+            return width;
+        }
+        return Math.max( 1L, (long) Math.ceil( 3d * separation / count ) );
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    @Override
+    public void clear()
+    {
+        for (Node node : buckets) {
+            for (; node != null; node = node.next) {
+                node.event.setQueueIndex( -1 );
+            }
+        }
+        Arrays.fill( buckets, null );
+        size = 0;
+        freeNodes = null;
+        setCursor( 0L );
+    }
+    
+    private Node newNode( Event e, long time )
+    {
+        Node node = freeNodes;
+        if (node == null) {
+            node = new Node();
+        } else {
+            freeNodes = node.next;
+        }
+        
+        node.event = e;
+        node.time  = time;
+        node.next  = null;
+        return node;
+    }
+    
+    private void recycle( Node node )
+    {
+        node.event = null;
+        node.next  = freeNodes;
+        freeNodes  = node;
+    }
+    
+    private static class Node
+    {
+        private Event event;
+        private long time;
+        private Node next;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.events.queue;
+
+import java.util.Arrays;
+
+import simulator.events.Event;
+
+/**
+ * Pending event set based on an indexed binary heap.</br>
+ * Each event keeps its own position inside the heap (see {@linkplain Event#getQueueIndex()}),
+ * so insertion, extraction, removal and rescheduling of a generic event all cost O(log n).
+*/
+public class HeapEventSet implements PendingEventSet
+{
+    private Event[] heap;
+    private int size;
+    
+    
+    
+    public HeapEventSet() {
+        this( 1 << 18 );
+    }
+    
+    public HeapEventSet( int initialCapacity ) {
+        heap = new Event[Math.max( 1, initialCapacity )];
+    }
+    
+    @Override
+    public void add( Event e )
+    {
+        if (size == heap.length) {
+            heap = Arrays.copyOf( heap, size << 1 );
+        }
+        siftUp( size++, e );
+    }
+    
+    @Override
+    public Event poll()
+    {
+        if (size == 0) {
+            return null;
+        }
+        
+        Event first = heap[0];
+        removeAt( 0 );
+        return first;
+    }
+    
+    @Override
+    public Event peek() {
+        return (size == 0) ? null : heap[0];
+    }
+    
+    @Override
+    public boolean remove( Event e )
+    {
+        int index = indexOf( e );
+        if (index < 0) {
+            return false;
+        }
+        removeAt( index );
+        return true;
+    }
+    
+    @Override
+    public boolean reschedule( Event e, long time )
+    {
+        int index = indexOf( e );
+        if (index < 0) {
+            return false;
+        }
+        
+        long oldTime = e.getTimeMicros();
+        e.setTime( time );
+        if (time < oldTime) {
+            siftUp( index, e );
+        } else if (time > oldTime) {
+            siftDown( index, e );
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the position of the event in the heap, or -1 if not present.
+    */
+    private int indexOf( Event e )
+    {
+        if (e == null) {
+            return -1;
+        }
+        int index = e.getQueueIndex();
+        return (index >= 0 && index < size && heap[index] == e) ? index : -1;
+    }
+    
+    private void removeAt( int index )
+    {
+        heap[index].setQueueIndex( -1 );
+        Event last = heap[--size];
+        heap[size] = null;
+        if (index < size) {
+            siftDown( index, last );
+            if (heap[index] == last) {
+                siftUp( index, last );
+            }
+        }
+    }
+    
+    private void siftUp( int index, Event e )
+    {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            Event p = heap[parent];
+            if (e.compareTo( p ) >= 0) {
+                break;
+            }
+            place( index, p );
+            index = parent;
+        }
+        place( index, e );
+    }
+    
+    private void siftDown( int index, Event e )
+    {
+        int half = size >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            Event c = heap[child];
+            int right = child + 1;
+            if (right < size && c.compareTo( heap[right] ) > 0) {
+                c = heap[child = right];
+            }
+            if (e.compareTo( c ) <= 0) {
+                break;
+            }
+            place( index, c );
+            index = child;
+        }
+        place( index, e );
+    }
+    
+    private void place( int index, Event e )
+    {
+        heap[index] = e;
+        e.setQueueIndex( index );
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    @Override
+    public void clear()
+    {
+        for (int i = 0; i < size; i++) {
+            heap[i].setQueueIndex( -1 );
+            heap[i] = null;
+        }
+        size = 0;
+    }
+}
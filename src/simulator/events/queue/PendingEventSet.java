@@ -0,0 +1,72 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.events.queue;
+
+import simulator.events.Event;
+
+/**
+ * Set of events waiting to be executed by the {@linkplain simulator.events.EventScheduler EventScheduler}.</br>
+ * Any implementation must return the events in the order defined by
+ * {@linkplain Event#compareTo(Event) Event.compareTo}, that is by time, then by arrival time
+ * and finally giving priority to the incoming events.</br>
+ * While an event is inside the set its {@linkplain Event#getQueueIndex() queue index}
+ * must be non-negative, and it must be -1 once the event has been extracted or removed.</br>
+ * NOTE: the time of an event must not be modified while it is inside the set:
+ * use {@linkplain #reschedule(Event, long)} instead.
+*/
+public interface PendingEventSet
+{
+    /**
+     * Inserts a new event.
+     * 
+     * @param e    the event to insert.
+    */
+    public void add( Event e );
+    
+    /**
+     * Retrieves and removes the first event,
+     * or returns {@code null} if the set is empty.
+    */
+    public Event poll();
+    
+    /**
+     * Retrieves, but does not remove, the first event,
+     * or returns {@code null} if the set is empty.
+    */
+    public Event peek();
+    
+    /**
+     * Removes the given event.
+     * 
+     * @param e    the event to remove.
+     * 
+     * @return {@code true} if the event has been found and removed,
+     *         {@code false} otherwise.
+    */
+    public boolean remove( Event e );
+    
+    /**
+     * Moves an event of the set at the given time.
+     * 
+     * @param e       the event to move.
+     * @param time    the new time of the event, expressed in microseconds.
+     * 
+     * @return {@code true} if the event has been found and moved,
+     *         {@code false} otherwise (the time of the event is not modified).
+    */
+    public boolean reschedule( Event e, long time );
+    
+    /**
+     * Returns the number of pending events.
+    */
+    public int size();
+    
+    public boolean isEmpty();
+    
+    /**
+     * Removes all the pending events.
+    */
+    public void clear();
+}
@@ -34,7 +34,6 @@ public class AnimationNetwork extends AppGameContainer
     private List<Node> nodes;
     private List<Packet> packets;
     
-    public static long timeSimulation = 0;
 	private final int limit = 1000000;
 	
 	private static Animator anim;
@@ -64,6 +63,7 @@ public class AnimationNetwork extends AppGameContainer
         
         BufferedReader reader = new BufferedReader( new FileReader( file ) );
         
+        long timeSimulation = 0;
         String line;
         while ((line = reader.readLine()) != null) {
             String[] words = line.split( "[\\s|\\t]+" );
@@ -9,7 +9,6 @@ import org.newdawn.slick.Input;
 import org.newdawn.slick.SlickException;
 import org.newdawn.slick.geom.Rectangle;
 
-import simulator.graphics.AnimationNetwork;
 import simulator.graphics.elements.Event;
 import simulator.graphics.elements.Info;
 import simulator.graphics.elements.Node;
@@ -26,6 +25,8 @@ public class NetworkDisplay implements AnimationInterface
     private final int width, height;
     
     private long timer = 0;
+    // Length of the animation, i.e. the end time of the last packet.
+    private long animationTime = 0;
     
     private boolean start, pause;
     
@@ -53,6 +54,7 @@ public class NetworkDisplay implements AnimationInterface
         zone = new Rectangle( 0, startY, width, height*100/142 );
         
         packetSize = packets.size();
+        computeAnimationTime();
         
         info = new Info();
         
@@ -126,6 +128,21 @@ public class NetworkDisplay implements AnimationInterface
         return timer;
     }
     
+    /**
+     * Returns the length of the animation, i.e. the end time of the last packet.
+    */
+    public long getAnimationTime() {
+        return animationTime;
+    }
+    
+    private void computeAnimationTime()
+    {
+        animationTime = 0;
+        for (Packet packet : packets) {
+            animationTime = Math.max( animationTime, packet.getEndTime() );
+        }
+    }
+    
     public void setTimeSimulation( long val ) {
         timer = val;
         checkActivityPackets();
@@ -200,12 +217,7 @@ public class NetworkDisplay implements AnimationInterface
 			packetSize = packets.size();
     	}
 
-		AnimationNetwork.timeSimulation = 0;
-		for (Packet packet : packets) {
-			if (packet.getEndTime() > AnimationNetwork.timeSimulation) {
-				AnimationNetwork.timeSimulation = packet.getEndTime();
-			}
-		}
+		computeAnimationTime();
 		
 		nodes.get( indexElement ).removeLink( null );
 		nodes.remove( nodes.get( indexElement ) );
@@ -312,7 +324,7 @@ public class NetworkDisplay implements AnimationInterface
     	mouseX = gc.getInput().getMouseX();
     	mouseY = gc.getInput().getMouseY();
     	
-        if (timer > AnimationNetwork.timeSimulation) {
+        if (timer > animationTime) {
             stopAnimation();
             am.resetAllButtons();
         } else if (!pause) {
@@ -21,6 +21,8 @@ public class TimeAnimation implements AnimationInterface
     private final float OFFSET;
 	private final Rectangle barTiming, timing, cursor;
     private long timer;
+    // Length of the animation, taken from the network display.
+    private long animationTime = 0;
     
     private int moving = 1, index = -1;
 
@@ -98,16 +100,16 @@ public class TimeAnimation implements AnimationInterface
     
     private void setTime( NetworkDisplay nd ) {
         cursor.setX( Math.max( Math.min( mouseX - widthCursor/2, timing.getMaxX() - widthCursor/2 ), startTimingX - widthCursor/2 ) );
-        nd.setTimeSimulation( roundValue( (((double) cursor.getCenterX() - startTimingX) / timing.getWidth() * AnimationNetwork.timeSimulation) ) );
+        nd.setTimeSimulation( roundValue( (((double) cursor.getCenterX() - startTimingX) / timing.getWidth() * animationTime) ) );
     }
     
     public long getTime( float mouseX ) {
-        return roundValue( (((double) Math.max( Math.min( mouseX, timing.getMaxX() ), startTimingX ) - startTimingX) / timing.getWidth() * AnimationNetwork.timeSimulation) );
+        return roundValue( (((double) Math.max( Math.min( mouseX, timing.getMaxX() ), startTimingX ) - startTimingX) / timing.getWidth() * animationTime) );
     }
     
     private void setCursor( int index, NetworkDisplay nd ) {
     	if (index == 0) {
-    		timer = Math.min( timer + moving, AnimationNetwork.timeSimulation );
+    		timer = Math.min( timer + moving, animationTime );
     	} else {
     		timer = Math.max( timer - moving, 0 );
     	}
@@ -248,6 +250,7 @@ public class TimeAnimation implements AnimationInterface
         mouse.setLocation( mouseX, mouseY );
         
         timer = nd.getTimeSimulation();
+        animationTime = nd.getAnimationTime();
 
         // Reset the visibility at the very beginning.
         NetworkDisplay.info.setVisible( false );
@@ -303,7 +306,7 @@ public class TimeAnimation implements AnimationInterface
             NetworkDisplay.info.setVisible( true );
         }
         
-        cursor.setX( startTimingX - widthCursor/2 + timing.getWidth() / AnimationNetwork.timeSimulation * timer );
+        cursor.setX( startTimingX - widthCursor/2 + timing.getWidth() / animationTime * timer );
     }
     
     @Override
@@ -320,7 +323,7 @@ public class TimeAnimation implements AnimationInterface
         g.setColor( Color.white );
         g.fill( cursor );
         
-        String info = setTime( timer, gc ) + "/" + setTime( AnimationNetwork.timeSimulation, gc );
+        String info = setTime( timer, gc ) + "/" + setTime( animationTime, gc );
         
         int fWidth = g.getFont().getWidth( info ), fHeight = g.getFont().getHeight( info );
        	setPositionArrows( fWidth + OFFSET );
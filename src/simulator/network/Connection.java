@@ -11,6 +11,7 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import simulator.core.Agent;
+import simulator.exception.SimulatorException;
 import simulator.network.protocols.Header;
 import simulator.network.protocols.Protocol;
 import simulator.network.protocols.TransportProtocol;
@@ -105,6 +106,14 @@ public class Connection implements Closeable
         sendMessage( message );
     }
     
+    /**
+     * Sends a message to the destination.</br>
+     * The content of the message is copied into the headers, while the message is not modified,
+     * so it can be sent again. Once it's not needed anymore, the caller can give back its buffer
+     * through {@linkplain Message#release()}.
+     * 
+     * @param message    the message to send.
+    */
     public void sendMessage( Message message )
     {
         if (dest == null) {
@@ -125,13 +134,30 @@ public class Connection implements Closeable
         info.setSourcePort( source.getAvailablePort() );
         info.setLink( link );
         
-        if (message != null) {
+        if (message != null && message.hasContent() && !net.isPhantomPayloads()) {
             send( layer, new Header( message.getBytes() ) );
+        } else if (message != null) {
+            // Only the size of the message is needed.
+            send( layer, Header.phantom( getSizeInBits( message ) ) );
         } else {
             send( layer, null );
         }
     }
     
+    /**
+     * Returns the size of the message in bits.
+     * 
+     * @throws SimulatorException if the size doesn't fit into a header.
+    */
+    private static int getSizeInBits( Message message ) throws SimulatorException
+    {
+        long bits = Math.multiplyExact( message.getSize(), (long) Byte.SIZE );
+        if (bits > Integer.MAX_VALUE) {
+            throw new SimulatorException( "Message of " + message.getSize() + " bytes is too big to be sent." );
+        }
+        return (int) bits;
+    }
+    
     protected long send( int layer, Header header )
     {
         long expiredTime = 0;
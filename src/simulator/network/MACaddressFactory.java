@@ -8,16 +8,38 @@ import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
 
+/**
+ * Generator of unique MAC addresses.</br>
+ * Each simulation has its own generator (see {@linkplain simulator.core.SimulationContext SimulationContext}),
+ * so the addresses are unique inside the same simulation.
+*/
 public class MACaddressFactory
 {
-    private static Set<String> MACgenerated = new HashSet<>( 1 << 10 );
+    private final Random rand;
+    private final Set<String> MACgenerated = new HashSet<>( 1 << 10 );
+    
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    
+    
+    
+    public MACaddressFactory() {
+        rand = new Random();
+    }
+    
+    /**
+     * Creates a new generator, producing always the same sequence of addresses.
+     * 
+     * @param seed    seed of the random generator.
+    */
+    public MACaddressFactory( long seed ) {
+        rand = new Random( seed );
+    }
     
     /**
      * Generates a unique random MAC address.
     */
-    public static String getMACaddress()
+    public String getMACaddress()
     {
-        Random rand = new Random();
         byte[] macAddr = new byte[6];
         String address;
         do {
@@ -26,13 +48,14 @@ public class MACaddressFactory
             // Zeroing last 2 bytes to make it unicast and locally adminstrated.
             macAddr[0] = (byte)(macAddr[0] & (byte)254);
     
-            StringBuilder sb = new StringBuilder( 18 );
-            for(byte b : macAddr){
-                if(sb.length() > 0)
-                    sb.append( "-" );
-                sb.append( String.format( "%02x", b ) );
+            char[] chars = new char[17];
+            for (int i = 0; i < macAddr.length; i++) {
+                if (i > 0)
+                    chars[i * 3 - 1] = '-';
+                chars[i * 3]     = HEX_DIGITS[(macAddr[i] >> 4) & 0xF];
+                chars[i * 3 + 1] = HEX_DIGITS[macAddr[i] & 0xF];
             }
-            address = sb.toString().toUpperCase();
+            address = new String( chars );
         } while (MACgenerated.contains( address ));
         MACgenerated.add( address );
         
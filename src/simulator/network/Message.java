@@ -5,46 +5,108 @@
 package simulator.network;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
+import simulator.network.codec.BinaryCodec;
+import simulator.network.codec.BufferPool;
+import simulator.network.codec.MessageCodec;
 import simulator.utils.SizeUnit;
-import simulator.utils.Utils;
 
+/**
+ * Payload of the messages exchanged by the network agents.</br>
+ * The contents are encoded by a {@linkplain MessageCodec} (by default a {@linkplain BinaryCodec})
+ * into a pooled buffer, given back with {@linkplain #release()} when the message is not needed anymore,
+ * e.g. after it has been sent for the last time (see {@linkplain Connection#sendMessage(Message)}).
+ * The synthetic messages, created with only a size, don't allocate any content:
+ * their bytes are all zero, and they're created only if requested.
+*/
 public class Message implements Packet
 {
-    private byte[] message;
+    private static volatile MessageCodec defaultCodec = new BinaryCodec();
+    
+    // Encoded content, null for a synthetic message.
+    private ByteBuffer message;
+    // Size of the message, in bytes.
+    private long size;
+    private MessageCodec codec;
+    // True if the content has been encoded by the codec, false if it's the given array.
+    private boolean encoded;
     
     private static final char HEX_DIGIT[] = {'0','1','2','3','4','5','6','7','8','9','a','b','c','d','e','f'};
     
     
+    /**
+     * Creates a synthetic message of the given size, without any content.
+    */
     public Message( long size, SizeUnit unit ) {
-        //setMessage( createMessage( unit.getBytes( size ) ) );
-        byte[] data = Utils.serializeObject( new byte[(int) unit.getBytes( size )] );
-        setMessage( data );
+        this.size = (long) unit.getBytes( size );
     }
     
     public <T extends Serializable> Message( T message ) {
-        //setMessage( Utils.serializeObject( message ) );
+        this( message, defaultCodec );
+    }
+    
+    /**
+     * Creates a message, encoding its content with the given codec.</br>
+     * An array of bytes is kept as it is, without encoding it.
+    */
+    public <T extends Serializable> Message( T message, MessageCodec codec )
+    {
+        this.codec = codec;
         addMessage( message );
     }
     
     private <T extends Serializable> void addMessage( T message )
     {
         if (message instanceof byte[]) {
-            setMessage( (byte[]) message );
+            setMessage( ByteBuffer.wrap( (byte[]) message ), false );
         } else {
-            setMessage( Utils.serializeObject( message ) );
+            setMessage( codec.encode( message ), true );
         }
     }
     
-    private void setMessage( byte[] message ) {
+    private void setMessage( ByteBuffer message, boolean encoded )
+    {
         this.message = message;
+        this.encoded = encoded;
+        size = message.remaining();
+    }
+    
+    /**
+     * Sets the codec used by the messages created without specifying it.
+    */
+    public static void setDefaultCodec( MessageCodec codec ) {
+        defaultCodec = codec;
+    }
+    
+    public static MessageCodec getDefaultCodec() {
+        return defaultCodec;
     }
     
     /**
      * Returns the size of the message.
     */
     public long getSize() {
-        return message.length * Byte.BYTES;
+        return size;
+    }
+    
+    /**
+     * Checks whether the message has a content, or it's a synthetic one.
+    */
+    public boolean hasContent() {
+        return message != null;
+    }
+    
+    /**
+     * Gives back the buffer of the encoded content to the {@linkplain BufferPool}.</br>
+     * After that the message keeps only its size, as a synthetic one.
+    */
+    public void release()
+    {
+        if (message != null && encoded) {
+            BufferPool.release( message );
+        }
+        message = null;
     }
     
     /**
@@ -62,18 +124,42 @@ public class Message implements Packet
     }*/
     
     /**
-     * Returns the content (as a vector of bytes) of the message.
+     * Returns the content (as a vector of bytes) of the message.</br>
+     * The bytes of a synthetic message are created at each call.
     */
-    public byte[] getBytes() {
-        return message;
+    public byte[] getBytes()
+    {
+        if (message == null) {
+            return new byte[(int) size];
+        }
+        if (!encoded) {
+            return message.array();
+        }
+        byte[] data = new byte[message.remaining()];
+        message.duplicate().get( data );
+        return data;
     }
     
-    public <T extends Serializable> T getMessage() {
-        return Utils.deserializeObject( message );
+    /**
+     * Returns the decoded content of the message.</br>
+     * A message created with an array of bytes returns the same array,
+     * while the content of a synthetic message is an array of zero bytes.
+    */
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> T getMessage()
+    {
+        if (message == null) {
+            return (T) new byte[(int) size];
+        }
+        if (!encoded) {
+            return (T) message.array();
+        }
+        return (T) codec.decode( message.duplicate() );
     }
     
     public void print()
     {
+        byte[] message = getBytes();
         StringBuffer buf = new StringBuffer( message.length * 2 );
         for(int j = 0; j < message.length; j++) {
             buf.append( HEX_DIGIT[(message[j] >> 4) & 0x0f] );
@@ -117,12 +117,25 @@ public abstract class NetworkAgent
      * 
      * @param now    the current time
     */
-    public void setTime( Time now )
+    public void setTime( Time now ) {
+        setTime( now.getTimeMicros() );
+    }
+    
+    /**
+     * Sets the time of the agent.</br>
+     * The internal time of the agent will be updated only if the input time is greater
+     * than the current one.</br>
+     * The devices are updated through {@linkplain Device#setTime(Time)},
+     * so the devices overriding it are still notified.
+     * 
+     * @param now    the current time, expressed in microseconds
+    */
+    public void setTime( long now )
     {
-        if (now.compareTo( _time ) > 0) {
-            _time.setTime( now );
+        if (now > _time.getTimeMicros()) {
+            _time.setTime( now, TimeUnit.MICROSECONDS );
             for (Device<?,?> device : _devices.values()) {
-                device.setTime( now );
+                device.setTime( _time );
             }
         }
     }
@@ -131,8 +144,17 @@ public abstract class NetworkAgent
         return _time.clone();
     }
     
-    public void setNetworkTopology( NetworkTopology net ) {
+    /**
+     * Returns the time of the agent, expressed in microseconds.
+    */
+    public long getTimeMicros() {
+        return _time.getTimeMicros();
+    }
+    
+    public void setNetworkTopology( NetworkTopology net )
+    {
         _net = net;
+        net.getContext().assignMACaddress( _settings );
     }
     
     public void setNode( NetworkNode node )
@@ -306,7 +328,7 @@ public abstract class NetworkAgent
                 //receivedMessage( new Message( message.getBytes() ), conn );
                 
                 // TODO questa parte qui non serve
-                AgentEvent e = new AgentEvent( getTime(), (Agent) this );
+                AgentEvent e = ((Agent) this).getEventScheduler().createAgentEvent( getTime(), (Agent) this );
                 e.setMessage( message, conn );
                 ((Agent) this).getEventScheduler().schedule( e );
             }
@@ -40,15 +40,27 @@ public class NetworkSettings
     
     
     
+    /**
+     * Creates the settings without a MAC address:
+     * it's assigned when the owner is added to a network (see {@linkplain simulator.core.SimulationContext SimulationContext}).
+    */
     public NetworkSettings()
     {
         _protocols = new HashMap<>();
         _routingProtocols = new ArrayList<>();
         
         subnetMask = "255.255.255.0";
-        MACaddress = MACaddressFactory.getMACaddress();
-        
-        IPv6LinkLocal = IPv6StatelessConfiguration();
+    }
+    
+    /**
+     * Creates the settings, with a MAC address taken from the given generator.
+     * 
+     * @param macFactory    the generator of MAC addresses.
+    */
+    public NetworkSettings( MACaddressFactory macFactory )
+    {
+        this();
+        setMACaddress( macFactory.getMACaddress() );
     }
     
     public NetworkSettings setSubnetMask( String subnetMask ) {
@@ -89,8 +101,18 @@ public class NetworkSettings
         return IPv6;
     }
     
-    public NetworkSettings setMACaddress( String address ) {
+    /**
+     * Sets the MAC address.</br>
+     * If the link-local IPv6 address has not been specified, it's derived from the MAC address.
+     * 
+     * @param address    the MAC address
+    */
+    public NetworkSettings setMACaddress( String address )
+    {
         MACaddress = address;
+        if (IPv6LinkLocal.isEmpty()) {
+            IPv6LinkLocal = IPv6StatelessConfiguration();
+        }
         return this;
     }
     
@@ -0,0 +1,353 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.network.codec;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import simulator.exception.SimulatorException;
+import simulator.utils.Utils;
+
+/**
+ * Default codec of the messages, writing the values in a compact binary format.</br>
+ * Primitive values are written with a fixed length, while strings and arrays are prefixed by their length.
+ * The types registered with a {@linkplain Schema} (see {@linkplain #register(Class, Schema)})
+ * are written by their schema, preceded by the identifier of the type.
+ * Any other object must be {@linkplain Serializable}, and it's written through the Java serialization.
+ * <p>
+ * The values are written into buffers taken from the {@linkplain BufferPool}.</br>
+ * The types must be registered in the same order by the codecs encoding and decoding the values.
+*/
+public class BinaryCodec implements MessageCodec
+{
+    // Tags of the values.
+    private static final byte NULL         = 0;
+    private static final byte BOOLEAN      = 1;
+    private static final byte BYTE         = 2;
+    private static final byte SHORT        = 3;
+    private static final byte CHAR         = 4;
+    private static final byte INTEGER      = 5;
+    private static final byte LONG         = 6;
+    private static final byte FLOAT        = 7;
+    private static final byte DOUBLE       = 8;
+    private static final byte STRING       = 9;
+    private static final byte BYTES        = 10;
+    private static final byte SCHEMA       = 11;
+    private static final byte SERIALIZABLE = 12;
+    
+    private final Map<Class<?>,Integer> types = new ConcurrentHashMap<>();
+    private volatile Schema<?>[] schemas = new Schema<?>[0];
+    
+    
+    
+    /**
+     * Writes and reads the values of a type.
+    */
+    public interface Schema<T>
+    {
+        public void write( Output out, T value );
+        
+        public T read( Input in );
+    }
+    
+    /**
+     * Registers the schema of a type.</br>
+     * The schema is used only for the values of exactly the given class, not of its subclasses.
+     * 
+     * @param type      class of the values.
+     * @param schema    the schema of the values.
+     * 
+     * @return this codec.
+     * 
+     * @throws SimulatorException if the type is already registered.
+    */
+    public synchronized <T> BinaryCodec register( Class<T> type, Schema<T> schema ) throws SimulatorException
+    {
+        if (types.containsKey( type )) {
+            throw new SimulatorException( "Type " + type.getName() + " is already registered." );
+        }
+        Schema<?>[] newSchemas = Arrays.copyOf( schemas, schemas.length + 1 );
+        newSchemas[schemas.length] = schema;
+        schemas = newSchemas;
+        types.put( type, schemas.length - 1 );
+        return this;
+    }
+    
+    @Override
+    public ByteBuffer encode( Object value ) throws SimulatorException
+    {
+        Output out = new Output( this, BufferPool.acquire( BufferPool.MIN_CAPACITY ) );
+        out.writeObject( value );
+        ByteBuffer buffer = out.buffer;
+        buffer.flip();
+        return buffer;
+    }
+    
+    @Override
+    public Object decode( ByteBuffer buffer ) throws SimulatorException {
+        return new Input( this, buffer ).readObject();
+    }
+    
+    /**
+     * Writes the values into a growing buffer.
+    */
+    public static class Output
+    {
+        private final BinaryCodec codec;
+        private ByteBuffer buffer;
+        
+        private Output( BinaryCodec codec, ByteBuffer buffer )
+        {
+            this.codec = codec;
+            this.buffer = buffer;
+        }
+        
+        private void ensureCapacity( int bytes )
+        {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer newBuffer = BufferPool.acquire( buffer.position() + bytes );
+                buffer.flip();
+                newBuffer.put( buffer );
+                BufferPool.release( buffer );
+                buffer = newBuffer;
+            }
+        }
+        
+        public void writeByte( byte value )
+        {
+            ensureCapacity( Byte.BYTES );
+            buffer.put( value );
+        }
+        
+        public void writeBoolean( boolean value ) {
+            writeByte( (byte) (value ? 1 : 0) );
+        }
+        
+        public void writeShort( short value )
+        {
+            ensureCapacity( Short.BYTES );
+            buffer.putShort( value );
+        }
+        
+        public void writeChar( char value )
+        {
+            ensureCapacity( Character.BYTES );
+            buffer.putChar( value );
+        }
+        
+        public void writeInt( int value )
+        {
+            ensureCapacity( Integer.BYTES );
+            buffer.putInt( value );
+        }
+        
+        public void writeLong( long value )
+        {
+            ensureCapacity( Long.BYTES );
+            buffer.putLong( value );
+        }
+        
+        public void writeFloat( float value )
+        {
+            ensureCapacity( Float.BYTES );
+            buffer.putFloat( value );
+        }
+        
+        public void writeDouble( double value )
+        {
+            ensureCapacity( Double.BYTES );
+            buffer.putDouble( value );
+        }
+        
+        /**
+         * Writes an array of bytes, that can be {@code null}.
+        */
+        public void writeBytes( byte[] value )
+        {
+            if (value == null) {
+                writeInt( -1 );
+            } else {
+                writeInt( value.length );
+                ensureCapacity( value.length );
+                buffer.put( value );
+            }
+        }
+        
+        /**
+         * Writes a string, that can be {@code null}.
+        */
+        public void writeString( String value ) {
+            writeBytes( (value == null) ? null : value.getBytes( StandardCharsets.UTF_8 ) );
+        }
+        
+        /**
+         * Writes a generic value, preceded by its tag.
+         * 
+         * @throws SimulatorException if the value can't be written.
+        */
+        @SuppressWarnings("unchecked")
+        public void writeObject( Object value ) throws SimulatorException
+        {
+            if (value == null) {
+                writeByte( NULL );
+                return;
+            }
+            
+            Integer type = codec.types.get( value.getClass() );
+            if (type != null) {
+                writeByte( SCHEMA );
+                writeInt( type );
+                ((Schema<Object>) codec.schemas[type]).write( this, value );
+            } else if (value instanceof Boolean) {
+                writeByte( BOOLEAN );
+                writeBoolean( (Boolean) value );
+            } else if (value instanceof Byte) {
+                writeByte( BYTE );
+                writeByte( (Byte) value );
+            } else if (value instanceof Short) {
+                writeByte( SHORT );
+                writeShort( (Short) value );
+            } else if (value instanceof Character) {
+                writeByte( CHAR );
+                writeChar( (Character) value );
+            } else if (value instanceof Integer) {
+                writeByte( INTEGER );
+                writeInt( (Integer) value );
+            } else if (value instanceof Long) {
+                writeByte( LONG );
+                writeLong( (Long) value );
+            } else if (value instanceof Float) {
+                writeByte( FLOAT );
+                writeFloat( (Float) value );
+            } else if (value instanceof Double) {
+                writeByte( DOUBLE );
+                writeDouble( (Double) value );
+            } else if (value instanceof String) {
+                writeByte( STRING );
+                writeString( (String) value );
+            } else if (value instanceof byte[]) {
+                writeByte( BYTES );
+                writeBytes( (byte[]) value );
+            } else if (value instanceof Serializable) {
+                byte[] data = Utils.serializeObject( (Serializable) value );
+                if (data == null) {
+                    throw new SimulatorException( "Object of type " + value.getClass().getName() + " can't be serialized." );
+                }
+                writeByte( SERIALIZABLE );
+                writeBytes( data );
+            } else {
+                throw new SimulatorException( "Object of type " + value.getClass().getName() + " can't be encoded." );
+            }
+        }
+    }
+    
+    /**
+     * Reads the values written by an {@linkplain Output}.
+    */
+    public static class Input
+    {
+        private final BinaryCodec codec;
+        private final ByteBuffer buffer;
+        
+        private Input( BinaryCodec codec, ByteBuffer buffer )
+        {
+            this.codec = codec;
+            this.buffer = buffer;
+        }
+        
+        public byte readByte() {
+            return buffer.get();
+        }
+        
+        public boolean readBoolean() {
+            return buffer.get() != 0;
+        }
+        
+        public short readShort() {
+            return buffer.getShort();
+        }
+        
+        public char readChar() {
+            return buffer.getChar();
+        }
+        
+        public int readInt() {
+            return buffer.getInt();
+        }
+        
+        public long readLong() {
+            return buffer.getLong();
+        }
+        
+        public float readFloat() {
+            return buffer.getFloat();
+        }
+        
+        public double readDouble() {
+            return buffer.getDouble();
+        }
+        
+        public byte[] readBytes()
+        {
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] value = new byte[length];
+            buffer.get( value );
+            return value;
+        }
+        
+        public String readString()
+        {
+            byte[] value = readBytes();
+            return (value == null) ? null : new String( value, StandardCharsets.UTF_8 );
+        }
+        
+        /**
+         * Reads a generic value, written by {@linkplain Output#writeObject(Object)}.
+         * 
+         * @throws SimulatorException if the value can't be read.
+        */
+        public Object readObject() throws SimulatorException
+        {
+            byte tag = buffer.get();
+            switch (tag) {
+                case NULL:      return null;
+                case BOOLEAN:   return readBoolean();
+                case BYTE:      return readByte();
+                case SHORT:     return readShort();
+                case CHAR:      return readChar();
+                case INTEGER:   return readInt();
+                case LONG:      return readLong();
+                case FLOAT:     return readFloat();
+                case DOUBLE:    return readDouble();
+                case STRING:    return readString();
+                case BYTES:     return readBytes();
+                case SCHEMA: {
+                    int type = readInt();
+                    Schema<?>[] schemas = codec.schemas;
+                    if (type < 0 || type >= schemas.length) {
+                        throw new SimulatorException( "Unknown type " + type + "." );
+                    }
+                    return schemas[type].read( this );
+                }
+                case SERIALIZABLE: {
+                    Object value = Utils.deserializeObject( readBytes() );
+                    if (value == null) {
+                        throw new SimulatorException( "Object can't be deserialized." );
+                    }
+                    return value;
+                }
+                default:
+                    throw new SimulatorException( "Unknown tag " + tag + "." );
+            }
+        }
+    }
+}
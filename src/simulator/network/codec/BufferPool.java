@@ -0,0 +1,81 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.network.codec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of reusable byte buffers, used to encode the messages.</br>
+ * The buffers are grouped by capacity, in powers of two,
+ * and each thread has its own pool, so no synchronization is needed.
+ * Buffers bigger than {@value #MAX_CAPACITY} bytes are never pooled.
+*/
+public class BufferPool
+{
+    /** Capacity of the smallest buffer. */
+    public static final int MIN_CAPACITY = 1 << 6;
+    /** Capacity of the biggest pooled buffer. */
+    public static final int MAX_CAPACITY = 1 << 20;
+    
+    // Maximum number of buffers kept for each capacity.
+    private static final int MAX_BUFFERS = 64;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros( MIN_CAPACITY );
+    private static final int CLASSES = Integer.numberOfTrailingZeros( MAX_CAPACITY ) - MIN_SHIFT + 1;
+    
+    private static final ThreadLocal<List<ArrayDeque<ByteBuffer>>> POOLS = ThreadLocal.withInitial( () -> {
+        List<ArrayDeque<ByteBuffer>> pools = new ArrayList<>( CLASSES );
+        for (int i = 0; i < CLASSES; i++) {
+            pools.add( new ArrayDeque<>() );
+        }
+        return pools;
+    } );
+    
+    
+    
+    private BufferPool() {}
+    
+    /**
+     * Returns an empty buffer with at least the given capacity.
+     * 
+     * @param capacity    minimum capacity, in bytes.
+    */
+    public static ByteBuffer acquire( int capacity )
+    {
+        if (capacity > MAX_CAPACITY) {
+            return ByteBuffer.allocate( capacity );
+        }
+        
+        int shift = Math.max( MIN_SHIFT, Integer.SIZE - Integer.numberOfLeadingZeros( capacity - 1 ) );
+        ByteBuffer buffer = POOLS.get().get( shift - MIN_SHIFT ).poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate( 1 << shift );
+        }
+        return buffer;
+    }
+    
+    /**
+     * Gives back a buffer, that must not be used anymore.</br>
+     * Only the buffers created by {@linkplain #acquire(int)} should be released.
+     * 
+     * @param buffer    the buffer to release.
+    */
+    public static void release( ByteBuffer buffer )
+    {
+        int capacity = buffer.capacity();
+        if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY ||
+            Integer.bitCount( capacity ) != 1 || buffer.isReadOnly()) {
+            return;
+        }
+        
+        ArrayDeque<ByteBuffer> pool = POOLS.get().get( Integer.numberOfTrailingZeros( capacity ) - MIN_SHIFT );
+        if (pool.size() < MAX_BUFFERS) {
+            buffer.clear();
+            pool.push( buffer );
+        }
+    }
+}
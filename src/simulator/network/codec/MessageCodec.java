@@ -0,0 +1,36 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.network.codec;
+
+import java.nio.ByteBuffer;
+
+import simulator.exception.SimulatorException;
+
+/**
+ * Converts the contents of the {@linkplain simulator.network.Message messages} to bytes, and back.
+*/
+public interface MessageCodec
+{
+    /**
+     * Encodes a value.
+     * 
+     * @param value    the value, that can be {@code null}.
+     * 
+     * @return a buffer ready to be read, acquired from the {@linkplain BufferPool},
+     *         where it can be given back when not used anymore.
+     * 
+     * @throws SimulatorException if the value can't be encoded.
+    */
+    public ByteBuffer encode( Object value ) throws SimulatorException;
+    
+    /**
+     * Decodes a value, reading the buffer from its current position.
+     * 
+     * @param buffer    the encoded value.
+     * 
+     * @throws SimulatorException if the value can't be decoded.
+    */
+    public Object decode( ByteBuffer buffer ) throws SimulatorException;
+}
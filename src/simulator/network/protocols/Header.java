@@ -4,17 +4,47 @@
 
 package simulator.network.protocols;
 
-import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 import simulator.events.Event;
 import simulator.network.Packet;
 import simulator.utils.Time;
 
+/**
+ * Header of a packet, seen as a sequence of bits.</br>
+ * The bits are packed into an array of words, from the most significant bit of each word,
+ * so a header takes one bit of memory for each bit of the packet,
+ * and the fields are read and written a word at a time, through shifts and masks.
+ * <p>
+ * A header is a view over a range of its words, so the headers of the layers don't copy the packet:
+ * {@linkplain #getSubHeader(int, int)} and the removal of the top or bottom bits
+ * return views over the same words, and removing the top bits only moves the start of the view.
+ * The words are copied only when a shared view is modified (copy-on-write)
+ * and by {@linkplain #clone()}.
+ * The encapsulation of a header with {@linkplain #pushHeader(Header)} writes it
+ * into the free room in front of the view, reserved when the payload is created.
+ * <p>
+ * The last bits of a header can be phantom: they're all 0 and they're not stored,
+ * so a {@linkplain #phantom(int) phantom payload} takes the same memory whatever its size,
+ * and the headers of the layers only add their size to it.
+ * The phantom bits are stored only when a value different from 0 is written into them.
+*/
 public class Header extends Event implements Packet
 {
-    private boolean[] header;
+    /** Bits reserved in front of a payload for the headers of the lower layers, and after it for the trailers. */
+    public static final int ROOM = 512;
+    
+    // Bits of the words: the bit i is the bit (63 - i % 64) of the word i / 64.
+    // The header is made by the bits in [start, start + size), where the last phantom bits
+    // are 0 and they're not stored.
+    // If the words are not shared, the bits outside the stored ones are always 0.
+    private long[] words;
+    private int start;
+    private int size;
+    private int phantom;
     private int index;
+    // True if the words can be referenced by other headers.
+    private boolean shared;
     //private Header next;
     
     
@@ -23,31 +53,143 @@ public class Header extends Event implements Packet
         this( 0 );
     }
     
+    /**
+     * Creates a payload with the given data,
+     * reserving room for the headers and trailers of the lower layers.
+    */
     public Header( byte[] data )
     {
-        this( data.length * Byte.SIZE );
-        byteArray2BitArray( data );
+        this( data.length * Byte.SIZE, ROOM, ROOM );
+        for (int i = 0; i < data.length; i++) {
+            words[(ROOM >>> 6) + (i >>> 3)] |= (data[i] & 0xFFL) << (56 - ((i & 7) << 3));
+        }
+    }
+    
+    public Header( int size ) {
+        this( size, 0, 0 );
     }
     
-    public Header( int size )
+    /**
+     * Creates an empty header, with free room around it.
+     * 
+     * @param size        size of the header, in bits.
+     * @param headroom    bits reserved in front of the header.
+     * @param tailroom    bits reserved after the header.
+    */
+    public Header( int size, int headroom, int tailroom )
     {
         super( new Time( 0, TimeUnit.MICROSECONDS ) );
-        header = new boolean[size];
+        this.size = size;
+        start = headroom;
+        words = new long[wordsFor( headroom + size + tailroom )];
     }
     
     /**
-     * Converts a byte array to a boolean array. Bit 0 is represented with false,
-     * Bit 1 is represented with 1.
+     * Creates a view over the given words.
+    */
+    private Header( long[] words, int start, int size, int phantom )
+    {
+        super( new Time( 0, TimeUnit.MICROSECONDS ) );
+        this.words = words;
+        this.start = start;
+        this.size = size;
+        this.phantom = phantom;
+        shared = true;
+    }
+    
+    /**
+     * Creates a payload of the given size made only by phantom bits,
+     * so it doesn't allocate any memory for them.</br>
+     * Room is reserved for the headers and trailers of the lower layers.
      * 
-     * @param bytes    the byte array
+     * @param size    size of the payload, in bits.
     */
-    private void byteArray2BitArray( byte[] bytes )
+    public static Header phantom( int size )
     {
-        for (int i = 0; i < bytes.length * 8; i++) {
-            if ((bytes[i / 8] & (1 << (7 - (i % 8)))) > 0) {
-                header[i] = true;
+        Header h = new Header( 0, ROOM, ROOM );
+        h.size = size;
+        h.phantom = size;
+        return h;
+    }
+    
+    private static int wordsFor( int bits ) {
+        return (bits + Long.SIZE - 1) >>> 6;
+    }
+    
+    /**
+     * Returns the number of stored bits, at the beginning of the header.
+    */
+    private int stored() {
+        return size - phantom;
+    }
+    
+    /**
+     * Returns the number of bits up to the last stored bit equal to 1,
+     * so the following ones can be kept phantom.
+    */
+    private int usedBits()
+    {
+        for (int end = stored(); end > 0; end -= Long.SIZE) {
+            int length = Math.min( end, Long.SIZE );
+            long value = getBits( words, start + end - length, length );
+            if (value != 0) {
+                return end - Long.numberOfTrailingZeros( value );
             }
         }
+        return 0;
+    }
+    
+    /**
+     * Moves the stored bits into new words, with the given free room around them.
+    */
+    private void reallocate( int headroom, int tailroom )
+    {
+        long[] newWords = new long[wordsFor( headroom + stored() + tailroom )];
+        copyBits( words, start, newWords, headroom, stored() );
+        words = newWords;
+        start = headroom;
+        shared = false;
+    }
+    
+    /**
+     * Stores the first {@code bits} bits of the header, if they're phantom,
+     * making the words writable by this header only.
+    */
+    private void materialize( int bits )
+    {
+        if (bits > stored()) {
+            if (shared || start + bits > words.length * Long.SIZE) {
+                reallocate( Math.min( start, ROOM ), bits - stored() + ROOM );
+            }
+            // The bits after the stored ones are already 0.
+            phantom = size - bits;
+        }
+        unshare();
+    }
+    
+    /**
+     * Returns the value of the given bits, where the phantom ones are 0.
+    */
+    private long readBits( int offset, int length )
+    {
+        int available = stored() - offset;
+        if (available <= 0) {
+            return 0;
+        }
+        if (available >= length) {
+            return getBits( words, start + offset, length );
+        }
+        return getBits( words, start + offset, available ) << (length - available);
+    }
+    
+    /**
+     * Makes the words writable by this header only, copying them if they're shared.
+    */
+    private void unshare()
+    {
+        if (shared) {
+            reallocate( Math.min( start, ROOM ), 0 );
+        }
     }
     
     /**
@@ -55,13 +197,9 @@ public class Header extends Event implements Packet
     */
     public byte[] getBytes()
     {
-        byte[] toReturn = new byte[header.length / 8];
-        for (int entry = 0; entry < toReturn.length; entry++) {
-            for (int bit = 0; bit < 8; bit++) {
-                if (header[entry * 8 + bit]) {
-                    toReturn[entry] |= (128 >> bit);
-                }
-            }
+        byte[] toReturn = new byte[size / 8];
+        for (int i = 0; i < toReturn.length; i++) {
+            toReturn[i] = (byte) readBits( i * Byte.SIZE, Byte.SIZE );
         }
         return toReturn;
     }
@@ -73,11 +211,35 @@ public class Header extends Event implements Packet
     public void clear( int newSize )
     {
         index = 0;
-        if (newSize <= 0) {
-            header = new boolean[0];
-        } else {
-            header = new boolean[newSize];
-        }
+        start = 0;
+        phantom = 0;
+        size = Math.max( 0, newSize );
+        words = new long[wordsFor( size )];
+        shared = false;
+    }
+    
+    /**
+     * Returns a shallow copy of this header, sharing its bits until one of them is modified.
+    */
+    @Override
+    public Event copy()
+    {
+        shared = true;
+        return super.copy();
+    }
+    
+    /**
+     * Returns a copy of this header, not sharing its bits.
+    */
+    @Override
+    public Header clone()
+    {
+        Header h = (Header) super.copy();
+        h.words = new long[wordsFor( stored() )];
+        copyBits( words, start, h.words, 0, stored() );
+        h.start = 0;
+        h.shared = false;
+        return h;
     }
     
     /**
@@ -91,24 +253,52 @@ public class Header extends Event implements Packet
     
     /**
      * Puts the input header in the specified position.</br>
-     * If there's no space for the header a resize will be done.
+     * If there's no space for the header a resize will be done:
+     * the new bits are phantom, until the ones of the header are written into them.
      * 
      * @param offset    position where the header will be added.
      * @param h         the header.
     */
     public void addHeader( int offset, Header h )
     {
-        final int length = getSizeInBits();
-        int dimension = offset + h.getSizeInBits();
-        if (dimension > length) {
-            header = Arrays.copyOf( header, dimension );
+        int dimension = offset + h.size;
+        if (dimension > size) {
+            phantom += dimension - size;
+            size = dimension;
+        }
+        checkRange( index, h.size );
+        int used = h.usedBits();
+        if (used > 0 || index < stored()) {
+            materialize( Math.max( stored(), index + used ) );
+            copyBits( h.words, h.start, words, start + index, used );
+            // The last bits of the header are 0, overwriting the stored ones.
+            clearBits( words, start + index + used, Math.min( h.size, stored() - index ) - used );
         }
-        //header = Arrays.copyOf( header, length + h.getSizeInBits() );
-        //System.arraycopy( h.header, 0, header, length, h.getSizeInBits() );
-        System.arraycopy( h.header, 0, header, index, h.getSizeInBits() );
         index = Math.max( index, dimension );
     }
     
+    /**
+     * Puts the input header in front of this one, as done by the encapsulation of a lower layer.</br>
+     * The header is written into the room in front of this one, if any,
+     * otherwise the bits are moved, reserving some room for the next headers.
+     * The next headers added with {@linkplain #addHeader(Header)} are put at the end.
+     * 
+     * @param h    the header to add.
+    */
+    public void pushHeader( Header h )
+    {
+        int used = h.usedBits();
+        int newStored = (stored() > 0) ? h.size + stored() : used;
+        if (shared || start < h.size || start > words.length * Long.SIZE) {
+            reallocate( h.size + ROOM, 0 );
+        }
+        start -= h.size;
+        size  += h.size;
+        phantom = size - newStored;
+        index = size;
+        copyBits( h.words, h.start, words, start, used );
+    }
+    
     /**
      * Returns the top {@code length} bits from this header.</br>
      * This is equivalent to {@code getSubHeader(0,length)}.
@@ -121,16 +311,18 @@ public class Header extends Event implements Packet
     
     /**
      * Returns {@code length} bits from this header,
-     * starting from an initial {@code offset} position.
+     * starting from an initial {@code offset} position.</br>
+     * The returned header is a view over the same bits, copied only when one of them is modified.
      * 
      * @param offset    the starting position.
      * @param length    number of bits to retrieve.
     */
     public Header getSubHeader( int offset, int length )
     {
-        Header h = new Header( length );
-        System.arraycopy( header, offset, h.header, 0, length );
-        return h;
+        checkRange( offset, length );
+        shared = true;
+        int stored = Math.max( 0, Math.min( length, stored() - offset ) );
+        return new Header( words, start + offset, length, length - stored );
     }
     
     /**
@@ -145,15 +337,18 @@ public class Header extends Event implements Packet
     
     /**
      * Removes {@code length} bits from this header,
-     * starting from an initial {@code offset} position.
+     * starting from an initial {@code offset} position.</br>
+     * Removing the top or the bottom bits doesn't copy anything,
+     * while removing bits in the middle moves the remaining ones into new words.
      * 
      * @param offset    the starting position.
      * @param length    number of bits to remove.
+     * 
+     * @return a view over the removed bits.
     */
     public Header removeHeader( int offset, int length )
     {
-        Header h = new Header( length );
-        System.arraycopy( header, offset, h.header, 0, length );
+        Header h = getSubHeader( offset, length );
         
         if (offset < index) {
             if (offset + length < index) {
@@ -163,11 +358,22 @@ public class Header extends Event implements Packet
             }
         }
         
-        // Resize the array, copying the remaining segments.
-        boolean[] newHeader = new boolean[offset + (header.length - (offset + length))];
-        System.arraycopy( header, 0, newHeader, 0, offset );
-        System.arraycopy( header, offset + length, newHeader, offset, header.length - (offset + length) );
-        header = newHeader;
+        int newSize = size - length;
+        int stored = stored();
+        int newStored = (stored <= offset) ? stored : Math.max( offset, stored - length );
+        if (offset == 0) {
+            start += length;
+        } else if (offset < newSize) {
+            // Copy the remaining segments into new words.
+            long[] newWords = new long[wordsFor( newStored )];
+            copyBits( words, start, newWords, 0, Math.min( offset, stored ) );
+            copyBits( words, start + offset + length, newWords, offset, newStored - offset );
+            words = newWords;
+            start = 0;
+            shared = false;
+        }
+        size = newSize;
+        phantom = newSize - newStored;
         
         return h;
     }
@@ -193,8 +399,20 @@ public class Header extends Event implements Packet
     */
     public void setField( int offset, int input, int bits )
     {
-        for (int i = 0; i < bits; i++) {
-            header[offset+i] = (1 << bits - i - 1 & input) != 0;
+        if (bits > 0) {
+            checkRange( offset, bits );
+        }
+        // A value of 0 doesn't need to be written into the phantom bits.
+        if (bits > 0 && (input != 0 || offset < stored())) {
+            materialize( Math.max( stored(), offset + bits ) );
+            if (bits <= Integer.SIZE) {
+                setBits( words, start + offset, bits, input & 0xFFFFFFFFL );
+            } else {
+                // The bits of the input are repeated, as done by the shift of an integer.
+                for (int i = 0; i < bits; i++) {
+                    setBits( words, start + offset + i, 1, input >>> (bits - i - 1) );
+                }
+            }
         }
         index = Math.max( index, offset + bits );
     }
@@ -219,8 +437,12 @@ public class Header extends Event implements Packet
     */
     private void setField( int offset, int[] bits )
     {
+        if (bits.length > 0) {
+            checkRange( offset, bits.length );
+            materialize( Math.max( stored(), offset + bits.length ) );
+        }
         for (int i = 0; i < bits.length; i++) {
-            header[offset+i] = (bits[i] == 1);
+            setBits( words, start + offset + i, 1, (bits[i] == 1) ? 1 : 0 );
         }
         index = Math.max( index, offset + bits.length );
     }
@@ -237,18 +459,23 @@ public class Header extends Event implements Packet
     
     /**
      * Returns an integer representing the value contained in the field,
-     * specified by the starting position and its length.
+     * specified by the starting position and its length.</br>
+     * Fields longer than an integer return their last 32 bits.
      * 
      * @param offset    starting position.
      * @param length    length of the filed (in bits).
     */
     public int getField( int offset, int length )
     {
-        int value = 0;
-        for (int i = 0; i < length; i++) {
-            value = value << 1 | (header[offset+i] ? 1 : 0);
+        if (length <= 0) {
+            return 0;
+        }
+        checkRange( offset, length );
+        if (length > Integer.SIZE) {
+            offset += length - Integer.SIZE;
+            length = Integer.SIZE;
         }
-        return value;
+        return (int) readBits( offset, length );
     }
     
     /**
@@ -267,8 +494,10 @@ public class Header extends Event implements Packet
      * 
      * @param position    the bit position.
     */
-    public int getBitField( int position ) {
-        return header[position] ? 1 : 0;
+    public int getBitField( int position )
+    {
+        checkRange( position, 1 );
+        return (int) readBits( position, 1 );
     }
     
     /**
@@ -276,7 +505,7 @@ public class Header extends Event implements Packet
      * summing up all the headers founded stating from this one.
     */
     public int getSizeInBits() {
-        return header.length;
+        return size;
     }
     
     /**
@@ -284,7 +513,92 @@ public class Header extends Event implements Packet
      * summing up all the headers founded stating from this one.
     */
     public int getSizeInBytes() {
-        return header.length / Byte.SIZE;
+        return size / Byte.SIZE;
+    }
+    
+    private void checkRange( int offset, int length )
+    {
+        if (offset < 0 || length < 0 || offset + length > size) {
+            throw new IndexOutOfBoundsException( "Bits [" + offset + ", " + (offset + length) +
+                                                 ") out of a header of " + size + " bits." );
+        }
+    }
+    
+    /**
+     * Returns up to 64 bits, starting from the given position.
+     * 
+     * @param words     the packed bits.
+     * @param offset    position of the first bit.
+     * @param length    number of bits, between 1 and 64.
+     * 
+     * @return the bits, aligned to the least significant bit.
+    */
+    private static long getBits( long[] words, int offset, int length )
+    {
+        int word = offset >>> 6;
+        int shift = offset & 63;
+        long value = words[word] << shift;
+        if (shift + length > Long.SIZE) {
+            value |= words[word + 1] >>> (Long.SIZE - shift);
+        }
+        return value >>> (Long.SIZE - length);
+    }
+    
+    /**
+     * Writes up to 64 bits, starting from the given position.
+     * 
+     * @param words     the packed bits.
+     * @param offset    position of the first bit.
+     * @param length    number of bits, between 1 and 64.
+     * @param value     the bits to write, aligned to the least significant bit.
+    */
+    private static void setBits( long[] words, int offset, int length, long value )
+    {
+        int word = offset >>> 6;
+        int shift = offset & 63;
+        long mask = -1L << (Long.SIZE - length);
+        long bits = (value << (Long.SIZE - length)) & mask;
+        words[word] = (words[word] & ~(mask >>> shift)) | (bits >>> shift);
+        if (shift + length > Long.SIZE) {
+            int written = Long.SIZE - shift;
+            words[word + 1] = (words[word + 1] & ~(mask << written)) | (bits << written);
+        }
+    }
+    
+    /**
+     * Copies a sequence of bits, a word at a time.
+    */
+    private static void copyBits( long[] src, int srcPos, long[] dest, int destPos, int length )
+    {
+        if (length <= 0) {
+            return;
+        }
+        if (((srcPos | destPos) & 63) == 0) {
+            // Aligned to the words.
+            System.arraycopy( src, srcPos >>> 6, dest, destPos >>> 6, length >>> 6 );
+            int copied = length & ~63;
+            srcPos += copied;
+            destPos += copied;
+            length -= copied;
+        }
+        for (; length >= Long.SIZE; length -= Long.SIZE) {
+            setBits( dest, destPos, Long.SIZE, getBits( src, srcPos, Long.SIZE ) );
+            srcPos += Long.SIZE;
+            destPos += Long.SIZE;
+        }
+        if (length > 0) {
+            setBits( dest, destPos, length, getBits( src, srcPos, length ) );
+        }
+    }
+    
+    /**
+     * Sets to 0 a sequence of bits.
+    */
+    private static void clearBits( long[] words, int offset, int length )
+    {
+        for (; length > 0; length -= Long.SIZE, offset += Long.SIZE) {
+            setBits( words, offset, Math.min( length, Long.SIZE ), 0 );
+        }
     }
     
     public static class Range
@@ -55,15 +55,16 @@ public class Ethernet extends DataLinkProtocol
         // Put the second header at the end of the input one.
         upperHeader.addHeader( header );
         
-        header = new Header( ETHERTYPE.from() + ETHERTYPE.length() + upperHeader.getSizeInBits() );
+        header = new Header( ETHERTYPE.from() + ETHERTYPE.length() );
         header.setField( PREAMBLE, 0 );
         header.setField( START_OF_FRAME_DELIMETER, 0 );
         setAddressValue( header, MAC_DESTINATION, info.getDestinationMACaddress() );
         setAddressValue( header, MAC_SOURCE, info.getSourceMACaddress() );
         header.setField( ETHERTYPE, etherType );
-        header.addHeader( upperHeader );
-        printHeader( header );
-        return Collections.singletonList( header );
+        // Put the first header in front of the input one.
+        upperHeader.pushHeader( header );
+        printHeader( upperHeader );
+        return Collections.singletonList( upperHeader );
     }
     
     @Override
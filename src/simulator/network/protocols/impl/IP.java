@@ -140,8 +140,8 @@ public abstract class IP extends NetworkProtocol
                 // Complete IP packet: no fragmentation.
                 Header header = createHeader( info, 0, 0, upHeaderSize, 0 );
                 printHeader( header );
-                header.addHeader( upperHeader );
-                headers.add( header );
+                upperHeader.pushHeader( header );
+                headers.add( upperHeader );
             }
             
             return headers;
@@ -54,14 +54,14 @@ public class UDP extends TransportProtocol
     @Override
     public List<Header> makeHeader( Header upperHeader, ConnectionInfo info )
     {
-        Header header = new Header( SIZE * Byte.SIZE + upperHeader.getSizeInBits() );
+        Header header = new Header( SIZE * Byte.SIZE );
         header.setField( SOURCE_PORT, info.getSourcePort() );
         header.setField( DESTINATION_PORT, destPort );
         header.setField( LENGTH, 8 + upperHeader.getSizeInBytes() );
         header.setField( CHECKSUM, 0 );
-        header.addHeader( upperHeader );
-        printHeader( header );
-        return Collections.singletonList( header );
+        upperHeader.pushHeader( header );
+        printHeader( upperHeader );
+        return Collections.singletonList( upperHeader );
     }
     
     @Override
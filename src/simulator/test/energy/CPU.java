@@ -7,7 +7,9 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -17,6 +19,9 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import simulator.core.Agent;
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
+import simulator.core.checkpoint.SavedState;
 import simulator.core.devices.Device;
 import simulator.events.Event;
 import simulator.test.energy.CPU.Core.State;
@@ -218,7 +223,7 @@ public abstract class CPU extends Device<QueryInfo,Long>
     public abstract void addQuery( long coreId, QueryInfo q );
     
     @Override
-    public void setTime( Time time )
+    public void setTime( long time )
     {
         // Set the time of the cores.
         for (Core cpuCore : coresMap.values()) {
@@ -227,14 +232,17 @@ public abstract class CPU extends Device<QueryInfo,Long>
     }
     
     @Override
-    public Time getTime()
+    public Time getTime() {
+        return new Time( getTimeMicros(), TimeUnit.MICROSECONDS );
+    }
+    
+    @Override
+    public long getTimeMicros()
     {
         // Gets the minimum time among all the cores.
-        Time coreTime = Time.INFINITE;
+        long coreTime = Time.INFINITE.getTimeMicros();
         for (Core core : coresMap.values()) {
-            if (core.getTime().compareTo( coreTime ) < 0) {
-                coreTime = core.getTime();
-            }
+            coreTime = Math.min( coreTime, core.getTimeMicros() );
         }
         return coreTime;
     }
@@ -378,7 +386,7 @@ public abstract class CPU extends Device<QueryInfo,Long>
                 }
             } else {
                 QueryInfo first = core.getFirstQueryInQueue();
-                if (first.getStartTime().getTimeMicros() > 0) {
+                if (first.getStartTimeMicros() > 0) {
                     core.setFrequency( time, frequency );
                 }
             }
@@ -455,15 +463,15 @@ public abstract class CPU extends Device<QueryInfo,Long>
         query.setFrequency( frequency );
         
         Time computeTime = query.getTime( frequency );
-        Time startTime   = core.getTime();
-        Time endTime     = startTime.clone().addTime( computeTime );
+        long startTime   = core.getTimeMicros();
+        long endTime     = startTime + computeTime.getTimeMicros();
         query.setTimeToComplete( startTime, endTime );
         //System.out.println( "QUERY: " + query.getId() + ", CORE: " + core.getId() + ", START: " + startTime + ", END: " + endTime );
         
         computeEnergyConsumption( core, query, computeTime );
         core.setCompletedQuery( query );
         
-        core.updateEventTime( query, query.getEndTime() );
+        core.updateEventTime( query, query.getEndTimeMicros() );
         
         return computeTime;
     }
@@ -537,6 +545,13 @@ public abstract class CPU extends Device<QueryInfo,Long>
         return qe;
     }
     
+    /**
+     * Writes the energy consumed at the given frequency,
+     * used to compute the coefficients of the energy model.</br>
+     * By default it does nothing.
+    */
+    public void writeResult( long frequency, double energy ) {}
+    
     @Override
     public double getUtilization( Time time )
     {
@@ -547,6 +562,100 @@ public abstract class CPU extends Device<QueryInfo,Long>
         return utilization;
     }
     
+    /**
+     * Saves the state of the CPU, together with the one of its cores and queries,
+     * through the same methods of the checkpoints (see {@linkplain SavedState}).</br>
+     * The cores are saved together with the CPU, since they share the queries.
+    */
+    @Override
+    public Object saveState() {
+        return SavedState.save( this, getEventScheduler().getNetwork() );
+    }
+    
+    @Override
+    public void restoreState( Object state ) {
+        ((SavedState) state).restore( this );
+    }
+    
+    /**
+     * Writes the state of the CPU, together with the one of its cores and queries.</br>
+     * The state of the model is not saved, so the CPU can be restored with a different one.
+    */
+    @Override
+    public void writeCheckpoint( CheckpointWriter out ) throws IOException
+    {
+        super.writeCheckpoint( out );
+        
+        QueryTable table = new QueryTable( null );
+        out.writeLong( currentCoreId );
+        out.writeLong( lastSelectedCore );
+        out.writeDouble( currentPower );
+        table.write( out, lastQuery );
+        
+        List<Core> cores = getSortedCores();
+        out.writeInt( cores.size() );
+        for (Core core : cores) {
+            out.writeLong( core.getId() );
+            core.writeCheckpoint( out, table );
+        }
+        
+        // The other structures of the centralized queue are computed again at each use.
+        out.writeBoolean( centralizedQueue );
+        if (centralizedQueue) {
+            out.writeInt( queries.size() );
+            for (QueryReference ref : queries) {
+                out.writeLong( ref.getCoreId() );
+                table.write( out, ref.getQuery() );
+            }
+        }
+    }
+    
+    @Override
+    public void readCheckpoint( CheckpointReader in ) throws IOException
+    {
+        super.readCheckpoint( in );
+        
+        if (_model == null) {
+            throw new IOException( "The model of the CPU must be set before restoring it." );
+        }
+        QueryTable table = new QueryTable( (CPUModel) _model );
+        currentCoreId = in.readLong();
+        lastSelectedCore = in.readLong();
+        currentPower = in.readDouble();
+        lastQuery = table.read( in );
+        
+        List<Core> cores = getSortedCores();
+        int size = in.readInt();
+        if (size != cores.size()) {
+            throw new IOException( "The checkpoint contains " + size + " cores, while the CPU has " + cores.size() + " cores." );
+        }
+        for (Core core : cores) {
+            long coreId = in.readLong();
+            if (coreId != core.getId()) {
+                throw new IOException( "Core " + coreId + " not found in the CPU." );
+            }
+            core.readCheckpoint( in, table );
+        }
+        
+        if (in.readBoolean() != centralizedQueue) {
+            throw new IOException( "The CPU must use the same type of queue of the saved one." );
+        }
+        if (centralizedQueue) {
+            queries.clear();
+            for (int i = in.readInt(); i > 0; i--) {
+                long coreId = in.readLong();
+                queries.add( new QueryReference( coreId, table.read( in ) ) );
+            }
+        }
+    }
+    
+    private List<Core> getSortedCores()
+    {
+        List<Core> cores = new ArrayList<>( coresMap.values() );
+        cores.sort( Comparator.comparingLong( Core::getId ) );
+        return cores;
+    }
+    
     @Override
     public String toString()
     {
@@ -575,6 +684,58 @@ public abstract class CPU extends Device<QueryInfo,Long>
         }
     }
     
+    /**
+     * Table of the queries written into a checkpoint.</br>
+     * A query is written the first time it's referred, while the next references
+     * are written through its position in the table.
+    */
+    protected static class QueryTable
+    {
+        private final Map<QueryInfo,Integer> indexes = new IdentityHashMap<>();
+        private final List<QueryInfo> queries = new ArrayList<>();
+        // Model used to create the restored queries.
+        private final CPUModel model;
+        
+        public QueryTable( CPUModel model ) {
+            this.model = model;
+        }
+        
+        public void write( CheckpointWriter out, QueryInfo query ) throws IOException
+        {
+            if (query == null) {
+                out.writeInt( -1 );
+                return;
+            }
+            
+            Integer index = indexes.get( query );
+            if (index != null) {
+                out.writeInt( index );
+            } else {
+                out.writeInt( queries.size() );
+                indexes.put( query, queries.size() );
+                queries.add( query );
+                out.writeLong( query.getId() );
+                query.writeCheckpoint( out );
+            }
+        }
+        
+        public QueryInfo read( CheckpointReader in ) throws IOException
+        {
+            int index = in.readInt();
+            if (index < 0) {
+                return null;
+            }
+            if (index < queries.size()) {
+                return queries.get( index );
+            }
+            
+            QueryInfo query = model.getQuery( in.readLong() );
+            queries.add( query );
+            query.readCheckpoint( in );
+            return query;
+        }
+    }
+    
     // Core of the CPU.
     public static abstract class Core
     {
@@ -661,7 +822,7 @@ public abstract class CPU extends Device<QueryInfo,Long>
                      .addSampledValue( endTime, endTime, tailLatency.getTimeMicros() );
             }
             
-            EnergyCPU.writeResult( currentTask.getFrequency(), currentTask.getLastEnergy() );
+            cpu.writeResult( currentTask.getFrequency(), currentTask.getLastEnergy() );
             
             // Compute the current idle energy.
             addIdleEnergy( endTime, true );
@@ -669,6 +830,8 @@ public abstract class CPU extends Device<QueryInfo,Long>
             removeQuery( time, 0, updateFrequency );
             
             queriesExecuted++;
+            // The query is completed: its last event can go back into the pool.
+            currentTask.setEvent( null );
             currentTask = null;
         }
         
@@ -735,7 +898,7 @@ public abstract class CPU extends Device<QueryInfo,Long>
                                                                    currentTask.getTime( newFrequency ),
                                                                    false );
                     currentTask.updateTimeEnergy( time, newFrequency, energy );
-                    EnergyCPU.writeResult( frequency, currentTask.getElapsedEnergy() );
+                    cpu.writeResult( frequency, currentTask.getElapsedEnergy() );
                     //System.out.println( "TIME: " + time + ", CORE: " + coreId + ", QUERY: " + currentTask.getId() + ", NEW_END_TIME: " + currentTask.getEndTime() );
                     this.time.setTime( currentTask.getEndTime() );
                     updateEventTime( currentTask, getTime() );
@@ -751,21 +914,29 @@ public abstract class CPU extends Device<QueryInfo,Long>
             return frequency;
         }
         
-        public void setTime( Time time )
+        public void setTime( Time time ) {
+            setTime( time.getTimeMicros() );
+        }
+        
+        public void setTime( long time )
         {
-            if (this.time.compareTo( time ) <= 0) {
+            long currentTime = this.time.getTimeMicros();
+            if (currentTime <= time) {
                 // This is idle time.
-                long elapsedTime = time.getTimeMicros() - this.time.getTimeMicros();
                 if (state != State.POWER_OFF && currentTask == null) {
-                    idleTime += elapsedTime;
+                    idleTime += time - currentTime;
                 }
-                this.time.setTime( time );
+                this.time.setTime( time, TimeUnit.MICROSECONDS );
             }
         }
         
         public Time getTime() {
             return time.clone();
         }
+        
+        public long getTimeMicros() {
+            return time.getTimeMicros();
+        }
 
         public abstract boolean checkQueryCompletion( Time time );
         
@@ -804,14 +975,18 @@ public abstract class CPU extends Device<QueryInfo,Long>
             return null;
         }
         
-        public void updateEventTime( QueryInfo query, Time time )
+        public void updateEventTime( QueryInfo query, Time time ) {
+            updateEventTime( query, time.getTimeMicros() );
+        }
+        
+        /**
+         * Moves the event of the query at the given time, expressed in microseconds.
+        */
+        public void updateEventTime( QueryInfo query, long time )
         {
             Event event = query.getEvent();
-            if (event.getTime().compareTo( time ) != 0) {
-                if (cpu.getEventScheduler().remove( event )) {
-                    event.setTime( time.clone() );
-                    cpu.getEventScheduler().schedule( event );
-                }
+            if (event.getTimeMicros() != time) {
+                cpu.getEventScheduler().reschedule( event, time );
             }
         }
         
@@ -825,7 +1000,7 @@ public abstract class CPU extends Device<QueryInfo,Long>
         
         public void setCompletedQuery( QueryInfo query )
         {
-            time = query.getEndTime();
+            time.setTime( query.getEndTimeMicros(), TimeUnit.MICROSECONDS );
             currentTask = query;
             idleTimeInterval = 0;
             idleTime = 0;
@@ -891,12 +1066,90 @@ public abstract class CPU extends Device<QueryInfo,Long>
             if (idleTime > 0) {
                 idleEnergy = cpu.energyModel.getIdleEnergy( frequency, idleTime );
                 idleTimeInterval += idleTime;
-                EnergyCPU.writeResult( frequency, idleEnergy );
+                cpu.writeResult( frequency, idleEnergy );
                 idleTime = 0;
             }
             return idleEnergy;
         }
         
+        /**
+         * Writes the state of the core.</br>
+         * The fields of the specific policy are written into a separated block
+         * (see {@linkplain #writePolicyState(CheckpointWriter)}), read back only if the core
+         * is of the same type, so the simulation can continue with a different policy.</br>
+         * In the latter case also the frequency of the core is not restored.
+         * 
+         * @param out        the checkpoint writer.
+         * @param queries    table of the queries of the CPU.
+        */
+        protected void writeCheckpoint( CheckpointWriter out, QueryTable queries ) throws IOException
+        {
+            out.writeLong( time.getTimeMicros() );
+            out.writeLong( frequency );
+            queries.write( out, currentTask );
+            out.writeLong( idleTime );
+            out.writeLong( idleTimeInterval );
+            out.writeInt( queriesExecuted );
+            out.writeLong( tieSelected );
+            out.writeInt( state.ordinal() );
+            out.writeDouble( receivedQueries );
+            out.writeDouble( processedQueries );
+            out.writeDouble( cumulativeTime );
+            out.writeInt( queryQueue.size() );
+            for (QueryInfo query : queryQueue) {
+                queries.write( out, query );
+            }
+            
+            out.writeString( getClass().getName() );
+            int block = out.beginBlock();
+            writePolicyState( out );
+            out.endBlock( block );
+        }
+        
+        protected void readCheckpoint( CheckpointReader in, QueryTable queries ) throws IOException
+        {
+            time.setTime( in.readLong(), TimeUnit.MICROSECONDS );
+            long savedFrequency = in.readLong();
+            currentTask = queries.read( in );
+            idleTime = in.readLong();
+            idleTimeInterval = in.readLong();
+            queriesExecuted = in.readInt();
+            tieSelected = in.readLong();
+            state = State.values()[in.readInt()];
+            receivedQueries = in.readDouble();
+            processedQueries = in.readDouble();
+            cumulativeTime = in.readDouble();
+            queryQueue.clear();
+            for (int i = in.readInt(); i > 0; i--) {
+                queryQueue.add( queries.read( in ) );
+            }
+            
+            if (getClass().getName().equals( in.readString() )) {
+                frequency = savedFrequency;
+                in.beginBlock();
+                readPolicyState( in );
+            } else {
+                // The frequency is the one chosen by the new policy.
+                in.skipBlock();
+            }
+        }
+        
+        /**
+         * Writes the fields of the specific policy of the core.</br>
+         * By default it does nothing.
+         * 
+         * @param out    the checkpoint writer.
+        */
+        protected void writePolicyState( CheckpointWriter out ) throws IOException {}
+        
+        /**
+         * Reads the fields written by {@linkplain #writePolicyState(CheckpointWriter)}.</br>
+         * By default it does nothing.
+         * 
+         * @param in    the checkpoint reader.
+        */
+        protected void readPolicyState( CheckpointReader in ) throws IOException {}
+        
         public double getUtilization( Time time )
         {
             double size = queryQueue.size();
@@ -15,6 +15,9 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import simulator.core.Model;
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
+import simulator.core.checkpoint.Checkpointable;
 import simulator.events.Event;
 import simulator.test.energy.CPUModel.QueryInfo;
 import simulator.test.energy.EnergyCPU.CONScore;
@@ -1163,7 +1166,7 @@ public abstract class CPUModel extends Model<QueryInfo,Long> implements Cloneabl
         public void close() {}
     }
 
-    public static class QueryInfo
+    public static class QueryInfo implements Checkpointable
     {
         private long _id;
         private long _distributedId;
@@ -1177,9 +1180,12 @@ public abstract class CPUModel extends Model<QueryInfo,Long> implements Cloneabl
         private Event event;
         private Time arrivalTime = new Time( 0, TimeUnit.MILLISECONDS );
         
-        private Time startTime = new Time( 0, TimeUnit.MILLISECONDS );
-        private Time currentTime;
-        private Time endTime;
+        // Times of the execution, expressed in microseconds.
+        private long startTime;
+        private long currentTime;
+        private long endTime;
+        // Whether the time and energy have been updated since the start of the execution.
+        private boolean updated;
         private long _frequency;
         private double previousEnergy, lastEnergy;
         private double energyConsumption;
@@ -1227,7 +1233,20 @@ public abstract class CPUModel extends Model<QueryInfo,Long> implements Cloneabl
             _frequency = frequency;
         }
         
-        public void setEvent( Event event ) {
+        /**
+         * Sets the event of the query, releasing the previous one.</br>
+         * The core sets it to {@code null} when the query is completed,
+         * so that the last event can go back into its pool.
+        */
+        public void setEvent( Event event )
+        {
+            // Keeps the event, since it could be taken from a pool.
+            if (event != null) {
+                event.retain();
+            }
+            if (this.event != null) {
+                this.event.release();
+            }
             this.event = event;
         }
         
@@ -1252,15 +1271,23 @@ public abstract class CPUModel extends Model<QueryInfo,Long> implements Cloneabl
         }
         
         public Time getStartTime() {
-            return startTime.clone();
+            return new Time( startTime, TimeUnit.MICROSECONDS );
+        }
+        
+        public long getStartTimeMicros() {
+            return startTime;
         }
         
         public Time getEndTime() {
-            return endTime.clone();
+            return new Time( endTime, TimeUnit.MICROSECONDS );
+        }
+        
+        public long getEndTimeMicros() {
+            return endTime;
         }
         
         public boolean isComplete( Time time ) {
-            return endTime.compareTo( time ) <= 0;
+            return endTime <= time.getTimeMicros();
         }
         
         public double getElapsedEnergy() {
@@ -1271,11 +1298,22 @@ public abstract class CPUModel extends Model<QueryInfo,Long> implements Cloneabl
             return lastEnergy;
         }
         
-        public void setTimeToComplete( Time startTime, Time endTime )
+        public void setTimeToComplete( Time startTime, Time endTime ) {
+            setTimeToComplete( startTime.getTimeMicros(), endTime.getTimeMicros() );
+        }
+        
+        /**
+         * Sets the times of the execution of the query.
+         * 
+         * @param startTime    starting time, expressed in microseconds.
+         * @param endTime      completion time, expressed in microseconds.
+        */
+        public void setTimeToComplete( long startTime, long endTime )
         {
             this.startTime   = startTime;
             this.currentTime = startTime;
             this.endTime     = endTime;
+            updated = false;
         }
         
         public void setEnergyConsumption( double energy ) {
@@ -1285,8 +1323,12 @@ public abstract class CPUModel extends Model<QueryInfo,Long> implements Cloneabl
         
         public void setDelay( Time delay )
         {
-            currentTime.addTime( delay );
-            endTime.addTime( delay );
+            // Until the first update the execution starts at the current time.
+            if (!updated) {
+                startTime += delay.getTimeMicros();
+            }
+            currentTime += delay.getTimeMicros();
+            endTime     += delay.getTimeMicros();
         }
         
         /**
@@ -1308,18 +1350,18 @@ public abstract class CPUModel extends Model<QueryInfo,Long> implements Cloneabl
             //System.out.println( "FROM: " + currentTime + ", OLD_TO: " + endTime + ", ENERGY: " + lastEnergy );
             //System.out.println( "TOTAL NEW TIME: " + getTime( newFrequency ) );
             double timeFrequency    = getTime( _frequency ).getTimeMicros();
-            double completionTime   = endTime.getTimeMicros() - currentTime.getTimeMicros();
+            double completionTime   = endTime - currentTime;
             double oldCompletedTime = timeFrequency - completionTime;
-            double completedTime    = (time.getTimeMicros() - currentTime.getTimeMicros()) + oldCompletedTime;
+            double completedTime    = (time.getTimeMicros() - currentTime) + oldCompletedTime;
             
             double percentageCompleted = completedTime / timeFrequency;
             
             long newCompletionTime = getTime( newFrequency ).getTimeMicros();
             long newQueryDuration  = newCompletionTime - (long) (newCompletionTime * percentageCompleted);
             //System.out.println( "NEW QUERY DURATION: " + newCompletionTime + ", REAL: " + newQueryDuration );
-            Time newEndTime        = time.clone().addTime( newQueryDuration, TimeUnit.MICROSECONDS );
+            long newEndTime        = time.getTimeMicros() + newQueryDuration;
             
-            double timeElapsed   = time.getTimeMicros() - currentTime.getTimeMicros();
+            double timeElapsed   = time.getTimeMicros() - currentTime;
             double elapsedEnergy = (lastEnergy / newCompletionTime) * timeElapsed;
             double energyUnitNew = energy / newCompletionTime;
             double newEnergy     = energyUnitNew * newQueryDuration;
@@ -1336,8 +1378,9 @@ public abstract class CPUModel extends Model<QueryInfo,Long> implements Cloneabl
             energyConsumption += elapsedEnergy + newEnergy - lastEnergy;
             previousEnergy = elapsedEnergy;
             lastEnergy     = newEnergy;
-            currentTime    = time;
+            currentTime    = time.getTimeMicros();
             endTime        = newEndTime;
+            updated        = true;
             
             //System.out.println( "CURRENT: " + time + ", NEW_END_TIME: " + endTime );
             //System.out.println( "TOTAL_ENERGY: " + energyConsumption );
@@ -1350,7 +1393,7 @@ public abstract class CPUModel extends Model<QueryInfo,Long> implements Cloneabl
         }
         
         public double getCompletionTime() {
-            return endTime.clone().subTime( startTime ).getTimeMicros();
+            return endTime - startTime;
         }
     
         public void setTimeAndEnergy( long frequency,
@@ -1375,10 +1418,65 @@ public abstract class CPUModel extends Model<QueryInfo,Long> implements Cloneabl
             return timeAndEnergyPerFrequency.get( frequency ).getFirst();
         }
         
+        /**
+         * Returns the time needed to compute the query at the given frequency, expressed in microseconds.
+        */
+        public long getTimeMicros( long frequency ) {
+            return getTime( frequency ).getTimeMicros();
+        }
+        
         public boolean isAvailable() {
             return isAvailable;
         }
         
+        /**
+         * Writes the state of the query during its execution.</br>
+         * The static informations (identifier, terms, postings, time and energy per frequency)
+         * are taken again from the model, when the query is restored.
+        */
+        @Override
+        public void writeCheckpoint( CheckpointWriter out ) throws IOException
+        {
+            out.writeLong( _distributedId );
+            out.writeLong( coreId );
+            out.writeEvent( event );
+            out.writeTime( arrivalTime );
+            out.writeTime( getStartTime() );
+            // The current time is the start time until the first update.
+            out.writeBoolean( !updated );
+            if (updated) {
+                out.writeTime( new Time( currentTime, TimeUnit.MICROSECONDS ) );
+            }
+            out.writeTime( getEndTime() );
+            out.writeLong( _frequency );
+            out.writeDouble( previousEnergy );
+            out.writeDouble( lastEnergy );
+            out.writeDouble( energyConsumption );
+        }
+        
+        @Override
+        public void readCheckpoint( CheckpointReader in ) throws IOException
+        {
+            _distributedId = in.readLong();
+            coreId = in.readLong();
+            setEvent( in.readEvent() );
+            arrivalTime = in.readTime();
+            startTime = readMicros( in );
+            updated = !in.readBoolean();
+            currentTime = updated ? readMicros( in ) : startTime;
+            endTime = readMicros( in );
+            _frequency = in.readLong();
+            previousEnergy = in.readDouble();
+            lastEnergy = in.readDouble();
+            energyConsumption = in.readDouble();
+        }
+        
+        private static long readMicros( CheckpointReader in ) throws IOException
+        {
+            Time time = in.readTime();
+            return (time == null) ? 0 : time.getTimeMicros();
+        }
+        
         @Override
         public QueryInfo clone()
         {
@@ -1392,7 +1490,7 @@ public abstract class CPUModel extends Model<QueryInfo,Long> implements Cloneabl
         @Override
         public String toString() {
             return "{ID: " + getId() + ", Arrival: " + arrivalTime +
-                   ", Start: " + startTime + ", End: " + endTime + "}";
+                   ", Start: " + getStartTime() + ", End: " + getEndTime() + "}";
         }
     }
 }
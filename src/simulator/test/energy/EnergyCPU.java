@@ -14,6 +14,8 @@ import java.util.concurrent.TimeUnit;
 import simulator.core.Agent;
 import simulator.core.Model;
 import simulator.core.Task;
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
 import simulator.test.energy.CPUModel.CONSmodel;
 import simulator.test.energy.CPUModel.LOAD_SENSITIVEmodel;
 import simulator.test.energy.CPUModel.MY_model;
@@ -29,7 +31,7 @@ import simulator.utils.Utils;
 public class EnergyCPU extends CPU
 {
     // TODO File utilizzato per ottenere i coefficienti
-    protected static PrintWriter coeffWriter;
+    protected PrintWriter coeffWriter;
     
     protected int routerCore = -1;
     protected Map<Long,Pair<Time,Double>> router_time_energy; 
@@ -386,7 +388,8 @@ public class EnergyCPU extends CPU
     }
     
     // TODO rimuovere dopo i test
-    public static void writeResult( long frequency, double energy ) {
+    @Override
+    public void writeResult( long frequency, double energy ) {
         coeffWriter.println( frequency + " " + energy + " " );
     }
     
@@ -415,6 +418,22 @@ public class EnergyCPU extends CPU
             //setBaseTimeBudget( getTime(), timeBudget );
         }
         
+        @Override
+        protected void writePolicyState( CheckpointWriter out ) throws IOException
+        {
+            out.writeLong( baseTimeBudget );
+            out.writeLong( timeBudget );
+            out.writeLong( queryExecutionTime );
+        }
+        
+        @Override
+        protected void readPolicyState( CheckpointReader in ) throws IOException
+        {
+            baseTimeBudget = in.readLong();
+            timeBudget = in.readLong();
+            queryExecutionTime = in.readLong();
+        }
+        
         @Override
         public void addQuery( QueryInfo q, boolean updateFrequency )
         {
@@ -584,18 +603,18 @@ public class EnergyCPU extends CPU
                 if (idleTimeInterval + idleTime < QUEUE_CHECK) {
                     idleEnergy = cpu.energyModel.getIdleEnergy( frequency, idleTime );
                     idleTimeInterval += idleTime;
-                    writeResult( frequency, idleEnergy );
+                    cpu.writeResult( frequency, idleEnergy );
                 } else {
                     // Set the minimum frequency if the time elapsed between two consecutive queries
                     // is at least QUEUE_CHECK microseconds.
                     long timeAtMaxFreq = QUEUE_CHECK - idleTimeInterval;
                     idleEnergy = cpu.energyModel.getIdleEnergy( frequency, timeAtMaxFreq );
-                    writeResult( frequency, idleEnergy );
+                    cpu.writeResult( frequency, idleEnergy );
                     
                     frequency = cpu.getMinFrequency();
                     double energy = cpu.energyModel.getIdleEnergy( frequency, idleTime - timeAtMaxFreq );
                     idleEnergy += energy;
-                    writeResult( frequency, energy );
+                    cpu.writeResult( frequency, energy );
                     
                     idleTimeInterval = 0;
                 }
@@ -665,6 +684,22 @@ public class EnergyCPU extends CPU
             super( cpu, coreId, initFrequency );
         }
         
+        @Override
+        protected void writePolicyState( CheckpointWriter out ) throws IOException
+        {
+            out.writeDouble( receivedQueries );
+            out.writeDouble( processedQueries );
+            out.writeDouble( cumulativeTime );
+        }
+        
+        @Override
+        protected void readPolicyState( CheckpointReader in ) throws IOException
+        {
+            receivedQueries = in.readDouble();
+            processedQueries = in.readDouble();
+            cumulativeTime = in.readDouble();
+        }
+        
         @Override
         public void addQuery( QueryInfo q, boolean updateFrequency )
         {
@@ -748,6 +783,18 @@ public class EnergyCPU extends CPU
             super( cpu, coreId, initFrequency );
         }
         
+        @Override
+        protected void writePolicyState( CheckpointWriter out ) throws IOException
+        {
+            out.writeLong( queryExecutionTime );
+        }
+        
+        @Override
+        protected void readPolicyState( CheckpointReader in ) throws IOException
+        {
+            queryExecutionTime = in.readLong();
+        }
+        
         @Override
         public void addQuery( QueryInfo q, boolean updateFrequency )
         {
@@ -828,6 +875,18 @@ public class EnergyCPU extends CPU
             super( cpu, coreId, initFrequency );
         }
         
+        @Override
+        protected void writePolicyState( CheckpointWriter out ) throws IOException
+        {
+            out.writeLong( queryExecutionTime );
+        }
+        
+        @Override
+        protected void readPolicyState( CheckpointReader in ) throws IOException
+        {
+            queryExecutionTime = in.readLong();
+        }
+        
         @Override
         public void addQuery( QueryInfo q, boolean updateFrequency )
         {
@@ -974,6 +1033,22 @@ public class EnergyCPU extends CPU
             super( cpu, coreId, initFrequency );
         }
         
+        @Override
+        protected void writePolicyState( CheckpointWriter out ) throws IOException
+        {
+            out.writeLong( baseTimeBudget );
+            out.writeLong( timeBudget );
+            out.writeLong( queryExecutionTime );
+        }
+        
+        @Override
+        protected void readPolicyState( CheckpointReader in ) throws IOException
+        {
+            baseTimeBudget = in.readLong();
+            timeBudget = in.readLong();
+            queryExecutionTime = in.readLong();
+        }
+        
         @Override
         public void addQuery( QueryInfo q, boolean updateFrequency )
         {
@@ -1150,18 +1225,18 @@ public class EnergyCPU extends CPU
                 if (idleTimeInterval + idleTime < QUEUE_CHECK) {
                     idleEnergy = cpu.energyModel.getIdleEnergy( frequency, idleTime );
                     idleTimeInterval += idleTime;
-                    writeResult( frequency, idleEnergy );
+                    cpu.writeResult( frequency, idleEnergy );
                 } else {
                     // Set the minimum frequency if the time elapsed between two consecutive queries
                     // is at least QUEUE_CHECK microseconds.
                     long timeAtMaxFreq = QUEUE_CHECK - idleTimeInterval;
                     idleEnergy = cpu.energyModel.getIdleEnergy( frequency, timeAtMaxFreq );
-                    writeResult( frequency, idleEnergy );
+                    cpu.writeResult( frequency, idleEnergy );
                     
                     frequency = cpu.getMinFrequency();
                     double energy = cpu.energyModel.getIdleEnergy( frequency, idleTime - timeAtMaxFreq );
                     idleEnergy += energy;
-                    writeResult( frequency, energy );
+                    cpu.writeResult( frequency, energy );
                     
                     idleTimeInterval = 0;
                 }
@@ -2,9 +2,10 @@
 package simulator.test.energy;
 
 import java.awt.Color;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -18,6 +19,8 @@ import java.util.concurrent.TimeUnit;
 
 import simulator.core.Agent;
 import simulator.core.Simulator;
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
 import simulator.events.Event;
 import simulator.events.EventGenerator;
 import simulator.events.EventHandler;
@@ -63,18 +66,16 @@ public class EnergyTestMONO
     private static boolean CENTRALIZED_QUEUE = false;
     private static boolean JOB_STEALING = false;
     
-    private static CPU cpu;
-    
-    private static Map<String,String> testResults;
-    
     
     private static class ClientGenerator extends EventGenerator
     {
         private static final String QUERY_TRACE = "Models/msn.day2.arrivals.txt";
         //private static final String QUERY_TRACE = "Models/test_arrivals.txt";
         
-        private BufferedReader queryReader;
+        private InputStream queryReader;
         private boolean closed = false;
+        // Number of bytes read from the trace.
+        private long offset = 0;
         
         private long lastDeparture = 0;
         
@@ -85,7 +86,38 @@ public class EnergyTestMONO
             super( Time.INFINITE, Time.ZERO, EventGenerator.BEFORE_CREATION );
             
             // Open the associated file.
-            queryReader = new BufferedReader( new FileReader( QUERY_TRACE ) );
+            queryReader = openTrace( 0 );
+        }
+        
+        /**
+         * Opens the trace, starting from the given byte.
+        */
+        private static InputStream openTrace( long offset ) throws IOException
+        {
+            FileInputStream input = new FileInputStream( QUERY_TRACE );
+            input.getChannel().position( offset );
+            return new BufferedInputStream( input );
+        }
+        
+        /**
+         * Reads the next line of the trace, keeping track of the bytes read so far.
+         * 
+         * @return the line, or {@code null} if the end of the trace has been reached.
+        */
+        private String readLine() throws IOException
+        {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = queryReader.read()) >= 0) {
+                offset++;
+                if (c == '\n') {
+                    return line.toString();
+                }
+                if (c != '\r') {
+                    line.append( (char) c );
+                }
+            }
+            return (line.length() == 0) ? null : line.toString();
         }
         
         @Override
@@ -94,7 +126,7 @@ public class EnergyTestMONO
             if (!closed) {
                 try {
                     String queryLine = null;
-                    if ((queryLine = queryReader.readLine()) != null) {
+                    if ((queryLine = readLine()) != null) {
                         long time = Long.parseLong( queryLine );
                         long timeDistance = time - lastDeparture;
                         //getAgent().getSampler( "QPS" ).addSampledValue( time * 1000, time * 1000, 1 );
@@ -112,6 +144,30 @@ public class EnergyTestMONO
             
             return null;
         }
+        
+        @Override
+        public void writeCheckpoint( CheckpointWriter out ) throws IOException
+        {
+            super.writeCheckpoint( out );
+            out.writeLong( offset );
+            out.writeLong( lastDeparture );
+            out.writeBoolean( closed );
+        }
+        
+        @Override
+        public void readCheckpoint( CheckpointReader in ) throws IOException
+        {
+            super.readCheckpoint( in );
+            offset = in.readLong();
+            lastDeparture = in.readLong();
+            closed = in.readBoolean();
+            
+            // Moves the trace to the position of the checkpoint.
+            queryReader.close();
+            if (!closed) {
+                queryReader = openTrace( offset );
+            }
+        }
     }
     
     private static class ClientAgent extends Agent
@@ -121,7 +177,7 @@ public class EnergyTestMONO
         private static final int NUM_QUERIES = 10000;
         // Random generator seed.
         private static final int SEED = 50000;
-        private final Random RANDOM = new Random( SEED );
+        private Random RANDOM = new Random( SEED );
         
         
         
@@ -137,11 +193,11 @@ public class EnergyTestMONO
         
         private Packet makePacket()
         {
-            Packet packet = new Packet( 20, SizeUnit.BYTE );
+            Packet packet = new Packet( 20, SizeUnit.BYTE, Global.SCHEMA );
             while (true) {
                 long queryID = RANDOM.nextInt( NUM_QUERIES ) + 1;
                 if (model.isQueryAvailable( queryID )) {
-                    packet.addContent( Global.QUERY_ID, queryID );
+                    packet.setLong( Global.QUERY_ID_FIELD, queryID );
                     break;
                 }
             }
@@ -161,6 +217,20 @@ public class EnergyTestMONO
             Agent dest = getConnectedAgent( 1 );
             sendMessage( dest, makePacket(), true );
         }
+        
+        @Override
+        public void writeCheckpoint( CheckpointWriter out ) throws IOException
+        {
+            super.writeCheckpoint( out );
+            out.writeSerializable( RANDOM );
+        }
+        
+        @Override
+        public void readCheckpoint( CheckpointReader in ) throws IOException
+        {
+            super.readCheckpoint( in );
+            RANDOM = in.readSerializable();
+        }
     }
     
     
@@ -199,14 +269,14 @@ public class EnergyTestMONO
             if (sourceId == 0) {
                 // From client.
                 queryDistrId = (queryDistrId + 1) % Long.MAX_VALUE;
-                e.getPacket().addContent( Global.QUERY_DISTR_ID, queryDistrId );
+                e.getPacket().setLong( Global.QUERY_DISTR_ID_FIELD, queryDistrId );
                 queries.add( new QueryLatency( queryDistrId, e.getTime() ) );
                 
                 Agent dest = selectDestination( e.getTime() );
                 sendMessage( dest, e.getPacket(), true );
             } else {
                 // From server.
-                long queryDistrId = e.getPacket().getContent( Global.QUERY_DISTR_ID );
+                long queryDistrId = e.getPacket().getLong( Global.QUERY_DISTR_ID_FIELD );
                 for (int index = 0; index < queries.size(); index++) {
                     QueryLatency query = queries.get( index );
                     if (query.id == queryDistrId) {
@@ -306,6 +376,37 @@ public class EnergyTestMONO
         
         @Override
         public void notifyEvent( Event e ) {}
+        
+        @Override
+        public void writeCheckpoint( CheckpointWriter out ) throws IOException
+        {
+            super.writeCheckpoint( out );
+            out.writeLong( queryDistrId );
+            out.writeInt( queries.size() );
+            for (QueryLatency query : queries) {
+                out.writeLong( query.id );
+                out.writeTime( query.startTime );
+            }
+            out.writeInt( tieSelection.size() );
+            for (Entry<Long,Long> entry : tieSelection.entrySet()) {
+                out.writeLong( entry.getKey() );
+                out.writeLong( entry.getValue() );
+            }
+        }
+        
+        @Override
+        public void readCheckpoint( CheckpointReader in ) throws IOException
+        {
+            super.readCheckpoint( in );
+            queryDistrId = in.readLong();
+            queries.clear();
+            for (int i = in.readInt(); i > 0; i--) {
+                queries.add( new QueryLatency( in.readLong(), in.readTime() ) );
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                tieSelection.put( in.readLong(), in.readLong() );
+            }
+        }
     }
     
     public static class ServerConsGenerator extends EventGenerator
@@ -320,8 +421,8 @@ public class EnergyTestMONO
         protected Event createEvent()
         {
             Event e = super.createEvent();
-            Packet packet = new Packet( 1, SizeUnit.BIT );
-            packet.addContent( Global.CONS_CONTROL, "" );
+            Packet packet = new Packet( 1, SizeUnit.BIT, Global.SCHEMA );
+            packet.setObject( Global.CONS_CONTROL_FIELD, "" );
             e.setPacket( packet );
             return e;
         }
@@ -343,7 +444,7 @@ public class EnergyTestMONO
         public void notifyEvent( Event e )
         {
             Packet p = e.getPacket();
-            if (p.hasContent( Global.CONS_CONTROL )) {
+            if (p.hasContent( Global.CONS_CONTROL_FIELD )) {
                 CPU cpu = getDevice( EnergyCPU.class );
                 cpu.evalCONSparameters( e.getTime() );
             }
@@ -356,9 +457,9 @@ public class EnergyTestMONO
             CPU cpu = getDevice( EnergyCPU.class );
             
             CPUModel model = (CPUModel) cpu.getModel();
-            QueryInfo query = model.getQuery( p.getContent( Global.QUERY_ID ) );
-            if (p.hasContent( Global.QUERY_DISTR_ID )) {
-                query.setDistributedId( p.getContent( Global.QUERY_DISTR_ID ) );
+            QueryInfo query = model.getQuery( p.getLong( Global.QUERY_ID_FIELD ) );
+            if (p.hasContent( Global.QUERY_DISTR_ID_FIELD )) {
+                query.setDistributedId( p.getLong( Global.QUERY_DISTR_ID_FIELD ) );
             }
             query.setEvent( e );
             query.setArrivalTime( e.getTime() );
@@ -385,8 +486,8 @@ public class EnergyTestMONO
                     cpu.setTime( e.getTime() );
                     for (Core core : cpu.getCores()) {
                         if (core.checkQueryCompletion( e.getTime() ) && !core.getQueue().isEmpty()) {
-                            Packet msg = new Packet( 20, SizeUnit.BYTE );
-                            msg.addContent( Global.QUERY_DISTR_ID, core.getLastQueryInQueue().getDistributedId() );
+                            Packet msg = new Packet( 20, SizeUnit.BYTE, Global.SCHEMA );
+                            msg.setLong( Global.QUERY_DISTR_ID_FIELD, core.getLastQueryInQueue().getDistributedId() );
                             // Prepare the message for the current query.
                             sendMessage( core.getTime(), getConnectedAgent( 0 ), msg, false );
                         }
@@ -430,41 +531,41 @@ public class EnergyTestMONO
             Global.showGUI = System.getProperty( "showGUI" ).equalsIgnoreCase( "true" );
         }
         
-        testResults = new LinkedHashMap<>();
+        Map<String,String> testResults = new LinkedHashMap<>();
         
         //plotAllTailLatencies();
         
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, false, new TieLeastLoaded() );
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, false, new LowestPredictedFrequency() );
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, false, new EarliestCompletionTime() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, false, new TieLeastLoaded() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, false, new LowestPredictedFrequency() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, false, new EarliestCompletionTime() );
         
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, true, new TieLeastLoaded() );
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, true, new LowestPredictedFrequency() );
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, true, new EarliestCompletionTime() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, true, new TieLeastLoaded() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, true, new LowestPredictedFrequency() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 500, 570013, true, new EarliestCompletionTime() );
         
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, false, new TieLeastLoaded() );
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, false, new LowestPredictedFrequency() );
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, false, new EarliestCompletionTime() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, false, new TieLeastLoaded() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, false, new LowestPredictedFrequency() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, false, new EarliestCompletionTime() );
         
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, true, new TieLeastLoaded() );
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, true, new LowestPredictedFrequency() );
-        //testPESOS( Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, true, new EarliestCompletionTime() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, true, new TieLeastLoaded() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, true, new LowestPredictedFrequency() );
+        //testPESOS( testResults, Type.PESOS, Mode.TIME_CONSERVATIVE, 1000, 420947, true, new EarliestCompletionTime() );
         
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, false, new TieLeastLoaded() );
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, false, new LowestPredictedFrequency() );
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, false, new EarliestCompletionTime() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, false, new TieLeastLoaded() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, false, new LowestPredictedFrequency() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, false, new EarliestCompletionTime() );
         
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, true, new TieLeastLoaded() );
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, true, new LowestPredictedFrequency() );
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, true, new EarliestCompletionTime() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, true, new TieLeastLoaded() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, true, new LowestPredictedFrequency() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 500, 491949, true, new EarliestCompletionTime() );
         
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, false, new TieLeastLoaded() );
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, false, new LowestPredictedFrequency() );
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, false, new EarliestCompletionTime() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, false, new TieLeastLoaded() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, false, new LowestPredictedFrequency() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, false, new EarliestCompletionTime() );
         
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, true, new TieLeastLoaded() );
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, true, new LowestPredictedFrequency() );
-        //testPESOS( Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, true, new EarliestCompletionTime() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, true, new TieLeastLoaded() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, true, new LowestPredictedFrequency() );
+        //testPESOS( testResults, Type.PESOS, Mode.ENERGY_CONSERVATIVE, 1000, 381325, true, new EarliestCompletionTime() );
         
         for (Entry<String,String> entry : testResults.entrySet()) {
             Utils.LOGGER.info( entry.getKey() + ", " + entry.getValue() );
@@ -508,13 +609,13 @@ public class EnergyTestMONO
         //System.out.println( "MAX: " + LowestFrequency.maxTime );        //359.403.054
     }
     
-    public static void testPESOS( Type type, Mode mode, long timeBudget, double target, boolean centralized_queue, Scheduler<Iterable<Core>, Long, QueryInfo> scheduler ) throws Exception
+    public static void testPESOS( Map<String,String> testResults, Type type, Mode mode, long timeBudget, double target, boolean centralized_queue, Scheduler<Iterable<Core>, Long, QueryInfo> scheduler ) throws Exception
     {
-        cpu = new EnergyCPU( "Models/cpu_spec.json", getCoreClass( type ) );
+        CPU cpu = new EnergyCPU( "Models/cpu_spec.json", getCoreClass( type ) );
         cpu.setScheduler( scheduler );
         cpu.setCentralizedQueue( centralized_queue );
         cpu.enableJobStealing( JOB_STEALING );
-        double energy = testMultiCore( type, mode, timeBudget );
+        double energy = testMultiCore( cpu, type, mode, timeBudget );
         String[] subNames = scheduler.getClass().getName().split( "\\." );
         String name = subNames[subNames.length-1];
         String gain;
@@ -556,6 +657,8 @@ public class EnergyTestMONO
     public static void testAnimationNetwork( CPUModel model, ClientModel clientModel ) throws Exception
     {
         NetworkTopology net = new NetworkTopology( "Topology/Topology_animation_test.json" );
+        // Needed to restore the packets from a checkpoint.
+        net.getContext().addPacketSchema( Global.SCHEMA );
         net.setTrackingEvent( "./Results/packets.txt" );
         System.out.println( net.toString() );
         
@@ -627,6 +730,14 @@ public class EnergyTestMONO
     }
     
     public static double testMultiCore( Type type, Mode mode, long timeBudget ) throws Exception
+    {
+        CPU cpu = new EnergyCPU( "Models/cpu_spec.json", getCoreClass( type ) );
+        cpu.setCentralizedQueue( CENTRALIZED_QUEUE );
+        cpu.enableJobStealing( JOB_STEALING );
+        return testMultiCore( cpu, type, mode, timeBudget );
+    }
+    
+    public static double testMultiCore( CPU cpu, Type type, Mode mode, long timeBudget ) throws Exception
     {
         /*
                    1000Mb,0ms
@@ -636,12 +747,6 @@ public class EnergyTestMONO
         
         final Time duration = new Time( 24, TimeUnit.HOURS );
         
-        if (cpu == null) {
-            cpu = new EnergyCPU( "Models/cpu_spec.json", getCoreClass( type ) );
-            cpu.setCentralizedQueue( CENTRALIZED_QUEUE );
-            cpu.enableJobStealing( JOB_STEALING );
-        }
-        
         CPUModel model = loadModel( type, mode, timeBudget );
         cpu.setModel( model );
         
@@ -649,6 +754,8 @@ public class EnergyTestMONO
         final Time samplingTime = new Time( 5, TimeUnit.MINUTES );
         
         NetworkTopology net = new NetworkTopology( "Topology/Topology_mono_multiCore.json" );
+        // Needed to restore the packets from a checkpoint.
+        net.getContext().addPacketSchema( Global.SCHEMA );
         System.out.println( net.toString() );
         
         Simulator sim = new Simulator( net );
@@ -705,8 +812,6 @@ public class EnergyTestMONO
             plotTailLatency( type, mode, timeBudget );
         }
         
-        cpu = null;
-        
         return totalEnergy;
     }
     
@@ -728,6 +833,8 @@ public class EnergyTestMONO
         final Time duration = new Time( 24, TimeUnit.HOURS );
         
         NetworkTopology net = new NetworkTopology( "Topology/Topology_mono_singleCore.json" );
+        // Needed to restore the packets from a checkpoint.
+        net.getContext().addPacketSchema( Global.SCHEMA );
         //net.setTrackingEvent( "./Results/packets2.txt" );
         System.out.println( net.toString() );
         
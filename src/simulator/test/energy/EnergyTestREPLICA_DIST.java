@@ -153,11 +153,11 @@ public class EnergyTestREPLICA_DIST
         
         private Packet makePacket()
         {
-            Packet packet = new Packet( 20, SizeUnit.BYTE );
+            Packet packet = new Packet( 20, SizeUnit.BYTE, Global.SCHEMA );
             while (true) {
                 long queryID = RANDOM.nextInt( NUM_QUERIES ) + 1;
                 if (model.isQueryAvailable( queryID )) {
-                    packet.addContent( Global.QUERY_ID, queryID );
+                    packet.setLong( Global.QUERY_ID_FIELD, queryID );
                     break;
                 }
             }
@@ -221,7 +221,7 @@ public class EnergyTestREPLICA_DIST
                 // From client.
                 //System.out.println( "RICEVUTO: " + p.getContents() );
                 queryDistrId = (queryDistrId + 1) % Long.MAX_VALUE;
-                p.addContent( Global.QUERY_DISTR_ID, queryDistrId );
+                p.setLong( Global.QUERY_DISTR_ID_FIELD, queryDistrId );
                 queries.add( new QueryLatency( queryDistrId, e.getTime() ) );
                 
                 for (Agent destination : getConnectedAgents()) {
@@ -231,17 +231,17 @@ public class EnergyTestREPLICA_DIST
                 }
             } else {
                 // From server.
-                if (p.hasContent( Global.PESOS_CONTROLLER_ADD )) {
+                if (p.hasContent( Global.PESOS_CONTROLLER_ADD_FIELD )) {
                     // Get the query parameters.
-                    PESOSmessage message = p.getContent( Global.PESOS_CONTROLLER_ADD );
+                    PESOSmessage message = p.getObject( Global.PESOS_CONTROLLER_ADD_FIELD );
                     Agent server = e.getSource();
                     controller.addQuery( e.getTime(), server.getId(), message.getCoreID(), message.getQueryID(), message.getVersionId() );
                     controller.analyzeSystem( this, e.getTime() );
-                    Packet packet = new Packet( 20, SizeUnit.BYTE );
-                    packet.addContent( Global.PESOS_TIME_BUDGET, message );
+                    Packet packet = new Packet( 20, SizeUnit.BYTE, Global.SCHEMA );
+                    packet.setObject( Global.PESOS_TIME_BUDGET_FIELD, message );
                     sendMessage( server, packet, false );
                 } else {
-                    long queryDistrId = p.getContent( Global.QUERY_DISTR_ID );
+                    long queryDistrId = p.getLong( Global.QUERY_DISTR_ID_FIELD );
                     for (int index = 0; index < queries.size(); index++) {
                         QueryLatency query = queries.get( index );
                         if (query.id == queryDistrId) {
@@ -264,8 +264,8 @@ public class EnergyTestREPLICA_DIST
                         }
                     }
                     
-                    if (p.hasContent( Global.PESOS_CONTROLLER_COMPLETED )) {
-                        PESOSmessage message = p.getContent( Global.PESOS_CONTROLLER_COMPLETED );
+                    if (p.hasContent( Global.PESOS_CONTROLLER_COMPLETED_FIELD )) {
+                        PESOSmessage message = p.getObject( Global.PESOS_CONTROLLER_COMPLETED_FIELD );
                         // Here queryID is used in place of nodeID, just to reuse the same object.
                         controller.completedQuery( e.getTime(), message.getQueryID(), message.getCoreID() );
                         controller.analyzeSystem( this, e.getTime() );
@@ -322,7 +322,7 @@ public class EnergyTestREPLICA_DIST
         public void notifyEvent( Event e )
         {
             Packet p = e.getPacket();
-            if (p.hasContent( Global.CONS_CONTROL )) {
+            if (p.hasContent( Global.CONS_CONTROL_FIELD )) {
                 CPU cpu = getDevice( EnergyCPU.class );
                 cpu.evalCONSparameters( e.getTime() );
             }
@@ -334,16 +334,16 @@ public class EnergyTestREPLICA_DIST
             Packet p = e.getPacket();
             CPU cpu = getDevice( EnergyCPU.class );
             
-            if (p.hasContent( Global.PESOS_TIME_BUDGET )) {
-                PESOSmessage message = p.getContent( Global.PESOS_TIME_BUDGET );
+            if (p.hasContent( Global.PESOS_TIME_BUDGET_FIELD )) {
+                PESOSmessage message = p.getObject( Global.PESOS_TIME_BUDGET_FIELD );
                 PESOScore core = (PESOScore) cpu.getCore( message.getCoreID() );
                 core.setTimeBudget( e.getTime(), message.getTimeBudget(), message.getQueryID() );
                 return;
             }
             
-            if (p.hasContent( Global.PEGASUS_CONTROLLER )) {
+            if (p.hasContent( Global.PEGASUS_CONTROLLER_FIELD )) {
                 // Set a new CPU power cap.
-                PEGASUSmessage message = p.getContent( Global.PEGASUS_CONTROLLER );
+                PEGASUSmessage message = p.getObject( Global.PEGASUS_CONTROLLER_FIELD );
                 if (message.isMaximumPower()) {
                     cpu.setPower( e.getTime(), cpu.getMaxPower() );
                 } else {
@@ -354,9 +354,9 @@ public class EnergyTestREPLICA_DIST
             }
             
             CPUModel model = (CPUModel) cpu.getModel();
-            QueryInfo query = model.getQuery( p.getContent( Global.QUERY_ID ) );
-            if (p.hasContent( Global.QUERY_DISTR_ID )) {
-                query.setDistributedId( p.getContent( Global.QUERY_DISTR_ID ) );
+            QueryInfo query = model.getQuery( p.getLong( Global.QUERY_ID_FIELD ) );
+            if (p.hasContent( Global.QUERY_DISTR_ID_FIELD )) {
+                query.setDistributedId( p.getLong( Global.QUERY_DISTR_ID_FIELD ) );
             }
             query.setEvent( e );
             query.setArrivalTime( e.getTime() );
@@ -369,8 +369,8 @@ public class EnergyTestREPLICA_DIST
                 // Send the information of the incoming query to the switch.
                 PESOSmessage message = new PESOSmessage( coreId, query.getId(), 0 );
                 message.setVersionId( versionId );
-                Packet packet = new Packet( 20, SizeUnit.BYTE );
-                packet.addContent( Global.PESOS_CONTROLLER_ADD, message );
+                Packet packet = new Packet( 20, SizeUnit.BYTE, Global.SCHEMA );
+                packet.setObject( Global.PESOS_CONTROLLER_ADD_FIELD, message );
                 Agent switchAgent = getConnectedAgents().get( 0 );
                 sendMessage( switchAgent, packet, true );
             }
@@ -397,14 +397,14 @@ public class EnergyTestREPLICA_DIST
                     for (long i = 0; i < cpu.getCPUcores(); i++) {
                         Core core = cpu.getCore( i );
                         if (core.checkQueryCompletion( e.getTime() ) && !core.getQueue().isEmpty()) {
-                            Packet msg = new Packet( 20, SizeUnit.BYTE );
+                            Packet msg = new Packet( 20, SizeUnit.BYTE, Global.SCHEMA );
                             if (PESOS_CONTROLLER) {
                                 // Send the information to the broker.
                                 PESOSmessage message = new PESOSmessage( i, getId(), 0 );
-                                msg.addContent( Global.PESOS_CONTROLLER_COMPLETED, message );
+                                msg.setObject( Global.PESOS_CONTROLLER_COMPLETED_FIELD, message );
                             }
                             
-                            msg.addContent( Global.QUERY_DISTR_ID, core.getLastQueryInQueue().getDistributedId() );
+                            msg.setLong( Global.QUERY_DISTR_ID_FIELD, core.getLastQueryInQueue().getDistributedId() );
                             // Prepare the response message for the switch.
                             Agent switchAgent = getConnectedAgents().get( 0 );
                             sendMessage( core.getTime(), switchAgent, msg, false );
@@ -444,8 +444,8 @@ public class EnergyTestREPLICA_DIST
         public Event createEvent()
         {
             Event e = super.createEvent();
-            Packet packet = new Packet( 1, SizeUnit.BIT );
-            packet.addContent( Global.SWITCH_TIME_SLOT, "" );
+            Packet packet = new Packet( 1, SizeUnit.BIT, Global.SCHEMA );
+            packet.setObject( Global.SWITCH_TIME_SLOT_FIELD, "" );
             e.setPacket( packet );
             return e;
         }
@@ -664,7 +664,7 @@ public class EnergyTestREPLICA_DIST
         public void notifyEvent( Event e )
         {
             Packet p = e.getPacket();
-            if (p.hasContent( Global.SWITCH_TIME_SLOT )) {
+            if (p.hasContent( Global.SWITCH_TIME_SLOT_FIELD )) {
                 if (estimatorType == SEASONAL_ESTIMATOR) {
                     currentReplicas = allReplicas[++slotIndex];
                 } else {
@@ -844,7 +844,7 @@ public class EnergyTestREPLICA_DIST
         public void notifyEvent( Event e )
         {
             Packet p = e.getPacket();
-            if (p.hasContent( Global.SWITCH_TIME_SLOT )) {
+            if (p.hasContent( Global.SWITCH_TIME_SLOT_FIELD )) {
                 if (index == nodeUtilization.size() - 1) {
                     double energy = getSampler( Global.ENERGY_SAMPLING ).getTotalResult();
                     if (energy > targetConsumption) {
@@ -1028,6 +1028,8 @@ public class EnergyTestREPLICA_DIST
         PEGASUS_CONTROLLER = (type == Type.PEGASUS);
         
         NetworkTopology net = new NetworkTopology();
+        // Needed to restore the packets from a checkpoint.
+        net.getContext().addPacketSchema( Global.SCHEMA );
         Simulator sim = new Simulator( net );
         
         // Create client.
@@ -1,6 +1,9 @@
 
 package simulator.test.energy;
 
+import simulator.events.PacketSchema;
+import simulator.events.PacketSchema.Field;
+
 public class Global
 {
     /** Fields used for testing. */
@@ -14,6 +17,17 @@ public class Global
     public static final String PESOS_CONTROLLER_COMPLETED = "PESOS_CONTROLLER_COMPLETED";
     public static final String PEGASUS_CONTROLLER         = "PEGASUS_CONTROLLER";
     
+    /** Schema of the packets used for testing, with their typed fields. */
+    public static final PacketSchema SCHEMA = new PacketSchema( "energy" );
+    public static final Field QUERY_ID_FIELD                   = SCHEMA.addLong( QUERY_ID );
+    public static final Field QUERY_DISTR_ID_FIELD             = SCHEMA.addLong( QUERY_DISTR_ID );
+    public static final Field CONS_CONTROL_FIELD               = SCHEMA.addObject( CONS_CONTROL );
+    public static final Field PESOS_TIME_BUDGET_FIELD          = SCHEMA.addObject( PESOS_TIME_BUDGET );
+    public static final Field SWITCH_TIME_SLOT_FIELD           = SCHEMA.addObject( SWITCH_TIME_SLOT );
+    public static final Field PESOS_CONTROLLER_ADD_FIELD       = SCHEMA.addObject( PESOS_CONTROLLER_ADD );
+    public static final Field PESOS_CONTROLLER_COMPLETED_FIELD = SCHEMA.addObject( PESOS_CONTROLLER_COMPLETED );
+    public static final Field PEGASUS_CONTROLLER_FIELD         = SCHEMA.addObject( PEGASUS_CONTROLLER );
+    
     /** Samplings ID. */
     public static final String ENERGY_SAMPLING       = "EnergyConsumption";
     public static final String IDLE_ENERGY_SAMPLING  = "IdleEnergy";
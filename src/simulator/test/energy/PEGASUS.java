@@ -108,8 +108,8 @@ public class PEGASUS
     private void sendMessage( boolean maximum, double coefficient )
     {
         PEGASUSmessage message = new PEGASUSmessage( maximum, coefficient );
-        Packet packet = new Packet( 20, SizeUnit.BYTE );
-        packet.addContent( Global.PEGASUS_CONTROLLER, message );
+        Packet packet = new Packet( 20, SizeUnit.BYTE, Global.SCHEMA );
+        packet.setObject( Global.PEGASUS_CONTROLLER_FIELD, message );
         for (Agent destination : nodes) {
             node.sendMessage( destination, packet, true );
         }
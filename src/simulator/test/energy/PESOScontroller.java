@@ -99,8 +99,8 @@ public class PESOScontroller
                     //core.setTimeBudget( time, budget, _core.getFirstQuery().getId() );
                     
                     PESOSmessage message = new PESOSmessage( _core.getCoreID(), _core.getFirstQuery().getId(), budget );
-                    Packet packet = new Packet( 20, SizeUnit.BYTE );
-                    packet.addContent( Global.PESOS_TIME_BUDGET, message );
+                    Packet packet = new Packet( 20, SizeUnit.BYTE, Global.SCHEMA );
+                    packet.setObject( Global.PESOS_TIME_BUDGET_FIELD, message );
                     agent.sendMessage( _cpu.getNode(), packet, false );
                 }
             }
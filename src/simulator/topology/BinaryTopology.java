@@ -0,0 +1,429 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import simulator.utils.resources.ResourceLoader;
+
+/**
+ * Compact binary format of a network, loaded through a memory mapped file.</br>
+ * Nodes and links are stored in primitive arrays, with the links in compressed sparse row form
+ * (as in {@linkplain CompactGraph}), so loading a network doesn't require any parsing.
+ * The routing table can be stored too, and it's read directly from the mapped pages
+ * (see {@linkplain MappedRoutingTable}), so it's never computed again.
+ * <p>
+ * File structure:
+ * <pre>
+ * header => magic, version, flags, number of nodes (n), number of links (m), length of the names
+ * nodes  => ids[n], delays[n], xPos[n], yPos[n], name offsets[n+1], active[n], names
+ * links  => offsets[n+1], targets[m], bandwidths[m], delays[m], MTUs[m], errors[m], bidirectional[m], active[m]
+ * routes => next hops[n*n], indexed by destination and source (only with the ROUTES flag)
+ * </pre>
+ * Delays are expressed in milliseconds, as in the JSON format, and every section starts
+ * at a multiple of 8 bytes. Links towards the nodes of other networks are not saved.
+*/
+public class BinaryTopology
+{
+    private static final int MAGIC   = 0x4E535446; // "NSTF"
+    private static final int VERSION = 1;
+    
+    /** Flag of the files containing the routing table. */
+    private static final int ROUTES = 1;
+    
+    // Maximum size of a mapped region.
+    private static final long MAX_REGION = Integer.MAX_VALUE;
+    
+    
+    
+    private BinaryTopology() {}
+    
+    /**
+     * Checks whether the given stream starts with a binary topology.</br>
+     * The stream must support the {@linkplain InputStream#mark(int)} operation,
+     * and its position is not modified.
+    */
+    public static boolean isBinary( InputStream stream ) throws IOException
+    {
+        stream.mark( Integer.BYTES );
+        int magic = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            magic = (magic << 8) | (stream.read() & 0xFF);
+        }
+        stream.reset();
+        return magic == MAGIC;
+    }
+    
+    /**
+     * Saves the nodes and links of the network in the binary format.
+     * 
+     * @param net         the network to save.
+     * @param filename    name of the file.
+     * @param routes      {@code true} to save also the routing table, taking O(n^2) space.
+    */
+    public static void save( NetworkTopology net, String filename, boolean routes ) throws IOException
+    {
+        CompactGraph graph = net.getGraph();
+        int n = graph.getNodes();
+        byte[][] names = new byte[n][];
+        int namesLength = 0;
+        for (int i = 0; i < n; i++) {
+            names[i] = graph.getNode( i ).getName().getBytes( StandardCharsets.UTF_8 );
+            namesLength += names[i].length;
+        }
+        
+        // The links of each node are saved in the same order of the network.
+        List<List<NetworkLink>> nodeLinks = new ArrayList<>( n );
+        for (int i = 0; i < n; i++) {
+            nodeLinks.add( new ArrayList<>( graph.endLink( i ) - graph.firstLink( i ) ) );
+        }
+        int m = 0;
+        for (NetworkLink link : net.getLinks()) {
+            int source = graph.indexOf( link.getSourceId() );
+            if (source >= 0 && graph.indexOf( link.getDestId() ) >= 0) {
+                nodeLinks.get( source ).add( link );
+                m++;
+            }
+        }
+        
+        Path path = Paths.get( filename );
+        if (path.getParent() != null) {
+            path.getParent().toFile().mkdirs();
+        }
+        try (Output out = new Output( FileChannel.open( path, StandardOpenOption.CREATE,
+                                                               StandardOpenOption.WRITE,
+                                                               StandardOpenOption.TRUNCATE_EXISTING ) )) {
+            out.putInt( MAGIC );
+            out.putInt( VERSION );
+            out.putInt( routes ? ROUTES : 0 );
+            out.putInt( n );
+            out.putInt( m );
+            out.putInt( namesLength );
+            
+            // Nodes.
+            out.align();
+            for (int i = 0; i < n; i++) {
+                out.putLong( graph.getNodeId( i ) );
+            }
+            for (int i = 0; i < n; i++) {
+                out.putLong( graph.getNode( i ).getTcalcMicros() / 1000L );
+            }
+            for (int i = 0; i < n; i++) {
+                out.putInt( graph.getNode( i ).getXPos() );
+            }
+            for (int i = 0; i < n; i++) {
+                out.putInt( graph.getNode( i ).getYPos() );
+            }
+            int offset = 0;
+            out.putInt( offset );
+            for (int i = 0; i < n; i++) {
+                offset += names[i].length;
+                out.putInt( offset );
+            }
+            for (int i = 0; i < n; i++) {
+                out.putBoolean( graph.getNode( i ).isActive() );
+            }
+            for (int i = 0; i < n; i++) {
+                out.put( names[i] );
+            }
+            
+            // Links, grouped by source node.
+            List<NetworkLink> links = new ArrayList<>( m );
+            out.align();
+            offset = 0;
+            out.putInt( offset );
+            for (List<NetworkLink> sourceLinks : nodeLinks) {
+                links.addAll( sourceLinks );
+                offset += sourceLinks.size();
+                out.putInt( offset );
+            }
+            for (NetworkLink link : links) {
+                out.putInt( graph.indexOf( link.getDestId() ) );
+            }
+            out.align();
+            for (NetworkLink link : links) {
+                out.putDouble( link.getBandwidth() );
+            }
+            for (NetworkLink link : links) {
+                out.putLong( link.getTprop() / 1000L );
+            }
+            for (NetworkLink link : links) {
+                out.putInt( link.getMTU() );
+            }
+            out.align();
+            for (NetworkLink link : links) {
+                out.putDouble( link.getError() );
+            }
+            for (NetworkLink link : links) {
+                out.putBoolean( link.linkType().equals( NetworkLink.BIDIRECTIONAL ) );
+            }
+            for (NetworkLink link : links) {
+                out.putBoolean( link.isActive() );
+            }
+            
+            if (routes) {
+                out.align();
+                int[][] nextHops = new ShortestPaths( graph ).computeAllNextHops();
+                for (int[] row : nextHops) {
+                    for (int hop : row) {
+                        out.putInt( hop );
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Loads the nodes and links of a network saved in the binary format.</br>
+     * If the file contains the routing table, it's used by the network
+     * until a node or a link is added.
+     * 
+     * @param net         the network to fill.
+     * @param filename    name of the file.
+     * 
+     * @throws IOException if the file is not a valid binary topology.
+    */
+    public static void load( NetworkTopology net, String filename ) throws IOException
+    {
+        Path path = getPath( filename );
+        if (path == null) {
+            // Resources that are not files (e.g. inside a jar) are read in memory.
+            try (InputStream stream = ResourceLoader.getResourceAsStream( filename )) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] data = new byte[1 << 16];
+                for (int read; (read = stream.read( data )) > 0;) {
+                    content.write( data, 0, read );
+                }
+                ByteBuffer buffer = ByteBuffer.wrap( content.toByteArray() );
+                long routes = load( net, buffer, filename );
+                if (routes >= 0) {
+                    buffer.position( (int) routes );
+                    net.setRoutingTable( new MappedRoutingTable( net, new IntBuffer[]{ buffer.slice().asIntBuffer() },
+                                                                 Math.max( 1, net.getNodes().size() ) ) );
+                }
+            }
+            return;
+        }
+        
+        try (FileChannel channel = FileChannel.open( path, StandardOpenOption.READ )) {
+            ByteBuffer buffer = channel.map( MapMode.READ_ONLY, 0, Math.min( channel.size(), MAX_REGION ) );
+            long routes = load( net, buffer, filename );
+            if (routes >= 0) {
+                // The table can exceed the size of a single region.
+                int n = net.getNodes().size();
+                long rowBytes = (long) Math.max( 1, n ) * Integer.BYTES;
+                int rowsPerChunk = (int) Math.max( 1, MAX_REGION / rowBytes );
+                if (routes + n * rowBytes > channel.size()) {
+                    throw new IOException( "File \"" + filename + "\" is truncated." );
+                }
+                IntBuffer[] chunks = new IntBuffer[Math.max( 1, (n + rowsPerChunk - 1) / rowsPerChunk )];
+                for (int i = 0; i < chunks.length; i++) {
+                    int rows = Math.min( rowsPerChunk, n - i * rowsPerChunk );
+                    chunks[i] = channel.map( MapMode.READ_ONLY, routes + i * rowsPerChunk * rowBytes, rows * rowBytes ).asIntBuffer();
+                }
+                net.setRoutingTable( new MappedRoutingTable( net, chunks, rowsPerChunk ) );
+            }
+        }
+    }
+    
+    /**
+     * Returns the path of the given resource, or {@code null} if it's not a file.
+    */
+    private static Path getPath( String filename )
+    {
+        URL url = ResourceLoader.getResource( filename );
+        if (!url.getProtocol().equals( "file" )) {
+            return null;
+        }
+        try {
+            return Paths.get( url.toURI() );
+        } catch ( URISyntaxException e ) {
+            return null;
+        }
+    }
+    
+    /**
+     * Reads the nodes and links from the buffer.
+     * 
+     * @return the position of the routing table, or -1 if the file doesn't contain it.
+    */
+    private static long load( NetworkTopology net, ByteBuffer buffer, String filename ) throws IOException
+    {
+        if (buffer.limit() < 6 * Integer.BYTES || buffer.getInt( 0 ) != MAGIC) {
+            throw new IOException( "File \"" + filename + "\" is not a binary topology." );
+        }
+        int version = buffer.getInt( 4 );
+        if (version != VERSION) {
+            throw new IOException( "Unsupported topology version: " + version );
+        }
+        int flags       = buffer.getInt( 8 );
+        int n           = buffer.getInt( 12 );
+        int m           = buffer.getInt( 16 );
+        int namesLength = buffer.getInt( 20 );
+        
+        // Positions of the arrays.
+        long ids          = align( 24 );
+        long nodeDelays   = ids + (long) n * Long.BYTES;
+        long xPos         = nodeDelays + (long) n * Long.BYTES;
+        long yPos         = xPos + (long) n * Integer.BYTES;
+        long nameOffsets  = yPos + (long) n * Integer.BYTES;
+        long nodeActive   = nameOffsets + (long) (n + 1) * Integer.BYTES;
+        long names        = nodeActive + n;
+        long offsets      = align( names + namesLength );
+        long targets      = offsets + (long) (n + 1) * Integer.BYTES;
+        long bandwidths   = align( targets + (long) m * Integer.BYTES );
+        long linkDelays   = bandwidths + (long) m * Double.BYTES;
+        long mtus         = linkDelays + (long) m * Long.BYTES;
+        long errors       = align( mtus + (long) m * Integer.BYTES );
+        long linkTypes    = errors + (long) m * Double.BYTES;
+        long linkActive   = linkTypes + m;
+        long end          = linkActive + m;
+        if (n < 0 || m < 0 || namesLength < 0 || end > buffer.limit()) {
+            throw new IOException( "File \"" + filename + "\" is truncated." );
+        }
+        
+        byte[] nameBytes = new byte[namesLength];
+        ByteBuffer namesBuffer = buffer.duplicate();
+        namesBuffer.position( (int) names );
+        namesBuffer.get( nameBytes );
+        
+        NetworkNode[] nodes = new NetworkNode[n];
+        for (int i = 0; i < n; i++) {
+            int from = buffer.getInt( (int) (nameOffsets + i * Integer.BYTES) );
+            int to   = buffer.getInt( (int) (nameOffsets + (i + 1) * Integer.BYTES) );
+            String name = new String( nameBytes, from, to - from, StandardCharsets.UTF_8 );
+            nodes[i] = new NetworkNode( buffer.getLong( (int) (ids + i * Long.BYTES) ), name,
+                                        buffer.getLong( (int) (nodeDelays + i * Long.BYTES) ),
+                                        buffer.getInt( (int) (xPos + i * Integer.BYTES) ),
+                                        buffer.getInt( (int) (yPos + i * Integer.BYTES) ) );
+            nodes[i].setActive( buffer.get( (int) (nodeActive + i) ) != 0 );
+            net.addNode( nodes[i] );
+        }
+        
+        for (int i = 0; i < n; i++) {
+            int first = buffer.getInt( (int) (offsets + i * Integer.BYTES) );
+            int last  = buffer.getInt( (int) (offsets + (i + 1) * Integer.BYTES) );
+            if (first < 0 || first > last || last > m) {
+                throw new IOException( "Invalid links of node " + nodes[i].getId() + " in file \"" + filename + "\"." );
+            }
+            for (int l = first; l < last; l++) {
+                int target = buffer.getInt( (int) (targets + l * Integer.BYTES) );
+                if (target < 0 || target >= n) {
+                    throw new IOException( "Invalid link of node " + nodes[i].getId() + " in file \"" + filename + "\"." );
+                }
+                String linkType = (buffer.get( (int) (linkTypes + l) ) != 0) ? NetworkLink.BIDIRECTIONAL : NetworkLink.UNIDIRECTIONAL;
+                NetworkLink link = new NetworkLink( nodes[i].getId(), nodes[target].getId(),
+                                                    buffer.getDouble( (int) (bandwidths + l * Double.BYTES) ),
+                                                    buffer.getLong( (int) (linkDelays + l * Long.BYTES) ),
+                                                    linkType );
+                link.setMTU( buffer.getInt( (int) (mtus + l * Integer.BYTES) ) );
+                link.setError( buffer.getDouble( (int) (errors + l * Double.BYTES) ) );
+                link.setActive( buffer.get( (int) (linkActive + l) ) != 0 );
+                net.addLink( link );
+            }
+        }
+        
+        return ((flags & ROUTES) != 0) ? align( end ) : -1;
+    }
+    
+    private static long align( long position ) {
+        return (position + 7) & ~7L;
+    }
+    
+    /**
+     * Buffered writer of a file channel.
+    */
+    private static class Output implements AutoCloseable
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate( 1 << 20 );
+        private long position = 0;
+        
+        public Output( FileChannel channel ) {
+            this.channel = channel;
+        }
+        
+        private void ensureCapacity( int bytes ) throws IOException
+        {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            position += bytes;
+        }
+        
+        public void putInt( int value ) throws IOException
+        {
+            ensureCapacity( Integer.BYTES );
+            buffer.putInt( value );
+        }
+        
+        public void putLong( long value ) throws IOException
+        {
+            ensureCapacity( Long.BYTES );
+            buffer.putLong( value );
+        }
+        
+        public void putDouble( double value ) throws IOException
+        {
+            ensureCapacity( Double.BYTES );
+            buffer.putDouble( value );
+        }
+        
+        public void putBoolean( boolean value ) throws IOException
+        {
+            ensureCapacity( Byte.BYTES );
+            buffer.put( (byte) (value ? 1 : 0) );
+        }
+        
+        public void put( byte[] value ) throws IOException
+        {
+            for (int i = 0; i < value.length; i += buffer.capacity()) {
+                int length = Math.min( buffer.capacity(), value.length - i );
+                ensureCapacity( length );
+                buffer.put( value, i, length );
+            }
+        }
+        
+        /**
+         * Pads the file to a multiple of 8 bytes.
+        */
+        public void align() throws IOException
+        {
+            while ((position & 7) != 0) {
+                putBoolean( false );
+            }
+        }
+        
+        private void flush() throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write( buffer );
+            }
+            buffer.clear();
+        }
+        
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routing table for big networks, where a table with the next hop
+ * of every pair of nodes would take too much memory.</br>
+ * The next hops towards a destination are computed on demand (see {@linkplain ShortestPaths}),
+ * and only the trees of the most recently used destinations are kept (LRU policy),
+ * so the memory is bounded by O(trees * n).
+ * The paths are the same of the {@linkplain DenseRoutingTable}.
+*/
+public class CachedRoutingTable extends RoutingTable
+{
+    // Next hops towards the cached destinations.
+    private final Map<Integer,int[]> trees;
+    private final ShortestPaths.Search search;
+    
+    
+    
+    /**
+     * Creates a new routing table.
+     * 
+     * @param net        the network.
+     * @param maxTrees   maximum number of destinations kept in memory.
+    */
+    public CachedRoutingTable( NetworkTopology net, final int maxTrees )
+    {
+        super( net );
+        
+        trees = new LinkedHashMap<Integer,int[]>( 16, 0.75f, true ) {
+            /** Generated Serial ID. */
+            private static final long serialVersionUID = 8137454410366425620L;
+            
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Integer,int[]> eldest ) {
+                return size() > maxTrees;
+            }
+        };
+        search = paths.newSearch();
+    }
+    
+    @Override
+    public synchronized int nextHop( int source, int dest )
+    {
+        int[] tree = trees.get( dest );
+        if (tree == null) {
+            tree = search.nextHops( dest );
+            trees.put( dest, tree );
+        }
+        int hop = tree[source];
+        return (hop < 0) ? dest : hop;
+    }
+    
+    /**
+     * Removes the affected paths, that are computed again on demand.
+    */
+    @Override
+    public synchronized void update( List<NetworkNode> nodes, List<NetworkLink> links )
+    {
+        Iterator<Map.Entry<Integer,int[]>> it = trees.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer,int[]> tree = it.next();
+            if (paths.isAffected( tree.getValue(), tree.getKey(), nodes, links )) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Frozen representation of the nodes and links of a network,
+ * in compressed sparse row (CSR) form.</br>
+ * Nodes are identified by their index (see {@linkplain NetworkNode#getIndex()}):
+ * the links leaving the node {@code i} are the ones in the range
+ * {@code [offsets[i], offsets[i+1])}, sorted by the index of their destination,
+ * so the link between two nodes is found through a binary search.</br>
+ * The propagation delays of the links, used by the routing, are stored in a primitive array indexed by link.</br>
+ * Links towards the nodes of other networks are not included.
+ * The graph is built again by the network whenever a node or a link is added.
+*/
+public class CompactGraph
+{
+    // Nodes, indexed by their index.
+    private final NetworkNode[] nodes;
+    private final long[] ids;
+    
+    // Outgoing links of each node.
+    private final int[] offsets;
+    private final int[] targets;
+    private final NetworkLink[] links;
+    
+    // Propagation delay of the links.
+    private final long[] tprop;
+    
+    // Open addressing table from node identifier to node index.
+    private final long[] hashKeys;
+    private final int[] hashIndexes;
+    private final int hashMask;
+    
+    
+    
+    CompactGraph( NetworkNode[] nodes, List<NetworkLink> netLinks )
+    {
+        this.nodes = nodes;
+        int n = nodes.length;
+        ids = new long[n];
+        
+        int capacity = Integer.highestOneBit( Math.max( 2, n ) * 2 - 1 ) << 1;
+        hashKeys = new long[capacity];
+        hashIndexes = new int[capacity];
+        Arrays.fill( hashIndexes, -1 );
+        hashMask = capacity - 1;
+        for (NetworkNode node : nodes) {
+            if (node != null) {
+                ids[node.getIndex()] = node.getId();
+                int slot = hash( node.getId() );
+                while (hashIndexes[slot] >= 0) {
+                    slot = (slot + 1) & hashMask;
+                }
+                hashKeys[slot] = node.getId();
+                hashIndexes[slot] = node.getIndex();
+            }
+        }
+        
+        // Counts the links of each node.
+        offsets = new int[n + 1];
+        int[] sources = new int[netLinks.size()];
+        int[] dests = new int[netLinks.size()];
+        int size = 0;
+        for (NetworkLink link : netLinks) {
+            int source = indexOf( link.getSourceId() );
+            int dest = indexOf( link.getDestId() );
+            if (source >= 0 && dest >= 0) {
+                sources[size] = source;
+                dests[size++] = dest;
+                offsets[source + 1]++;
+            } else {
+                sources[size] = -1;
+                dests[size++] = -1;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        
+        int m = offsets[n];
+        targets = new int[m];
+        links = new NetworkLink[m];
+        int[] position = Arrays.copyOf( offsets, n );
+        for (int i = 0; i < size; i++) {
+            if (sources[i] >= 0) {
+                int pos = position[sources[i]]++;
+                targets[pos] = dests[i];
+                links[pos] = netLinks.get( i );
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            sortLinks( offsets[i], offsets[i + 1] );
+        }
+        
+        tprop = new long[m];
+        for (int i = 0; i < m; i++) {
+            tprop[i] = links[i].getTprop();
+        }
+    }
+    
+    /**
+     * Sorts the links in the given range by destination, keeping the order of insertion
+     * of the links with the same destination.
+    */
+    private void sortLinks( int from, int to )
+    {
+        // The nodes have usually a few links.
+        for (int i = from + 1; i < to; i++) {
+            int target = targets[i];
+            NetworkLink link = links[i];
+            int j = i - 1;
+            while (j >= from && targets[j] > target) {
+                targets[j + 1] = targets[j];
+                links[j + 1] = links[j];
+                j--;
+            }
+            targets[j + 1] = target;
+            links[j + 1] = link;
+        }
+    }
+    
+    private int hash( long id )
+    {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & hashMask;
+    }
+    
+    /**
+     * Returns the index of the node with the given identifier,
+     * or -1 if it doesn't belong to the network.
+    */
+    public int indexOf( long id )
+    {
+        int slot = hash( id );
+        int index;
+        while ((index = hashIndexes[slot]) >= 0) {
+            if (hashKeys[slot] == id) {
+                return index;
+            }
+            slot = (slot + 1) & hashMask;
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the number of indexed nodes.
+    */
+    public int getNodes() {
+        return nodes.length;
+    }
+    
+    public NetworkNode getNode( int index ) {
+        return nodes[index];
+    }
+    
+    NetworkNode[] getNodeArray() {
+        return nodes;
+    }
+    
+    public long getNodeId( int index ) {
+        return ids[index];
+    }
+    
+    /**
+     * Returns the number of links.
+    */
+    public int getLinks() {
+        return links.length;
+    }
+    
+    /**
+     * Returns the position of the first link leaving the given node.
+    */
+    public int firstLink( int node ) {
+        return offsets[node];
+    }
+    
+    /**
+     * Returns the position after the last link leaving the given node.
+    */
+    public int endLink( int node ) {
+        return offsets[node + 1];
+    }
+    
+    /**
+     * Returns the index of the destination of the given link.
+    */
+    public int getTarget( int link ) {
+        return targets[link];
+    }
+    
+    public NetworkLink getLink( int link ) {
+        return links[link];
+    }
+    
+    /**
+     * Returns the position of the link between the given nodes, or -1 if they are not connected.</br>
+     * If several links connect the nodes, the first added one is returned.
+     * 
+     * @param source    index of the source node.
+     * @param dest      index of the destination node.
+    */
+    public int findLink( int source, int dest )
+    {
+        int low = offsets[source], high = offsets[source + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (targets[mid] < dest) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (low < offsets[source + 1] && targets[low] == dest) ? low : -1;
+    }
+    
+    /**
+     * Returns the link between the given nodes, or {@code null} if they are not connected
+     * (see {@linkplain #findLink(int, int)}).
+    */
+    public NetworkLink getLink( int source, int dest )
+    {
+        int link = findLink( source, dest );
+        return (link < 0) ? null : links[link];
+    }
+    
+    /**
+     * Returns the propagation delay of the link, expressed in microseconds.
+    */
+    public long getTprop( int link ) {
+        return tprop[link];
+    }
+}
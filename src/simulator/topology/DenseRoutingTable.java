@@ -0,0 +1,60 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Routing table holding the next hop for every pair of nodes,
+ * so each lookup is a single array access.</br>
+ * The whole table is computed at construction time, in parallel (see {@linkplain ShortestPaths}),
+ * and it's never modified in place, so it can be shared among the threads of a parallel execution.
+ * It takes O(n^2) memory: for big networks see {@linkplain CachedRoutingTable}.
+*/
+public class DenseRoutingTable extends RoutingTable
+{
+    // Next hop of each pair of nodes, indexed by destination and source.
+    private volatile int[][] nextHops;
+    
+    
+    
+    public DenseRoutingTable( NetworkTopology net )
+    {
+        super( net );
+        nextHops = paths.computeAllNextHops();
+    }
+    
+    @Override
+    public int nextHop( int source, int dest )
+    {
+        int hop = nextHops[dest][source];
+        return (hop < 0) ? dest : hop;
+    }
+    
+    /**
+     * Computes again the affected paths, in parallel.</br>
+     * The table is replaced by a new one, so the concurrent readers
+     * see either the old or the new paths.
+    */
+    @Override
+    public synchronized void update( List<NetworkNode> nodes, List<NetworkLink> links )
+    {
+        int[][] current = nextHops;
+        int[] affected = new int[current.length];
+        int size = 0;
+        for (int dest = 0; dest < current.length; dest++) {
+            if (current[dest] != null && paths.isAffected( current[dest], dest, nodes, links )) {
+                affected[size++] = dest;
+            }
+        }
+        
+        if (size > 0) {
+            int[][] updated = current.clone();
+            paths.computeNextHops( Arrays.copyOf( affected, size ), updated );
+            nextHops = updated;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import simulator.events.impl.ExternalEvent;
+import simulator.events.impl.ExternalEvent.EventMode;
+import simulator.exception.SimulatorException;
+import simulator.utils.Time;
+
+/**
+ * Scenario of failures and repairs of the nodes and links of a network.</br>
+ * The modifications taking place at the same time are grouped into a single
+ * {@linkplain ExternalEvent}, so the routes are updated once for each group.
+ * <p>
+ * Example:
+ * <pre>
+ * new FailureScenario( net )
+ *       .failRandomLinks( 10, new Time( 1, TimeUnit.SECONDS ), new Time( 5, TimeUnit.SECONDS ), 1234 )
+ *       .failNode( new Time( 2, TimeUnit.SECONDS ), 3 )
+ *       .schedule();
+ * </pre>
+*/
+public class FailureScenario
+{
+    private final NetworkTopology net;
+    // Modifications of the network, grouped by time and mode.
+    private final Map<Long,Batch[]> batches = new TreeMap<>();
+    
+    
+    
+    public FailureScenario( NetworkTopology net ) {
+        this.net = net;
+    }
+    
+    public FailureScenario failNode( Time time, long nodeId ) {
+        return addNode( time, nodeId, EventMode.SHUTDOWN );
+    }
+    
+    public FailureScenario recoverNode( Time time, long nodeId ) {
+        return addNode( time, nodeId, EventMode.RECOVER );
+    }
+    
+    public FailureScenario failLink( Time time, long sourceId, long destId ) {
+        return addLink( time, sourceId, destId, EventMode.SHUTDOWN );
+    }
+    
+    public FailureScenario recoverLink( Time time, long sourceId, long destId ) {
+        return addLink( time, sourceId, destId, EventMode.RECOVER );
+    }
+    
+    /**
+     * Shuts down some links chosen at random, together with their reverse links.
+     * 
+     * @param links         number of links to shut down.
+     * @param time          time of the failure.
+     * @param repairTime    time of the repair, or {@code null} if the links are never repaired.
+     * @param seed          seed used to choose the links.
+    */
+    public FailureScenario failRandomLinks( int links, Time time, Time repairTime, long seed )
+    {
+        List<NetworkLink> candidates = new ArrayList<>();
+        for (NetworkLink link : net.getLinks()) {
+            // Each pair of nodes is counted once.
+            NetworkLink reverse = net.getLink( link.getDestId(), link.getSourceId() );
+            if (reverse == null || link.getSourceId() < link.getDestId()) {
+                candidates.add( link );
+            }
+        }
+        
+        for (NetworkLink link : choose( candidates, links, seed )) {
+            long sourceId = link.getSourceId();
+            long destId = link.getDestId();
+            boolean reverse = net.getLink( destId, sourceId ) != null;
+            failLink( time, sourceId, destId );
+            if (reverse) {
+                failLink( time, destId, sourceId );
+            }
+            if (repairTime != null) {
+                recoverLink( repairTime, sourceId, destId );
+                if (reverse) {
+                    recoverLink( repairTime, destId, sourceId );
+                }
+            }
+        }
+        return this;
+    }
+    
+    /**
+     * Shuts down some nodes chosen at random.
+     * 
+     * @param nodes         number of nodes to shut down.
+     * @param time          time of the failure.
+     * @param repairTime    time of the repair, or {@code null} if the nodes are never repaired.
+     * @param seed          seed used to choose the nodes.
+    */
+    public FailureScenario failRandomNodes( int nodes, Time time, Time repairTime, long seed )
+    {
+        for (NetworkNode node : choose( new ArrayList<>( net.getNodes() ), nodes, seed )) {
+            failNode( time, node.getId() );
+            if (repairTime != null) {
+                recoverNode( repairTime, node.getId() );
+            }
+        }
+        return this;
+    }
+    
+    /**
+     * Chooses some distinct elements at random, in a reproducible way.
+    */
+    private static <T> List<T> choose( List<T> elements, int count, long seed )
+    {
+        if (count > elements.size()) {
+            throw new SimulatorException( "Can't choose " + count + " elements among " + elements.size() + "." );
+        }
+        
+        Random random = new Random( seed );
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt( elements.size() - i );
+            T element = elements.get( j );
+            elements.set( j, elements.get( i ) );
+            elements.set( i, element );
+        }
+        return elements.subList( 0, count );
+    }
+    
+    private FailureScenario addNode( Time time, long nodeId, EventMode mode )
+    {
+        if (!net.containsNode( nodeId )) {
+            throw new SimulatorException( "Node " + nodeId + " not found in the network." );
+        }
+        getBatch( time, mode ).nodes.add( nodeId );
+        return this;
+    }
+    
+    private FailureScenario addLink( Time time, long sourceId, long destId, EventMode mode )
+    {
+        if (!net.containsNode( sourceId ) || net.getLink( sourceId, destId ) == null) {
+            throw new SimulatorException( "Link " + sourceId + " -> " + destId + " not found in the network." );
+        }
+        Batch batch = getBatch( time, mode );
+        batch.links.add( sourceId );
+        batch.links.add( destId );
+        return this;
+    }
+    
+    private Batch getBatch( Time time, EventMode mode )
+    {
+        Batch[] modes = batches.get( time.getTimeMicros() );
+        if (modes == null) {
+            modes = new Batch[EventMode.values().length];
+            batches.put( time.getTimeMicros(), modes );
+        }
+        if (modes[mode.ordinal()] == null) {
+            modes[mode.ordinal()] = new Batch();
+        }
+        return modes[mode.ordinal()];
+    }
+    
+    /**
+     * Returns the events of the scenario, sorted by time.
+    */
+    public List<ExternalEvent> getEvents()
+    {
+        List<ExternalEvent> events = new ArrayList<>();
+        for (Map.Entry<Long,Batch[]> entry : batches.entrySet()) {
+            for (EventMode mode : EventMode.values()) {
+                Batch batch = entry.getValue()[mode.ordinal()];
+                if (batch != null) {
+                    Time time = new Time( entry.getKey(), TimeUnit.MICROSECONDS );
+                    events.add( new ExternalEvent( time, toArray( batch.nodes ), toArray( batch.links ), mode ) );
+                }
+            }
+        }
+        return events;
+    }
+    
+    private static long[] toArray( List<Long> values )
+    {
+        long[] array = new long[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get( i );
+        }
+        return array;
+    }
+    
+    /**
+     * Schedules the events of the scenario into the network.
+    */
+    public void schedule() {
+        net.addExternalEvents( getEvents() );
+    }
+    
+    private static class Batch
+    {
+        private final List<Long> nodes = new ArrayList<>();
+        private final List<Long> links = new ArrayList<>();
+    }
+}
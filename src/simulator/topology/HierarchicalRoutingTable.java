@@ -0,0 +1,390 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import simulator.exception.SimulatorException;
+
+/**
+ * Two-level routing table, for networks composed of several regions
+ * (datacenters, Autonomous Systems, etc.) modelled by {@linkplain NetworkSuperNode}s.</br>
+ * The shortest paths are computed separately inside each region, and among the regions,
+ * weighting each pair of regions with the shortest link connecting them.
+ * A message directed to another region is forwarded to the nearest link towards the next region,
+ * that then forwards it in the same way, until it reaches the region of the destination.
+ * As in the real hierarchical routing the paths are not always the shortest ones of the whole network,
+ * since the distance inside the regions is not considered by the paths among them.
+ * <p>
+ * The table takes O(n * k + r^2) memory, where {@code k} is the size of the regions
+ * (plus the number of their neighbours) and {@code r} the number of regions, instead of O(n^2).
+ * The nodes not contained in any super-node are regions by themselves.</br>
+ * The regions are computed in parallel, and only the ones affected by the activation or deactivation
+ * of nodes and links are computed again.
+*/
+public class HierarchicalRoutingTable extends RoutingTable
+{
+    // Region of each node, and position of the node in its region, indexed by node index.
+    private final int[] regionOf;
+    private final int[] positions;
+    // Nodes of each region.
+    private final int[][] members;
+    
+    // Current routes, replaced as a whole after each update.
+    private volatile Routes routes;
+    
+    
+    
+    /**
+     * Creates a new routing table.
+     * 
+     * @param net           the network.
+     * @param superNodes    the regions of the network. Their inner nodes, also inside nested super-nodes,
+     *                      must belong to the network, otherwise they are ignored.
+     * 
+     * @throws SimulatorException if a node belongs to several regions.
+    */
+    public HierarchicalRoutingTable( NetworkTopology net, Collection<NetworkSuperNode> superNodes )
+    {
+        super( net );
+        
+        regionOf = new int[nodes.length];
+        positions = new int[nodes.length];
+        Arrays.fill( regionOf, -1 );
+        List<int[]> regions = new ArrayList<>( superNodes.size() );
+        for (NetworkSuperNode superNode : superNodes) {
+            int[] region = new int[16];
+            int size = 0;
+            for (NetworkNode node : superNode.getInnerNodes()) {
+                int index = graph.indexOf( node.getId() );
+                if (index < 0) {
+                    continue;
+                }
+                if (regionOf[index] >= 0) {
+                    throw new SimulatorException( "Node " + node.getId() + " belongs to several super-nodes." );
+                }
+                if (size == region.length) {
+                    region = Arrays.copyOf( region, size << 1 );
+                }
+                regionOf[index] = regions.size();
+                positions[index] = size;
+                region[size++] = index;
+            }
+            if (size > 0) {
+                regions.add( Arrays.copyOf( region, size ) );
+            }
+        }
+        for (int index = 0; index < nodes.length; index++) {
+            if (nodes[index] != null && regionOf[index] < 0) {
+                regionOf[index] = regions.size();
+                positions[index] = 0;
+                regions.add( new int[] { index } );
+            }
+        }
+        members = regions.toArray( new int[regions.size()][] );
+        
+        Region[] computed = new Region[members.length];
+        int[] all = new int[members.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        computeRegions( all, computed );
+        routes = new Routes( computed, computeExits( computed ) );
+    }
+    
+    /**
+     * Returns the number of regions.
+    */
+    public int getRegions() {
+        return members.length;
+    }
+    
+    @Override
+    public int nextHop( int source, int dest )
+    {
+        Routes current = routes;
+        int region = regionOf[source];
+        int destRegion = regionOf[dest];
+        Region paths = current.regions[region];
+        int hop;
+        if (region == destRegion) {
+            hop = paths.intra[positions[dest]][positions[source]];
+        } else {
+            int exit = current.exits[region][destRegion];
+            hop = (exit < 0) ? -1 : paths.exits[exit][positions[source]];
+        }
+        return (hop < 0) ? dest : hop;
+    }
+    
+    /**
+     * Computes again the regions containing the modified nodes and links,
+     * or connected to them, and the paths among the regions.</br>
+     * The routes are replaced by new ones, so the concurrent readers
+     * see either the old or the new paths.
+    */
+    @Override
+    public synchronized void update( List<NetworkNode> nodes, List<NetworkLink> links )
+    {
+        Routes current = routes;
+        boolean[] modified = new boolean[members.length];
+        for (NetworkNode node : nodes) {
+            int index = node.getIndex();
+            modified[regionOf[index]] = true;
+            // The regions with a link towards the node lose or gain an exit.
+            for (int source = 0; source < this.nodes.length; source++) {
+                if (this.nodes[source] != null && regionOf[source] != regionOf[index] &&
+                    graph.findLink( source, index ) >= 0) {
+                    modified[regionOf[source]] = true;
+                }
+            }
+        }
+        for (NetworkLink link : links) {
+            int source = graph.indexOf( link.getSourceId() );
+            if (source >= 0) {
+                modified[regionOf[source]] = true;
+            }
+        }
+        
+        int[] affected = new int[members.length];
+        int size = 0;
+        for (int region = 0; region < members.length; region++) {
+            if (modified[region]) {
+                affected[size++] = region;
+            }
+        }
+        if (size == 0) {
+            return;
+        }
+        
+        Region[] updated = current.regions.clone();
+        computeRegions( Arrays.copyOf( affected, size ), updated );
+        routes = new Routes( updated, computeExits( updated ) );
+    }
+    
+    private void computeRegions( int[] regions, Region[] computed )
+    {
+        RegionsTask task = new RegionsTask( regions, computed, 0, regions.length );
+        if (regions.length <= 1) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke( task );
+        }
+    }
+    
+    /**
+     * Computes the paths among the regions, through the Dijkstra algorithm
+     * on the graph of the regions.
+     * 
+     * @return for each pair of regions, the position of the exit of the first region
+     *         leading to the second one, or -1 if it's not reachable.
+    */
+    private int[][] computeExits( Region[] regions )
+    {
+        int r = regions.length;
+        // Reverses the links among the regions.
+        int[] inOffsets = new int[r + 1];
+        for (Region region : regions) {
+            for (int neighbour : region.neighbours) {
+                inOffsets[neighbour + 1]++;
+            }
+        }
+        for (int i = 0; i < r; i++) {
+            inOffsets[i + 1] += inOffsets[i];
+        }
+        int[] position = Arrays.copyOf( inOffsets, r );
+        int[] inSources = new int[inOffsets[r]];
+        int[] inExits = new int[inOffsets[r]];
+        for (int source = 0; source < r; source++) {
+            Region region = regions[source];
+            for (int exit = 0; exit < region.neighbours.length; exit++) {
+                int pos = position[region.neighbours[exit]]++;
+                inSources[pos] = source;
+                inExits[pos] = exit;
+            }
+        }
+        
+        int[][] exits = new int[r][r];
+        long[] distances = new long[r];
+        int[] next = new int[r];
+        PriorityQueue<long[]> queue = new PriorityQueue<>( 16, (a, b) -> Long.compare( a[0], b[0] ) );
+        for (int dest = 0; dest < r; dest++) {
+            Arrays.fill( distances, Long.MAX_VALUE );
+            Arrays.fill( next, -1 );
+            distances[dest] = 0;
+            queue.add( new long[] { 0, dest } );
+            while (!queue.isEmpty()) {
+                long[] entry = queue.poll();
+                int region = (int) entry[1];
+                if (entry[0] > distances[region]) {
+                    continue;
+                }
+                for (int i = inOffsets[region]; i < inOffsets[region + 1]; i++) {
+                    int from = inSources[i];
+                    long dist = entry[0] + regions[from].lengths[inExits[i]];
+                    if (dist < distances[from]) {
+                        distances[from] = dist;
+                        next[from] = inExits[i];
+                        queue.add( new long[] { dist, from } );
+                    }
+                }
+            }
+            for (int source = 0; source < r; source++) {
+                exits[source][dest] = next[source];
+            }
+        }
+        return exits;
+    }
+    
+    /**
+     * Computes the paths inside a region, and towards its neighbours.
+    */
+    private Region computeRegion( int region )
+    {
+        int[] regionMembers = members[region];
+        int k = regionMembers.length;
+        ShortestPaths paths = new ShortestPaths( graph, regionMembers, positions );
+        ShortestPaths.Search search = paths.newSearch();
+        int[][] intra = new int[k][];
+        for (int dest = 0; dest < k; dest++) {
+            intra[dest] = search.nextHops( dest );
+        }
+        
+        // Collects the active links leaving the region, grouped by neighbour.
+        int[] linkNeighbours = new int[16];
+        int[] linkSources = new int[16];
+        int[] linkTargets = new int[16];
+        long[] linkLengths = new long[16];
+        int size = 0;
+        for (int source = 0; source < k; source++) {
+            int node = regionMembers[source];
+            if (!nodes[node].isActive()) {
+                continue;
+            }
+            for (int link = graph.firstLink( node ); link < graph.endLink( node ); link++) {
+                int target = graph.getTarget( link );
+                if (regionOf[target] == region || !nodes[target].isActive() || !graph.getLink( link ).isActive()) {
+                    continue;
+                }
+                if (size == linkSources.length) {
+                    linkNeighbours = Arrays.copyOf( linkNeighbours, size << 1 );
+                    linkSources = Arrays.copyOf( linkSources, size << 1 );
+                    linkTargets = Arrays.copyOf( linkTargets, size << 1 );
+                    linkLengths = Arrays.copyOf( linkLengths, size << 1 );
+                }
+                linkNeighbours[size] = regionOf[target];
+                linkSources[size] = source;
+                linkTargets[size] = target;
+                linkLengths[size++] = Math.max( 0, graph.getTprop( link ) );
+            }
+        }
+        
+        int[] neighbours = Arrays.stream( linkNeighbours, 0, size ).distinct().sorted().toArray();
+        long[] lengths = new long[neighbours.length];
+        int[][] exits = new int[neighbours.length][];
+        for (int exit = 0; exit < neighbours.length; exit++) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (linkNeighbours[i] == neighbours[exit]) {
+                    count++;
+                }
+            }
+            int[] sources = new int[count];
+            int[] targets = new int[count];
+            long[] distances = new long[count];
+            lengths[exit] = Long.MAX_VALUE;
+            count = 0;
+            for (int i = 0; i < size; i++) {
+                if (linkNeighbours[i] == neighbours[exit]) {
+                    sources[count] = linkSources[i];
+                    targets[count] = linkTargets[i];
+                    distances[count++] = linkLengths[i];
+                    lengths[exit] = Math.min( lengths[exit], linkLengths[i] );
+                }
+            }
+            exits[exit] = search.nextHops( sources, targets, distances );
+        }
+        
+        return new Region( intra, neighbours, lengths, exits );
+    }
+    
+    /**
+     * Paths of a region.
+    */
+    private static class Region
+    {
+        // Next hops inside the region, indexed by destination and source position.
+        private final int[][] intra;
+        // Neighbour regions, in increasing order.
+        private final int[] neighbours;
+        // Length of the shortest link towards each neighbour.
+        private final long[] lengths;
+        // Next hops towards each neighbour, indexed by source position.
+        private final int[][] exits;
+        
+        public Region( int[][] intra, int[] neighbours, long[] lengths, int[][] exits )
+        {
+            this.intra = intra;
+            this.neighbours = neighbours;
+            this.lengths = lengths;
+            this.exits = exits;
+        }
+    }
+    
+    /**
+     * Routes of the whole network.
+    */
+    private static class Routes
+    {
+        private final Region[] regions;
+        // Exit of a region towards a destination region, indexed by source and destination region.
+        private final int[][] exits;
+        
+        public Routes( Region[] regions, int[][] exits )
+        {
+            this.regions = regions;
+            this.exits = exits;
+        }
+    }
+    
+    /**
+     * Computes the paths of a range of regions, splitting it in halves.
+    */
+    private class RegionsTask extends RecursiveAction
+    {
+        /** Generated Serial ID. */
+        private static final long serialVersionUID = 5730868265813941205L;
+        
+        private final int[] regions;
+        private final Region[] computed;
+        private final int from;
+        private final int to;
+        
+        public RegionsTask( int[] regions, Region[] computed, int from, int to )
+        {
+            this.regions = regions;
+            this.computed = computed;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll( new RegionsTask( regions, computed, from, mid ),
+                           new RegionsTask( regions, computed, mid, to ) );
+            } else if (to > from) {
+                computed[regions[from]] = computeRegion( regions[from] );
+            }
+        }
+    }
+}
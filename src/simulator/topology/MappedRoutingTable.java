@@ -0,0 +1,87 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Routing table holding the next hop for every pair of nodes,
+ * read directly from the memory mapped pages of a binary topology file
+ * (see {@linkplain BinaryTopology}).</br>
+ * The pages are read-only, so they are shared by all the networks loaded from the same file,
+ * even by different simulations running in the same process.
+ * The paths modified by the activation or deactivation of nodes and links
+ * are computed again and kept in memory, replacing the ones of the file.
+*/
+public class MappedRoutingTable extends RoutingTable
+{
+    // Next hops of the file, indexed by destination and source, split in chunks of rows.
+    private final IntBuffer[] chunks;
+    private final int rowsPerChunk;
+    // Paths computed again after a modification of the network, indexed by destination.
+    private volatile int[][] repaired;
+    
+    
+    
+    /**
+     * Creates the table.
+     * 
+     * @param net             the network.
+     * @param chunks          the mapped next hops, each one with {@code rowsPerChunk} destinations.
+     * @param rowsPerChunk    number of destinations in each chunk.
+    */
+    MappedRoutingTable( NetworkTopology net, IntBuffer[] chunks, int rowsPerChunk )
+    {
+        super( net );
+        this.chunks = chunks;
+        this.rowsPerChunk = rowsPerChunk;
+        repaired = new int[nodes.length][];
+    }
+    
+    @Override
+    public int nextHop( int source, int dest )
+    {
+        int[] row = repaired[dest];
+        int hop = (row != null) ? row[source] :
+                  chunks[dest / rowsPerChunk].get( (dest % rowsPerChunk) * nodes.length + source );
+        return (hop < 0) ? dest : hop;
+    }
+    
+    /**
+     * Computes again the affected paths, in parallel.</br>
+     * As in {@linkplain DenseRoutingTable} the repaired paths are replaced by a new array,
+     * so the concurrent readers see either the old or the new paths.
+    */
+    @Override
+    public synchronized void update( List<NetworkNode> nodes, List<NetworkLink> links )
+    {
+        int[][] current = repaired;
+        int[] mapped = new int[current.length];
+        int[] affected = new int[current.length];
+        int size = 0;
+        for (int dest = 0; dest < current.length; dest++) {
+            if (this.nodes[dest] == null) {
+                continue;
+            }
+            int[] row = current[dest];
+            if (row == null) {
+                IntBuffer chunk = chunks[dest / rowsPerChunk].duplicate();
+                chunk.position( (dest % rowsPerChunk) * mapped.length );
+                chunk.get( row = mapped );
+            }
+            if (paths.isAffected( row, dest, nodes, links )) {
+                affected[size++] = dest;
+            }
+        }
+        
+        if (size > 0) {
+            int[][] updated = current.clone();
+            paths.computeNextHops( Arrays.copyOf( affected, size ), updated );
+            repaired = updated;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routing table keeping, for every pair of nodes, all the next hops
+ * along the shortest paths (Equal-Cost Multi-Path).</br>
+ * The traffic is spread among the paths by hashing the flow of each message
+ * (see {@linkplain RoutingTable#flowHash(long, long, long)}), so the messages of the same flow
+ * follow the same path and they are never reordered.
+ * The hash is mixed with the current node, so the choices of consecutive hops are independent.
+ * Each lookup takes O(1) time.
+ * <p>
+ * The next hops towards a destination are packed in a single array
+ * (see {@linkplain ShortestPaths.Search#multipathHops(int)}).
+ * As in {@linkplain DenseRoutingTable} and {@linkplain CachedRoutingTable}, the next hops
+ * of all the destinations can be precomputed, or only the most recently used ones can be kept.
+*/
+public class MultipathRoutingTable extends RoutingTable
+{
+    // Next hops towards all the destinations, if precomputed.
+    private volatile int[][] routes;
+    // Next hops towards the cached destinations.
+    private final Map<Integer,int[]> cache;
+    private final ShortestPaths.Search search;
+    
+    
+    
+    /**
+     * Creates a new routing table.
+     * 
+     * @param net              the network.
+     * @param maxDestinations  maximum number of destinations kept in memory,
+     *                         0 to precompute the paths towards all the destinations.
+    */
+    public MultipathRoutingTable( NetworkTopology net, final int maxDestinations )
+    {
+        super( net );
+        
+        if (maxDestinations > 0) {
+            cache = new LinkedHashMap<Integer,int[]>( 16, 0.75f, true ) {
+                /** Generated Serial ID. */
+                private static final long serialVersionUID = -2650419385301723714L;
+                
+                @Override
+                protected boolean removeEldestEntry( Map.Entry<Integer,int[]> eldest ) {
+                    return size() > maxDestinations;
+                }
+            };
+            search = paths.newSearch();
+        } else {
+            routes = paths.computeAllMultipathHops();
+            cache = null;
+            search = null;
+        }
+    }
+    
+    /**
+     * Returns the next hops towards the given destination.
+    */
+    private int[] getRoutes( int dest )
+    {
+        if (cache == null) {
+            return routes[dest];
+        }
+        synchronized (this) {
+            int[] row = cache.get( dest );
+            if (row == null) {
+                row = search.multipathHops( dest );
+                cache.put( dest, row );
+            }
+            return row;
+        }
+    }
+    
+    /**
+     * Returns the first next hop towards the destination.
+    */
+    @Override
+    public int nextHop( int source, int dest )
+    {
+        int[] row = getRoutes( dest );
+        int from = row[source];
+        return (from < row[source + 1]) ? row[from] : dest;
+    }
+    
+    @Override
+    public int nextHop( int source, int dest, long flow )
+    {
+        int[] row = getRoutes( dest );
+        int from = row[source];
+        int count = row[source + 1] - from;
+        if (count <= 1) {
+            return (count == 0) ? dest : row[from];
+        }
+        long hash = mix( flow + source );
+        return row[from + (int) ((hash >>> 1) % count)];
+    }
+    
+    /**
+     * Computes again the affected paths or, if they are cached, removes them.</br>
+     * The precomputed paths are replaced by a new array, so the concurrent readers
+     * see either the old or the new paths.
+    */
+    @Override
+    public synchronized void update( List<NetworkNode> nodes, List<NetworkLink> links )
+    {
+        if (cache != null) {
+            Iterator<Map.Entry<Integer,int[]>> it = cache.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer,int[]> row = it.next();
+                if (paths.isMultipathAffected( row.getValue(), row.getKey(), nodes, links )) {
+                    it.remove();
+                }
+            }
+            return;
+        }
+        
+        int[][] current = routes;
+        int[] affected = new int[current.length];
+        int size = 0;
+        for (int dest = 0; dest < current.length; dest++) {
+            if (current[dest] != null && paths.isMultipathAffected( current[dest], dest, nodes, links )) {
+                affected[size++] = dest;
+            }
+        }
+        
+        if (size > 0) {
+            int[][] updated = current.clone();
+            paths.computeMultipathHops( Arrays.copyOf( affected, size ), updated );
+            routes = updated;
+        }
+    }
+}
@@ -73,6 +73,13 @@ public class NetworkNode
         return _delay.clone();
     }
     
+    /**
+     * Calculation time of the node, expressed in microseconds.
+    */
+    public long getTcalcMicros() {
+        return _delay.getTimeMicros();
+    }
+    
     public int getXPos() {
         return _xPos;
     }
@@ -44,6 +44,23 @@ public class NetworkSuperNode extends NetworkNode
         return nodes;
     }
     
+    /**
+     * Returns all the simple nodes contained in this supernode,
+     * also the ones inside the inner supernodes.
+    */
+    public List<NetworkNode> getInnerNodes()
+    {
+        List<NetworkNode> innerNodes = new ArrayList<>( nodes.size() );
+        for (NetworkNode node : nodes) {
+            if (node instanceof NetworkSuperNode) {
+                innerNodes.addAll( ((NetworkSuperNode) node).getInnerNodes() );
+            } else {
+                innerNodes.add( node );
+            }
+        }
+        return innerNodes;
+    }
+    
     @Override
     public String toString()
     {
@@ -4,15 +4,13 @@
 
 package simulator.topology;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,19 +19,35 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import simulator.core.Agent;
+import simulator.core.SimulationContext;
 import simulator.events.EventScheduler;
 import simulator.events.impl.ExternalEvent;
 import simulator.exception.SimulatorException;
-import simulator.utils.resources.ResourceLoader;
 
 public class NetworkTopology
 {
 	private Map<Long,NetworkNode> nodes = new HashMap<>( 32 );
 	private Map<Long,List<NetworkLink>> links = new HashMap<>( 32 );
 	private Map<Long,Agent> agents;
-	@SuppressWarnings("deprecation")
-    private GraphPath gp = new GraphPath();
+	// Compact representation of nodes and links, built on demand.
+	private volatile CompactGraph graph;
+	// Next hops of the shortest paths, computed on demand.
+	private volatile RoutingTable routes;
+	// Maximum number of destinations kept by the routing table (0 for the dense table, -1 to choose automatically).
+	private int routingCache = -1;
+	// Whether the traffic is spread among all the shortest paths.
+	private boolean multipath = false;
+	// Regions of the hierarchical routing.
+	private List<NetworkSuperNode> superNodes = new ArrayList<>();
+	// Whether the payloads of the messages keep only their size.
+	private boolean phantomPayloads = false;
 	
+	/** Number of nodes above which the routing table is cached by default. */
+	public static final int DENSE_ROUTING_LIMIT = 4096;
+	/** Default number of destinations kept by the cached routing table. */
+	public static final int DEFAULT_ROUTING_CACHE = 1024;
+	
+	private final SimulationContext context;
 	private long netID;
 	
 	private PrintWriter eventsWriter;
@@ -41,28 +55,38 @@ public class NetworkTopology
 	private EventScheduler evtScheduler;
 	
 	private int _nextIndex = 0;
-	private static long nextID = 0;
     
 
 
 
-    public NetworkTopology()
+    public NetworkTopology() {
+        this( new SimulationContext() );
+    }
+    
+    public NetworkTopology( SimulationContext context )
     {
-        netID = getNextID();
+        this.context = context;
+        netID = context.nextNetworkID();
         agents = new HashMap<>();
     }
 	
-	public NetworkTopology( JSONObject settings ) throws IOException
+	public NetworkTopology( JSONObject settings ) throws IOException {
+	    this( settings, new SimulationContext() );
+	}
+	
+	public NetworkTopology( JSONObject settings, SimulationContext context ) throws IOException
     {
-        netID = getNextID();
+        this( context );
         build( settings );
-        agents = new HashMap<>();
     }
 	
-    public NetworkTopology( String filename ) throws IOException
+    public NetworkTopology( String filename ) throws IOException {
+        this( filename, new SimulationContext() );
+    }
+    
+    public NetworkTopology( String filename, SimulationContext context ) throws IOException
     {
-        netID = getNextID();
-        agents = new HashMap<>();
+        this( context );
         try { build( filename ); }
         catch( IOException e ) {
             System.err.println( "File '" + filename + "' not found." );
@@ -71,25 +95,13 @@ public class NetworkTopology
     }
     
     /**
-     * Builds the network topology.
+     * Builds the network topology, reading the file as a stream
+     * or as a binary topology (see {@linkplain TopologyLoader}).
      * 
      * @param filename  name of the file where nodes and links are loaded from
     */
-    private void build( String filename ) throws IOException
-    {
-        InputStream stream = ResourceLoader.getResourceAsStream( filename );
-        BufferedReader br = new BufferedReader( new InputStreamReader( stream ) );
-        StringBuilder content = new StringBuilder( 512 );
-        
-        String nextLine = null;
-        while ((nextLine = br.readLine()) != null) {
-            content.append( nextLine.trim() );
-        }
-        
-        JSONObject settings = new JSONObject( content.toString() );
-        build( settings );
-        
-        br.close();
+    private void build( String filename ) throws IOException {
+        TopologyLoader.load( this, filename );
     }
     
     /**
@@ -142,6 +154,18 @@ public class NetworkTopology
         }
     }
     
+    /**
+     * Saves the nodes and links of the network in the compact binary format
+     * (see {@linkplain BinaryTopology}), that can be loaded through the constructor
+     * {@linkplain #NetworkTopology(String)} like a JSON file.
+     * 
+     * @param filename    name of the file.
+     * @param routes      {@code true} to save also the routing table, taking O(n^2) space.
+    */
+    public void save( String filename, boolean routes ) throws IOException {
+        BinaryTopology.save( this, filename, routes );
+    }
+    
     public long getId() {
         return netID;
     }
@@ -204,6 +228,7 @@ public class NetworkTopology
     
     private void insertLink( NetworkLink link )
     {
+        invalidateGraph();
         List<NetworkLink> sLinks = links.get( link.getSourceId() );
         if (sLinks == null) sLinks = new ArrayList<NetworkLink>();
         sLinks.add( link );
@@ -231,13 +256,70 @@ public class NetworkTopology
         }
     }
     
+    /**
+     * Returns all the links of the network.
+    */
+    public List<NetworkLink> getLinks()
+    {
+        List<NetworkLink> netLinks = new ArrayList<>();
+        for (List<NetworkLink> sLinks : links.values()) {
+            netLinks.addAll( sLinks );
+        }
+        return netLinks;
+    }
+    
     public NetworkLink getLink( long sourceId, long destId )
     {
-    	for (NetworkLink link : links.get( sourceId )) {
-    		if (link.getDestId() == destId)
-    			return link;
-    	}
-    	return null;
+        CompactGraph graph = getGraph();
+        int source = graph.indexOf( sourceId );
+        int dest = graph.indexOf( destId );
+        if (source >= 0 && dest >= 0) {
+            return graph.getLink( source, dest );
+        }
+        
+        // Links towards the nodes of other networks.
+        List<NetworkLink> sLinks = links.get( sourceId );
+        if (sLinks != null) {
+            for (NetworkLink link : sLinks) {
+                if (link.getDestId() == destId)
+                    return link;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the link between two nodes of this network,
+     * or {@code null} if they are not connected.
+     * 
+     * @param source    the source node.
+     * @param dest      the destination node.
+    */
+    public NetworkLink getLink( NetworkNode source, NetworkNode dest ) {
+        return getGraph().getLink( source.getIndex(), dest.getIndex() );
+    }
+    
+    /**
+     * Returns the compact representation of the nodes and links of the network
+     * (see {@linkplain CompactGraph}), building it if necessary.
+    */
+    public CompactGraph getGraph()
+    {
+        CompactGraph current = graph;
+        if (current == null) {
+            synchronized (this) {
+                if ((current = graph) == null) {
+                    graph = current = new CompactGraph( getIndexedNodes(), getLinks() );
+                }
+            }
+        }
+        return current;
+    }
+    
+    private void invalidateGraph()
+    {
+        graph = null;
+        routes = null;
     }
     
     public void addNode( Long id, String name, long delay ) {
@@ -251,8 +333,10 @@ public class NetworkTopology
     
     public void addNode( NetworkNode node )
     {
+        context.assignMACaddress( node.getNetworkSettings() );
         node.setIndex( _nextIndex++ );
         nodes.put( node.getId(), node );
+        invalidateGraph();
     }
     
     public boolean containsNode( long nodeId ) {
@@ -295,6 +379,58 @@ public class NetworkTopology
         evtScheduler.schedule( event );
     }
     
+    /**
+     * Activates or shuts down a node, updating the routes.
+     * 
+     * @param nodeId    identifier of the node.
+     * @param active    {@code true} to activate the node, {@code false} to shut it down.
+    */
+    public void setNodeActive( long nodeId, boolean active ) {
+        setActive( Collections.singletonList( nodes.get( nodeId ) ), Collections.emptyList(), active );
+    }
+    
+    /**
+     * Activates or shuts down a link, updating the routes.
+     * 
+     * @param sourceId    identifier of the source node.
+     * @param destId      identifier of the destination node.
+     * @param active      {@code true} to activate the link, {@code false} to shut it down.
+    */
+    public void setLinkActive( long sourceId, long destId, boolean active ) {
+        setActive( Collections.emptyList(), Collections.singletonList( getLink( sourceId, destId ) ), active );
+    }
+    
+    /**
+     * Activates or shuts down a group of nodes and links at the same time.</br>
+     * Only the paths crossing the modified elements are computed again
+     * (see {@linkplain RoutingTable#update(List, List)}), once for the whole group.
+     * 
+     * @param nodes     the nodes to modify.
+     * @param links     the links to modify.
+     * @param active    {@code true} to activate the elements, {@code false} to shut them down.
+    */
+    public synchronized void setActive( Collection<NetworkNode> nodes, Collection<NetworkLink> links, boolean active )
+    {
+        List<NetworkNode> changedNodes = new ArrayList<>( nodes.size() );
+        for (NetworkNode node : nodes) {
+            if (node.isActive() != active) {
+                node.setActive( active );
+                changedNodes.add( node );
+            }
+        }
+        List<NetworkLink> changedLinks = new ArrayList<>( links.size() );
+        for (NetworkLink link : links) {
+            if (link.isActive() != active) {
+                link.setActive( active );
+                changedLinks.add( link );
+            }
+        }
+        
+        if (routes != null && (!changedNodes.isEmpty() || !changedLinks.isEmpty())) {
+            routes.update( changedNodes, changedLinks );
+        }
+    }
+    
     /**
      * Asks the network to track the incoming event, as a string message.</br>
      * The given message will be saved on file only if a previous call to the method
@@ -308,6 +444,15 @@ public class NetworkTopology
         }
     }
     
+    /**
+     * Checks whether the events are tracked on file.</br>
+     * Can be used to avoid the construction of the message
+     * passed to {@linkplain #trackEvent(String)}.
+    */
+    public boolean isTrackingEvents() {
+        return eventsWriter != null;
+    }
+    
     /**
      * Sets the file used to keep tracks of the generated events.
      * 
@@ -322,13 +467,141 @@ public class NetworkTopology
         eventsWriter = new PrintWriter( eventsFile );
     }
 
+    /**
+     * Enables or disables the phantom payloads.</br>
+     * When enabled, the payloads of the messages sent through the {@linkplain simulator.network.Connection connections}
+     * keep only their size, and not their content (see {@linkplain simulator.network.protocols.Header#phantom(int)}):
+     * the headers of the protocols are added in front of them, so a message takes the same memory
+     * whatever its size, while the transmission times don't change.</br>
+     * By default it's disabled.
+     * 
+     * @param enable    {@code true} to use the phantom payloads.
+    */
+    public void setPhantomPayloads( boolean enable ) {
+        phantomPayloads = enable;
+    }
+    
+    public boolean isPhantomPayloads() {
+        return phantomPayloads;
+    }
+    
     // TODO questi 2 metodi non serviranno se implemento i protocolli di routing.
     /**
-     * Computes the shortest path for every node in the network.
+     * Computes the shortest path for every node in the network,
+     * building the table of the next hops (see {@linkplain RoutingTable}).
+    */
+    public void computeShortestPaths()
+    {
+        getGraph();
+        routes = createRoutingTable();
+    }
+    
+    /**
+     * Sets the maximum number of destinations whose routes are kept in memory.</br>
+     * With a positive value the routes towards a destination are computed on demand,
+     * and only the most recently used ones are kept (see {@linkplain CachedRoutingTable});
+     * otherwise the routes between every pair of nodes are precomputed
+     * (see {@linkplain DenseRoutingTable}).</br>
+     * By default the routes are cached, with {@linkplain #DEFAULT_ROUTING_CACHE} destinations,
+     * only for networks with more than {@linkplain #DENSE_ROUTING_LIMIT} nodes.
+     * 
+     * @param destinations    maximum number of cached destinations.
+    */
+    public void setRoutingCache( int destinations )
+    {
+        routingCache = Math.max( 0, destinations );
+        invalidateGraph();
+    }
+    
+    /**
+     * Enables or disables the Equal-Cost Multi-Path routing.</br>
+     * When enabled, all the next hops along the shortest paths are kept,
+     * and each flow of messages is routed along one of them (see {@linkplain MultipathRoutingTable});
+     * otherwise each pair of nodes is connected by a single path.
+     * The routing cache (see {@linkplain #setRoutingCache(int)}) applies in both cases.</br>
+     * By default it's disabled.
+     * 
+     * @param multipath    {@code true} to enable the multipath routing.
+    */
+    public void setMultipath( boolean multipath )
+    {
+        this.multipath = multipath;
+        invalidateGraph();
+    }
+    
+    public boolean isMultipath() {
+        return multipath;
+    }
+    
+    /**
+     * Adds a region of the network, enabling the hierarchical routing
+     * (see {@linkplain HierarchicalRoutingTable}).</br>
+     * The inner nodes of the supernode must be added to the network as well.
+     * When the network has some supernodes, the routing cache and the multipath routing are not used.
+     * 
+     * @param superNode    the region.
+    */
+    public synchronized void addSuperNode( NetworkSuperNode superNode )
+    {
+        superNodes.add( superNode );
+        routes = null;
+    }
+    
+    public List<NetworkSuperNode> getSuperNodes() {
+        return superNodes;
+    }
+    
+    /**
+     * Returns the table of the next hops, computing it if necessary.
+    */
+    public RoutingTable getRoutingTable()
+    {
+        RoutingTable table = routes;
+        if (table == null) {
+            synchronized (this) {
+                if ((table = routes) == null) {
+                    routes = table = createRoutingTable();
+                }
+            }
+        }
+        return table;
+    }
+    
+    /**
+     * Sets the table of the next hops, replaced as soon as a node or a link is added.
+    */
+    synchronized void setRoutingTable( RoutingTable table ) {
+        routes = table;
+    }
+    
+    private RoutingTable createRoutingTable()
+    {
+        int cache = routingCache;
+        if (cache < 0) {
+            cache = (nodes.size() > DENSE_ROUTING_LIMIT) ? DEFAULT_ROUTING_CACHE : 0;
+        }
+        if (!superNodes.isEmpty()) {
+            return new HierarchicalRoutingTable( this, superNodes );
+        }
+        if (multipath) {
+            return new MultipathRoutingTable( this, cache );
+        }
+        if (cache > 0) {
+            return new CachedRoutingTable( this, cache );
+        }
+        return new DenseRoutingTable( this );
+    }
+    
+    /**
+     * Returns the nodes of the network, indexed by their index.
     */
-    @SuppressWarnings("deprecation")
-    public void computeShortestPaths() {
-        gp.computeAllSourcesShortestPath( this, nodes, links );
+    private NetworkNode[] getIndexedNodes()
+    {
+        NetworkNode[] indexed = new NetworkNode[_nextIndex];
+        for (NetworkNode node : nodes.values()) {
+            indexed[node.getIndex()] = node;
+        }
+        return indexed;
     }
     
     /**
@@ -340,20 +613,47 @@ public class NetworkTopology
      * 
      * @return the next node, if founded, {@code null} otherwise.
     */
-    public NetworkNode nextNode( long sourceId, long destId )
+    public NetworkNode nextNode( long sourceId, long destId ) {
+        return getRoutingTable().nextNode( nodes.get( sourceId ), nodes.get( destId ) );
+    }
+    
+    /**
+     * Returns the next node along the shortest path from the source to the destination,
+     * both belonging to this network.</br>
+     * If the destination is not reachable, the destination itself is returned.
+     * 
+     * @param source    starting node
+     * @param dest      destination node
+    */
+    public NetworkNode nextNode( NetworkNode source, NetworkNode dest ) {
+        return getRoutingTable().nextNode( source, dest );
+    }
+    
+    /**
+     * Returns the next node along the shortest paths from the source to the destination,
+     * choosing the path of the given flow if the multipath routing is enabled
+     * (see {@linkplain #setMultipath(boolean)}).
+     * 
+     * @param source    starting node
+     * @param dest      destination node
+     * @param flow      hash of the flow (see {@linkplain RoutingTable#flowHash(long, long, long)})
+    */
+    public NetworkNode nextNode( NetworkNode source, NetworkNode dest, long flow ) {
+        return getRoutingTable().nextNode( source, dest, flow );
+    }
+    
+    /**
+     * Writes on file the partial results of the simulation,
+     * i.e. the values collected by the samplers and the tracked events.
+    */
+    public void flush() throws IOException
     {
-    	@SuppressWarnings("deprecation")
-        NetworkNode[] predecessors = gp.getShortestPath( sourceId, this, nodes, links );
-    	NetworkNode currNode = nodes.get( destId ), nextNode = null;
-    	while (predecessors[currNode.getIndex()] != null) {
-    		nextNode = predecessors[currNode.getIndex()];
-    		if (nextNode.getId() == sourceId) {
-    			break;
-    		} else {
-    			currNode = nextNode;
-    		}
-    	}
-    	return currNode;
+        for (Agent agent : agents.values()) {
+            agent.flush();
+        }
+        if (eventsWriter != null) {
+            eventsWriter.flush();
+        }
     }
     
     public void shutdown() throws IOException
@@ -367,8 +667,11 @@ public class NetworkTopology
         }
     }
     
-    private static final synchronized long getNextID() {
-        return nextID = (nextID + 1) % Long.MAX_VALUE;
+    /**
+     * Returns the context of the simulation which this network belongs to.
+    */
+    public SimulationContext getContext() {
+        return context;
     }
 
     @Override
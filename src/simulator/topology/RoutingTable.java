@@ -0,0 +1,118 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology;
+
+import java.util.List;
+
+/**
+ * Table of the next hops along the shortest paths of a network,
+ * used to forward the messages from node to node.</br>
+ * Nodes are identified by their index (see {@linkplain NetworkNode#getIndex()}),
+ * so the next hop is found without any lookup by identifier.
+*/
+public abstract class RoutingTable
+{
+    protected final CompactGraph graph;
+    protected final ShortestPaths paths;
+    // Nodes of the network, indexed by their index.
+    protected final NetworkNode[] nodes;
+    
+    
+    
+    protected RoutingTable( NetworkTopology net )
+    {
+        graph = net.getGraph();
+        paths = new ShortestPaths( graph );
+        nodes = graph.getNodeArray();
+    }
+    
+    /**
+     * Returns the index of the next node along the shortest path
+     * from the source to the destination.</br>
+     * If the destination is not reachable, its own index is returned.
+     * 
+     * @param source    index of the source node.
+     * @param dest      index of the destination node.
+    */
+    public abstract int nextHop( int source, int dest );
+    
+    /**
+     * Returns the index of the next node along the shortest paths from the source to the destination,
+     * choosing among several paths with the same length through the hash of the flow
+     * (see {@linkplain #flowHash(long, long, long)}).</br>
+     * The messages of the same flow always follow the same path.
+     * By default there's a single path, so the hash is ignored.
+     * 
+     * @param source    index of the source node.
+     * @param dest      index of the destination node.
+     * @param flow      hash of the flow.
+    */
+    public int nextHop( int source, int dest, long flow ) {
+        return nextHop( source, dest );
+    }
+    
+    /**
+     * Updates the routes after the activation or deactivation of some nodes and links,
+     * computing again only the paths affected by the modification
+     * (see {@linkplain ShortestPaths#isAffected(int[], int, List, List)}).
+     * 
+     * @param nodes    the modified nodes, whose state is already changed.
+     * @param links    the modified links, whose state is already changed.
+    */
+    public abstract void update( List<NetworkNode> nodes, List<NetworkLink> links );
+    
+    /**
+     * Returns the next node along the shortest path from the source to the destination
+     * (see {@linkplain #nextHop(int, int)}).
+     * 
+     * @param source    the source node.
+     * @param dest      the destination node.
+    */
+    public NetworkNode nextNode( NetworkNode source, NetworkNode dest ) {
+        return nodes[nextHop( source.getIndex(), dest.getIndex() )];
+    }
+    
+    /**
+     * Returns the next node along the shortest paths from the source to the destination,
+     * for the given flow (see {@linkplain #nextHop(int, int, long)}).
+     * 
+     * @param source    the source node.
+     * @param dest      the destination node.
+     * @param flow      hash of the flow.
+    */
+    public NetworkNode nextNode( NetworkNode source, NetworkNode dest, long flow ) {
+        return nodes[nextHop( source.getIndex(), dest.getIndex(), flow )];
+    }
+    
+    /**
+     * Returns the hash identifying a flow of messages.</br>
+     * The hash is deterministic, so the same flow is always routed along the same path,
+     * in every execution of the simulation.
+     * 
+     * @param sourceId    identifier of the source agent.
+     * @param destId      identifier of the destination agent.
+     * @param flowId      identifier of the flow between the two agents.
+    */
+    public static long flowHash( long sourceId, long destId, long flowId ) {
+        return mix( mix( mix( sourceId ) ^ destId ) ^ flowId );
+    }
+    
+    /**
+     * Scrambles the bits of a value (finalizer of the SplitMix64 generator).
+    */
+    protected static long mix( long value )
+    {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+    
+    /**
+     * Returns the number of indexed nodes.
+    */
+    public int size() {
+        return nodes.length;
+    }
+}
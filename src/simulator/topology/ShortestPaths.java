@@ -0,0 +1,658 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the shortest paths of a network, weighted by the propagation delay of the links.</br>
+ * The paths towards a destination are computed through the Dijkstra algorithm,
+ * visiting the network from the destination along the reversed links.
+ * The result is a tree, so a message forwarded hop by hop always follows the same path,
+ * even among several paths with the same length.
+ * Otherwise all the next hops along the shortest paths can be kept (see {@linkplain Search#multipathHops(int)}),
+ * to spread the traffic among them.</br>
+ * The visit works directly on the arrays of the {@linkplain CompactGraph} with an indexed binary heap,
+ * so it takes O(m log n) time without allocating any object.
+ * Only the active nodes and links are considered.</br>
+ * The paths towards all the destinations are computed in parallel, since each destination is independent.
+ * <p>
+ * The paths can also be restricted to the subgraph induced by a group of nodes
+ * (see {@linkplain #ShortestPaths(CompactGraph, int[], int[])}), as done by the {@linkplain HierarchicalRoutingTable}.
+*/
+public class ShortestPaths
+{
+    private final CompactGraph graph;
+    // Indexes of the nodes of the subgraph, or null for the whole network.
+    private final int[] members;
+    
+    // Incoming links of each node, in compressed form.
+    private final int[] inOffsets;
+    private final int[] inSources;
+    private final int[] inLinks;
+    
+    // Number of destinations under which the computation is not split any further.
+    private static final int DESTINATIONS_PER_TASK = 16;
+    
+    
+    
+    public ShortestPaths( CompactGraph graph ) {
+        this( graph, null, null );
+    }
+    
+    /**
+     * Computes the paths inside the subgraph induced by the given nodes,
+     * ignoring the links towards the other nodes.</br>
+     * The nodes of the subgraph are identified by their position in {@code members},
+     * while the computed next hops are still indexes of the network.
+     * 
+     * @param graph        the network.
+     * @param members      indexes of the nodes of the subgraph.
+     * @param positions    position of each node in its own subgraph, indexed by node index
+     *                     (the same array can be shared by several disjoint subgraphs).
+    */
+    public ShortestPaths( CompactGraph graph, int[] members, int[] positions )
+    {
+        this.graph = graph;
+        this.members = members;
+        
+        // Reverses the links of the graph.
+        int n = size();
+        inOffsets = new int[n + 1];
+        for (int source = 0; source < n; source++) {
+            int node = toIndex( source );
+            for (int link = graph.firstLink( node ); link < graph.endLink( node ); link++) {
+                int target = toPosition( graph.getTarget( link ), positions );
+                if (target >= 0) {
+                    inOffsets[target + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            inOffsets[i + 1] += inOffsets[i];
+        }
+        
+        int[] position = Arrays.copyOf( inOffsets, n );
+        inSources = new int[inOffsets[n]];
+        inLinks = new int[inOffsets[n]];
+        for (int source = 0; source < n; source++) {
+            int node = toIndex( source );
+            for (int link = graph.firstLink( node ); link < graph.endLink( node ); link++) {
+                int target = toPosition( graph.getTarget( link ), positions );
+                if (target >= 0) {
+                    int pos = position[target]++;
+                    inSources[pos] = source;
+                    inLinks[pos] = link;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of nodes of the (sub)graph.
+    */
+    public int size() {
+        return (members == null) ? graph.getNodes() : members.length;
+    }
+    
+    /**
+     * Returns the index in the network of the node in the given position.
+    */
+    private int toIndex( int node ) {
+        return (members == null) ? node : members[node];
+    }
+    
+    /**
+     * Returns the position of the node with the given index, or -1 if it doesn't belong to the subgraph.
+    */
+    private int toPosition( int index, int[] positions )
+    {
+        if (members == null) {
+            return index;
+        }
+        int position = positions[index];
+        return (position >= 0 && position < members.length && members[position] == index) ? position : -1;
+    }
+    
+    /**
+     * Creates the structures used to compute the paths towards a destination,
+     * that can be reused for several destinations by the same thread.
+    */
+    public Search newSearch() {
+        return new Search( size() );
+    }
+    
+    /**
+     * Computes the next hop of each node towards the given destination
+     * (see {@linkplain Search#nextHops(int)}).
+     * 
+     * @param dest    index of the destination node.
+    */
+    public int[] computeNextHops( int dest ) {
+        return newSearch().nextHops( dest );
+    }
+    
+    /**
+     * Computes the next hops of every node towards every destination,
+     * using the common pool of threads.
+     * 
+     * @return the next hops, indexed by destination and source.
+    */
+    public int[][] computeAllNextHops() {
+        return computeAllNextHops( ForkJoinPool.commonPool() );
+    }
+    
+    /**
+     * Computes the next hops of every node towards every destination.
+     * 
+     * @param pool    the pool of threads executing the computation.
+     * 
+     * @return the next hops, indexed by destination and source.
+    */
+    public int[][] computeAllNextHops( ForkJoinPool pool )
+    {
+        int[][] nextHops = new int[graph.getNodes()][];
+        compute( allDestinations(), nextHops, false, pool );
+        return nextHops;
+    }
+    
+    /**
+     * Computes the next hops of every node towards every destination along all the shortest paths
+     * (see {@linkplain Search#multipathHops(int)}), using the common pool of threads.
+     * 
+     * @return the next hops, indexed by destination.
+    */
+    public int[][] computeAllMultipathHops()
+    {
+        int[][] routes = new int[graph.getNodes()][];
+        compute( allDestinations(), routes, true, ForkJoinPool.commonPool() );
+        return routes;
+    }
+    
+    private int[] allDestinations()
+    {
+        int[] dests = new int[graph.getNodes()];
+        int size = 0;
+        for (int dest = 0; dest < dests.length; dest++) {
+            if (graph.getNode( dest ) != null) {
+                dests[size++] = dest;
+            }
+        }
+        return Arrays.copyOf( dests, size );
+    }
+    
+    /**
+     * Computes the next hops of every node towards the given destinations,
+     * using the common pool of threads.
+     * 
+     * @param dests       indexes of the destinations.
+     * @param nextHops    the next hops, indexed by destination and source,
+     *                    where the ones of the given destinations are replaced.
+    */
+    public void computeNextHops( int[] dests, int[][] nextHops ) {
+        compute( dests, nextHops, false, ForkJoinPool.commonPool() );
+    }
+    
+    /**
+     * Computes the next hops of every node towards the given destinations along all the shortest paths
+     * (see {@linkplain Search#multipathHops(int)}), using the common pool of threads.
+     * 
+     * @param dests     indexes of the destinations.
+     * @param routes    the next hops, indexed by destination,
+     *                  where the ones of the given destinations are replaced.
+    */
+    public void computeMultipathHops( int[] dests, int[][] routes ) {
+        compute( dests, routes, true, ForkJoinPool.commonPool() );
+    }
+    
+    private void compute( int[] dests, int[][] nextHops, boolean multipath, ForkJoinPool pool )
+    {
+        DestinationsTask task = new DestinationsTask( dests, nextHops, multipath, 0, dests.length );
+        if (dests.length <= DESTINATIONS_PER_TASK) {
+            task.compute();
+        } else {
+            pool.invoke( task );
+        }
+    }
+    
+    /**
+     * Computes the next hops towards a range of destinations, splitting it in halves.
+    */
+    private class DestinationsTask extends RecursiveAction
+    {
+        /** Generated Serial ID. */
+        private static final long serialVersionUID = -4207962305473386515L;
+        
+        private final int[] dests;
+        private final int[][] nextHops;
+        private final boolean multipath;
+        private final int from;
+        private final int to;
+        
+        public DestinationsTask( int[] dests, int[][] nextHops, boolean multipath, int from, int to )
+        {
+            this.dests = dests;
+            this.nextHops = nextHops;
+            this.multipath = multipath;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            if (to - from > DESTINATIONS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll( new DestinationsTask( dests, nextHops, multipath, from, mid ),
+                           new DestinationsTask( dests, nextHops, multipath, mid, to ) );
+            } else {
+                // The structures of the search are reused for all the destinations of the range.
+                Search search = newSearch();
+                for (int i = from; i < to; i++) {
+                    int dest = dests[i];
+                    nextHops[dest] = multipath ? search.multipathHops( dest ) : search.nextHops( dest );
+                }
+            }
+        }
+    }
+    
+    /**
+     * Checks whether the paths towards a destination can be changed by the activation
+     * or deactivation of the given nodes and links (whose state is already modified),
+     * for the paths of the whole network.</br>
+     * The paths are affected if they pass through a deactivated node or link,
+     * if a node is activated, or if an activated link makes a path shorter.
+     * In the other cases the paths are still the shortest ones, and they don't need to be computed again.
+     * 
+     * @param nextHops    the next hops towards the destination (see {@linkplain Search#nextHops(int)}).
+     * @param dest        index of the destination.
+     * @param nodes       the modified nodes.
+     * @param links       the modified links.
+    */
+    public boolean isAffected( int[] nextHops, int dest, List<NetworkNode> nodes, List<NetworkLink> links )
+    {
+        for (NetworkNode node : nodes) {
+            int index = node.getIndex();
+            if (node.isActive() || index == dest) {
+                return true;
+            }
+            // The node is in the paths only if some neighbour forwards through it.
+            for (int i = inOffsets[index]; i < inOffsets[index + 1]; i++) {
+                if (nextHops[inSources[i]] == index) {
+                    return true;
+                }
+            }
+        }
+        
+        for (NetworkLink link : links) {
+            int source = graph.indexOf( link.getSourceId() );
+            int target = graph.indexOf( link.getDestId() );
+            if (source < 0 || target < 0 || source == dest) {
+                continue;
+            }
+            
+            if (!link.isActive()) {
+                if (nextHops[source] == target) {
+                    return true;
+                }
+            } else if (graph.getNode( source ).isActive() && graph.getNode( target ).isActive() &&
+                       (target == dest || nextHops[target] >= 0)) {
+                long distance = distance( nextHops, dest, target ) + Math.max( 0, link.getTprop() );
+                if (nextHops[source] < 0 || distance < distance( nextHops, dest, source )) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Returns the length of the path from the given node to the destination.
+    */
+    private long distance( int[] nextHops, int dest, int node )
+    {
+        long distance = 0;
+        for (int hops = 0; node != dest && hops < nextHops.length; hops++) {
+            int next = nextHops[node];
+            distance += Math.max( 0, graph.getTprop( graph.findLink( node, next ) ) );
+            node = next;
+        }
+        return distance;
+    }
+    
+    /**
+     * Checks whether the paths towards a destination can be changed by the activation
+     * or deactivation of the given nodes and links, as in {@linkplain #isAffected(int[], int, List, List)}.</br>
+     * An activated link affects the paths also if it makes a path of the same length,
+     * since it could become one of the next hops.
+     * 
+     * @param routes    the next hops towards the destination (see {@linkplain Search#multipathHops(int)}).
+     * @param dest      index of the destination.
+     * @param nodes     the modified nodes.
+     * @param links     the modified links.
+    */
+    public boolean isMultipathAffected( int[] routes, int dest, List<NetworkNode> nodes, List<NetworkLink> links )
+    {
+        for (NetworkNode node : nodes) {
+            int index = node.getIndex();
+            if (node.isActive() || index == dest) {
+                return true;
+            }
+            for (int i = inOffsets[index]; i < inOffsets[index + 1]; i++) {
+                if (hasHop( routes, inSources[i], index )) {
+                    return true;
+                }
+            }
+        }
+        
+        for (NetworkLink link : links) {
+            int source = graph.indexOf( link.getSourceId() );
+            int target = graph.indexOf( link.getDestId() );
+            if (source < 0 || target < 0 || source == dest) {
+                continue;
+            }
+            
+            if (!link.isActive()) {
+                if (hasHop( routes, source, target )) {
+                    return true;
+                }
+            } else if (graph.getNode( source ).isActive() && graph.getNode( target ).isActive() &&
+                       (target == dest || routes[target] < routes[target + 1])) {
+                long distance = multipathDistance( routes, dest, target ) + Math.max( 0, link.getTprop() );
+                if (routes[source] == routes[source + 1] || distance <= multipathDistance( routes, dest, source )) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    private static boolean hasHop( int[] routes, int node, int next )
+    {
+        for (int i = routes[node]; i < routes[node + 1]; i++) {
+            if (routes[i] == next) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the length of the paths from the given node to the destination,
+     * following the first next hop of each node.
+    */
+    private long multipathDistance( int[] routes, int dest, int node )
+    {
+        long distance = 0;
+        for (int hops = 0; node != dest && hops < routes.length; hops++) {
+            int next = routes[routes[node]];
+            distance += Math.max( 0, graph.getTprop( graph.findLink( node, next ) ) );
+            node = next;
+        }
+        return distance;
+    }
+    
+    /**
+     * Visit of the graph from a destination.</br>
+     * An instance can't be used by several threads at the same time.
+    */
+    public class Search
+    {
+        private final long[] distances;
+        // Number of links of the paths, used to break the ties among paths with the same length.
+        private final int[] hops;
+        private boolean fewestHops;
+        // Indexed heap of the nodes, ordered by distance.
+        private final int[] heap;
+        private final int[] positions;
+        private int size;
+        
+        private static final long INFINITE = Long.MAX_VALUE;
+        
+        private Search( int nodes )
+        {
+            distances = new long[nodes];
+            hops = new int[nodes];
+            heap = new int[nodes];
+            positions = new int[nodes];
+        }
+        
+        /**
+         * Computes the next hop of each node towards the given destination.</br>
+         * The next hop of the nodes that can't reach the destination is -1.
+         * 
+         * @param dest    index of the destination node (its position, in a subgraph).
+        */
+        public int[] nextHops( int dest )
+        {
+            int[] next = new int[distances.length];
+            Arrays.fill( next, -1 );
+            next[dest] = toIndex( dest );
+            if (graph.getNode( toIndex( dest ) ).isActive()) {
+                fewestHops = false;
+                reset();
+                seed( dest, 0 );
+                visit( next );
+            }
+            return next;
+        }
+        
+        /**
+         * Computes the next hop of each node towards the nearest of several exits,
+         * where each exit is a node with its own distance and next hop
+         * (typically a link leaving a subgraph).</br>
+         * The next hop of the nodes that can't reach any exit is -1.
+         * 
+         * @param exits        positions of the exit nodes, also repeated.
+         * @param firstHops    next hop of each exit.
+         * @param lengths      distance of each exit.
+        */
+        public int[] nextHops( int[] exits, int[] firstHops, long[] lengths )
+        {
+            int[] next = new int[distances.length];
+            Arrays.fill( next, -1 );
+            fewestHops = false;
+            reset();
+            for (int i = 0; i < exits.length; i++) {
+                int exit = exits[i];
+                if (graph.getNode( toIndex( exit ) ).isActive() && lengths[i] < distances[exit]) {
+                    next[exit] = firstHops[i];
+                    seed( exit, lengths[i] );
+                }
+            }
+            visit( next );
+            return next;
+        }
+        
+        /**
+         * Computes all the next hops of each node along the shortest paths towards the given destination.</br>
+         * Among the paths with the same length only the ones with the fewest links are considered,
+         * so the next hops never form a loop, even with links without propagation delay.
+         * <p>
+         * The result is packed in a single array: the next hops of node {@code i} are
+         * the elements between the positions {@code routes[i]} (included) and {@code routes[i + 1]} (excluded),
+         * in increasing order of index.
+         * The destination and the nodes that can't reach it have no next hop.
+         * Only the paths of the whole network can be computed in this way.
+         * 
+         * @param dest    index of the destination node.
+        */
+        public int[] multipathHops( int dest )
+        {
+            int n = distances.length;
+            if (!graph.getNode( dest ).isActive()) {
+                int[] routes = new int[n + 1];
+                Arrays.fill( routes, n + 1 );
+                return routes;
+            }
+            
+            fewestHops = true;
+            reset();
+            seed( dest, 0 );
+            visit( null );
+            
+            int count = 0;
+            for (int node = 0; node < n; node++) {
+                if (node != dest && distances[node] != INFINITE) {
+                    for (int link = graph.firstLink( node ); link < graph.endLink( node ); link++) {
+                        if (isShortestHop( node, link )) {
+                            count++;
+                        }
+                    }
+                }
+            }
+            
+            int[] routes = new int[n + 1 + count];
+            int pos = n + 1;
+            for (int node = 0; node < n; node++) {
+                routes[node] = pos;
+                if (node != dest && distances[node] != INFINITE) {
+                    for (int link = graph.firstLink( node ); link < graph.endLink( node ); link++) {
+                        if (isShortestHop( node, link )) {
+                            routes[pos++] = graph.getTarget( link );
+                        }
+                    }
+                }
+            }
+            routes[n] = pos;
+            return routes;
+        }
+        
+        private boolean isShortestHop( int node, int link )
+        {
+            int target = graph.getTarget( link );
+            return graph.getLink( link ).isActive() && distances[target] != INFINITE &&
+                   distances[target] + Math.max( 0, graph.getTprop( link ) ) == distances[node] &&
+                   hops[target] + 1 == hops[node];
+        }
+        
+        private void reset()
+        {
+            Arrays.fill( distances, INFINITE );
+            Arrays.fill( positions, -1 );
+            size = 0;
+        }
+        
+        /**
+         * Starts the visit from the given node.
+        */
+        private void seed( int node, long distance )
+        {
+            distances[node] = distance;
+            hops[node] = 0;
+            if (positions[node] < 0) {
+                push( node );
+            } else {
+                siftUp( positions[node] );
+            }
+        }
+        
+        /**
+         * Visits the nodes that can reach the starting nodes, computing their distances.
+         * 
+         * @param next    if not {@code null}, filled with the next hop of each node.
+        */
+        private void visit( int[] next )
+        {
+            while (size > 0) {
+                int node = pop();
+                long distance = distances[node];
+                for (int i = inOffsets[node]; i < inOffsets[node + 1]; i++) {
+                    int from = inSources[i];
+                    int link = inLinks[i];
+                    if (!graph.getLink( link ).isActive() || !graph.getNode( toIndex( from ) ).isActive()) {
+                        continue;
+                    }
+                    
+                    long dist = distance + Math.max( 0, graph.getTprop( link ) );
+                    if (dist < distances[from] ||
+                        (fewestHops && dist == distances[from] && hops[node] + 1 < hops[from])) {
+                        if (next != null) {
+                            next[from] = toIndex( node );
+                        }
+                        distances[from] = dist;
+                        hops[from] = hops[node] + 1;
+                        if (positions[from] < 0) {
+                            push( from );
+                        } else {
+                            siftUp( positions[from] );
+                        }
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Checks whether the first node comes before the second one in the heap.
+        */
+        private boolean precedes( int node, int other )
+        {
+            return distances[node] < distances[other] ||
+                   (fewestHops && distances[node] == distances[other] && hops[node] < hops[other]);
+        }
+        
+        private void push( int node )
+        {
+            heap[size] = node;
+            positions[node] = size;
+            siftUp( size++ );
+        }
+        
+        private int pop()
+        {
+            int top = heap[0];
+            positions[top] = -2; // Visited.
+            if (--size > 0) {
+                heap[0] = heap[size];
+                positions[heap[0]] = 0;
+                siftDown( 0 );
+            }
+            return top;
+        }
+        
+        private void siftUp( int i )
+        {
+            int node = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!precedes( node, heap[parent] )) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                positions[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = node;
+            positions[node] = i;
+        }
+        
+        private void siftDown( int i )
+        {
+            int node = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && precedes( heap[child + 1], heap[child] )) {
+                    child++;
+                }
+                if (!precedes( heap[child], node )) {
+                    break;
+                }
+                heap[i] = heap[child];
+                positions[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = node;
+            positions[node] = i;
+        }
+    }
+}
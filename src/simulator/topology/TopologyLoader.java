@@ -0,0 +1,270 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import simulator.core.SimulationContext;
+import simulator.utils.JSONReader;
+import simulator.utils.resources.ResourceLoader;
+
+/**
+ * Loads the networks from JSON files, also compressed with gzip,
+ * or from binary files (see {@linkplain BinaryTopology}), detecting the format automatically.</br>
+ * The file is parsed as a stream (see {@linkplain JSONReader}), creating the nodes and links
+ * while reading them, so the memory needed is proportional to the final topology
+ * and not to the size of the file.
+ * <p>
+ * File structure of a network:
+ * <pre>
+ * nodes => [{id, name, delay, [xPos, yPos]}]
+ * links => [{fromId, destId, bandwidth, delay, [linkType]}]
+ * </pre>
+ * File structure of a simulation:
+ * <pre>
+ * networks => [{[nodes],[links]}, ...]
+ * </pre>
+ * Unknown fields are skipped.
+ * A binary file contains a single network.
+*/
+public class TopologyLoader
+{
+    // First bytes of a gzip file.
+    private static final int GZIP_MAGIC = 0x8B1F;
+    
+    
+    
+    private TopologyLoader() {}
+    
+    /**
+     * Opens a file, decompressing it if it's in gzip format.
+     * 
+     * @param filename    name of the file.
+    */
+    public static InputStream open( String filename ) throws IOException
+    {
+        InputStream stream = ResourceLoader.getResourceAsStream( filename );
+        stream.mark( 2 );
+        int magic = stream.read() | (stream.read() << 8);
+        stream.reset();
+        if (magic == GZIP_MAGIC) {
+            return new GZIPInputStream( stream, 1 << 16 );
+        }
+        return stream;
+    }
+    
+    private static boolean isBinary( String filename ) throws IOException
+    {
+        try (InputStream stream = ResourceLoader.getResourceAsStream( filename )) {
+            return BinaryTopology.isBinary( stream );
+        }
+    }
+    
+    private static JSONReader newReader( String filename ) throws IOException {
+        return new JSONReader( new InputStreamReader( open( filename ), StandardCharsets.UTF_8 ) );
+    }
+    
+    /**
+     * Loads the nodes and links of a network from file.
+     * 
+     * @param net         the network to fill.
+     * @param filename    name of the file.
+     * 
+     * @throws IOException if the file is not a valid network.
+    */
+    public static void load( NetworkTopology net, String filename ) throws IOException
+    {
+        if (isBinary( filename )) {
+            BinaryTopology.load( net, filename );
+            return;
+        }
+        try (JSONReader in = newReader( filename )) {
+            load( net, in );
+        }
+    }
+    
+    /**
+     * Loads the networks of a simulation from file.</br>
+     * The networks share the same {@linkplain SimulationContext}.
+     * 
+     * @param filename    name of the file.
+     * 
+     * @throws IOException if the file is not a valid simulation.
+    */
+    public static List<NetworkTopology> loadNetworks( String filename ) throws IOException
+    {
+        List<NetworkTopology> networks = new ArrayList<>();
+        SimulationContext context = new SimulationContext();
+        if (isBinary( filename )) {
+            NetworkTopology net = new NetworkTopology( context );
+            BinaryTopology.load( net, filename );
+            networks.add( net );
+            return networks;
+        }
+        try (JSONReader in = newReader( filename )) {
+            boolean found = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals( "networks" )) {
+                    found = true;
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        NetworkTopology net = new NetworkTopology( context );
+                        load( net, in );
+                        networks.add( net );
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            
+            if (!found) {
+                throw new IOException( "Field \"networks\" not found in file \"" + filename + "\"." );
+            }
+        }
+        return networks;
+    }
+    
+    /**
+     * Reads a network object.</br>
+     * The links written before the nodes are kept aside until the nodes are read.
+    */
+    private static void load( NetworkTopology net, JSONReader in ) throws IOException
+    {
+        boolean nodesFound = false, linksFound = false;
+        List<NetworkLink> pendingLinks = null;
+        
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "nodes":
+                    readNodes( net, in );
+                    nodesFound = true;
+                    if (pendingLinks != null) {
+                        for (NetworkLink link : pendingLinks) {
+                            addLink( net, link );
+                        }
+                        pendingLinks = null;
+                    }
+                    break;
+                case "links":
+                    List<NetworkLink> links = nodesFound ? null : new ArrayList<>();
+                    readLinks( net, in, links );
+                    linksFound = true;
+                    if (links != null) {
+                        pendingLinks = links;
+                    }
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        
+        if (!nodesFound) {
+            throw new IOException( "Field \"nodes\" not found." );
+        }
+        if (!linksFound) {
+            throw new IOException( "Field \"links\" not found." );
+        }
+    }
+    
+    private static void readNodes( NetworkTopology net, JSONReader in ) throws IOException
+    {
+        in.beginArray();
+        while (in.hasNext()) {
+            Long id = null;
+            String name = null;
+            Long delay = null;
+            int xPos = 0, yPos = 0;
+            
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case NetworkNode.ID:    id    = in.nextLong();   break;
+                    case NetworkNode.NAME:  name  = in.nextString(); break;
+                    case NetworkNode.DELAY: delay = in.nextLong();   break;
+                    case NetworkNode.X_POS: xPos  = in.nextInt();    break;
+                    case NetworkNode.Y_POS: yPos  = in.nextInt();    break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            
+            if (id == null) throw missingField( NetworkNode.ID, "node" );
+            if (name == null) throw missingField( NetworkNode.NAME, "node " + id );
+            if (delay == null) throw missingField( NetworkNode.DELAY, "node " + id );
+            net.addNode( new NetworkNode( id, name, delay, xPos, yPos ) );
+        }
+        in.endArray();
+    }
+    
+    /**
+     * Reads the links, adding them to the network or, if not {@code null}, to the given list.
+    */
+    private static void readLinks( NetworkTopology net, JSONReader in, List<NetworkLink> links ) throws IOException
+    {
+        in.beginArray();
+        while (in.hasNext()) {
+            Long fromId = null, destId = null;
+            Double bandwidth = null;
+            Long delay = null;
+            String linkType = NetworkLink.UNIDIRECTIONAL;
+            
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case NetworkLink.FROM_ID:   fromId    = in.nextLong();   break;
+                    case NetworkLink.DEST_ID:   destId    = in.nextLong();   break;
+                    case NetworkLink.BANDWIDTH: bandwidth = in.nextDouble(); break;
+                    case NetworkLink.DELAY:     delay     = in.nextLong();   break;
+                    case NetworkLink.LINK_TYPE: linkType  = in.nextString(); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            
+            if (fromId == null) throw missingField( NetworkLink.FROM_ID, "link" );
+            if (destId == null) throw missingField( NetworkLink.DEST_ID, "link " + fromId );
+            if (bandwidth == null) throw missingField( NetworkLink.BANDWIDTH, "link " + fromId + " -> " + destId );
+            if (delay == null) throw missingField( NetworkLink.DELAY, "link " + fromId + " -> " + destId );
+            // The same string is shared by all the links.
+            if (linkType.equals( NetworkLink.BIDIRECTIONAL )) {
+                linkType = NetworkLink.BIDIRECTIONAL;
+            } else if (linkType.equals( NetworkLink.UNIDIRECTIONAL )) {
+                linkType = NetworkLink.UNIDIRECTIONAL;
+            }
+            
+            NetworkLink link = new NetworkLink( fromId, destId, bandwidth, delay, linkType );
+            if (links != null) {
+                links.add( link );
+            } else {
+                addLink( net, link );
+            }
+        }
+        in.endArray();
+    }
+    
+    private static void addLink( NetworkTopology net, NetworkLink link )
+    {
+        net.addLink( link );
+        if (link.linkType().equals( NetworkLink.BIDIRECTIONAL )) {
+            net.addLink( link.reverse() );
+        }
+    }
+    
+    private static IOException missingField( String field, String element ) {
+        return new IOException( "Field \"" + field + "\" not found in " + element + "." );
+    }
+}
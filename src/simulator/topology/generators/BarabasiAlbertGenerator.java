@@ -0,0 +1,82 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology.generators;
+
+import simulator.exception.SimulatorException;
+
+/**
+ * Generator of scale-free networks, through the Barabasi-Albert preferential attachment.</br>
+ * The network starts with a clique of m+1 nodes; each new node is connected to m distinct
+ * existing nodes, chosen with a probability proportional to their degree.
+ * The resulting network is connected.
+*/
+public class BarabasiAlbertGenerator extends TopologyGenerator
+{
+    private final int nodes;
+    private final int m;
+    
+    
+    
+    /**
+     * Creates the generator.
+     * 
+     * @param nodes    number of nodes.
+     * @param m        number of links of each new node.
+    */
+    public BarabasiAlbertGenerator( int nodes, int m )
+    {
+        if (m < 1 || nodes <= m) {
+            throw new SimulatorException( "Invalid Barabasi-Albert network: " + nodes + " nodes, " + m + " links per node." );
+        }
+        this.nodes = nodes;
+        this.m = m;
+    }
+    
+    @Override
+    protected void build()
+    {
+        long[] ids = new long[nodes];
+        // Endpoints of all the links: a node appears once for each link, so picking
+        // a random element chooses a node with a probability proportional to its degree.
+        int[] endpoints = new int[2 * (m * (m + 1) / 2 + (nodes - m - 1) * m)];
+        int size = 0;
+        
+        for (int i = 0; i <= m; i++) {
+            ids[i] = addNode( "node" + i );
+            for (int j = 0; j < i; j++) {
+                addLink( ids[i], ids[j] );
+                endpoints[size++] = i;
+                endpoints[size++] = j;
+            }
+        }
+        
+        int[] targets = new int[m];
+        for (int i = m + 1; i < nodes; i++) {
+            ids[i] = addNode( "node" + i );
+            for (int t = 0; t < m; t++) {
+                int target;
+                do {
+                    target = endpoints[random.nextInt( size )];
+                } while (contains( targets, t, target ));
+                targets[t] = target;
+            }
+            for (int t = 0; t < m; t++) {
+                addLink( ids[i], ids[targets[t]] );
+                endpoints[size++] = i;
+                endpoints[size++] = targets[t];
+            }
+        }
+    }
+    
+    private static boolean contains( int[] values, int length, int value )
+    {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
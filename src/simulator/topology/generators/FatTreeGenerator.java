@@ -0,0 +1,64 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology.generators;
+
+import simulator.exception.SimulatorException;
+
+/**
+ * Generator of k-ary fat-trees.</br>
+ * The network has (k/2)^2 core switches and k pods, each one with k/2 aggregation
+ * and k/2 edge switches; every edge switch is connected to k/2 hosts,
+ * for a total of k^3/4 hosts.
+ * The i-th aggregation switch of each pod is connected to the i-th group of k/2 core switches.
+*/
+public class FatTreeGenerator extends TopologyGenerator
+{
+    private final int k;
+    
+    
+    
+    /**
+     * Creates the generator.
+     * 
+     * @param k    number of ports of each switch, must be even.
+    */
+    public FatTreeGenerator( int k )
+    {
+        if (k < 2 || k % 2 != 0) {
+            throw new SimulatorException( "The number of ports must be even, instead of " + k + "." );
+        }
+        this.k = k;
+    }
+    
+    @Override
+    protected void build()
+    {
+        int half = k / 2;
+        long[] core = new long[half * half];
+        for (int i = 0; i < core.length; i++) {
+            core[i] = addNode( "core" + i );
+        }
+        
+        for (int pod = 0; pod < k; pod++) {
+            long[] aggr = new long[half];
+            for (int i = 0; i < half; i++) {
+                aggr[i] = addNode( "aggr" + pod + "_" + i );
+                for (int j = 0; j < half; j++) {
+                    addLink( aggr[i], core[i * half + j] );
+                }
+            }
+            for (int i = 0; i < half; i++) {
+                long edge = addNode( "edge" + pod + "_" + i );
+                for (long a : aggr) {
+                    addLink( edge, a );
+                }
+                for (int h = 0; h < half; h++) {
+                    long host = addNode( "host" + pod + "_" + i + "_" + h );
+                    addLink( host, edge );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology.generators;
+
+import simulator.exception.SimulatorException;
+
+/**
+ * Generator of leaf-spine networks.</br>
+ * Every leaf switch is connected to all the spine switches and to its own hosts.
+*/
+public class LeafSpineGenerator extends TopologyGenerator
+{
+    private final int spines;
+    private final int leaves;
+    private final int hostsPerLeaf;
+    
+    
+    
+    /**
+     * Creates the generator.
+     * 
+     * @param spines          number of spine switches.
+     * @param leaves          number of leaf switches.
+     * @param hostsPerLeaf    number of hosts connected to each leaf switch.
+    */
+    public LeafSpineGenerator( int spines, int leaves, int hostsPerLeaf )
+    {
+        if (spines < 1 || leaves < 1 || hostsPerLeaf < 0) {
+            throw new SimulatorException( "Invalid leaf-spine network: " + spines + " spines, " +
+                                          leaves + " leaves, " + hostsPerLeaf + " hosts per leaf." );
+        }
+        this.spines = spines;
+        this.leaves = leaves;
+        this.hostsPerLeaf = hostsPerLeaf;
+    }
+    
+    @Override
+    protected void build()
+    {
+        long[] spine = new long[spines];
+        for (int i = 0; i < spines; i++) {
+            spine[i] = addNode( "spine" + i );
+        }
+        
+        for (int i = 0; i < leaves; i++) {
+            long leaf = addNode( "leaf" + i );
+            for (long s : spine) {
+                addLink( leaf, s );
+            }
+            for (int h = 0; h < hostsPerLeaf; h++) {
+                long host = addNode( "host" + i + "_" + h );
+                addLink( host, leaf );
+            }
+        }
+    }
+}
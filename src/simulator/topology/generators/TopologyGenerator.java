@@ -0,0 +1,168 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology.generators;
+
+import java.util.Random;
+
+import simulator.topology.NetworkLink;
+import simulator.topology.NetworkNode;
+import simulator.topology.NetworkTopology;
+
+/**
+ * Builds a synthetic network directly in memory, without any topology file.</br>
+ * Subclasses define the shape of the network, while the bandwidth and delay of the links
+ * and the delay of the nodes are drawn from configurable distributions.
+ * All the links are bidirectional.
+ * <p>
+ * The generation is reproducible: the shape and the values are drawn from two generators
+ * seeded with the same seed, so changing a distribution doesn't change the shape of the network.
+ * Nodes get consecutive identifiers, starting from {@linkplain #setFirstId(long)}.
+ * <p>
+ * Example:
+ * <pre>
+ * NetworkTopology net = new FatTreeGenerator( 8 )
+ *                           .setBandwidth( ValueDistribution.choice( 1000, 10000 ) )
+ *                           .setSeed( 42 )
+ *                           .generate();
+ * </pre>
+*/
+public abstract class TopologyGenerator
+{
+    private long seed = 0;
+    private long firstId = 0;
+    private ValueDistribution bandwidth = ValueDistribution.constant( 1000 );
+    private ValueDistribution delay = ValueDistribution.constant( 1 );
+    private ValueDistribution nodeDelay = ValueDistribution.constant( 0 );
+    
+    // State of the current generation.
+    private NetworkTopology net;
+    private Random values;
+    private long nextId;
+    /** Generator of the shape of the network. */
+    protected Random random;
+    
+    
+    
+    public TopologyGenerator setSeed( long seed )
+    {
+        this.seed = seed;
+        return this;
+    }
+    
+    /**
+     * Sets the identifier of the first generated node.
+    */
+    public TopologyGenerator setFirstId( long firstId )
+    {
+        this.firstId = firstId;
+        return this;
+    }
+    
+    /**
+     * Sets the distribution of the bandwidth of the links, in Mb/s.
+    */
+    public TopologyGenerator setBandwidth( ValueDistribution bandwidth )
+    {
+        this.bandwidth = bandwidth;
+        return this;
+    }
+    
+    /**
+     * Sets the distribution of the propagation delay of the links, in milliseconds.
+    */
+    public TopologyGenerator setDelay( ValueDistribution delay )
+    {
+        this.delay = delay;
+        return this;
+    }
+    
+    /**
+     * Sets the distribution of the calculation time of the nodes, in milliseconds.
+    */
+    public TopologyGenerator setNodeDelay( ValueDistribution nodeDelay )
+    {
+        this.nodeDelay = nodeDelay;
+        return this;
+    }
+    
+    /**
+     * Generates a new network.
+    */
+    public NetworkTopology generate() {
+        return generate( new NetworkTopology() );
+    }
+    
+    /**
+     * Adds the generated nodes and links to the given network.</br>
+     * The compact representation of the network is built at the end
+     * (see {@linkplain NetworkTopology#getGraph()}), so it's ready for the simulation.
+     * 
+     * @param net    the network to fill.
+     * 
+     * @return the given network.
+    */
+    public synchronized NetworkTopology generate( NetworkTopology net )
+    {
+        this.net = net;
+        random = new Random( seed );
+        values = new Random( ~seed );
+        nextId = firstId;
+        try {
+            build();
+            net.getGraph();
+        } finally {
+            this.net = null;
+        }
+        return net;
+    }
+    
+    /**
+     * Builds the nodes and links of the network,
+     * through {@linkplain #addNode(String)} and {@linkplain #addLink(long, long)}.
+    */
+    protected abstract void build();
+    
+    /**
+     * Adds a new node.
+     * 
+     * @param name    name of the node.
+     * 
+     * @return the identifier of the node.
+    */
+    protected long addNode( String name ) {
+        return addNode( name, 0, 0 );
+    }
+    
+    /**
+     * Adds a new node in the given position.
+     * 
+     * @param name    name of the node.
+     * @param xPos    horizontal position.
+     * @param yPos    vertical position.
+     * 
+     * @return the identifier of the node.
+    */
+    protected long addNode( String name, int xPos, int yPos )
+    {
+        long id = nextId++;
+        long delay = Math.round( nodeDelay.next( values ) );
+        net.addNode( new NetworkNode( id, name, Math.max( 0, delay ), xPos, yPos ) );
+        return id;
+    }
+    
+    /**
+     * Connects two nodes with a bidirectional link.
+    */
+    protected void addLink( long fromId, long destId ) {
+        addLink( fromId, destId, Math.round( delay.next( values ) ) );
+    }
+    
+    /**
+     * Connects two nodes with a bidirectional link, with the given delay.
+    */
+    protected void addLink( long fromId, long destId, long delay ) {
+        net.addLink( fromId, destId, bandwidth.next( values ), Math.max( 0, delay ), NetworkLink.BIDIRECTIONAL );
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology.generators;
+
+import simulator.exception.SimulatorException;
+
+/**
+ * Generator of multi-dimensional tori.</br>
+ * Nodes are placed on a grid, and each node is connected to its neighbours along every dimension,
+ * with the nodes on the border connected to the ones on the opposite border.
+*/
+public class TorusGenerator extends TopologyGenerator
+{
+    private final int[] sizes;
+    
+    
+    
+    /**
+     * Creates the generator.
+     * 
+     * @param sizes    number of nodes along each dimension (e.g. 8, 8, 8 for a 3D torus).
+    */
+    public TorusGenerator( int... sizes )
+    {
+        if (sizes.length == 0) {
+            throw new SimulatorException( "The torus must have at least one dimension." );
+        }
+        for (int size : sizes) {
+            if (size < 2) {
+                throw new SimulatorException( "Each dimension must have at least 2 nodes, instead of " + size + "." );
+            }
+        }
+        this.sizes = sizes.clone();
+    }
+    
+    @Override
+    protected void build()
+    {
+        int nodes = 1;
+        for (int size : sizes) {
+            nodes = Math.multiplyExact( nodes, size );
+        }
+        
+        long[] ids = new long[nodes];
+        int[] coordinates = new int[sizes.length];
+        for (int i = 0; i < nodes; i++) {
+            toCoordinates( i, coordinates );
+            StringBuilder name = new StringBuilder( "node" );
+            for (int c : coordinates) {
+                name.append( '_' ).append( c );
+            }
+            ids[i] = addNode( name.toString(), coordinates[0], (sizes.length > 1) ? coordinates[1] : 0 );
+        }
+        
+        // Each node is connected to the next one along every dimension.
+        for (int i = 0; i < nodes; i++) {
+            toCoordinates( i, coordinates );
+            int stride = 1;
+            for (int d = 0; d < sizes.length; d++) {
+                int c = coordinates[d];
+                int next = i + (((c + 1) % sizes[d]) - c) * stride;
+                // With 2 nodes the ring is a single link.
+                if (sizes[d] > 2 || c == 0) {
+                    addLink( ids[i], ids[next] );
+                }
+                stride *= sizes[d];
+            }
+        }
+    }
+    
+    private void toCoordinates( int index, int[] coordinates )
+    {
+        for (int d = 0; d < sizes.length; d++) {
+            coordinates[d] = index % sizes[d];
+            index /= sizes[d];
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology.generators;
+
+import java.util.Random;
+
+/**
+ * Distribution of the values assigned to the generated nodes and links
+ * (e.g. bandwidth and delay of the links).</br>
+ * Values are drawn from the random generator given by the caller,
+ * so a seeded generator produces always the same values.
+*/
+public interface ValueDistribution
+{
+    /**
+     * Returns the next value of the distribution.
+     * 
+     * @param random    the random generator.
+    */
+    public double next( Random random );
+    
+    /**
+     * Returns always the same value.
+    */
+    public static ValueDistribution constant( double value ) {
+        return random -> value;
+    }
+    
+    /**
+     * Returns values uniformly distributed in {@code [min, max)}.
+    */
+    public static ValueDistribution uniform( double min, double max ) {
+        return random -> min + random.nextDouble() * (max - min);
+    }
+    
+    /**
+     * Returns values exponentially distributed, with the given mean.
+    */
+    public static ValueDistribution exponential( double mean ) {
+        return random -> -mean * Math.log( 1 - random.nextDouble() );
+    }
+    
+    /**
+     * Returns values normally distributed, never less than zero.
+    */
+    public static ValueDistribution normal( double mean, double deviation ) {
+        return random -> Math.max( 0, mean + random.nextGaussian() * deviation );
+    }
+    
+    /**
+     * Returns one of the given values, each one with the same probability.
+    */
+    public static ValueDistribution choice( double... values ) {
+        return random -> values[random.nextInt( values.length )];
+    }
+}
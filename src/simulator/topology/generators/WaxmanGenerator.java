@@ -0,0 +1,90 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.topology.generators;
+
+import simulator.exception.SimulatorException;
+
+/**
+ * Generator of Waxman random networks.</br>
+ * Nodes are placed uniformly at random in a square, and each pair of nodes at distance d
+ * is connected with probability {@code beta * exp(-d / (alpha * L))},
+ * where L is the maximum distance between two nodes.
+ * The delay of the links can be proportional to their length
+ * (see {@linkplain #setDelayPerUnit(double)}).</br>
+ * The generation takes O(n^2) time, and the network is not guaranteed to be connected.
+*/
+public class WaxmanGenerator extends TopologyGenerator
+{
+    private final int nodes;
+    private final double alpha;
+    private final double beta;
+    private int side = 1000;
+    private double delayPerUnit = 0;
+    
+    
+    
+    /**
+     * Creates the generator.
+     * 
+     * @param nodes    number of nodes.
+     * @param alpha    ratio of long links to short ones, in (0,1].
+     * @param beta     density of the links, in (0,1].
+    */
+    public WaxmanGenerator( int nodes, double alpha, double beta )
+    {
+        if (nodes < 1 || alpha <= 0 || alpha > 1 || beta <= 0 || beta > 1) {
+            throw new SimulatorException( "Invalid Waxman network: " + nodes + " nodes, alpha " + alpha + ", beta " + beta + "." );
+        }
+        this.nodes = nodes;
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+    
+    /**
+     * Sets the side of the square where the nodes are placed (1000 by default).
+    */
+    public WaxmanGenerator setSide( int side )
+    {
+        this.side = side;
+        return this;
+    }
+    
+    /**
+     * Sets the delay of the links as their length multiplied by the given value,
+     * in milliseconds, instead of drawing it from the delay distribution.
+    */
+    public WaxmanGenerator setDelayPerUnit( double delayPerUnit )
+    {
+        this.delayPerUnit = delayPerUnit;
+        return this;
+    }
+    
+    @Override
+    protected void build()
+    {
+        long[] ids = new long[nodes];
+        int[] x = new int[nodes];
+        int[] y = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            x[i] = random.nextInt( side );
+            y[i] = random.nextInt( side );
+            ids[i] = addNode( "node" + i, x[i], y[i] );
+        }
+        
+        double scale = alpha * Math.sqrt( 2 ) * side;
+        for (int i = 0; i < nodes; i++) {
+            for (int j = i + 1; j < nodes; j++) {
+                double distance = Math.hypot( x[i] - x[j], y[i] - y[j] );
+                if (random.nextDouble() < beta * Math.exp( -distance / scale )) {
+                    if (delayPerUnit > 0) {
+                        addLink( ids[i], ids[j], Math.round( distance * delayPerUnit ) );
+                    } else {
+                        addLink( ids[i], ids[j] );
+                    }
+                }
+            }
+        }
+    }
+}
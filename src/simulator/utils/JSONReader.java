@@ -0,0 +1,438 @@
+/**
+ * @author Stefano Ceccotti
+*/
+
+package simulator.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser of JSON documents.</br>
+ * The document is read one token at a time, without building it in memory,
+ * so even very large files can be loaded keeping only the objects created by the caller.
+ * <p>
+ * Example:
+ * <pre>
+ * in.beginObject();
+ * while (in.hasNext()) {
+ *     String name = in.nextName();
+ *     if (name.equals( "id" )) id = in.nextLong();
+ *     else in.skipValue();
+ * }
+ * in.endObject();
+ * </pre>
+*/
+public class JSONReader implements Closeable
+{
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT };
+    
+    // States of the open containers.
+    private static final int EMPTY_DOCUMENT    = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT      = 2;
+    private static final int NONEMPTY_OBJECT   = 3;
+    private static final int DANGLING_NAME     = 4;
+    private static final int EMPTY_ARRAY       = 5;
+    private static final int NONEMPTY_ARRAY    = 6;
+    
+    private final Reader reader;
+    private final char[] buffer = new char[1 << 16];
+    private int pos = 0;
+    private int limit = 0;
+    private long line = 1;
+    
+    private int[] stack = new int[32];
+    private int depth = 0;
+    
+    private Token peeked;
+    // Text of the last name, string or number.
+    private final StringBuilder text = new StringBuilder( 64 );
+    private boolean booleanValue;
+    
+    
+    
+    public JSONReader( Reader reader )
+    {
+        this.reader = reader;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+    
+    /**
+     * Returns the type of the next token, without consuming it.
+    */
+    public Token peek() throws IOException
+    {
+        if (peeked != null) {
+            return peeked;
+        }
+        
+        int c;
+        switch (stack[depth - 1]) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                if ((c = nextNonWhitespace()) == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != -1) {
+                    pos--;
+                }
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError( "Expected ',' or ']'" );
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (stack[depth - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError( "Expected ',' or '}'" );
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError( "Expected a name" );
+                }
+                stack[depth - 1] = DANGLING_NAME;
+                readString();
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError( "Expected ':'" );
+                }
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError( "Expected the end of the document" );
+                }
+                return peeked = Token.END_DOCUMENT;
+        }
+        
+        return peeked = readValue();
+    }
+    
+    private Token readValue() throws IOException
+    {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{': return Token.BEGIN_OBJECT;
+            case '[': return Token.BEGIN_ARRAY;
+            case '"':
+                readString();
+                return Token.STRING;
+            case 't':
+            case 'f':
+            case 'n':
+                pos--;
+                String literal = readLiteral();
+                switch (literal) {
+                    case "true":  booleanValue = true;  return Token.BOOLEAN;
+                    case "false": booleanValue = false; return Token.BOOLEAN;
+                    case "null":  return Token.NULL;
+                    default: throw syntaxError( "Unexpected value '" + literal + "'" );
+                }
+            case -1:
+                throw syntaxError( "Unexpected end of the document" );
+            default:
+                pos--;
+                readNumber();
+                return Token.NUMBER;
+        }
+    }
+    
+    private void consume( Token expected ) throws IOException
+    {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError( "Expected " + expected + " but was " + token );
+        }
+        peeked = null;
+    }
+    
+    private void push( int state )
+    {
+        if (depth == stack.length) {
+            int[] newStack = new int[depth << 1];
+            System.arraycopy( stack, 0, newStack, 0, depth );
+            stack = newStack;
+        }
+        stack[depth++] = state;
+    }
+    
+    public void beginObject() throws IOException
+    {
+        consume( Token.BEGIN_OBJECT );
+        push( EMPTY_OBJECT );
+    }
+    
+    public void endObject() throws IOException
+    {
+        consume( Token.END_OBJECT );
+        depth--;
+    }
+    
+    public void beginArray() throws IOException
+    {
+        consume( Token.BEGIN_ARRAY );
+        push( EMPTY_ARRAY );
+    }
+    
+    public void endArray() throws IOException
+    {
+        consume( Token.END_ARRAY );
+        depth--;
+    }
+    
+    /**
+     * Checks whether the current object or array has another element.
+    */
+    public boolean hasNext() throws IOException
+    {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+    
+    public String nextName() throws IOException
+    {
+        consume( Token.NAME );
+        return text.toString();
+    }
+    
+    /**
+     * Returns the next string, or the text of the next number.
+    */
+    public String nextString() throws IOException
+    {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER) {
+            throw syntaxError( "Expected a string but was " + token );
+        }
+        peeked = null;
+        return text.toString();
+    }
+    
+    public boolean nextBoolean() throws IOException
+    {
+        consume( Token.BOOLEAN );
+        return booleanValue;
+    }
+    
+    /**
+     * Returns the next number, that can also be written as a string.
+    */
+    public long nextLong() throws IOException
+    {
+        Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw syntaxError( "Expected a number but was " + token );
+        }
+        peeked = null;
+        
+        // Fast path for the numbers that can't overflow.
+        int length = text.length();
+        int start = (length > 0 && text.charAt( 0 ) == '-') ? 1 : 0;
+        if (length > start && length - start <= 18) {
+            long value = 0;
+            int i = start;
+            for (; i < length; i++) {
+                char c = text.charAt( i );
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (i == length) {
+                return (start == 1) ? -value : value;
+            }
+        }
+        
+        String number = text.toString();
+        try {
+            return Long.parseLong( number );
+        } catch ( NumberFormatException e ) {
+            try {
+                return (long) Double.parseDouble( number );
+            } catch ( NumberFormatException e1 ) {
+                throw syntaxError( "Invalid number '" + number + "'" );
+            }
+        }
+    }
+    
+    public int nextInt() throws IOException {
+        return (int) nextLong();
+    }
+    
+    /**
+     * Returns the next number, that can also be written as a string.
+    */
+    public double nextDouble() throws IOException
+    {
+        try {
+            return Double.parseDouble( nextString() );
+        } catch ( NumberFormatException e ) {
+            throw syntaxError( "Invalid number '" + text + "'" );
+        }
+    }
+    
+    public void nextNull() throws IOException {
+        consume( Token.NULL );
+    }
+    
+    /**
+     * Skips the next value, with all its elements.
+    */
+    public void skipValue() throws IOException
+    {
+        int level = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT: beginObject(); level++; break;
+                case BEGIN_ARRAY:  beginArray();  level++; break;
+                case END_OBJECT:   endObject();   level--; break;
+                case END_ARRAY:    endArray();    level--; break;
+                case END_DOCUMENT: throw syntaxError( "Unexpected end of the document" );
+                default: peeked = null; break;
+            }
+        } while (level > 0);
+    }
+    
+    private boolean fill() throws IOException
+    {
+        limit = reader.read( buffer, 0, buffer.length );
+        pos = 0;
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+    
+    private int read() throws IOException
+    {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+    
+    private int nextNonWhitespace() throws IOException
+    {
+        while (true) {
+            int c = read();
+            switch (c) {
+                case '\n': line++; break;
+                case ' ':
+                case '\r':
+                case '\t': break;
+                default: return c;
+            }
+        }
+    }
+    
+    private void readString() throws IOException
+    {
+        text.setLength( 0 );
+        while (true) {
+            // Copies the characters in blocks, up to the next quote or escape.
+            int start = pos;
+            while (pos < limit && buffer[pos] != '"' && buffer[pos] != '\\') {
+                if (buffer[pos] == '\n') line++;
+                pos++;
+            }
+            text.append( buffer, start, pos - start );
+            
+            int c = read();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                text.append( readEscape() );
+            } else if (c == -1) {
+                throw syntaxError( "Unterminated string" );
+            } else {
+                pos--;
+            }
+        }
+    }
+    
+    private char readEscape() throws IOException
+    {
+        int c = read();
+        switch (c) {
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit( read(), 16 );
+                    if (digit < 0) {
+                        throw syntaxError( "Invalid unicode escape" );
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError( "Invalid escape sequence" );
+        }
+    }
+    
+    private void readNumber() throws IOException
+    {
+        text.setLength( 0 );
+        for (int c = read(); c != -1; c = read()) {
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                text.append( (char) c );
+            } else {
+                pos--;
+                break;
+            }
+        }
+        if (text.length() == 0) {
+            throw syntaxError( "Unexpected character" );
+        }
+    }
+    
+    private String readLiteral() throws IOException
+    {
+        StringBuilder literal = new StringBuilder( 5 );
+        for (int c = read(); c != -1; c = read()) {
+            if (c >= 'a' && c <= 'z') {
+                literal.append( (char) c );
+            } else {
+                pos--;
+                break;
+            }
+        }
+        return literal.toString();
+    }
+    
+    private IOException syntaxError( String message ) {
+        return new IOException( message + " at line " + line + "." );
+    }
+    
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -4,11 +4,25 @@
 
 package simulator.utils;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-public class Sampler
+import simulator.core.StateSaving;
+import simulator.core.checkpoint.CheckpointReader;
+import simulator.core.checkpoint.CheckpointWriter;
+import simulator.core.checkpoint.Checkpointable;
+
+public class Sampler implements StateSaving, Checkpointable
 {
     private final List<Pair<Double,Double>> values;
     private final List<Long> elements;
@@ -16,6 +30,17 @@ public class Sampler
     private double totalResult = 0;
     private String logFile;
     private Sampling mode;
+    // Index of the first value modified since the last time the values have been written.
+    private int firstModified = 0;
+    // Number of values written into the log file, and the position of each line in the file.
+    private int writtenValues = 0;
+    private long[] lineOffsets = new long[1];
+    
+    // Undo log of the modifications, kept only while some state is saved.
+    private ArrayDeque<Undo> journal = null;
+    // Position of the first entry of the journal, since its creation.
+    private long journalStart = 0;
+    private int savedStates = 0;
     
     /**
      * Types of sampling mode.
@@ -110,9 +135,9 @@ public class Sampler
         Pair<Double,Double> currentInterval = values.get( values.size() - 1 );
         // Check for the interval position.
         while (nextInterval <= time) {
-            elements.add( 1L );
+            addElement( 1L );
             currentInterval = new Pair<>( nextInterval, valueUnit * interval );
-            values.add( currentInterval );
+            addValue( currentInterval );
             nextInterval += interval;
         }
         
@@ -150,13 +175,13 @@ public class Sampler
         if (interval <= 0) {
             double nextInterval = (values.size() == 0) ? 0 : values.get( values.size() - 1 ).getFirst();
             // Add the value in a single bucket.
-            elements.add( 1L );
+            addElement( 1L );
             if (endTime >= nextInterval) {
-                values.add( new Pair<>( endTime, value ) );
+                addValue( new Pair<>( endTime, value ) );
             } else {
                 for (int i = values.size() - 1; i >= 0; i--) {
                     if (endTime >= values.get( i ).getFirst()) {
-                        values.add( i, new Pair<>( endTime, value ) );
+                        addValue( i, new Pair<>( endTime, value ) );
                         break;
                     }
                 }
@@ -174,14 +199,14 @@ public class Sampler
             
             if (endTime < nextInterval) {
                 // Same interval.
-                elements.set( elements.size()-1, 1L );
-                currentInterval.setSecond( value );
+                setElement( elements.size()-1, 1L );
+                setValue( currentInterval, value );
             } else {
                 // Different intervals.
-                currentInterval.setSecond( valueUnit * (nextInterval - startTime) ); // Start time contribution.
+                setValue( currentInterval, valueUnit * (nextInterval - startTime) ); // Start time contribution.
                 currentInterval = scanInterval( nextInterval, endTime, valueUnit );
                 nextInterval = currentInterval.getFirst();
-                currentInterval.setSecond( valueUnit * (endTime - nextInterval) );
+                setValue( currentInterval, valueUnit * (endTime - nextInterval) );
             }
         } else {
             // Find the position of the start and end time.
@@ -189,39 +214,39 @@ public class Sampler
             if (startTime >= prevInterval) {
                 if (endTime < nextInterval) {
                     // Same current interval.
-                    elements.set( elements.size()-1, elements.get( elements.size()-1 ) + 1L );
+                    setElement( elements.size()-1, elements.get( elements.size()-1 ) + 1L );
                     double currValue = currentInterval.getSecond();
-                    currentInterval.setSecond( insertSampledValue( currValue, value, elements.get( elements.size()-1 ) ) );
+                    setValue( currentInterval, insertSampledValue( currValue, value, elements.get( elements.size()-1 ) ) );
                 } else {
                     // Different intervals.
                     double currValue = currentInterval.getSecond();
-                    currentInterval.setSecond( insertSampledValue( currValue, valueUnit * (nextInterval - startTime),
+                    setValue( currentInterval, insertSampledValue( currValue, valueUnit * (nextInterval - startTime),
                                                                    elements.get( elements.size()-1 ) ) );
                     
                     currentInterval = scanInterval( nextInterval, endTime, valueUnit );
                     nextInterval = currentInterval.getFirst() + interval;
-                    elements.set( elements.size()-1, 1L );
-                    currentInterval.setSecond( valueUnit * (endTime - (nextInterval - interval)) );
+                    setElement( elements.size()-1, 1L );
+                    setValue( currentInterval, valueUnit * (endTime - (nextInterval - interval)) );
                 }
             } else {
                 // Start before this interval.
                 boolean addEnd = true;
                 if (endTime < nextInterval) {
                     if (endTime >= prevInterval) {
-                        elements.set( elements.size()-1, 1L );
+                        setElement( elements.size()-1, 1L );
                         double currValue = currentInterval.getSecond();
-                        currentInterval.setSecond( insertSampledValue( currValue, valueUnit * (endTime - prevInterval),
+                        setValue( currentInterval, insertSampledValue( currValue, valueUnit * (endTime - prevInterval),
                                                                        elements.get( elements.size()-1 ) ) );
                         addEnd = false;
                     }
                 } else {
                     double currValue = currentInterval.getSecond();
-                    currentInterval.setSecond( insertSampledValue( currValue, valueUnit * interval, elements.get( elements.size()-1 ) ) );
+                    setValue( currentInterval, insertSampledValue( currValue, valueUnit * interval, elements.get( elements.size()-1 ) ) );
                     
                     currentInterval = scanInterval( nextInterval, endTime, valueUnit );
                     nextInterval = currentInterval.getFirst() + interval;
-                    elements.set( elements.size()-1, 1L );
-                    currentInterval.setSecond( valueUnit * (endTime - (nextInterval - interval)) );
+                    setElement( elements.size()-1, 1L );
+                    setValue( currentInterval, valueUnit * (endTime - (nextInterval - interval)) );
                     addEnd = false;
                 }
                 
@@ -237,11 +262,11 @@ public class Sampler
                             double currValue = startInterval.getSecond();
                             if (addEnd) {
                                 // Same interval.
-                                elements.set( index, elements.get( index ) + 1L );
-                                startInterval.setSecond( insertSampledValue( currValue, value, elements.get( index ) ) );
+                                setElement( index, elements.get( index ) + 1L );
+                                setValue( index, startInterval, insertSampledValue( currValue, value, elements.get( index ) ) );
                             } else {
                                 // Founded start interval.
-                                startInterval.setSecond( currValue + valueUnit * (succInterval - startTime) );
+                                setValue( index, startInterval, currValue + valueUnit * (succInterval - startTime) );
                             }
                             break;
                         } else {
@@ -249,12 +274,12 @@ public class Sampler
                             if (addEnd) {
                                 // Add the energy of (endTime - previous interval).
                                 addEnd = false;
-                                elements.set( index, elements.get( index ) + 1L );
+                                setElement( index, elements.get( index ) + 1L );
                                 double currValue = endInterval.getSecond();
-                                endInterval.setSecond( insertSampledValue( currValue, valueUnit * (endTime - prevInterval), elements.get( index ) ) );
+                                setValue( index, endInterval, insertSampledValue( currValue, valueUnit * (endTime - prevInterval), elements.get( index ) ) );
                             } else {
                                 double currValue = startInterval.getSecond();
-                                startInterval.setSecond( insertSampledValue( currValue, valueUnit * interval, elements.get( index ) ) );
+                                setValue( index, startInterval, insertSampledValue( currValue, valueUnit * interval, elements.get( index ) ) );
                             }
                         }
                     }
@@ -272,6 +297,171 @@ public class Sampler
         totalResult += value;
     }
     
+    private void addValue( Pair<Double,Double> value ) {
+        addValue( values.size(), value );
+    }
+    
+    private void addValue( int index, Pair<Double,Double> value )
+    {
+        values.add( index, value );
+        setModified( index );
+        if (journal != null) {
+            journal.add( new Undo( Undo.ADD_VALUE, null, index, 0 ) );
+        }
+    }
+    
+    /**
+     * Sets the value of the last interval.
+    */
+    private void setValue( Pair<Double,Double> interval, double value ) {
+        setValue( values.size() - 1, interval, value );
+    }
+    
+    private void setValue( int index, Pair<Double,Double> interval, double value )
+    {
+        if (journal != null) {
+            journal.add( new Undo( Undo.SET_VALUE, interval, index, interval.getSecond() ) );
+        }
+        interval.setSecond( value );
+        setModified( index );
+    }
+    
+    private void setModified( int index ) {
+        firstModified = Math.min( firstModified, index );
+    }
+    
+    private void addElement( long value )
+    {
+        elements.add( value );
+        if (journal != null) {
+            journal.add( new Undo( Undo.ADD_ELEMENT, null, elements.size() - 1, 0 ) );
+        }
+    }
+    
+    private void setElement( int index, long value )
+    {
+        long old = elements.set( index, value );
+        if (journal != null) {
+            journal.add( new Undo( Undo.SET_ELEMENT, null, index, old ) );
+        }
+    }
+    
+    /**
+     * Saves the current state of the sampler.</br>
+     * Only the subsequent modifications are recorded,
+     * until the state is either restored or discarded.
+    */
+    @Override
+    public Object saveState()
+    {
+        if (journal == null) {
+            journal = new ArrayDeque<>();
+        }
+        savedStates++;
+        return new Mark( journalStart + journal.size(), totalResult );
+    }
+    
+    @Override
+    public void restoreState( Object state )
+    {
+        Mark mark = (Mark) state;
+        while (journalStart + journal.size() > mark.position) {
+            Undo undo = journal.pollLast();
+            switch (undo.type) {
+                case Undo.ADD_VALUE:   values.remove( undo.index ); setModified( undo.index ); break;
+                case Undo.SET_VALUE:   undo.interval.setSecond( undo.value ); setModified( undo.index ); break;
+                case Undo.ADD_ELEMENT: elements.remove( undo.index ); break;
+                case Undo.SET_ELEMENT: elements.set( undo.index, (long) undo.value ); break;
+            }
+        }
+        totalResult = mark.totalResult;
+        releaseState();
+    }
+    
+    @Override
+    public void discardState( Object state )
+    {
+        Mark mark = (Mark) state;
+        // The modifications before the discarded state will never be undone.
+        while (journalStart < mark.position && !journal.isEmpty()) {
+            journal.pollFirst();
+            journalStart++;
+        }
+        releaseState();
+    }
+    
+    private void releaseState()
+    {
+        if (--savedStates == 0) {
+            journalStart += journal.size();
+            journal = null;
+        }
+    }
+    
+    private static class Mark
+    {
+        private final long position;
+        private final double totalResult;
+        
+        public Mark( long position, double totalResult )
+        {
+            this.position = position;
+            this.totalResult = totalResult;
+        }
+    }
+    
+    private static class Undo
+    {
+        private static final int ADD_VALUE   = 0;
+        private static final int SET_VALUE   = 1;
+        private static final int ADD_ELEMENT = 2;
+        private static final int SET_ELEMENT = 3;
+        
+        private final int type;
+        private final Pair<Double,Double> interval;
+        private final int index;
+        private final double value;
+        
+        public Undo( int type, Pair<Double,Double> interval, int index, double value )
+        {
+            this.type = type;
+            this.interval = interval;
+            this.index = index;
+            this.value = value;
+        }
+    }
+    
+    /**
+     * Writes the collected buckets.
+    */
+    @Override
+    public void writeCheckpoint( CheckpointWriter out ) throws IOException
+    {
+        out.writeDouble( totalResult );
+        out.writeInt( values.size() );
+        for (Pair<Double,Double> value : values) {
+            out.writeDouble( value.getFirst() );
+            out.writeDouble( value.getSecond() );
+        }
+        out.writeInt( elements.size() );
+        for (long element : elements) {
+            out.writeLong( element );
+        }
+    }
+    
+    @Override
+    public void readCheckpoint( CheckpointReader in ) throws IOException
+    {
+        reset();
+        totalResult = in.readDouble();
+        for (int i = in.readInt(); i > 0; i--) {
+            values.add( new Pair<>( in.readDouble(), in.readDouble() ) );
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            elements.add( in.readLong() );
+        }
+    }
+    
     public List<Pair<Double,Double>> getValues() {
         return values;
     }
@@ -284,6 +474,45 @@ public class Sampler
         return logFile;
     }
     
+    /**
+     * Writes the collected values into the log file, if any.</br>
+     * Only the values modified since the last time are written: the file is truncated
+     * to the line of the first modified value, and the following values are appended.
+     * Since a new value is usually added to the last interval, only its line is written again,
+     * so the results can be flushed periodically while the simulation is running
+     * (see {@linkplain simulator.core.Simulator#runUntil(Time)}).
+     * 
+     * @throws IOException if the file can't be written.
+    */
+    public void writeLog() throws IOException
+    {
+        if (logFile == null || firstModified == Integer.MAX_VALUE) {
+            return;
+        }
+        
+        int from = Math.min( firstModified, writtenValues );
+        if (lineOffsets.length <= values.size()) {
+            lineOffsets = Arrays.copyOf( lineOffsets, Math.max( lineOffsets.length * 2, values.size() + 1 ) );
+        }
+        
+        try (FileChannel channel = FileChannel.open( Paths.get( logFile ), StandardOpenOption.CREATE, StandardOpenOption.WRITE )) {
+            long offset = lineOffsets[from];
+            channel.truncate( offset );
+            channel.position( offset );
+            try (OutputStream out = new BufferedOutputStream( Channels.newOutputStream( channel ) )) {
+                for (int i = from; i < values.size(); i++) {
+                    Pair<Double,Double> point = values.get( i );
+                    byte[] line = (point.getFirst() + " " + point.getSecond() + System.lineSeparator()).getBytes( StandardCharsets.UTF_8 );
+                    out.write( line );
+                    offset += line.length;
+                    lineOffsets[i+1] = offset;
+                }
+            }
+        }
+        writtenValues = values.size();
+        firstModified = Integer.MAX_VALUE;
+    }
+    
     /**
      * Resets the sampler.
     */
@@ -292,5 +521,8 @@ public class Sampler
         values.clear();
         elements.clear();
         totalResult = 0;
+        firstModified = 0;
+        journal = null;
+        savedStates = 0;
     }
 }
@@ -72,27 +72,27 @@ public class Time implements Comparable<Time>
         this.unit = unit;
     }
     
-    public Long getTimeMicros() {
+    public long getTimeMicros() {
         return time;
     }
     
-    public Long getTimeMillis() {
+    public long getTimeMillis() {
         return time / 1000L;
     }
     
-    public Long getTimeSeconds() {
+    public long getTimeSeconds() {
         return time / 1000000L;
     }
     
-    public Long getTimeMinutes() {
+    public long getTimeMinutes() {
         return time / 60000000L;
     }
     
-    public Long getTimeHours() {
+    public long getTimeHours() {
         return time / 3600000000L;
     }
     
-    public Long getTimeDays() {
+    public long getTimeDays() {
         return time / 86400000000L;
     }
     
@@ -122,7 +122,7 @@ public class Time implements Comparable<Time>
     
     @Override
     public int compareTo( Time o ) {
-        return getTimeMicros().compareTo( o.getTimeMicros() ); 
+        return Long.compare( time, o.time );
     }
     
     /**